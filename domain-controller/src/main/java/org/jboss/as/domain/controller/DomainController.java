@@ -22,13 +22,20 @@
 
 package org.jboss.as.domain.controller;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import org.jboss.as.model.AbstractDomainModelUpdate;
 import org.jboss.as.model.DomainModel;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
 import org.jboss.as.model.ParseResult;
+import org.jboss.as.model.UpdateFailedException;
 import org.jboss.logging.Logger;
 import org.jboss.msc.inject.Injector;
 import org.jboss.msc.service.Service;
@@ -52,11 +59,13 @@ public class DomainController implements Service<DomainController> {
     private static final Logger log = Logger.getLogger("org.jboss.as.domain.controller");
     public static final ServiceName SERVICE_NAME = ServiceName.JBOSS.append("domain", "controller");
     private DomainModel domainModel;
+    private DomainModelChangeLog changeLog;
     private final ConcurrentMap<String, DomainControllerClient> clients = new ConcurrentHashMap<String, DomainControllerClient>();
     private final InjectedValue<XMLMapper> xmlMapper = new InjectedValue<XMLMapper>();
     private final InjectedValue<File> domainConfigDir = new InjectedValue<File>();
     private final InjectedValue<ScheduledExecutorService> scheduledExecutorService = new InjectedValue<ScheduledExecutorService>();
     private ScheduledFuture<?> pollingFuture;
+    private ExecutorService updatePushExecutor;
 
     /**
      * Start the domain controller with configuration.  This will launch required service for the domain controller.
@@ -66,6 +75,15 @@ public class DomainController implements Service<DomainController> {
 
         log.info("Parsing Domain Configuration");
         domainModel = parseDomain(xmlMapper.getValue(), domainConfigDir.getValue());
+        changeLog = new DomainModelChangeLog();
+        // A single thread, so each client receives the updates in version order
+        updatePushExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Domain Model Update Push");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         pollingFuture = scheduledExecutorService.getValue().scheduleAtFixedRate(new Runnable() {
             public void run() {
                 for(DomainControllerClient client : clients.values()) {
@@ -83,9 +101,14 @@ public class DomainController implements Service<DomainController> {
     public synchronized void stop(final StopContext stopContext) {
         log.info("Stopping Domain Controller");
         domainModel = null;
+        changeLog = null;
         if(pollingFuture != null) {
             pollingFuture.cancel(true);
         }
+        if(updatePushExecutor != null) {
+            updatePushExecutor.shutdown();
+            updatePushExecutor = null;
+        }
     }
 
     public DomainController getValue() throws IllegalStateException {
@@ -108,6 +131,73 @@ public class DomainController implements Service<DomainController> {
         return domainModel;
     }
 
+    /**
+     * Get the log of updates applied to the domain model.  The domain model version it reports is only consistent
+     * with {@link #getDomainModel()} while holding the lock on this domain controller.
+     *
+     * @return The change log
+     */
+    public synchronized DomainModelChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Apply a list of updates to the domain model.  Each successfully applied update is recorded in the change log
+     * and the applied updates are then pushed to all registered clients.  The updates are pushed from another thread,
+     * so a slow client holds up neither the caller nor clients registering in the meantime.
+     *
+     * @param updates The updates to apply
+     * @return A list of response objects to reflect the result of each update applied.
+     */
+    public List<ModelUpdateResponse<?>> applyUpdates(final List<AbstractDomainModelUpdate<?>> updates) {
+        final List<ModelUpdateResponse<?>> responses = new ArrayList<ModelUpdateResponse<?>>(updates.size());
+        final List<AbstractDomainModelUpdate<?>> applied = new ArrayList<AbstractDomainModelUpdate<?>>(updates.size());
+        final List<DomainControllerClient> pushClients;
+        final String changeLogId;
+        final long version;
+        final ExecutorService executor;
+        synchronized (this) {
+            long appliedVersion = changeLog.getVersion();
+            for(AbstractDomainModelUpdate<?> update : updates) {
+                final ModelUpdateResponse<?> response = applyUpdate(update);
+                if(response.isSuccess()) {
+                    applied.add(update);
+                    appliedVersion = changeLog.record(update);
+                }
+                responses.add(response);
+            }
+            if(applied.isEmpty()) {
+                return responses;
+            }
+            // Clients registering after this point get the updates on registration
+            pushClients = new ArrayList<DomainControllerClient>(clients.values());
+            changeLogId = changeLog.getId();
+            version = appliedVersion;
+            executor = updatePushExecutor;
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                for(DomainControllerClient client : pushClients) {
+                    try {
+                        client.updateDomainModel(applied, changeLogId, version);
+                    } catch (Exception e) {
+                        log.warnf(e, "Failed to push domain model updates to Server Manager [%s]", client.getId());
+                    }
+                }
+            }
+        });
+        return responses;
+    }
+
+    private <R> ModelUpdateResponse<R> applyUpdate(final AbstractDomainModelUpdate<R> update) {
+        try {
+            domainModel.update(update);
+            return ModelUpdateResponse.applied();
+        } catch (UpdateFailedException e) {
+            return new ModelUpdateResponse<R>(e);
+        }
+    }
+
     private DomainModel parseDomain(final XMLMapper mapper,  final File domainConfigDir) {
         final File domainXML = new File(domainConfigDir, "domain.xml");
         if (!domainXML.exists()) {
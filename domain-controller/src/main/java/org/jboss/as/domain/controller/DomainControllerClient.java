@@ -67,7 +67,9 @@ public interface DomainControllerClient {
      * Update the client with a list of domain model updates.
      *
      * @param updates The updates to process
+     * @param changeLogId The id of the domain controller change log which recorded the updates
+     * @param version The domain model version once all the updates are applied
      * @return A list of response objects to reflect the result of each update executed.
      */
-    List<ModelUpdateResponse<?>> updateDomainModel(List<AbstractDomainModelUpdate<?>> updates);
+    List<ModelUpdateResponse<?>> updateDomainModel(List<AbstractDomainModelUpdate<?>> updates, String changeLogId, long version);
 }
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.domain.controller;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import org.jboss.as.model.AbstractDomainModelUpdate;
+
+/**
+ * Versioned log of the most recent updates applied to the domain model by the domain controller.  Each applied update
+ * increments the domain model version, which allows a server manager that already holds the domain model at a known
+ * version to be brought up to date with only the updates it is missing.  Only the last {@code maxEntries} updates are
+ * retained; a server manager whose version is older than that, or unknown to this log, has to be sent the full domain
+ * model instead.
+ * <p/>
+ * The log is held in memory only, so it only brings server managers up to date which reconnect to the same domain
+ * controller instance, for example after a network failure or a restart of the server manager.  Each instance is
+ * identified by a random id, so versions recorded against a previous domain controller instance are never mistaken for
+ * versions of this one.  After the domain controller restarts, every registering server manager is sent the full
+ * domain model, unless the domain model it holds is unchanged.
+ */
+public class DomainModelChangeLog {
+
+    /* The default maximum number of updates retained */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final String id = UUID.randomUUID().toString();
+    private final int maxEntries;
+    private final LinkedList<AbstractDomainModelUpdate<?>> entries = new LinkedList<AbstractDomainModelUpdate<?>>();
+    private long version;
+
+    /**
+     * Create a change log retaining the default maximum number of updates.
+     */
+    public DomainModelChangeLog() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create a change log.
+     *
+     * @param maxEntries The maximum number of updates retained
+     */
+    public DomainModelChangeLog(final int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries is negative");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the id of this change log.
+     *
+     * @return The id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the current domain model version.
+     *
+     * @return The version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Record an update which has been applied to the domain model.
+     *
+     * @param update The applied update
+     * @return The domain model version after the update
+     */
+    public synchronized long record(final AbstractDomainModelUpdate<?> update) {
+        entries.add(update);
+        if (entries.size() > maxEntries) {
+            entries.removeFirst();
+        }
+        return ++version;
+    }
+
+    /**
+     * Get the updates applied to the domain model after a given version.
+     *
+     * @param id The id of the change log the version was recorded against
+     * @param version The version
+     * @return The updates in the order they were applied, or {@code null} if the version is not known to this change
+     *         log or the updates are no longer retained
+     */
+    public synchronized List<AbstractDomainModelUpdate<?>> getUpdatesSince(final String id, final long version) {
+        if (!this.id.equals(id) || version < this.version - entries.size() || version > this.version) {
+            return null;
+        }
+        final int skip = entries.size() - (int) (this.version - version);
+        return new ArrayList<AbstractDomainModelUpdate<?>>(entries.subList(skip, entries.size()));
+    }
+}
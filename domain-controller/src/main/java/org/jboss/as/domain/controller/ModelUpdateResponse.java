@@ -48,6 +48,18 @@ public class ModelUpdateResponse<R> implements Serializable {
         this.updateException = null;
     }
 
+    /**
+     * Create an instance for an update which was applied to the domain model.  Applying an update to the domain model
+     * produces no result of its own, results are only produced once the corresponding server model update is applied
+     * to a running server.
+     *
+     * @param <R> the type of result that is returned by this update type
+     * @return The response
+     */
+    public static <R> ModelUpdateResponse<R> applied() {
+        return new ModelUpdateResponse<R>((R) null);
+    }
+
     /**
      * Create an instance with an {@link org.jboss.as.model.UpdateFailedException} to allow the client to know
      * the update failed.
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.domain.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jboss.as.model.AbstractDomainModelUpdate;
+import org.jboss.as.model.ServerGroupAdd;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link DomainModelChangeLog} lookups used to bring a registering server manager up to date.
+ */
+public class DomainModelChangeLogTestCase {
+
+    @Test
+    public void testVersionIncrements() {
+        final DomainModelChangeLog changeLog = new DomainModelChangeLog();
+        assertEquals(0L, changeLog.getVersion());
+        assertEquals(1L, changeLog.record(update(1)));
+        assertEquals(2L, changeLog.record(update(2)));
+        assertEquals(2L, changeLog.getVersion());
+    }
+
+    @Test
+    public void testUpdatesSince() {
+        final DomainModelChangeLog changeLog = new DomainModelChangeLog();
+        final List<AbstractDomainModelUpdate<?>> updates = record(changeLog, 5);
+
+        assertEquals(updates, changeLog.getUpdatesSince(changeLog.getId(), 0L));
+        final List<AbstractDomainModelUpdate<?>> since = changeLog.getUpdatesSince(changeLog.getId(), 3L);
+        assertEquals(2, since.size());
+        assertSame(updates.get(3), since.get(0));
+        assertSame(updates.get(4), since.get(1));
+        // Up to date
+        assertTrue(changeLog.getUpdatesSince(changeLog.getId(), 5L).isEmpty());
+    }
+
+    @Test
+    public void testEvictedVersionsRequireFullDomainModel() {
+        final DomainModelChangeLog changeLog = new DomainModelChangeLog(3);
+        final List<AbstractDomainModelUpdate<?>> updates = record(changeLog, 5);
+
+        // Only the updates after version 2 are retained
+        assertNull(changeLog.getUpdatesSince(changeLog.getId(), 0L));
+        assertNull(changeLog.getUpdatesSince(changeLog.getId(), 1L));
+        assertEquals(updates.subList(2, 5), changeLog.getUpdatesSince(changeLog.getId(), 2L));
+        assertEquals(updates.subList(4, 5), changeLog.getUpdatesSince(changeLog.getId(), 4L));
+    }
+
+    @Test
+    public void testUnknownVersionsRequireFullDomainModel() {
+        final DomainModelChangeLog changeLog = new DomainModelChangeLog();
+        record(changeLog, 2);
+
+        // Recorded by another domain controller instance
+        assertNull(changeLog.getUpdatesSince(new DomainModelChangeLog().getId(), 1L));
+        // Newer than this change log
+        assertNull(changeLog.getUpdatesSince(changeLog.getId(), 3L));
+    }
+
+    @Test
+    public void testNoRetainedUpdates() {
+        final DomainModelChangeLog changeLog = new DomainModelChangeLog(0);
+        record(changeLog, 2);
+
+        assertNull(changeLog.getUpdatesSince(changeLog.getId(), 1L));
+        assertTrue(changeLog.getUpdatesSince(changeLog.getId(), 2L).isEmpty());
+    }
+
+    private static List<AbstractDomainModelUpdate<?>> record(final DomainModelChangeLog changeLog, final int count) {
+        final List<AbstractDomainModelUpdate<?>> updates = new ArrayList<AbstractDomainModelUpdate<?>>(count);
+        for (int i = 0; i < count; i++) {
+            final AbstractDomainModelUpdate<?> update = update(i);
+            changeLog.record(update);
+            updates.add(update);
+        }
+        return updates;
+    }
+
+    private static AbstractDomainModelUpdate<?> update(final int index) {
+        return new ServerGroupAdd("group" + index, "profile", null);
+    }
+}
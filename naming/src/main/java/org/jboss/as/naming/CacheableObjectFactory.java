@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.spi.ObjectFactory;
+
+/**
+ * Marker for an {@code ObjectFactory} whose result for a given reference does not change for as long as the reference
+ * stays bound.  When a reference resolved by such a factory is looked up by a {@code NamingContext}, the resolved object
+ * is kept in the naming store's lookup cache and returned for later lookups of the same name until the store changes.
+ * <p/>
+ * Factories which return a new instance on every call, or whose result depends on the calling thread, must not
+ * implement this interface.
+ */
+public interface CacheableObjectFactory extends ObjectFactory {
+}
@@ -0,0 +1,529 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.Binding;
+import javax.naming.CannotProceedException;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.spi.ResolveResult;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.jboss.as.naming.util.NamingUtils.asReference;
+import static org.jboss.as.naming.util.NamingUtils.cannotProceedException;
+import static org.jboss.as.naming.util.NamingUtils.emptyName;
+import static org.jboss.as.naming.util.NamingUtils.emptyNameException;
+import static org.jboss.as.naming.util.NamingUtils.getLastComponent;
+import static org.jboss.as.naming.util.NamingUtils.isEmpty;
+import static org.jboss.as.naming.util.NamingUtils.isLastComponentEmpty;
+import static org.jboss.as.naming.util.NamingUtils.nameAlreadyBoundException;
+import static org.jboss.as.naming.util.NamingUtils.nameNotFoundException;
+import static org.jboss.as.naming.util.NamingUtils.notAContextException;
+
+/**
+ * In-memory implementation of the NamingStore which is optimized for a large number of concurrent writers.  Like
+ * {@code InMemoryNamingStore} the entries are kept in a tree of context nodes and binding nodes, but each context node
+ * keeps its children in a {@code ConcurrentSkipListMap}.  Bind, rebind and unbind operations therefore update a single
+ * map entry without copying the sibling entries or taking a context wide lock, lookups never block, and the children
+ * stay sorted by name so a page of a listing is found without looking at the bindings before it.
+ */
+public class ConcurrentNamingStore implements NamingStore {
+
+    /* The root node of the tree.  Represents a JNDI name of "" */
+    private final ContextNode root = new ContextNode(emptyName(), null);
+
+    /* Naming Event Coordinator */
+    private final NamingEventCoordinator eventCoordinator;
+
+    /* Cache of resolved lookups, invalidated on every change to the tree */
+    private final NamingLookupCache lookupCache = new NamingLookupCache();
+
+    /**
+     * Construct instance with no event support.
+     */
+    public ConcurrentNamingStore() {
+        this(null);
+    }
+
+    /**
+     * Construct instance with an event coordinator.
+     *
+     * @param eventCoordinator The event coordinator
+     */
+    public ConcurrentNamingStore(final NamingEventCoordinator eventCoordinator) {
+        this.eventCoordinator = eventCoordinator;
+    }
+
+    /**
+     * Bind an entry into the tree.  This will create a binding node in the tree for the provided named object.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @param object The entry object
+     * @param className The entry class name
+     * @throws NamingException
+     */
+    public void bind(final Context callingContext, final Name name, final Object object, final String className) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.BIND);
+        final ContextNode parent = findParentContext(name);
+        final String childName = getLastComponent(name);
+        final Binding binding = new Binding(childName, className, object, true);
+        if (parent.children.putIfAbsent(childName, new TreeNode(name, binding)) != null) {
+            throw nameAlreadyBoundException(name);
+        }
+        lookupCache.invalidate(name);
+        fireEvent(callingContext, name, null, binding, NamingEvent.OBJECT_ADDED, "bind");
+    }
+
+    /**
+     * Replace an existing entry in the tree.  This will create a new binding node in the tree and no longer store
+     * the previous value.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @param object The entry object
+     * @param className The entry class name
+     * @throws NamingException
+     */
+    public void rebind(final Context callingContext, final Name name, final Object object, final String className) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.REBIND);
+        final ContextNode parent = findParentContext(name);
+        final String childName = getLastComponent(name);
+        final Binding binding = new Binding(childName, className, object, true);
+        final TreeNode previous = parent.children.put(childName, new TreeNode(name, binding));
+        lookupCache.invalidate(name);
+
+        final Binding previousBinding = previous != null ? previous.binding : null;
+        fireEvent(callingContext, name, previousBinding, binding, previousBinding != null ? NamingEvent.OBJECT_CHANGED : NamingEvent.OBJECT_ADDED, "rebind");
+    }
+
+    /**
+     * Unbind the entry in the provided location.  This will remove the node in the tree and no longer manage it.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @throws NamingException
+     */
+    public void unbind(final Context callingContext, final Name name) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.UNBIND);
+        final ContextNode parent = findParentContext(name);
+        final String childName = getLastComponent(name);
+        final TreeNode previous = parent.children.remove(childName);
+        if (previous == null) {
+            throw nameNotFoundException(childName, parent.fullName);
+        }
+        lookupCache.invalidate(name);
+        fireEvent(callingContext, name, previous.binding, null, NamingEvent.OBJECT_REMOVED, "unbind");
+    }
+
+    /**
+     * Apply a batch of binds, rebinds and sub-context creations.  The operations are applied in order directly to the
+     * concurrent children maps.  If any operation fails, the operations already applied are rolled back in reverse
+     * order before the failure is thrown, so a failed batch leaves the tree as it found it.  Concurrent readers may
+     * observe a partially applied batch.
+     *
+     * @param callingContext The calling context
+     * @param batch The batch
+     * @throws NamingException If any operation in the batch fails
+     */
+    public void applyBatch(final Context callingContext, final NamingBatch batch) throws NamingException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (NamingBatch.Operation operation : batch.getOperations()) {
+            if (isLastComponentEmpty(operation.getName())) {
+                throw emptyNameException();
+            }
+            checkPermissions(operation.getName(), operation.getType().getPermission());
+        }
+        final List<AppliedOperation> applied = new ArrayList<AppliedOperation>(batch.getOperations().size());
+        try {
+            for (NamingBatch.Operation operation : batch.getOperations()) {
+                applied.add(apply(operation));
+            }
+        } catch (NamingException e) {
+            rollback(applied);
+            throw e;
+        } finally {
+            lookupCache.invalidate(batch.getNames());
+        }
+
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null && callingContext instanceof EventContext) {
+            final List<NamingEventCoordinator.BatchedEvent> events = new ArrayList<NamingEventCoordinator.BatchedEvent>(applied.size());
+            for (AppliedOperation operation : applied) {
+                final Binding previousBinding = operation.previous != null ? operation.previous.binding : null;
+                final int type = previousBinding != null ? NamingEvent.OBJECT_CHANGED : NamingEvent.OBJECT_ADDED;
+                events.add(new NamingEventCoordinator.BatchedEvent(operation.node.fullName, previousBinding, operation.node.binding, type, operation.type.getChangeInfo()));
+            }
+            coordinator.fireEvents(EventContext.class.cast(callingContext), events, NamingEventCoordinator.DEFAULT_SCOPES);
+        }
+    }
+
+    private AppliedOperation apply(final NamingBatch.Operation operation) throws NamingException {
+        final Name name = operation.getName();
+        final ContextNode parent = findParentContext(name);
+        final String childName = getLastComponent(name);
+        switch (operation.getType()) {
+            case BIND: {
+                final TreeNode node = new TreeNode(name, new Binding(childName, operation.getClassName(), operation.getObject(), true));
+                if (parent.children.putIfAbsent(childName, node) != null) {
+                    throw nameAlreadyBoundException(name);
+                }
+                return new AppliedOperation(operation.getType(), parent, childName, node, null);
+            }
+            case REBIND: {
+                final TreeNode node = new TreeNode(name, new Binding(childName, operation.getClassName(), operation.getObject(), true));
+                final TreeNode previous = parent.children.put(childName, node);
+                return new AppliedOperation(operation.getType(), parent, childName, node, previous);
+            }
+            case CREATE_SUBCONTEXT: {
+                final ContextNode node = new ContextNode(name, new NamingContext(name, this, new Hashtable<String, Object>()));
+                if (parent.children.putIfAbsent(childName, node) != null) {
+                    throw nameAlreadyBoundException(name);
+                }
+                return new AppliedOperation(operation.getType(), parent, childName, node, null);
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported batch operation " + operation.getType());
+        }
+    }
+
+    private void rollback(final List<AppliedOperation> applied) {
+        for (int i = applied.size() - 1; i >= 0; i--) {
+            final AppliedOperation operation = applied.get(i);
+            // Only undo the change if no other writer has replaced the node in the meantime
+            if (operation.previous == null) {
+                operation.parent.children.remove(operation.childName, operation.node);
+            } else {
+                operation.parent.children.replace(operation.childName, operation.node, operation.previous);
+            }
+        }
+    }
+
+    /**
+     * Lookup the object value of a binding node in the tree.
+     *
+     * @param name The entry name
+     * @return The object value of the binding
+     * @throws NamingException
+     */
+    public Object lookup(final Name name) throws NamingException {
+        if (isEmpty(name)) {
+            final Name emptyName = new CompositeName("");
+            checkPermissions(emptyName, JndiPermission.Action.LOOKUP);
+            return new NamingContext(emptyName, this, new Hashtable<String, Object>());
+        }
+        checkPermissions(name, JndiPermission.Action.LOOKUP);
+        final int size = name.size();
+        final TreeNode node = traverse(name, size);
+        if (isIntermediate(node, name, size)) {
+            final Name remainingName = name.getSuffix(node.fullName.size());
+            final Object boundObject = node.binding.getObject();
+            checkReferenceForContinuation(remainingName, boundObject);
+            return new ResolveResult(boundObject, remainingName);
+        }
+        return node.binding.getObject();
+    }
+
+    /**
+     * List all NameClassPair instances at a given location in the tree.
+     *
+     * @param name The entry name
+     * @return The NameClassPair instances
+     * @throws NamingException
+     */
+    public List<NameClassPair> list(final Name name) throws NamingException {
+        final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+        checkPermissions(nodeName, JndiPermission.Action.LIST);
+        final ContextNode contextNode = findContext(nodeName);
+        final List<NameClassPair> nameClassPairs = new ArrayList<NameClassPair>();
+        for (TreeNode childNode : contextNode.children.values()) {
+            final Binding binding = childNode.binding;
+            nameClassPairs.add(new NameClassPair(binding.getName(), binding.getClassName(), true));
+        }
+        return nameClassPairs;
+    }
+
+    /**
+     * List all the Binding instances at a given location in the tree.
+     *
+     * @param name The entry name
+     * @return The Binding instances
+     * @throws NamingException
+     */
+    public List<Binding> listBindings(final Name name) throws NamingException {
+        final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+        checkPermissions(nodeName, JndiPermission.Action.LIST_BINDINGS);
+        final ContextNode contextNode = findContext(nodeName);
+        final List<Binding> bindings = new ArrayList<Binding>();
+        for (TreeNode childNode : contextNode.children.values()) {
+            bindings.add(childNode.binding);
+        }
+        return bindings;
+    }
+
+    /**
+     * List a page of the Binding instances at a given location in the tree, in ascending order of their names.
+     *
+     * @param name The entry name
+     * @param after The name of the binding to list after, or {@code null} to start with the first binding
+     * @param maxResults The maximum number of bindings to list
+     * @return The Binding instances
+     * @throws NamingException
+     */
+    public List<Binding> listBindings(final Name name, final String after, final int maxResults) throws NamingException {
+        final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+        checkPermissions(nodeName, JndiPermission.Action.LIST_BINDINGS);
+        final ContextNode contextNode = findContext(nodeName);
+        final List<Binding> bindings = new ArrayList<Binding>();
+        for (TreeNode childNode : (after == null ? contextNode.children : contextNode.children.tailMap(after, false)).values()) {
+            if (bindings.size() >= maxResults) {
+                break;
+            }
+            bindings.add(childNode.binding);
+        }
+        return bindings;
+    }
+
+    /**
+     * Create a context node at the give location in the tree.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @return The new context
+     * @throws NamingException
+     */
+    public Context createSubcontext(final Context callingContext, final Name name) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.CREATE_SUBCONTEXT);
+        final ContextNode parent = findParentContext(name);
+        final NamingContext subContext = new NamingContext(name, this, new Hashtable<String, Object>());
+        final ContextNode subContextNode = new ContextNode(name, subContext);
+        if (parent.children.putIfAbsent(getLastComponent(name), subContextNode) != null) {
+            throw nameAlreadyBoundException(name);
+        }
+        lookupCache.invalidate(name);
+        fireEvent(callingContext, name, null, subContextNode.binding, NamingEvent.OBJECT_ADDED, "createSubcontext");
+        return subContext;
+    }
+
+    /**
+     * Get the lookup cache of this store.
+     *
+     * @return The lookup cache
+     */
+    public NamingLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * Get the event coordinator of this store.
+     *
+     * @return The event coordinator, or {@code null} if the store has no event support
+     */
+    public NamingEventCoordinator getEventCoordinator() {
+        return eventCoordinator;
+    }
+
+    /**
+     * Close the store.  This will clear all children from the root node.
+     *
+     * @throws NamingException
+     */
+    public void close() throws NamingException {
+        root.children.clear();
+        lookupCache.invalidate();
+    }
+
+    /**
+     * Add a {@code NamingListener} to the naming event coordinator.
+     *
+     * @param target The target name to add the listener to
+     * @param scope The listener scope
+     * @param listener The listener
+     */
+    public void addNamingListener(final Name target, final int scope, final NamingListener listener) {
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null) {
+            coordinator.addListener(target.toString(), scope, listener);
+        }
+    }
+
+    /**
+     * Remove a {@code NamingListener} from the naming event coordinator.
+     *
+     * @param listener The listener
+     */
+    public void removeNamingListener(final NamingListener listener) {
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null) {
+            coordinator.removeListener(listener);
+        }
+    }
+
+    /**
+     * Walk the tree along the first {@code size} components of the name.  The walk stops early if a binding node is
+     * found before all components have been consumed, in which case that binding node is returned.  A trailing empty
+     * component refers to the context it follows.
+     *
+     * @param name The name to walk
+     * @param size The number of name components to walk
+     * @return The node found
+     * @throws NamingException If any of the components can not be found
+     */
+    private TreeNode traverse(final Name name, final int size) throws NamingException {
+        TreeNode current = root;
+        for (int i = 0; i < size; i++) {
+            final String childName = name.get(i);
+            if (i == size - 1 && childName.length() == 0) {
+                break;
+            }
+            if (!(current instanceof ContextNode)) {
+                break;
+            }
+            final TreeNode next = ContextNode.class.cast(current).children.get(childName);
+            if (next == null) {
+                throw nameNotFoundException(childName, name.getPrefix(size).getSuffix(i + 1));
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * Determine whether a node returned by {@link #traverse(Name, int)} is a binding found before the end of the name.
+     */
+    private boolean isIntermediate(final TreeNode node, final Name name, final int size) {
+        if (node instanceof ContextNode) {
+            return false;
+        }
+        final int effectiveSize = size > 0 && name.get(size - 1).length() == 0 ? size - 1 : size;
+        return node.fullName.size() < effectiveSize;
+    }
+
+    private ContextNode findParentContext(final Name name) throws NamingException {
+        final int parentSize = name.size() - 1;
+        final TreeNode node = traverse(name, parentSize);
+        if (node instanceof ContextNode) {
+            return ContextNode.class.cast(node);
+        }
+        final Object object = node.binding.getObject();
+        if (isIntermediate(node, name, parentSize)) {
+            checkReferenceForContinuation(name.getPrefix(parentSize).getSuffix(node.fullName.size()), object);
+            throw notAContextException(node.fullName);
+        }
+        checkReferenceForContinuation(name.getSuffix(node.fullName.size()), object);
+        throw notAContextException(name);
+    }
+
+    private ContextNode findContext(final Name name) throws NamingException {
+        final int size = name.size();
+        final TreeNode node = traverse(name, size);
+        if (node instanceof ContextNode) {
+            return ContextNode.class.cast(node);
+        }
+        final Object object = node.binding.getObject();
+        if (isIntermediate(node, name, size)) {
+            checkReferenceForContinuation(name.getSuffix(node.fullName.size()), object);
+            throw notAContextException(node.fullName);
+        }
+        checkReferenceForContinuation(emptyName(), object);
+        throw notAContextException(name);
+    }
+
+    private void fireEvent(final Context callingContext, final Name name, final Binding existingBinding, final Binding newBinding, final int type, final String changeInfo) {
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null && callingContext instanceof EventContext) {
+            coordinator.fireEvent(EventContext.class.cast(callingContext), name, existingBinding, newBinding, type, changeInfo, NamingEventCoordinator.DEFAULT_SCOPES);
+        }
+    }
+
+    private void checkReferenceForContinuation(final Name name, final Object object) throws CannotProceedException {
+        if (object instanceof Reference) {
+            if (asReference(object).get("nns") != null) {
+                throw cannotProceedException(object, name);
+            }
+        }
+    }
+
+    private void checkPermissions(final Name name, JndiPermission.Action permission) {
+        JndiPermissionChecker.checkPermission(name, permission);
+    }
+
+    private static class AppliedOperation {
+        private final NamingBatch.OperationType type;
+        private final ContextNode parent;
+        private final String childName;
+        private final TreeNode node;
+        private final TreeNode previous;
+
+        private AppliedOperation(final NamingBatch.OperationType type, final ContextNode parent, final String childName, final TreeNode node, final TreeNode previous) {
+            this.type = type;
+            this.parent = parent;
+            this.childName = childName;
+            this.node = node;
+            this.previous = previous;
+        }
+    }
+
+    private static class TreeNode {
+        protected final Name fullName;
+        protected final Binding binding;
+
+        private TreeNode(final Name fullName, final Binding binding) {
+            this.fullName = fullName;
+            this.binding = binding;
+        }
+    }
+
+    private static final class ContextNode extends TreeNode {
+        private final ConcurrentNavigableMap<String, TreeNode> children = new ConcurrentSkipListMap<String, TreeNode>();
+
+        private ContextNode(final Name fullName, final NamingContext context) {
+            super(fullName, new Binding(getLastComponent(fullName), Context.class.getName(), context));
+        }
+    }
+}
@@ -22,7 +22,6 @@
 
 package org.jboss.as.naming;
 
-import org.jboss.as.naming.util.FastCopyHashMap;
 
 import javax.naming.Binding;
 import javax.naming.CannotProceedException;
@@ -39,9 +38,13 @@ import javax.naming.event.NamingListener;
 import javax.naming.spi.ResolveResult;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 import static org.jboss.as.naming.util.NamingUtils.asReference;
 import static org.jboss.as.naming.util.NamingUtils.cannotProceedException;
@@ -57,7 +60,8 @@ import static org.jboss.as.naming.util.NamingUtils.notAContextException;
 /**
  * In-memory implementation of the NamingStore.  The backing for the entries is a basic tree structure with either context
  * nodes or binding nodes.  The context nodes are allowed to have children and can be represented by a NamingContext.  A
- * binding node is only allowed to have a normal object binding.
+ * binding node is only allowed to have a normal object binding.  The children of each context are kept sorted by name,
+ * so a page of a listing is found without looking at the bindings before it.
  *
  * @author John E. Bailey
  */
@@ -66,12 +70,12 @@ public class InMemoryNamingStore implements NamingStore {
     /* The root node of the tree.  Represents a JNDI name of "" */
     private final ContextNode root = new ContextNode(emptyName(), null);
 
-    /* Cached security namanger */
-    private transient SecurityManager securityManager;
-
     /* Naming Event Coordinator */
     private final NamingEventCoordinator eventCoordinator;
 
+    /* Cache of resolved lookups, invalidated on every change to the tree */
+    private final NamingLookupCache lookupCache = new NamingLookupCache();
+
     /**
      * Construct instance with no event support.
      */
@@ -103,6 +107,7 @@ public class InMemoryNamingStore implements NamingStore {
         }
         checkPermissions(name, JndiPermission.Action.BIND);
         root.accept(new BindVisitor(callingContext, name, object, className));
+        lookupCache.invalidate(name);
     }
 
     /**
@@ -121,6 +126,7 @@ public class InMemoryNamingStore implements NamingStore {
         }
         checkPermissions(name, JndiPermission.Action.REBIND);
         root.accept(new RebindVisitor(callingContext, name, object, className));
+        lookupCache.invalidate(name);
     }
 
     /**
@@ -136,6 +142,40 @@ public class InMemoryNamingStore implements NamingStore {
         }
         checkPermissions(name, JndiPermission.Action.UNBIND);
         root.accept(new UnbindVisitor(callingContext, name));
+        lookupCache.invalidate(name);
+    }
+
+    /**
+     * Apply a batch of binds, rebinds and sub-context creations.  The changes to each touched context are staged in a
+     * single copy of its children and validated before anything is published, so each context is copied once no
+     * matter how many entries the batch adds to it and a failed batch leaves the tree unchanged.  The staged copies
+     * are then published while holding the locks of all touched contexts.  If another writer changed one of those
+     * contexts in the meantime the batch is staged again.
+     *
+     * @param callingContext The calling context
+     * @param batch The batch
+     * @throws NamingException If any operation in the batch fails
+     */
+    public void applyBatch(final Context callingContext, final NamingBatch batch) throws NamingException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (NamingBatch.Operation operation : batch.getOperations()) {
+            if (isLastComponentEmpty(operation.getName())) {
+                throw emptyNameException();
+            }
+            checkPermissions(operation.getName(), operation.getType().getPermission());
+        }
+        BatchStage stage;
+        do {
+            stage = new BatchStage(batch);
+        } while (!stage.publish());
+        lookupCache.invalidate(batch.getNames());
+
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null && callingContext instanceof EventContext) {
+            coordinator.fireEvents(EventContext.class.cast(callingContext), stage.events, NamingEventCoordinator.DEFAULT_SCOPES);
+        }
     }
 
     /**
@@ -181,6 +221,21 @@ public class InMemoryNamingStore implements NamingStore {
         return root.accept(new ListBindingsVisitor(name));
     }
 
+    /**
+     * List a page of the Binding instances at a given location in the tree, in ascending order of their names.
+     *
+     * @param name The entry name
+     * @param after The name of the binding to list after, or {@code null} to start with the first binding
+     * @param maxResults The maximum number of bindings to list
+     * @return The Binding instances
+     * @throws NamingException
+     */
+    public List<Binding> listBindings(final Name name, final String after, final int maxResults) throws NamingException {
+        final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+        checkPermissions(nodeName, JndiPermission.Action.LIST_BINDINGS);
+        return root.accept(new ListBindingsVisitor(name, after, maxResults));
+    }
+
     /**
      * Create a context node at the give location in the tree.
      *
@@ -194,7 +249,27 @@ public class InMemoryNamingStore implements NamingStore {
             throw emptyNameException();
         }
         checkPermissions(name, JndiPermission.Action.CREATE_SUBCONTEXT);
-        return root.accept(new CreateSubContextVisitor(callingContext, name));
+        final Context subContext = root.accept(new CreateSubContextVisitor(callingContext, name));
+        lookupCache.invalidate(name);
+        return subContext;
+    }
+
+    /**
+     * Get the lookup cache of this store.
+     *
+     * @return The lookup cache
+     */
+    public NamingLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * Get the event coordinator of this store.
+     *
+     * @return The event coordinator, or {@code null} if the store has no event support
+     */
+    public NamingEventCoordinator getEventCoordinator() {
+        return eventCoordinator;
     }
 
     /**
@@ -204,6 +279,7 @@ public class InMemoryNamingStore implements NamingStore {
      */
     public void close() throws NamingException {
         root.clear();
+        lookupCache.invalidate();
     }
 
     /**
@@ -248,11 +324,128 @@ public class InMemoryNamingStore implements NamingStore {
     }
 
     private void checkPermissions(final Name name, JndiPermission.Action permission) {
-        if (securityManager == null)
-            securityManager = System.getSecurityManager();
+        JndiPermissionChecker.checkPermission(name, permission);
+    }
+
+    /* Orders context nodes by name, giving batches a consistent lock order */
+    private static final Comparator<ContextNode> CONTEXT_ORDER = new Comparator<ContextNode>() {
+        public int compare(final ContextNode first, final ContextNode second) {
+            return first.fullName.toString().compareTo(second.fullName.toString());
+        }
+    };
+
+    /**
+     * The staged changes of a batch.  Each touched context gets one copy of its children map which receives all the
+     * changes the batch makes to that context.
+     */
+    private final class BatchStage {
+        private final Map<ContextNode, NavigableMap<String, TreeNode>> staged = new IdentityHashMap<ContextNode, NavigableMap<String, TreeNode>>();
+        private final Map<ContextNode, NavigableMap<String, TreeNode>> originals = new IdentityHashMap<ContextNode, NavigableMap<String, TreeNode>>();
+        private final List<NamingEventCoordinator.BatchedEvent> events = new ArrayList<NamingEventCoordinator.BatchedEvent>();
+
+        private BatchStage(final NamingBatch batch) throws NamingException {
+            for (NamingBatch.Operation operation : batch.getOperations()) {
+                final Name name = operation.getName();
+                final String childName = getLastComponent(name);
+                final ContextNode parent = findParentContext(name);
+                switch (operation.getType()) {
+                    case BIND: {
+                        if (children(parent).containsKey(childName)) {
+                            throw nameAlreadyBoundException(name);
+                        }
+                        final Binding binding = new Binding(childName, operation.getClassName(), operation.getObject(), true);
+                        stagedChildren(parent).put(childName, new BindingNode(name, binding));
+                        addEvent(name, null, binding, NamingEvent.OBJECT_ADDED, operation);
+                        break;
+                    }
+                    case REBIND: {
+                        final Binding binding = new Binding(childName, operation.getClassName(), operation.getObject(), true);
+                        final TreeNode previous = stagedChildren(parent).put(childName, new BindingNode(name, binding));
+                        final Binding previousBinding = previous != null ? previous.binding : null;
+                        addEvent(name, previousBinding, binding, previousBinding != null ? NamingEvent.OBJECT_CHANGED : NamingEvent.OBJECT_ADDED, operation);
+                        break;
+                    }
+                    case CREATE_SUBCONTEXT: {
+                        if (children(parent).containsKey(childName)) {
+                            throw nameAlreadyBoundException(name);
+                        }
+                        final NamingContext subContext = new NamingContext(name, InMemoryNamingStore.this, new Hashtable<String, Object>());
+                        final ContextNode subContextNode = new ContextNode(name, subContext);
+                        stagedChildren(parent).put(childName, subContextNode);
+                        addEvent(name, null, subContextNode.binding, NamingEvent.OBJECT_ADDED, operation);
+                        break;
+                    }
+                }
+            }
+        }
 
-        if (securityManager != null) {
-            securityManager.checkPermission(new JndiPermission(name, permission));
+        private void addEvent(final Name name, final Binding existingBinding, final Binding newBinding, final int type, final NamingBatch.Operation operation) {
+            events.add(new NamingEventCoordinator.BatchedEvent(name, existingBinding, newBinding, type, operation.getType().getChangeInfo()));
+        }
+
+        private Map<String, TreeNode> children(final ContextNode contextNode) {
+            final Map<String, TreeNode> children = staged.get(contextNode);
+            return children != null ? children : contextNode.children;
+        }
+
+        private Map<String, TreeNode> stagedChildren(final ContextNode contextNode) {
+            NavigableMap<String, TreeNode> children = staged.get(contextNode);
+            if (children == null) {
+                final NavigableMap<String, TreeNode> original = contextNode.children;
+                children = new TreeMap<String, TreeNode>(original);
+                originals.put(contextNode, original);
+                staged.put(contextNode, children);
+            }
+            return children;
+        }
+
+        private ContextNode findParentContext(final Name name) throws NamingException {
+            final int parentSize = name.size() - 1;
+            TreeNode current = root;
+            for (int i = 0; i < parentSize; i++) {
+                if (!(current instanceof ContextNode)) {
+                    throw notAContextException(current.fullName);
+                }
+                final String childName = name.get(i);
+                final TreeNode next = children(ContextNode.class.cast(current)).get(childName);
+                if (next == null) {
+                    throw nameNotFoundException(childName, name.getPrefix(parentSize).getSuffix(i + 1));
+                }
+                current = next;
+            }
+            if (!(current instanceof ContextNode)) {
+                throw notAContextException(name);
+            }
+            return ContextNode.class.cast(current);
+        }
+
+        /**
+         * Publish the staged children maps.
+         *
+         * @return {@code true} if the maps were published, {@code false} if a touched context changed since staging
+         */
+        private boolean publish() {
+            final List<ContextNode> contextNodes = new ArrayList<ContextNode>(staged.keySet());
+            Collections.sort(contextNodes, CONTEXT_ORDER);
+            return publish(contextNodes, 0);
+        }
+
+        private boolean publish(final List<ContextNode> contextNodes, final int index) {
+            if (index < contextNodes.size()) {
+                final ContextNode contextNode = contextNodes.get(index);
+                synchronized (contextNode) {
+                    return publish(contextNodes, index + 1);
+                }
+            }
+            for (ContextNode contextNode : contextNodes) {
+                if (contextNode.children != originals.get(contextNode)) {
+                    return false;
+                }
+            }
+            for (ContextNode contextNode : contextNodes) {
+                contextNode.children = staged.get(contextNode);
+            }
+            return true;
         }
     }
 
@@ -269,7 +462,7 @@ public class InMemoryNamingStore implements NamingStore {
     }
 
     private class ContextNode extends TreeNode {
-        private volatile Map<String, TreeNode> children = Collections.emptyMap();
+        private volatile NavigableMap<String, TreeNode> children = new TreeMap<String, TreeNode>();
 
         private ContextNode(final Name fullName, final NamingContext context) {
             super(fullName, new Binding(getLastComponent(fullName), Context.class.getName(), context));
@@ -279,13 +472,13 @@ public class InMemoryNamingStore implements NamingStore {
             if (children.containsKey(childName)) {
                 throw nameAlreadyBoundException(fullName.add(childName));
             }
-            final Map<String, TreeNode> copy = new FastCopyHashMap<String, TreeNode>(children);
+            final NavigableMap<String, TreeNode> copy = new TreeMap<String, TreeNode>(children);
             copy.put(childName, childNode);
             children = copy;
         }
 
         private synchronized TreeNode replaceChild(final String childName, final TreeNode childNode) throws NamingException {
-            final Map<String, TreeNode> copy = new FastCopyHashMap<String, TreeNode>(children);
+            final NavigableMap<String, TreeNode> copy = new TreeMap<String, TreeNode>(children);
             final TreeNode existing = copy.put(childName, childNode);
             children = copy;
             return existing;
@@ -295,14 +488,14 @@ public class InMemoryNamingStore implements NamingStore {
             if (!children.containsKey(childName)) {
                 throw nameNotFoundException(childName, fullName);
             }
-            final Map<String, TreeNode> copy = new FastCopyHashMap<String, TreeNode>(children);
+            final NavigableMap<String, TreeNode> copy = new TreeMap<String, TreeNode>(children);
             final TreeNode existing = copy.remove(childName);
             children = copy;
             return existing;
         }
 
         private synchronized void clear() {
-            final Map<String, TreeNode> copy = new FastCopyHashMap<String, TreeNode>(children);
+            final NavigableMap<String, TreeNode> copy = new TreeMap<String, TreeNode>(children);
             copy.clear();
             children = copy;
         }
@@ -508,13 +701,26 @@ public class InMemoryNamingStore implements NamingStore {
     }
 
     private final class ListBindingsVisitor extends NodeTraversingVisitor<List<Binding>> {
+        private final String after;
+        private final int maxResults;
+
         private ListBindingsVisitor(final Name targetName) {
+            this(targetName, null, Integer.MAX_VALUE);
+        }
+
+        private ListBindingsVisitor(final Name targetName, final String after, final int maxResults) {
             super(targetName);
+            this.after = after;
+            this.maxResults = maxResults;
         }
 
         protected List<Binding> found(final ContextNode contextNode) throws NamingException {
-            final List<Binding> bindings = new ArrayList<Binding>();
-            for (TreeNode childNode : contextNode.children.values()) {
+            final NavigableMap<String, TreeNode> children = contextNode.children;
+            final List<Binding> bindings = new ArrayList<Binding>(Math.min(children.size(), maxResults));
+            for (TreeNode childNode : (after == null ? children : children.tailMap(after, false)).values()) {
+                if (bindings.size() >= maxResults) {
+                    break;
+                }
                 bindings.add(childNode.binding);
             }
             return bindings;
@@ -31,8 +31,15 @@ import java.security.Permission;
 import java.security.PermissionCollection;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class represents access to a path in the JNDI tree. A JndiPermission
@@ -144,6 +151,23 @@ public final class JndiPermission extends Permission
 
     private transient String cpath;
 
+    /* The maximum number of interned permissions held per action */
+    static final int MAX_INTERNED = 4096;
+
+    /* Interned single action permissions, keyed by action then name */
+    private static final Map<Action, ConcurrentMap<Name, Interned>> INTERNED;
+
+    /* Set while a thread evicts interned permissions */
+    private static final AtomicBoolean EVICTING = new AtomicBoolean();
+
+    static {
+        final Map<Action, ConcurrentMap<Name, Interned>> interned = new EnumMap<Action, ConcurrentMap<Name, Interned>>(Action.class);
+        for (Action action : Action.values()) {
+            interned.put(action, new ConcurrentHashMap<Name, Interned>());
+        }
+        INTERNED = interned;
+    }
+
     // static Strings used by init(int mask)
     private static final char RECURSIVE_CHAR = '-';
 
@@ -231,6 +255,77 @@ public final class JndiPermission extends Permission
         this(path.toString(), actions);
     }
 
+    /**
+     * Get a permission for a single action on a name.  Permissions for frequently checked names are interned, which
+     * saves the naming stores creating a new permission, and converting the name to a string, for every operation.
+     * Once more than {@value #MAX_INTERNED} permissions are interned for an action, permissions which were not asked
+     * for since the last eviction pass are dropped, so names which are no longer used do not stay interned.
+     *
+     * @param path the name
+     * @param action the action
+     * @return the permission
+     */
+    public static JndiPermission getInstance(final Name path, final Action action) {
+        final ConcurrentMap<Name, Interned> interned = INTERNED.get(action);
+        Interned entry = interned.get(path);
+        if (entry != null) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.permission;
+        }
+        entry = new Interned(new JndiPermission(path, action));
+        // Names are mutable, so intern under a copy
+        final Interned existing = interned.putIfAbsent((Name) path.clone(), entry);
+        if (existing != null) {
+            return existing.permission;
+        }
+        if (interned.size() > MAX_INTERNED) {
+            evict(interned);
+        }
+        return entry.permission;
+    }
+
+    static int getInternedCount(final Action action) {
+        return INTERNED.get(action).size();
+    }
+
+    private static void evict(final ConcurrentMap<Name, Interned> interned) {
+        if (!EVICTING.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // The second pass evicts permissions whose referenced flag the first pass cleared
+            for (int pass = 0; pass < 2 && interned.size() > MAX_INTERNED; pass++) {
+                final Iterator<Map.Entry<Name, Interned>> iterator = interned.entrySet().iterator();
+                while (iterator.hasNext() && interned.size() > MAX_INTERNED) {
+                    final Map.Entry<Name, Interned> mapEntry = iterator.next();
+                    final Interned entry = mapEntry.getValue();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else {
+                        interned.remove(mapEntry.getKey(), entry);
+                    }
+                }
+            }
+        } finally {
+            EVICTING.set(false);
+        }
+    }
+
+    /**
+     * An interned permission.
+     */
+    private static final class Interned {
+        private final JndiPermission permission;
+        /** Set when the permission is asked for, cleared by eviction passes */
+        private volatile boolean referenced;
+
+        private Interned(final JndiPermission permission) {
+            this.permission = permission;
+        }
+    }
+
     /**
      * Checks if this JndiPermission object "implies" the specified permission.
      * <p/>
@@ -417,6 +512,34 @@ public final class JndiPermission extends Permission
         return mask;
     }
 
+    /**
+     * Return the canonical path.  Used by the JndiPermissionCollection.
+     *
+     * @return the canonical path.
+     */
+    String getCanonicalPath() {
+        return cpath;
+    }
+
+    /**
+     * Return whether this permission is a wildcard or recursive directory permission.  Used by the
+     * JndiPermissionCollection.
+     *
+     * @return true if this is a directory permission.
+     */
+    boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * Return whether this permission is a recursive directory permission.  Used by the JndiPermissionCollection.
+     *
+     * @return true if this is a recursive directory permission.
+     */
+    boolean isRecursive() {
+        return recursive;
+    }
+
     /**
      * Return the canonical string representation of the actions. Always returns
      * present actions in the following order: bind, rebind, unbind, lookup,
@@ -549,6 +672,9 @@ final class JndiPermissionCollection extends PermissionCollection implements
     private static final long serialVersionUID = 1;
     private List<JndiPermission> perms;
 
+    /* The permissions compiled into a tree of path components, rebuilt on demand after a permission is added */
+    private transient volatile PathNode compiled;
+
     /**
      * Create an empty JndiPermissions object.
      */
@@ -576,12 +702,16 @@ final class JndiPermissionCollection extends PermissionCollection implements
 
         synchronized (this) {
             perms.add((JndiPermission) permission);
+            compiled = null;
         }
     }
 
     /**
      * Check and see if this set of permissions implies the permissions expressed
      * in "permission".
+     * <p/>
+     * Permissions for a single path are checked against the compiled tree, which only walks the components of the
+     * path rather than comparing the path with every permission in the collection.
      *
      * @param permission the Permission object to compare
      * @return true if "permission" is a proper subset of a permission in the
@@ -595,6 +725,10 @@ final class JndiPermissionCollection extends PermissionCollection implements
         JndiPermission fp = (JndiPermission) permission;
 
         int desired = fp.getMask();
+        if (!fp.isDirectory()) {
+            return (getCompiled().getEffectiveMask(fp.getCanonicalPath()) & desired) == desired;
+        }
+
         int effective = 0;
         int needed = desired;
 
@@ -624,4 +758,107 @@ final class JndiPermissionCollection extends PermissionCollection implements
         }
     }
 
+    private PathNode getCompiled() {
+        PathNode root = compiled;
+        if (root == null) {
+            synchronized (this) {
+                root = compiled;
+                if (root == null) {
+                    root = new PathNode();
+                    for (JndiPermission permission : perms) {
+                        root.add(permission);
+                    }
+                    compiled = root;
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * A node in the compiled permission tree.  Each node represents the path formed by the components leading to it.
+     * The root node holds the permissions granted on all bindings.
+     */
+    private static final class PathNode {
+        private final Map<String, PathNode> children = new HashMap<String, PathNode>();
+        // actions granted on the path itself
+        private int exactMask;
+        // actions granted on the direct children of the path, "path/*"
+        private int wildMask;
+        // actions granted on all descendants of the path, "path/-"
+        private int recursiveMask;
+
+        private void add(final JndiPermission permission) {
+            final String cpath = permission.getCanonicalPath();
+            if (permission.isDirectory() && cpath.length() == 0) {
+                // <<ALL BINDINGS>>
+                exactMask |= permission.getMask();
+                wildMask |= permission.getMask();
+                recursiveMask |= permission.getMask();
+                return;
+            }
+            if (!permission.isDirectory()) {
+                getNode(cpath, cpath.length()).exactMask |= permission.getMask();
+            } else if (permission.isRecursive()) {
+                getNode(cpath, cpath.length() - 1).recursiveMask |= permission.getMask();
+            } else {
+                getNode(cpath, cpath.length() - 1).wildMask |= permission.getMask();
+            }
+        }
+
+        private PathNode getNode(final String path, final int end) {
+            PathNode node = this;
+            int start = 0;
+            while (true) {
+                int separator = path.indexOf('/', start);
+                if (separator < 0 || separator > end) {
+                    separator = end;
+                }
+                final String component = path.substring(start, separator);
+                PathNode child = node.children.get(component);
+                if (child == null) {
+                    child = new PathNode();
+                    node.children.put(component, child);
+                }
+                node = child;
+                if (separator == end) {
+                    return node;
+                }
+                start = separator + 1;
+            }
+        }
+
+        /**
+         * Get the actions granted on a path which is not a directory specification.
+         *
+         * @param path the canonical path
+         * @return the effective actions mask
+         */
+        private int getEffectiveMask(final String path) {
+            // The root holds <<ALL BINDINGS>>, which implies every path
+            int effective = recursiveMask;
+            PathNode node = this;
+            int start = 0;
+            while (true) {
+                final int separator = path.indexOf('/', start);
+                final boolean last = separator < 0;
+                if (last) {
+                    // "parent/*" implies the last component
+                    if (node != this) {
+                        effective |= node.wildMask;
+                    }
+                }
+                node = node.children.get(last ? path.substring(start) : path.substring(start, separator));
+                if (node == null) {
+                    return effective;
+                }
+                if (last) {
+                    return effective | node.exactMask;
+                }
+                // "path/-" implies everything below path
+                effective |= node.recursiveMask;
+                start = separator + 1;
+            }
+        }
+    }
 }
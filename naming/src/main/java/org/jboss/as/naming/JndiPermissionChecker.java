@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.Name;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.Policy;
+import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs the {@code JndiPermission} checks of the naming stores and contexts.  Permissions are taken from the
+ * interned instances provided by {@link JndiPermission#getInstance(Name, JndiPermission.Action)}.  When the default
+ * {@code SecurityManager} is installed, each thread remembers the permissions granted to the access control context
+ * it last checked, so repeated operations on the same names from the same protection domains skip the policy check.
+ * Only granted permissions are remembered and the remembered grants are discarded as soon as the thread checks a
+ * different context.  A policy refreshed through {@link #refreshPolicy()} discards the remembered grants of all
+ * threads; code refreshing the policy by other means must call {@link #clearDecisionCache()}.
+ */
+public final class JndiPermissionChecker {
+
+    /* The maximum number of granted permissions remembered per thread */
+    private static final int MAX_DECISIONS = 512;
+
+    /* Incremented to discard the decisions cached by all threads */
+    private static final AtomicInteger epoch = new AtomicInteger();
+
+    private static final ThreadLocal<DecisionCache> decisionCache = new ThreadLocal<DecisionCache>() {
+        protected DecisionCache initialValue() {
+            return new DecisionCache();
+        }
+    };
+
+    private JndiPermissionChecker() {
+    }
+
+    /**
+     * Check that the calling code is allowed to perform an action on a name.
+     *
+     * @param name The name
+     * @param action The action
+     * @throws SecurityException If the action is not permitted
+     */
+    static void checkPermission(final Name name, final JndiPermission.Action action) {
+        final SecurityManager securityManager = System.getSecurityManager();
+        if (securityManager == null) {
+            return;
+        }
+        final JndiPermission permission = JndiPermission.getInstance(name, action);
+        if (securityManager.getClass() != SecurityManager.class) {
+            // A custom security manager may decide differently from the access controller, so always ask it
+            securityManager.checkPermission(permission);
+            return;
+        }
+        final AccessControlContext context = AccessController.getContext();
+        final DecisionCache cache = decisionCache.get();
+        if (cache.isGranted(context, permission)) {
+            return;
+        }
+        context.checkPermission(permission);
+        cache.granted(context, permission);
+    }
+
+    /**
+     * Refresh the security policy and discard the decisions cached by all threads.
+     */
+    public static void refreshPolicy() {
+        AccessController.doPrivileged(new PrivilegedAction<Void>() {
+            public Void run() {
+                Policy.getPolicy().refresh();
+                return null;
+            }
+        });
+        clearDecisionCache();
+    }
+
+    /**
+     * Discard the decisions cached by all threads.  Should be called after the security policy is refreshed.
+     */
+    public static void clearDecisionCache() {
+        epoch.incrementAndGet();
+    }
+
+    private static final class DecisionCache {
+        private int cacheEpoch;
+        private AccessControlContext context;
+        private final Set<JndiPermission> grantedPermissions = Collections.newSetFromMap(new IdentityHashMap<JndiPermission, Boolean>());
+
+        private boolean isGranted(final AccessControlContext context, final JndiPermission permission) {
+            if (cacheEpoch != epoch.get() || !context.equals(this.context)) {
+                return false;
+            }
+            return grantedPermissions.contains(permission);
+        }
+
+        private void granted(final AccessControlContext context, final JndiPermission permission) {
+            final int currentEpoch = epoch.get();
+            if (cacheEpoch != currentEpoch || !context.equals(this.context)) {
+                grantedPermissions.clear();
+                this.context = context;
+                cacheEpoch = currentEpoch;
+            }
+            if (grantedPermissions.size() < MAX_DECISIONS) {
+                grantedPermissions.add(permission);
+            }
+        }
+    }
+}
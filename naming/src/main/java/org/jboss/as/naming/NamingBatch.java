@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.Name;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of binds, rebinds and sub-context creations to be applied to a {@code NamingStore} as a single unit.  The
+ * operations are applied in the order they were added, so a sub-context created earlier in the batch can be the
+ * parent of later entries.
+ */
+public final class NamingBatch {
+
+    /**
+     * The type of a batched operation.
+     */
+    public enum OperationType {
+        BIND("bind", JndiPermission.Action.BIND),
+        REBIND("rebind", JndiPermission.Action.REBIND),
+        CREATE_SUBCONTEXT("createSubcontext", JndiPermission.Action.CREATE_SUBCONTEXT),
+        ;
+        private final String changeInfo;
+        private final JndiPermission.Action permission;
+
+        OperationType(final String changeInfo, final JndiPermission.Action permission) {
+            this.changeInfo = changeInfo;
+            this.permission = permission;
+        }
+
+        /**
+         * Get the permission required to perform this type of operation.
+         *
+         * @return The permission action
+         */
+        public JndiPermission.Action getPermission() {
+            return permission;
+        }
+
+        /**
+         * Get the change info used for events fired for this type of operation.
+         *
+         * @return The change info
+         */
+        public String getChangeInfo() {
+            return changeInfo;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<Operation>();
+
+    /**
+     * Add a bind operation to the batch.
+     *
+     * @param name The entry name
+     * @param object The entry object
+     * @param className The entry class name
+     * @return this batch
+     */
+    public NamingBatch bind(final Name name, final Object object, final String className) {
+        operations.add(new Operation(OperationType.BIND, name, object, className));
+        return this;
+    }
+
+    /**
+     * Add a rebind operation to the batch.
+     *
+     * @param name The entry name
+     * @param object The entry object
+     * @param className The entry class name
+     * @return this batch
+     */
+    public NamingBatch rebind(final Name name, final Object object, final String className) {
+        operations.add(new Operation(OperationType.REBIND, name, object, className));
+        return this;
+    }
+
+    /**
+     * Add a sub-context creation to the batch.
+     *
+     * @param name The sub-context name
+     * @return this batch
+     */
+    public NamingBatch createSubcontext(final Name name) {
+        operations.add(new Operation(OperationType.CREATE_SUBCONTEXT, name, null, null));
+        return this;
+    }
+
+    /**
+     * Get the operations in this batch.
+     *
+     * @return The operations in the order they were added
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Get the names of the operations in this batch.
+     *
+     * @return The names in the order the operations were added
+     */
+    List<Name> getNames() {
+        final List<Name> names = new ArrayList<Name>(operations.size());
+        for (Operation operation : operations) {
+            names.add(operation.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Determine whether the batch contains any operations.
+     *
+     * @return {@code true} if the batch is empty
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * A single batched operation.
+     */
+    public static final class Operation {
+        private final OperationType type;
+        private final Name name;
+        private final Object object;
+        private final String className;
+
+        Operation(final OperationType type, final Name name, final Object object, final String className) {
+            if (name == null) {
+                throw new IllegalArgumentException("Name can not be null");
+            }
+            this.type = type;
+            this.name = name;
+            this.object = object;
+            this.className = className;
+        }
+
+        public OperationType getType() {
+            return type;
+        }
+
+        public Name getName() {
+            return name;
+        }
+
+        public Object getObject() {
+            return object;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+    }
+}
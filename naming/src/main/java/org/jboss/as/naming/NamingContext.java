@@ -40,7 +40,10 @@ import javax.naming.Referenceable;
 import javax.naming.event.EventContext;
 import javax.naming.event.NamingListener;
 import javax.naming.spi.NamingManager;
+import javax.naming.spi.ObjectFactory;
 import javax.naming.spi.ResolveResult;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.util.Hashtable;
 
 import static org.jboss.as.naming.util.NamingUtils.asReference;
@@ -75,12 +78,21 @@ public class NamingContext implements EventContext {
     /* The name parser */
     private static final NameParser nameParser = new NameParser();
 
+    /* The object factories used to resolve references */
+    private static final ObjectFactoryCache objectFactoryCache = new ObjectFactoryCache();
+
     /* The naming store providing the back-end storage */
     private final NamingStore namingStore;
 
     /* The name prefix the context represents. */
     private final Name prefix;
 
+    /* The string form of the prefix, used as the lookup cache key */
+    private final String prefixKey;
+
+    /* The lookup cache of the naming store, or null if the store does not cache lookups */
+    private final NamingLookupCache lookupCache;
+
     /* The environment configuration */
     private final Hashtable<String, Object> environment;
 
@@ -120,6 +132,8 @@ public class NamingContext implements EventContext {
             throw new IllegalArgumentException("NamingStore can not be null");
         }
         this.namingStore = namingStore;
+        this.prefixKey = prefix.toString();
+        this.lookupCache = namingStore.getLookupCache();
         if(environment != null) {
             this.environment = NamingUtils.clone(environment);
         } else {
@@ -141,7 +155,62 @@ public class NamingContext implements EventContext {
             final Context continuationContext = NamingManager.getContinuationContext(cpe);
             result = continuationContext.lookup(cpe.getRemainingName());
         }
+        return processLookupResult(result, absoluteName, null);
+    }
 
+    /**
+     * Lookup a string name.  The result of looking up the name in the naming store is cached in the store's lookup
+     * cache, so repeated lookups of the same name do not need to parse the name or walk the store.  If the result is
+     * a reference resolved by a {@link CacheableObjectFactory}, the resolved object is cached as well, and returned by
+     * later lookups with the same context class loader and environment.
+     *
+     * {@inheritDoc}
+     */
+    public Object lookup(final String name) throws NamingException {
+        final NamingLookupCache lookupCache = this.lookupCache;
+        if (lookupCache == null) {
+            return lookup(parseName(name));
+        }
+        final long version = lookupCache.getVersion();
+        final NamingLookupCache.Entry entry = lookupCache.get(prefixKey, name);
+        if (entry != null) {
+            checkLookupPermission(entry.getAbsoluteName());
+            final Object resolvedValue = entry.getResolvedValue(getFactoryClassLoader(), environment);
+            if (resolvedValue != null) {
+                return resolvedValue;
+            }
+            return processLookupResult(entry.getValue(), entry.getAbsoluteName(), entry);
+        }
+
+        final Name parsedName = parseName(name);
+        if (isEmpty(parsedName)) {
+            return new NamingContext(prefix, namingStore, environment);
+        }
+        final Name absoluteName = getAbsoluteName(parsedName);
+        Object result;
+        NamingLookupCache.Entry newEntry = null;
+        try {
+            result = namingStore.lookup(absoluteName);
+            if (!(result instanceof ResolveResult)) {
+                newEntry = lookupCache.put(version, prefixKey, name, absoluteName, result);
+            }
+        } catch(CannotProceedException cpe) {
+            final Context continuationContext = NamingManager.getContinuationContext(cpe);
+            result = continuationContext.lookup(cpe.getRemainingName());
+        }
+        return processLookupResult(result, absoluteName, newEntry);
+    }
+
+    /**
+     * Resolve links and references in the result of a store lookup.
+     *
+     * @param result The object found in the store
+     * @param absoluteName The absolute name looked up
+     * @param entry The lookup cache entry holding the result, or {@code null} if the result is not cached
+     * @return The resolved object
+     * @throws NamingException
+     */
+    private Object processLookupResult(Object result, final Name absoluteName, final NamingLookupCache.Entry entry) throws NamingException {
         if (result instanceof ResolveResult) {
             final ResolveResult resolveResult = cast(result);
             final Object resolvedObject = resolveResult.getResolvedObj();
@@ -160,19 +229,17 @@ public class NamingContext implements EventContext {
         } else if (result instanceof LinkRef) {
             result = resolveLink(result);
         } else if (result instanceof Reference) {
-            result = getObjectInstance(result, absoluteName, environment);
+            final Object reference = result;
+            result = getObjectInstance(reference, absoluteName, environment);
             if (result instanceof LinkRef) {
                 result = resolveLink(result);
+            } else if (entry != null && entry.getValue() == reference && isCacheable(asReference(reference))) {
+                entry.setResolvedValue(result, getFactoryClassLoader(), environment);
             }
         }
         return result;
     }
 
-    /** {@inheritDoc} */
-    public Object lookup(final String name) throws NamingException {
-        return lookup(parseName(name));
-    }
-
     /** {@inheritDoc} */
     public void bind(final Name name, Object object) throws NamingException {
         final Name absoluteName = getAbsoluteName(name);
@@ -224,6 +291,39 @@ public class NamingContext implements EventContext {
         rebind(parseName(name), obj);
     }
 
+    /**
+     * Apply a batch of binds, rebinds and sub-context creations relative to this context as a single store operation.
+     * Objects are converted the same way {@link #bind(Name, Object)} converts them.  Unlike a single bind, names which
+     * resolve through a federated reference are not supported within a batch.
+     *
+     * @param batch The batch with names relative to this context
+     * @throws NamingException If any operation in the batch fails, in which case none of them are applied
+     */
+    public void applyBatch(final NamingBatch batch) throws NamingException {
+        final NamingBatch absoluteBatch = new NamingBatch();
+        for (NamingBatch.Operation operation : batch.getOperations()) {
+            final Name absoluteName = getAbsoluteName(operation.getName());
+            if (operation.getType() == NamingBatch.OperationType.CREATE_SUBCONTEXT) {
+                absoluteBatch.createSubcontext(absoluteName);
+                continue;
+            }
+            Object object = NamingManager.getStateToBind(operation.getObject(), absoluteName, this, environment);
+            if(object instanceof Referenceable) {
+                object = asReferenceable(object).getReference();
+            }
+            String className = object.getClass().getName();
+            if(object instanceof Reference) {
+                className = asReference(object).getClassName();
+            }
+            if (operation.getType() == NamingBatch.OperationType.BIND) {
+                absoluteBatch.bind(absoluteName, object, className);
+            } else {
+                absoluteBatch.rebind(absoluteName, object, className);
+            }
+        }
+        namingStore.applyBatch(this, absoluteBatch);
+    }
+
     /** {@inheritDoc} */
     public void unbind(final Name name) throws NamingException {
         try {
@@ -402,6 +502,11 @@ public class NamingContext implements EventContext {
         return false;
     }
 
+    private void checkLookupPermission(final Name absoluteName) {
+        // Cached lookups bypass the naming store, so the store's permission check has to be repeated here
+        JndiPermissionChecker.checkPermission(absoluteName, JndiPermission.Action.LOOKUP);
+    }
+
     private Name parseName(final String name) throws NamingException {
         return getNameParser(name).parse(name);
     }
@@ -427,6 +532,10 @@ public class NamingContext implements EventContext {
 
     private Object getObjectInstance(final Object object, final Name name, final Hashtable environment) throws NamingException {
         try {
+            final ObjectFactory factory = getObjectFactory(object);
+            if (factory != null) {
+                return factory.getObjectInstance(object, name, this, environment);
+            }
             return NamingManager.getObjectInstance(object, name, this, environment);
         } catch(NamingException e) {
             throw e;
@@ -435,6 +544,52 @@ public class NamingContext implements EventContext {
         }
     }
 
+    /**
+     * Get the cached factory for a reference which names its factory class.  References with a factory class location,
+     * and factory classes which can not be loaded, are left to {@code NamingManager}.
+     *
+     * @param object The object to resolve
+     * @return The factory, or {@code null} if {@code NamingManager} should resolve the object
+     */
+    private ObjectFactory getObjectFactory(final Object object) throws Exception {
+        if (!(object instanceof Reference)) {
+            return null;
+        }
+        final Reference reference = asReference(object);
+        final String factoryClassName = reference.getFactoryClassName();
+        if (factoryClassName == null || reference.getFactoryClassLocation() != null) {
+            return null;
+        }
+        try {
+            return objectFactoryCache.getObjectFactory(factoryClassName, getFactoryClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private boolean isCacheable(final Reference reference) {
+        final String factoryClassName = reference.getFactoryClassName();
+        if (factoryClassName == null || reference.getFactoryClassLocation() != null) {
+            return false;
+        }
+        try {
+            return objectFactoryCache.getObjectFactory(factoryClassName, getFactoryClassLoader()) instanceof CacheableObjectFactory;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static ClassLoader getFactoryClassLoader() {
+        if (System.getSecurityManager() == null) {
+            return Thread.currentThread().getContextClassLoader();
+        }
+        return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+            public ClassLoader run() {
+                return Thread.currentThread().getContextClassLoader();
+            }
+        });
+    }
+
     private Object resolveLink(Object result) throws NamingException {
         final Object linkResult;
         try {
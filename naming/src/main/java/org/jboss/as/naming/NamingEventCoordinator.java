@@ -23,39 +23,108 @@
 package org.jboss.as.naming;
 
 import org.jboss.as.naming.util.FastCopyHashMap;
+import org.jboss.logging.Logger;
 
 import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.InvalidNameException;
 import javax.naming.Name;
 import javax.naming.event.EventContext;
 import javax.naming.event.NamespaceChangeListener;
 import javax.naming.event.NamingEvent;
 import javax.naming.event.NamingListener;
 import javax.naming.event.ObjectChangeListener;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Coordinator responsible for passing @(code NamingEvent} instances to registered @{code NamingListener} instances.  Two
  * maps are used to managed a mapping between a listener and its configuration as well as a mapping from target name to a list
  * of listener configurations.  These maps are updated atomically on listener add and remove.
+ * <p/>
+ * Events are matched against a prefix tree of listener targets, rebuilt whenever a listener is added or removed, so
+ * firing an event only walks the components of the event name.  Each listener has its own bounded queue of pending
+ * events which is drained by the executor, so events reach a listener in the order they were fired while a slow
+ * listener only delays its own events.  Events which do not fit in a listener's queue are dropped and counted.  A
+ * change queued right behind an addition or change of the same name which has not yet been delivered is coalesced
+ * into the pending event.
  *
  * @author John E. Bailey
  */
 public class NamingEventCoordinator {
+    private static final Logger log = Logger.getLogger("org.jboss.as.naming");
+
+    /* The default maximum number of events pending delivery to a single listener */
+    public static final int DEFAULT_MAX_BACKLOG = 1024;
+
+    /* The maximum number of threads of the default executor */
+    public static final int DEFAULT_MAX_THREADS = 4;
+
+    /* The maximum number of events delivered to a listener before its delivery task yields the thread */
+    private static final int MAX_EVENTS_PER_RUN = 64;
+
     private volatile Map<TargetScope, List<ListenerHolder>> holdersByTarget = Collections.emptyMap();
     private volatile Map<NamingListener, ListenerHolder> holdersByListener = Collections.emptyMap();
+    private volatile IndexNode index = new IndexNode();
+
+    private final Executor executor;
+    private final int maxBacklog;
 
-    private final Executor executor = Executors.newSingleThreadExecutor();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong coalescedEvents = new AtomicLong();
 
     static final Integer[] DEFAULT_SCOPES = {EventContext.OBJECT_SCOPE, EventContext.ONELEVEL_SCOPE, EventContext.SUBTREE_SCOPE};
 
+    /**
+     * Create a coordinator delivering events on at most {@link #DEFAULT_MAX_THREADS} of its own daemon threads, which
+     * exit once idle.  Each listener has at most one delivery task queued, so an event storm queues events per
+     * listener rather than starting more threads.
+     */
+    public NamingEventCoordinator() {
+        this(createDefaultExecutor());
+    }
+
+    /**
+     * Create a coordinator delivering events with the provided executor.
+     *
+     * @param executor The executor used to deliver events
+     */
+    public NamingEventCoordinator(final Executor executor) {
+        this(executor, DEFAULT_MAX_BACKLOG);
+    }
+
+    /**
+     * Create a coordinator delivering events with the provided executor.
+     *
+     * @param executor The executor used to deliver events
+     * @param maxBacklog The maximum number of events pending delivery to a single listener
+     */
+    public NamingEventCoordinator(final Executor executor, final int maxBacklog) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor can not be null");
+        }
+        if (maxBacklog < 1) {
+            throw new IllegalArgumentException("Max backlog must be positive");
+        }
+        this.executor = executor;
+        this.maxBacklog = maxBacklog;
+    }
+
     /**
      * Add a listener to the coordinator with a given target name and event scope.  This information is used when an
      * event is fired to determine whether or not to fire this listener.
@@ -85,6 +154,7 @@ public class NamingEventCoordinator {
             holdersByTarget = byTargetCopy;
         }
         holdersForTarget.add(holder);
+        index = buildIndex();
     }
 
     /**
@@ -113,6 +183,8 @@ public class NamingEventCoordinator {
             }
         }
         holdersByTarget = byTargetCopy;
+        index = buildIndex();
+        holder.discard();
     }
 
     /**
@@ -128,64 +200,349 @@ public class NamingEventCoordinator {
      * @param scopes The scopes this event should be fired against
      */
     void fireEvent(final EventContext context, final Name name, final Binding existingBinding, final Binding newBinding, int type, final String changeInfo, final Integer... scopes) {
-        final String target = name.toString();
-        final Set<Integer> scopeSet = new HashSet<Integer>(Arrays.asList(scopes));
-        final NamingEvent event = new NamingEvent(context, type, newBinding, existingBinding, changeInfo);
-
-        final Set<ListenerHolder> holdersToFire = new HashSet<ListenerHolder>();
+        final List<ListenerHolder> holdersToFire = getHoldersToFire(name, scopeMask(scopes));
+        if (holdersToFire.isEmpty()) {
+            return;
+        }
+        final PendingEvent event = new PendingEvent(name, new NamingEvent(context, type, newBinding, existingBinding, changeInfo));
+        for (ListenerHolder holder : holdersToFire) {
+            holder.enqueue(Collections.singletonList(event));
+        }
+    }
 
-        // Check for OBJECT_SCOPE based listeners
-        if (scopeSet.contains(EventContext.OBJECT_SCOPE)) {
-            final TargetScope targetScope = new TargetScope(target, EventContext.OBJECT_SCOPE);
-            final List<ListenerHolder> holders = holdersByTarget.get(targetScope);
-            if (holders != null) {
-                for (ListenerHolder holder : holders) {
-                    holdersToFire.add(holder);
+    /**
+     * Fire the naming events collected while applying a batch.  The events for each listener are queued together, so
+     * a listener sees the batch as one consolidated, ordered run of events.
+     *
+     * @param context The event context generating the events.
+     * @param events The events
+     * @param scopes The scopes the events should be fired against
+     */
+    void fireEvents(final EventContext context, final List<BatchedEvent> events, final Integer... scopes) {
+        if (events.isEmpty()) {
+            return;
+        }
+        final int scopeMask = scopeMask(scopes);
+        final Map<ListenerHolder, List<PendingEvent>> eventsByHolder = new IdentityHashMap<ListenerHolder, List<PendingEvent>>();
+        final List<ListenerHolder> holderOrder = new ArrayList<ListenerHolder>();
+        for (BatchedEvent batchedEvent : events) {
+            final List<ListenerHolder> holdersToFire = getHoldersToFire(batchedEvent.name, scopeMask);
+            if (holdersToFire.isEmpty()) {
+                continue;
+            }
+            final PendingEvent event = new PendingEvent(batchedEvent.name, new NamingEvent(context, batchedEvent.type, batchedEvent.newBinding, batchedEvent.existingBinding, batchedEvent.changeInfo));
+            for (ListenerHolder holder : holdersToFire) {
+                List<PendingEvent> holderEvents = eventsByHolder.get(holder);
+                if (holderEvents == null) {
+                    holderEvents = new ArrayList<PendingEvent>();
+                    eventsByHolder.put(holder, holderEvents);
+                    holderOrder.add(holder);
                 }
+                holderEvents.add(event);
             }
         }
+        for (ListenerHolder holder : holderOrder) {
+            holder.enqueue(eventsByHolder.get(holder));
+        }
+    }
 
-        // Check for ONELEVEL_SCOPE based listeners
-        if (scopeSet.contains(EventContext.ONELEVEL_SCOPE) && !name.isEmpty()) {
-            final TargetScope targetScope = new TargetScope(name.getPrefix(name.size() - 1).toString(), EventContext.ONELEVEL_SCOPE);
-            final List<ListenerHolder> holders = holdersByTarget.get(targetScope);
-            if (holders != null) {
-                for (ListenerHolder holder : holders) {
-                    holdersToFire.add(holder);
+    /**
+     * Get the number of events dropped because a listener's queue was full.
+     *
+     * @return The dropped event count
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Get the number of events merged into an event already pending delivery.
+     *
+     * @return The coalesced event count
+     */
+    public long getCoalescedEventCount() {
+        return coalescedEvents.get();
+    }
+
+    /**
+     * Get the number of events currently pending delivery across all listeners.
+     *
+     * @return The pending event count
+     */
+    public int getPendingEventCount() {
+        int pending = 0;
+        for (ListenerHolder holder : holdersByListener.values()) {
+            pending += holder.getPendingCount();
+        }
+        return pending;
+    }
+
+    private static Executor createDefaultExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_MAX_THREADS, DEFAULT_MAX_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new EventThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int scopeMask(final Integer... scopes) {
+        int mask = 0;
+        for (Integer scope : scopes) {
+            mask |= 1 << scope;
+        }
+        return mask;
+    }
+
+    private List<ListenerHolder> getHoldersToFire(final Name name, final int scopeMask) {
+        final boolean objectScope = (scopeMask & (1 << EventContext.OBJECT_SCOPE)) != 0;
+        final boolean oneLevelScope = (scopeMask & (1 << EventContext.ONELEVEL_SCOPE)) != 0;
+        final boolean subtreeScope = (scopeMask & (1 << EventContext.SUBTREE_SCOPE)) != 0;
+
+        List<ListenerHolder> holdersToFire = null;
+        final int size = name.size();
+        IndexNode node = index;
+        for (int i = 0; node != null; i++) {
+            if (i == size) {
+                // OBJECT_SCOPE listeners on the name itself
+                if (objectScope) {
+                    holdersToFire = addHolders(holdersToFire, node.objectHolders);
                 }
+                break;
+            }
+            // ONELEVEL_SCOPE listeners on the parent
+            if (oneLevelScope && i == size - 1) {
+                holdersToFire = addHolders(holdersToFire, node.oneLevelHolders);
             }
+            // SUBTREE_SCOPE listeners on each ancestor below the root
+            if (subtreeScope && i > 0) {
+                holdersToFire = addHolders(holdersToFire, node.subtreeHolders);
+            }
+            node = node.children.get(name.get(i));
         }
+        return holdersToFire != null ? holdersToFire : Collections.<ListenerHolder>emptyList();
+    }
 
-        // Check for SUBTREE_SCOPE based listeners
-        if (scopeSet.contains(EventContext.SUBTREE_SCOPE) && !name.isEmpty()) {
-            for (int i = 1; i < name.size(); i++) {
-                final Name parentName = name.getPrefix(i);
-                final TargetScope targetScope = new TargetScope(parentName.toString(), EventContext.SUBTREE_SCOPE);
-                final List<ListenerHolder> holders = holdersByTarget.get(targetScope);
-                if (holders != null) {
-                    for (ListenerHolder holder : holders) {
-                        holdersToFire.add(holder);
-                    }
+    private static List<ListenerHolder> addHolders(List<ListenerHolder> holdersToFire, final ListenerHolder[] holders) {
+        for (ListenerHolder holder : holders) {
+            if (holdersToFire == null) {
+                holdersToFire = new ArrayList<ListenerHolder>(4);
+            } else if (holdersToFire.contains(holder)) {
+                continue;
+            }
+            holdersToFire.add(holder);
+        }
+        return holdersToFire;
+    }
+
+    private IndexNode buildIndex() {
+        final IndexNode root = new IndexNode();
+        for (Map.Entry<TargetScope, List<ListenerHolder>> entry : holdersByTarget.entrySet()) {
+            final TargetScope targetScope = entry.getKey();
+            IndexNode node = root;
+            for (String component : parseTarget(targetScope.target)) {
+                IndexNode child = node.children.get(component);
+                if (child == null) {
+                    child = new IndexNode();
+                    node.children.put(component, child);
                 }
+                node = child;
             }
+            final ListenerHolder[] holders = entry.getValue().toArray(new ListenerHolder[0]);
+            switch (targetScope.scope) {
+                case EventContext.OBJECT_SCOPE:
+                    node.objectHolders = holders;
+                    break;
+                case EventContext.ONELEVEL_SCOPE:
+                    node.oneLevelHolders = holders;
+                    break;
+                case EventContext.SUBTREE_SCOPE:
+                    node.subtreeHolders = holders;
+                    break;
+            }
+        }
+        return root;
+    }
+
+    private static List<String> parseTarget(final String target) {
+        if (target == null || target.length() == 0) {
+            return Collections.emptyList();
+        }
+        try {
+            return Collections.list(new CompositeName(target).getAll());
+        } catch (InvalidNameException e) {
+            throw new IllegalArgumentException("Invalid listener target " + target, e);
+        }
+    }
+
+    /**
+     * An event collected while applying a batch.
+     */
+    static final class BatchedEvent {
+        private final Name name;
+        private final Binding existingBinding;
+        private final Binding newBinding;
+        private final int type;
+        private final String changeInfo;
+
+        BatchedEvent(final Name name, final Binding existingBinding, final Binding newBinding, final int type, final String changeInfo) {
+            this.name = name;
+            this.existingBinding = existingBinding;
+            this.newBinding = newBinding;
+            this.type = type;
+            this.changeInfo = changeInfo;
         }
+    }
+
+    private static final class IndexNode {
+        private static final ListenerHolder[] NO_HOLDERS = new ListenerHolder[0];
 
-        executor.execute(new FireEventTask(holdersToFire, event));
+        private final Map<String, IndexNode> children = new HashMap<String, IndexNode>();
+        private ListenerHolder[] objectHolders = NO_HOLDERS;
+        private ListenerHolder[] oneLevelHolders = NO_HOLDERS;
+        private ListenerHolder[] subtreeHolders = NO_HOLDERS;
     }
 
-    private class FireEventTask implements Runnable {
-        private final Set<ListenerHolder> listenerHolders;
+    private static final class PendingEvent {
+        private final Name name;
         private final NamingEvent event;
 
-        private FireEventTask(Set<ListenerHolder> listenerHolders, NamingEvent event) {
-            this.listenerHolders = listenerHolders;
+        private PendingEvent(final Name name, final NamingEvent event) {
+            this.name = name;
             this.event = event;
         }
 
-        @Override
+        /**
+         * Merge a later change of the same name into this event, provided it has not been delivered yet.
+         *
+         * @param next The later event
+         * @return The merged event, or {@code null} if the events can not be merged
+         */
+        private PendingEvent coalesce(final PendingEvent next) {
+            final int type = event.getType();
+            if (next.event.getType() != NamingEvent.OBJECT_CHANGED
+                    || (type != NamingEvent.OBJECT_CHANGED && type != NamingEvent.OBJECT_ADDED)
+                    || event.getEventContext() != next.event.getEventContext()
+                    || !name.equals(next.name)) {
+                return null;
+            }
+            return new PendingEvent(name, new NamingEvent(event.getEventContext(), type, next.event.getNewBinding(), event.getOldBinding(), next.event.getChangeInfo()));
+        }
+    }
+
+    private class ListenerHolder implements Runnable {
+        private volatile Set<TargetScope> targets = new HashSet<TargetScope>();
+        private final NamingListener listener;
+
+        /* Events pending delivery, guarded by the queue itself along with the scheduled and discarded flags */
+        private final ArrayDeque<PendingEvent> queue = new ArrayDeque<PendingEvent>();
+        private boolean scheduled;
+        private boolean discarded;
+        private boolean overflowed;
+
+        private ListenerHolder(final NamingListener listener, final TargetScope initialTarget) {
+            this.listener = listener;
+            addTarget(initialTarget);
+        }
+
+        private synchronized void addTarget(final TargetScope targetScope) {
+            targets.add(targetScope);
+        }
+
+        private void enqueue(final List<PendingEvent> events) {
+            int dropped = 0;
+            boolean schedule = false;
+            synchronized (queue) {
+                if (discarded) {
+                    return;
+                }
+                for (PendingEvent event : events) {
+                    final PendingEvent last = queue.peekLast();
+                    final PendingEvent coalesced = last != null ? last.coalesce(event) : null;
+                    if (coalesced != null) {
+                        queue.pollLast();
+                        queue.addLast(coalesced);
+                        coalescedEvents.incrementAndGet();
+                    } else if (queue.size() < maxBacklog) {
+                        queue.addLast(event);
+                    } else {
+                        dropped++;
+                    }
+                }
+                if (!scheduled && !queue.isEmpty()) {
+                    scheduled = true;
+                    schedule = true;
+                }
+                if (dropped > 0 && !overflowed) {
+                    overflowed = true;
+                    log.warnf("Naming event backlog of %d events exceeded for listener %s, further events will be dropped until it catches up", maxBacklog, listener);
+                }
+            }
+            if (dropped > 0) {
+                droppedEvents.addAndGet(dropped);
+            }
+            if (schedule) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                synchronized (queue) {
+                    droppedEvents.addAndGet(queue.size());
+                    queue.clear();
+                    scheduled = false;
+                }
+                log.warn("Failed to schedule naming event delivery for listener " + listener, e);
+            }
+        }
+
+        private void discard() {
+            synchronized (queue) {
+                discarded = true;
+                queue.clear();
+            }
+        }
+
+        private int getPendingCount() {
+            synchronized (queue) {
+                return queue.size();
+            }
+        }
+
         public void run() {
-            for (ListenerHolder holder : listenerHolders) {
-                final NamingListener listener = holder.listener;
+            final List<PendingEvent> events = new ArrayList<PendingEvent>();
+            synchronized (queue) {
+                while (events.size() < MAX_EVENTS_PER_RUN && !queue.isEmpty()) {
+                    events.add(queue.pollFirst());
+                }
+            }
+            try {
+                for (PendingEvent event : events) {
+                    synchronized (queue) {
+                        if (discarded) {
+                            break;
+                        }
+                    }
+                    deliver(event.event);
+                }
+            } finally {
+                boolean reschedule;
+                synchronized (queue) {
+                    reschedule = !queue.isEmpty();
+                    scheduled = reschedule;
+                    if (queue.size() < maxBacklog / 2) {
+                        overflowed = false;
+                    }
+                }
+                if (reschedule) {
+                    schedule();
+                }
+            }
+        }
+
+        private void deliver(final NamingEvent event) {
+            try {
                 switch (event.getType()) {
                     case NamingEvent.OBJECT_ADDED:
                         if (listener instanceof NamespaceChangeListener)
@@ -204,24 +561,12 @@ public class NamingEventCoordinator {
                             ((ObjectChangeListener) listener).objectChanged(event);
                         break;
                 }
+            } catch (RuntimeException e) {
+                log.warn("Naming listener " + listener + " failed to handle event", e);
             }
         }
     }
 
-    private class ListenerHolder {
-        private volatile Set<TargetScope> targets = new HashSet<TargetScope>();
-        private final NamingListener listener;
-
-        private ListenerHolder(final NamingListener listener, final TargetScope initialTarget) {
-            this.listener = listener;
-            addTarget(initialTarget);
-        }
-
-        private synchronized void addTarget(final TargetScope targetScope) {
-            targets.add(targetScope);
-        }
-    }
-
     private class TargetScope {
         private final String target;
         private final int scope;
@@ -251,4 +596,14 @@ public class NamingEventCoordinator {
             return result;
         }
     }
+
+    private static class EventThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "Naming Event Thread-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,474 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.Name;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.jboss.as.naming.util.NamingUtils.emptyName;
+
+/**
+ * Bounded cache mapping a lookup string, relative to a context prefix, to the object found in a {@code NamingStore}.
+ * This allows {@code NamingContext} to skip parsing the name and walking the store for repeated lookups of the same
+ * names.
+ * <p/>
+ * Stores must call {@link #invalidate(Name)} after changing the entry at a name, which drops only the cached lookups
+ * which resolved to that name or to a name below it.  Entries are indexed in a tree keyed on the components of the
+ * absolute name they resolved to, so an invalidation only visits the subtree below the changed name.  Changes to the
+ * index are made under a lock, which lookups served from the cache never take.  Every invalidation also bumps the
+ * version of the cache, and a lookup result is only kept if the version did not change between the caller reading the
+ * version, before reading from the store, and the entry being added, so a lookup that raced with a store change can
+ * not leave a stale entry.
+ * <p/>
+ * Once the cache holds more than its maximum number of entries, entries which have not been hit since the last
+ * eviction pass are evicted until it is back under the limit.
+ */
+public final class NamingLookupCache {
+
+    /* The default maximum number of entries */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final int maxSize;
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> entriesByPrefix = new ConcurrentHashMap<String, ConcurrentMap<String, Entry>>();
+    /* The entries by the components of their absolute name, guarded by itself */
+    private final IndexNode index = new IndexNode();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache with the default maximum size.
+     */
+    public NamingLookupCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a cache with a maximum size.
+     *
+     * @param maxSize The maximum number of entries the cache will hold
+     */
+    public NamingLookupCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the current version of the cache, which changes on every invalidation.  Must be read before looking up
+     * the name in the store, and passed to {@link #put(long, String, String, Name, Object)}.
+     *
+     * @return The version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Get the cache entry for a lookup name relative to a context prefix.
+     *
+     * @param prefix The context prefix
+     * @param name The lookup name
+     * @return The entry, or {@code null} if the lookup is not cached
+     */
+    public Entry get(final String prefix, final String name) {
+        final ConcurrentMap<String, Entry> entries = entriesByPrefix.get(prefix);
+        final Entry entry = entries != null ? entries.get(name) : null;
+        if (entry != null) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Cache the result of a lookup, unless the store changed since the given version was read.
+     *
+     * @param version The version of the cache read before looking up the name in the store
+     * @param prefix The context prefix
+     * @param name The lookup name
+     * @param absoluteName The absolute name the lookup name resolved to
+     * @param value The object found in the store
+     * @return The entry now cached for the name, or {@code null} if the result was not cached
+     */
+    public Entry put(final long version, final String prefix, final String name, final Name absoluteName, final Object value) {
+        if (this.version.get() != version) {
+            return null;
+        }
+        ConcurrentMap<String, Entry> entries = entriesByPrefix.get(prefix);
+        if (entries == null) {
+            entries = new ConcurrentHashMap<String, Entry>();
+            final ConcurrentMap<String, Entry> existing = entriesByPrefix.putIfAbsent(prefix, entries);
+            if (existing != null) {
+                entries = existing;
+            }
+        }
+        final Entry entry = new Entry(entries, name, absoluteName, value);
+        synchronized (index) {
+            // Invalidations bump the version under the same lock, so the entry is either indexed before an
+            // invalidation walks the index or rejected here
+            if (this.version.get() != version) {
+                return null;
+            }
+            final Entry existing = entries.putIfAbsent(name, entry);
+            if (existing != null) {
+                return existing;
+            }
+            index.add(entry);
+        }
+        size.incrementAndGet();
+        if (size.get() > maxSize) {
+            evict();
+        }
+        return entry;
+    }
+
+    /**
+     * Discard the cached lookups which resolved to a name or to a name below it.  Must be called by the naming store
+     * after changing the entry at the name.
+     *
+     * @param name The absolute name which changed
+     */
+    public void invalidate(final Name name) {
+        invalidate(Collections.singleton(name));
+    }
+
+    /**
+     * Discard the cached lookups which resolved to any of the names or to a name below them.
+     *
+     * @param names The absolute names which changed
+     */
+    public void invalidate(final Collection<Name> names) {
+        final List<Entry> removed = new ArrayList<Entry>();
+        synchronized (index) {
+            version.incrementAndGet();
+            for (Name name : names) {
+                index.removeAll(name, removed);
+            }
+            for (Entry entry : removed) {
+                entry.entries.remove(entry.name, entry);
+            }
+        }
+        size.addAndGet(-removed.size());
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Discard all cached entries.
+     */
+    public void invalidate() {
+        final List<Entry> removed = new ArrayList<Entry>();
+        synchronized (index) {
+            version.incrementAndGet();
+            index.removeAll(emptyName(), removed);
+            for (Entry entry : removed) {
+                entry.entries.remove(entry.name, entry);
+            }
+        }
+        size.addAndGet(-removed.size());
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Evict entries until the cache is back under its maximum size.  Entries hit since the previous pass get a second
+     * chance, so the lookups repeated most often stay cached.  Only one thread evicts at a time; others carry on and
+     * leave the cache briefly over its limit.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // The second pass evicts entries whose referenced flag the first pass cleared
+            for (int pass = 0; pass < 2 && size.get() > maxSize; pass++) {
+                final Iterator<ConcurrentMap<String, Entry>> prefixes = entriesByPrefix.values().iterator();
+                while (prefixes.hasNext() && size.get() > maxSize) {
+                    final ConcurrentMap<String, Entry> entries = prefixes.next();
+                    final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+                    while (iterator.hasNext() && size.get() > maxSize) {
+                        final Map.Entry<String, Entry> mapEntry = iterator.next();
+                        final Entry entry = mapEntry.getValue();
+                        if (entry.referenced) {
+                            entry.referenced = false;
+                        } else if (remove(entry)) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private boolean remove(final Entry entry) {
+        synchronized (index) {
+            if (!entry.entries.remove(entry.name, entry)) {
+                return false;
+            }
+            index.remove(entry);
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Get the number of lookups which were served from the cache.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which were not served from the cache.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of times the cache was invalidated.
+     *
+     * @return The invalidation count
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Get the number of entries evicted because the cache was full.
+     *
+     * @return The eviction count
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the maximum number of entries the cache holds.
+     *
+     * @return The maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of entries currently cached.
+     *
+     * @return The size
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * A cached lookup result.
+     */
+    public static final class Entry {
+        /** The entries of the context prefix this entry is cached under */
+        private final ConcurrentMap<String, Entry> entries;
+        private final String name;
+        private final Name absoluteName;
+        private final Object value;
+        private volatile Resolution resolution;
+        /** Set when the entry is hit, cleared by eviction passes */
+        private volatile boolean referenced;
+
+        private Entry(final ConcurrentMap<String, Entry> entries, final String name, final Name absoluteName, final Object value) {
+            this.entries = entries;
+            this.name = name;
+            this.absoluteName = absoluteName;
+            this.value = value;
+        }
+
+        /**
+         * Get the absolute name the lookup resolved to.
+         *
+         * @return The absolute name
+         */
+        public Name getAbsoluteName() {
+            return absoluteName;
+        }
+
+        /**
+         * Get the object found in the store.
+         *
+         * @return The object
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * Get the cached object the reference found in the store resolved to.  The object is only returned if it was
+         * resolved with the same factory class loader and an equal environment, as the factory found through another
+         * class loader, or given another environment, may resolve the reference to another object.
+         *
+         * @param classLoader The class loader the factory of the reference is loaded from
+         * @param environment The environment of the lookup
+         * @return The resolved object, or {@code null} if no object was resolved for the class loader and environment
+         */
+        public Object getResolvedValue(final ClassLoader classLoader, final Hashtable<?, ?> environment) {
+            final Resolution resolution = this.resolution;
+            if (resolution == null || resolution.classLoader.get() != classLoader || !resolution.environment.equals(environment)) {
+                return null;
+            }
+            return resolution.value;
+        }
+
+        /**
+         * Cache the object the reference found in the store resolved to, replacing an object resolved for another
+         * class loader or environment.  Only results of a {@link CacheableObjectFactory} may be cached.
+         *
+         * @param resolvedValue The resolved object
+         * @param classLoader The class loader the factory of the reference was loaded from
+         * @param environment The environment of the lookup
+         */
+        void setResolvedValue(final Object resolvedValue, final ClassLoader classLoader, final Hashtable<?, ?> environment) {
+            if (resolvedValue != null) {
+                resolution = new Resolution(resolvedValue, classLoader, environment);
+            }
+        }
+    }
+
+    /**
+     * A node of the index of entries, keyed on one component of the absolute names.  Holds the entries which resolved
+     * to the node's name, and the child nodes for the names below it.  Only accessed while holding the lock on the
+     * root node.
+     */
+    private static final class IndexNode {
+        private final Map<String, IndexNode> children = new HashMap<String, IndexNode>();
+        private final Set<Entry> entries = new HashSet<Entry>();
+
+        private void add(final Entry entry) {
+            IndexNode node = this;
+            for (int i = 0; i < entry.absoluteName.size(); i++) {
+                final String component = entry.absoluteName.get(i);
+                IndexNode child = node.children.get(component);
+                if (child == null) {
+                    child = new IndexNode();
+                    node.children.put(component, child);
+                }
+                node = child;
+            }
+            node.entries.add(entry);
+        }
+
+        private void remove(final Entry entry) {
+            remove(entry, 0);
+        }
+
+        /**
+         * Remove an entry from the subtree, pruning the nodes left empty.
+         *
+         * @return {@code true} if this node is left empty
+         */
+        private boolean remove(final Entry entry, final int depth) {
+            if (depth == entry.absoluteName.size()) {
+                entries.remove(entry);
+            } else {
+                final String component = entry.absoluteName.get(depth);
+                final IndexNode child = children.get(component);
+                if (child != null && child.remove(entry, depth + 1)) {
+                    children.remove(component);
+                }
+            }
+            return entries.isEmpty() && children.isEmpty();
+        }
+
+        /**
+         * Remove the entries which resolved to a name or to a name below it from the subtree, collecting them.
+         */
+        private void removeAll(final Name name, final List<Entry> removed) {
+            removeAll(name, 0, removed);
+        }
+
+        private boolean removeAll(final Name name, final int depth, final List<Entry> removed) {
+            if (depth == name.size()) {
+                collect(removed);
+                entries.clear();
+                children.clear();
+            } else {
+                final String component = name.get(depth);
+                final IndexNode child = children.get(component);
+                if (child != null && child.removeAll(name, depth + 1, removed)) {
+                    children.remove(component);
+                }
+            }
+            return entries.isEmpty() && children.isEmpty();
+        }
+
+        private void collect(final List<Entry> removed) {
+            removed.addAll(entries);
+            for (IndexNode child : children.values()) {
+                child.collect(removed);
+            }
+        }
+    }
+
+    /**
+     * An object resolved from a reference, with the class loader and environment it was resolved with.  The class
+     * loader is weakly referenced so a cached entry does not keep an undeployed deployment's classes alive.
+     */
+    private static final class Resolution {
+        private final Object value;
+        private final WeakReference<ClassLoader> classLoader;
+        private final Hashtable<?, ?> environment;
+
+        private Resolution(final Object value, final ClassLoader classLoader, final Hashtable<?, ?> environment) {
+            this.value = value;
+            this.classLoader = new WeakReference<ClassLoader>(classLoader);
+            this.environment = (Hashtable<?, ?>) environment.clone();
+        }
+    }
+}
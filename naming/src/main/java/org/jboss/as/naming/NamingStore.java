@@ -68,6 +68,17 @@ public interface NamingStore {
      */
     void unbind(Context context, Name name) throws NamingException;
 
+    /**
+     * Apply a batch of binds, rebinds and sub-context creations.  The batch is applied atomically; if any operation
+     * fails none of the changes are made.  The events for the whole batch are published together once the batch has
+     * been applied.  All names in the batch must resolve within this store; continuations are not followed.
+     *
+     * @param context The calling context
+     * @param batch The batch
+     * @throws NamingException If any operation in the batch fails
+     */
+    void applyBatch(Context context, NamingBatch batch) throws NamingException;
+
     /**
      * Look up an object from the naming store.  An entry for this name must already exist.
      *
@@ -97,6 +108,19 @@ public interface NamingStore {
      */
     List<Binding> listBindings(Name name) throws NamingException;
 
+    /**
+     * List a page of the binding objects for a specified name.  Bindings are listed in an order which only depends on
+     * their names, so a listing can be continued by passing the name of the last binding listed.  An entry for this
+     * name must already exist and be bound to a valid context.
+     *
+     * @param name The entry name
+     * @param after The name of the binding to list after, or {@code null} to start with the first binding
+     * @param maxResults The maximum number of bindings to list
+     * @return The bindings
+     * @throws NamingException If any errors occur
+     */
+    List<Binding> listBindings(Name name, String after, int maxResults) throws NamingException;
+
     /**
      * Create a sub-context for the provided name.  All parent contexts must be created before this can be executed.
      *
@@ -107,6 +131,20 @@ public interface NamingStore {
      */
     Context createSubcontext(Context context, Name name) throws NamingException;
 
+    /**
+     * Get the cache of resolved lookups for this store.  The store must invalidate the cache whenever its contents change.
+     *
+     * @return The lookup cache, or {@code null} if the store does not support caching lookups
+     */
+    NamingLookupCache getLookupCache();
+
+    /**
+     * Get the coordinator delivering the events of this store.
+     *
+     * @return The event coordinator, or {@code null} if the store does not support events
+     */
+    NamingEventCoordinator getEventCoordinator();
+
     /**
      * Close the naming store and cleanup any resource used by the store.
      *
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.spi.ObjectFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of {@code ObjectFactory} instances keyed by factory class name and the class loader the class was loaded from.
+ * This saves {@code NamingContext} from loading and instantiating the factory class of a reference on every lookup.
+ * <p/>
+ * Class loaders are held weakly and factory instances softly.  A factory's class is defined by the class loader it is
+ * cached under, so holding the factory strongly would keep the class loader reachable and its entry would never be
+ * dropped.  Held softly, factories survive ordinary garbage collections, and an undeployed class loader's factories are
+ * cleared like any other soft reference, after which the class loader and its entry go away.  Looking up a cached
+ * factory takes no lock.
+ */
+final class ObjectFactoryCache {
+    private final ConcurrentMap<ClassLoaderKey, ConcurrentMap<String, SoftReference<ObjectFactory>>> factoriesByClassLoader = new ConcurrentHashMap<ClassLoaderKey, ConcurrentMap<String, SoftReference<ObjectFactory>>>();
+    /* The factories of the bootstrap class loader, which is never collected */
+    private final ConcurrentMap<String, SoftReference<ObjectFactory>> bootstrapFactories = new ConcurrentHashMap<String, SoftReference<ObjectFactory>>();
+    private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<ClassLoader>();
+
+    /**
+     * Get the factory instance for a factory class, loading and instantiating the class if no instance is cached.
+     *
+     * @param className The factory class name
+     * @param classLoader The class loader to load the factory class from
+     * @return The factory instance
+     * @throws ClassNotFoundException If the factory class can not be found
+     * @throws InstantiationException If the factory class can not be instantiated
+     * @throws IllegalAccessException If the factory class constructor is not accessible
+     */
+    ObjectFactory getObjectFactory(final String className, final ClassLoader classLoader) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        ConcurrentMap<String, SoftReference<ObjectFactory>> factories = classLoader == null ? bootstrapFactories : factoriesByClassLoader.get(new ClassLoaderKey(classLoader, null));
+        if (factories != null) {
+            final SoftReference<ObjectFactory> cached = factories.get(className);
+            final ObjectFactory factory = cached != null ? cached.get() : null;
+            if (factory != null) {
+                return factory;
+            }
+        }
+
+        removeCollectedClassLoaders();
+        if (factories == null) {
+            final ConcurrentMap<String, SoftReference<ObjectFactory>> created = new ConcurrentHashMap<String, SoftReference<ObjectFactory>>();
+            factories = factoriesByClassLoader.putIfAbsent(new ClassLoaderKey(classLoader, collectedClassLoaders), created);
+            if (factories == null) {
+                factories = created;
+            }
+        }
+        final Class<?> factoryClass = Class.forName(className, true, classLoader);
+        final ObjectFactory factory = ObjectFactory.class.cast(factoryClass.newInstance());
+        final SoftReference<ObjectFactory> reference = new SoftReference<ObjectFactory>(factory);
+        final SoftReference<ObjectFactory> existing = factories.putIfAbsent(className, reference);
+        if (existing != null) {
+            final ObjectFactory existingFactory = existing.get();
+            if (existingFactory != null) {
+                return existingFactory;
+            }
+            factories.replace(className, existing, reference);
+        }
+        return factory;
+    }
+
+    private void removeCollectedClassLoaders() {
+        Reference<? extends ClassLoader> collected;
+        while ((collected = collectedClassLoaders.poll()) != null) {
+            factoriesByClassLoader.remove(collected);
+        }
+    }
+
+    /**
+     * Weak key comparing class loaders by identity.  A key whose class loader has been collected is only equal to itself.
+     */
+    private static final class ClassLoaderKey extends WeakReference<ClassLoader> {
+        private final int hashCode;
+
+        private ClassLoaderKey(final ClassLoader classLoader, final ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+            hashCode = System.identityHashCode(classLoader);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof ClassLoaderKey)) {
+                return false;
+            }
+            final ClassLoader classLoader = get();
+            return classLoader != null && classLoader == ((ClassLoaderKey) other).get();
+        }
+    }
+}
@@ -0,0 +1,707 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import org.jboss.as.naming.util.PersistentHashMap;
+
+import javax.naming.Binding;
+import javax.naming.CannotProceedException;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.spi.ResolveResult;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.jboss.as.naming.util.NamingUtils.asReference;
+import static org.jboss.as.naming.util.NamingUtils.cannotProceedException;
+import static org.jboss.as.naming.util.NamingUtils.emptyName;
+import static org.jboss.as.naming.util.NamingUtils.emptyNameException;
+import static org.jboss.as.naming.util.NamingUtils.getLastComponent;
+import static org.jboss.as.naming.util.NamingUtils.isEmpty;
+import static org.jboss.as.naming.util.NamingUtils.isLastComponentEmpty;
+import static org.jboss.as.naming.util.NamingUtils.nameAlreadyBoundException;
+import static org.jboss.as.naming.util.NamingUtils.nameNotFoundException;
+import static org.jboss.as.naming.util.NamingUtils.notAContextException;
+
+/**
+ * In-memory implementation of the NamingStore built on an immutable tree.  Each context node keeps its children in a
+ * {@code PersistentHashMap}, and a change creates new nodes from the changed context up to the root while sharing every
+ * other node with the previous version of the tree.  The new root is published with a compare-and-set, retrying the
+ * change if another writer published first.
+ * <p/>
+ * Readers never lock and always see a complete version of the tree.  {@link #snapshot()} returns a consistent view of
+ * the whole tree in constant time, which can be listed or walked at leisure while writers carry on.
+ */
+public class PersistentNamingStore implements NamingStore {
+
+    /* The root node of the current version of the tree.  Represents a JNDI name of "" */
+    private final AtomicReference<ContextNode> root = new AtomicReference<ContextNode>(new ContextNode(emptyName(), null));
+
+    /* Naming Event Coordinator */
+    private final NamingEventCoordinator eventCoordinator;
+
+    /* Cache of resolved lookups, invalidated on every change to the tree */
+    private final NamingLookupCache lookupCache = new NamingLookupCache();
+
+    /**
+     * Construct instance with no event support.
+     */
+    public PersistentNamingStore() {
+        this(null);
+    }
+
+    /**
+     * Construct instance with an event coordinator.
+     *
+     * @param eventCoordinator The event coordinator
+     */
+    public PersistentNamingStore(final NamingEventCoordinator eventCoordinator) {
+        this.eventCoordinator = eventCoordinator;
+    }
+
+    /**
+     * Bind an entry into the tree.  This will create a binding node in the tree for the provided named object.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @param object The entry object
+     * @param className The entry class name
+     * @throws NamingException
+     */
+    public void bind(final Context callingContext, final Name name, final Object object, final String className) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.BIND);
+        final String childName = getLastComponent(name);
+        final Binding binding = new Binding(childName, className, object, true);
+        final TreeNode node = new TreeNode(name, binding);
+        ContextNode current;
+        do {
+            current = root.get();
+            final Location parent = findParentContext(current, name);
+            if (parent.context.children.containsKey(childName)) {
+                throw nameAlreadyBoundException(name);
+            }
+            if (root.compareAndSet(current, parent.update(name, parent.context.children.put(childName, node)))) {
+                break;
+            }
+        } while (true);
+        lookupCache.invalidate(name);
+        fireEvent(callingContext, name, null, binding, NamingEvent.OBJECT_ADDED, "bind");
+    }
+
+    /**
+     * Replace an existing entry in the tree.  This will create a new binding node in the tree and no longer store
+     * the previous value.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @param object The entry object
+     * @param className The entry class name
+     * @throws NamingException
+     */
+    public void rebind(final Context callingContext, final Name name, final Object object, final String className) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.REBIND);
+        final String childName = getLastComponent(name);
+        final Binding binding = new Binding(childName, className, object, true);
+        final TreeNode node = new TreeNode(name, binding);
+        TreeNode previous;
+        ContextNode current;
+        do {
+            current = root.get();
+            final Location parent = findParentContext(current, name);
+            previous = parent.context.children.get(childName);
+            if (root.compareAndSet(current, parent.update(name, parent.context.children.put(childName, node)))) {
+                break;
+            }
+        } while (true);
+        lookupCache.invalidate(name);
+
+        final Binding previousBinding = previous != null ? previous.binding : null;
+        fireEvent(callingContext, name, previousBinding, binding, previousBinding != null ? NamingEvent.OBJECT_CHANGED : NamingEvent.OBJECT_ADDED, "rebind");
+    }
+
+    /**
+     * Unbind the entry in the provided location.  This will remove the node in the tree and no longer manage it.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @throws NamingException
+     */
+    public void unbind(final Context callingContext, final Name name) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.UNBIND);
+        final String childName = getLastComponent(name);
+        TreeNode previous;
+        ContextNode current;
+        do {
+            current = root.get();
+            final Location parent = findParentContext(current, name);
+            previous = parent.context.children.get(childName);
+            if (previous == null) {
+                throw nameNotFoundException(childName, parent.context.fullName);
+            }
+            if (root.compareAndSet(current, parent.update(name, parent.context.children.remove(childName)))) {
+                break;
+            }
+        } while (true);
+        lookupCache.invalidate(name);
+        fireEvent(callingContext, name, previous.binding, null, NamingEvent.OBJECT_REMOVED, "unbind");
+    }
+
+    /**
+     * Apply a batch of binds, rebinds and sub-context creations.  The whole batch is applied to a private version of
+     * the tree which is published with a single compare-and-set, so readers see either none or all of the batch.
+     *
+     * @param callingContext The calling context
+     * @param batch The batch
+     * @throws NamingException If any operation in the batch fails
+     */
+    public void applyBatch(final Context callingContext, final NamingBatch batch) throws NamingException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (NamingBatch.Operation operation : batch.getOperations()) {
+            if (isLastComponentEmpty(operation.getName())) {
+                throw emptyNameException();
+            }
+            checkPermissions(operation.getName(), operation.getType().getPermission());
+        }
+        List<NamingEventCoordinator.BatchedEvent> events;
+        ContextNode current;
+        do {
+            current = root.get();
+            events = new ArrayList<NamingEventCoordinator.BatchedEvent>(batch.getOperations().size());
+            ContextNode updated = current;
+            for (NamingBatch.Operation operation : batch.getOperations()) {
+                updated = apply(updated, operation, events);
+            }
+            if (root.compareAndSet(current, updated)) {
+                break;
+            }
+        } while (true);
+        lookupCache.invalidate(batch.getNames());
+
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null && callingContext instanceof EventContext) {
+            coordinator.fireEvents(EventContext.class.cast(callingContext), events, NamingEventCoordinator.DEFAULT_SCOPES);
+        }
+    }
+
+    private ContextNode apply(final ContextNode current, final NamingBatch.Operation operation, final List<NamingEventCoordinator.BatchedEvent> events) throws NamingException {
+        final Name name = operation.getName();
+        final String childName = getLastComponent(name);
+        final Location parent = findParentContext(current, name);
+        final PersistentHashMap<String, TreeNode> children = parent.context.children;
+        final String changeInfo = operation.getType().getChangeInfo();
+        switch (operation.getType()) {
+            case BIND: {
+                if (children.containsKey(childName)) {
+                    throw nameAlreadyBoundException(name);
+                }
+                final Binding binding = new Binding(childName, operation.getClassName(), operation.getObject(), true);
+                events.add(new NamingEventCoordinator.BatchedEvent(name, null, binding, NamingEvent.OBJECT_ADDED, changeInfo));
+                return parent.update(name, children.put(childName, new TreeNode(name, binding)));
+            }
+            case REBIND: {
+                final Binding binding = new Binding(childName, operation.getClassName(), operation.getObject(), true);
+                final TreeNode previous = children.get(childName);
+                final Binding previousBinding = previous != null ? previous.binding : null;
+                events.add(new NamingEventCoordinator.BatchedEvent(name, previousBinding, binding, previousBinding != null ? NamingEvent.OBJECT_CHANGED : NamingEvent.OBJECT_ADDED, changeInfo));
+                return parent.update(name, children.put(childName, new TreeNode(name, binding)));
+            }
+            case CREATE_SUBCONTEXT: {
+                if (children.containsKey(childName)) {
+                    throw nameAlreadyBoundException(name);
+                }
+                final ContextNode subContextNode = new ContextNode(name, new NamingContext(name, this, new Hashtable<String, Object>()));
+                events.add(new NamingEventCoordinator.BatchedEvent(name, null, subContextNode.binding, NamingEvent.OBJECT_ADDED, changeInfo));
+                return parent.update(name, children.put(childName, subContextNode));
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported batch operation " + operation.getType());
+        }
+    }
+
+    /**
+     * Lookup the object value of a binding node in the tree.
+     *
+     * @param name The entry name
+     * @return The object value of the binding
+     * @throws NamingException
+     */
+    public Object lookup(final Name name) throws NamingException {
+        return snapshot().lookup(name);
+    }
+
+    /**
+     * List all NameClassPair instances at a given location in the tree.
+     *
+     * @param name The entry name
+     * @return The NameClassPair instances
+     * @throws NamingException
+     */
+    public List<NameClassPair> list(final Name name) throws NamingException {
+        return snapshot().list(name);
+    }
+
+    /**
+     * List all the Binding instances at a given location in the tree.
+     *
+     * @param name The entry name
+     * @return The Binding instances
+     * @throws NamingException
+     */
+    public List<Binding> listBindings(final Name name) throws NamingException {
+        return snapshot().listBindings(name);
+    }
+
+    /**
+     * List a page of the Binding instances at a given location in the tree, in the stable hash order of their names.
+     *
+     * @param name The entry name
+     * @param after The name of the binding to list after, or {@code null} to start with the first binding
+     * @param maxResults The maximum number of bindings to list
+     * @return The Binding instances
+     * @throws NamingException
+     */
+    public List<Binding> listBindings(final Name name, final String after, final int maxResults) throws NamingException {
+        return snapshot().listBindings(name, after, maxResults);
+    }
+
+    /**
+     * Create a context node at the give location in the tree.
+     *
+     * @param callingContext The calling context
+     * @param name The entry name
+     * @return The new context
+     * @throws NamingException
+     */
+    public Context createSubcontext(final Context callingContext, final Name name) throws NamingException {
+        if (isLastComponentEmpty(name)) {
+            throw emptyNameException();
+        }
+        checkPermissions(name, JndiPermission.Action.CREATE_SUBCONTEXT);
+        final String childName = getLastComponent(name);
+        final NamingContext subContext = new NamingContext(name, this, new Hashtable<String, Object>());
+        final ContextNode subContextNode = new ContextNode(name, subContext);
+        ContextNode current;
+        do {
+            current = root.get();
+            final Location parent = findParentContext(current, name);
+            if (parent.context.children.containsKey(childName)) {
+                throw nameAlreadyBoundException(name);
+            }
+            if (root.compareAndSet(current, parent.update(name, parent.context.children.put(childName, subContextNode)))) {
+                break;
+            }
+        } while (true);
+        lookupCache.invalidate(name);
+        fireEvent(callingContext, name, null, subContextNode.binding, NamingEvent.OBJECT_ADDED, "createSubcontext");
+        return subContext;
+    }
+
+    /**
+     * Take a consistent snapshot of the current tree.  This takes constant time and the snapshot is not affected by
+     * later changes to the store.
+     *
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(root.get());
+    }
+
+    /**
+     * Get the lookup cache of this store.
+     *
+     * @return The lookup cache
+     */
+    public NamingLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    /**
+     * Get the event coordinator of this store.
+     *
+     * @return The event coordinator, or {@code null} if the store has no event support
+     */
+    public NamingEventCoordinator getEventCoordinator() {
+        return eventCoordinator;
+    }
+
+    /**
+     * Close the store.  This will clear all children from the root node.
+     *
+     * @throws NamingException
+     */
+    public void close() throws NamingException {
+        root.set(new ContextNode(emptyName(), null));
+        lookupCache.invalidate();
+    }
+
+    /**
+     * Add a {@code NamingListener} to the naming event coordinator.
+     *
+     * @param target The target name to add the listener to
+     * @param scope The listener scope
+     * @param listener The listener
+     */
+    public void addNamingListener(final Name target, final int scope, final NamingListener listener) {
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null) {
+            coordinator.addListener(target.toString(), scope, listener);
+        }
+    }
+
+    /**
+     * Remove a {@code NamingListener} from the naming event coordinator.
+     *
+     * @param listener The listener
+     */
+    public void removeNamingListener(final NamingListener listener) {
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null) {
+            coordinator.removeListener(listener);
+        }
+    }
+
+    /**
+     * Walk a version of the tree along the first {@code size} components of the name.  The walk stops early if a binding
+     * node is found before all components have been consumed, in which case that binding node is returned.  A trailing
+     * empty component refers to the context it follows.
+     *
+     * @param root The root of the version of the tree to walk
+     * @param name The name to walk
+     * @param size The number of name components to walk
+     * @param path If not {@code null}, receives the context nodes passed through on the way
+     * @return The location of the node found
+     * @throws NamingException If any of the components can not be found
+     */
+    private Location traverse(final ContextNode root, final Name name, final int size, final ContextNode[] path) throws NamingException {
+        TreeNode current = root;
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            final String childName = name.get(i);
+            if (i == size - 1 && childName.length() == 0) {
+                break;
+            }
+            if (!(current instanceof ContextNode)) {
+                break;
+            }
+            if (path != null) {
+                path[i] = ContextNode.class.cast(current);
+            }
+            final TreeNode next = ContextNode.class.cast(current).children.get(childName);
+            if (next == null) {
+                throw nameNotFoundException(childName, name.getPrefix(size).getSuffix(i + 1));
+            }
+            current = next;
+            depth = i + 1;
+        }
+        return new Location(current, depth, path);
+    }
+
+    /**
+     * Determine whether a node returned by {@link #traverse} is a binding found before the end of the name.
+     */
+    private boolean isIntermediate(final TreeNode node, final Name name, final int size) {
+        if (node instanceof ContextNode) {
+            return false;
+        }
+        final int effectiveSize = size > 0 && name.get(size - 1).length() == 0 ? size - 1 : size;
+        return node.fullName.size() < effectiveSize;
+    }
+
+    private Location findParentContext(final ContextNode root, final Name name) throws NamingException {
+        final int parentSize = name.size() - 1;
+        final Location location = traverse(root, name, parentSize, new ContextNode[parentSize]);
+        final TreeNode node = location.node;
+        if (node instanceof ContextNode) {
+            return location;
+        }
+        final Object object = node.binding.getObject();
+        if (isIntermediate(node, name, parentSize)) {
+            checkReferenceForContinuation(name.getPrefix(parentSize).getSuffix(node.fullName.size()), object);
+            throw notAContextException(node.fullName);
+        }
+        checkReferenceForContinuation(name.getSuffix(node.fullName.size()), object);
+        throw notAContextException(name);
+    }
+
+    private ContextNode findContext(final ContextNode root, final Name name) throws NamingException {
+        final int size = name.size();
+        final TreeNode node = traverse(root, name, size, null).node;
+        if (node instanceof ContextNode) {
+            return ContextNode.class.cast(node);
+        }
+        final Object object = node.binding.getObject();
+        if (isIntermediate(node, name, size)) {
+            checkReferenceForContinuation(name.getSuffix(node.fullName.size()), object);
+            throw notAContextException(node.fullName);
+        }
+        checkReferenceForContinuation(emptyName(), object);
+        throw notAContextException(name);
+    }
+
+    private void fireEvent(final Context callingContext, final Name name, final Binding existingBinding, final Binding newBinding, final int type, final String changeInfo) {
+        final NamingEventCoordinator coordinator = this.eventCoordinator;
+        if (coordinator != null && callingContext instanceof EventContext) {
+            coordinator.fireEvent(EventContext.class.cast(callingContext), name, existingBinding, newBinding, type, changeInfo, NamingEventCoordinator.DEFAULT_SCOPES);
+        }
+    }
+
+    private void checkReferenceForContinuation(final Name name, final Object object) throws CannotProceedException {
+        if (object instanceof Reference) {
+            if (asReference(object).get("nns") != null) {
+                throw cannotProceedException(object, name);
+            }
+        }
+    }
+
+    private void checkPermissions(final Name name, JndiPermission.Action permission) {
+        JndiPermissionChecker.checkPermission(name, permission);
+    }
+
+    /**
+     * A consistent, read-only view of one version of the tree.
+     */
+    public final class Snapshot {
+        private final ContextNode root;
+
+        private Snapshot(final ContextNode root) {
+            this.root = root;
+        }
+
+        /**
+         * Lookup the object value of a binding node in the snapshot.
+         *
+         * @param name The entry name
+         * @return The object value of the binding
+         * @throws NamingException
+         */
+        public Object lookup(final Name name) throws NamingException {
+            if (isEmpty(name)) {
+                final Name emptyName = new CompositeName("");
+                checkPermissions(emptyName, JndiPermission.Action.LOOKUP);
+                return new NamingContext(emptyName, PersistentNamingStore.this, new Hashtable<String, Object>());
+            }
+            checkPermissions(name, JndiPermission.Action.LOOKUP);
+            final int size = name.size();
+            final TreeNode node = traverse(root, name, size, null).node;
+            if (isIntermediate(node, name, size)) {
+                final Name remainingName = name.getSuffix(node.fullName.size());
+                final Object boundObject = node.binding.getObject();
+                checkReferenceForContinuation(remainingName, boundObject);
+                return new ResolveResult(boundObject, remainingName);
+            }
+            return node.binding.getObject();
+        }
+
+        /**
+         * List all NameClassPair instances at a given location in the snapshot.
+         *
+         * @param name The entry name
+         * @return The NameClassPair instances
+         * @throws NamingException
+         */
+        public List<NameClassPair> list(final Name name) throws NamingException {
+            final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+            checkPermissions(nodeName, JndiPermission.Action.LIST);
+            final ContextNode contextNode = findContext(root, nodeName);
+            final List<NameClassPair> nameClassPairs = new ArrayList<NameClassPair>(contextNode.children.size());
+            contextNode.children.visit(null, new PersistentHashMap.EntryVisitor<String, TreeNode>() {
+                public boolean visit(final String key, final TreeNode childNode) {
+                    final Binding binding = childNode.binding;
+                    nameClassPairs.add(new NameClassPair(binding.getName(), binding.getClassName(), true));
+                    return true;
+                }
+            });
+            return nameClassPairs;
+        }
+
+        /**
+         * List all the Binding instances at a given location in the snapshot.
+         *
+         * @param name The entry name
+         * @return The Binding instances
+         * @throws NamingException
+         */
+        public List<Binding> listBindings(final Name name) throws NamingException {
+            return listBindings(name, null, Integer.MAX_VALUE);
+        }
+
+        /**
+         * List a page of the Binding instances at a given location in the snapshot.  Bindings are listed in an order
+         * which only depends on their names, so a listing can be continued in a later snapshot by passing the name of
+         * the last binding listed.
+         *
+         * @param name The entry name
+         * @param after The name of the binding to list after, or {@code null} to start with the first binding
+         * @param maxResults The maximum number of bindings to list
+         * @return The Binding instances
+         * @throws NamingException
+         */
+        public List<Binding> listBindings(final Name name, final String after, final int maxResults) throws NamingException {
+            final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+            checkPermissions(nodeName, JndiPermission.Action.LIST_BINDINGS);
+            final ContextNode contextNode = findContext(root, nodeName);
+            final List<Binding> bindings = new ArrayList<Binding>(Math.min(contextNode.children.size(), maxResults));
+            if (maxResults > 0) {
+                contextNode.children.visit(after, new PersistentHashMap.EntryVisitor<String, TreeNode>() {
+                    public boolean visit(final String key, final TreeNode childNode) {
+                        bindings.add(childNode.binding);
+                        return bindings.size() < maxResults;
+                    }
+                });
+            }
+            return bindings;
+        }
+
+        /**
+         * Get the number of bindings at a given location in the snapshot.
+         *
+         * @param name The entry name
+         * @return The number of bindings
+         * @throws NamingException
+         */
+        public int size(final Name name) throws NamingException {
+            final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+            checkPermissions(nodeName, JndiPermission.Action.LIST);
+            return findContext(root, nodeName).children.size();
+        }
+
+        /**
+         * Walk all bindings below a given location in the snapshot, depth first, without collecting them.
+         *
+         * @param name The entry name
+         * @param visitor The visitor
+         * @throws NamingException
+         */
+        public void visit(final Name name, final BindingVisitor visitor) throws NamingException {
+            final Name nodeName = name.isEmpty() ? new CompositeName("") : name;
+            checkPermissions(nodeName, JndiPermission.Action.LIST_BINDINGS);
+            visit(findContext(root, nodeName), 0, visitor);
+        }
+
+        private boolean visit(final ContextNode contextNode, final int depth, final BindingVisitor visitor) {
+            return contextNode.children.visit(null, new PersistentHashMap.EntryVisitor<String, TreeNode>() {
+                public boolean visit(final String key, final TreeNode childNode) {
+                    if (!visitor.visit(childNode.fullName, childNode.binding, depth)) {
+                        return false;
+                    }
+                    return !(childNode instanceof ContextNode) || Snapshot.this.visit(ContextNode.class.cast(childNode), depth + 1, visitor);
+                }
+            });
+        }
+    }
+
+    /**
+     * Visitor of the bindings in a snapshot.
+     */
+    public interface BindingVisitor {
+        /**
+         * Visit a binding.
+         *
+         * @param name The full name of the binding
+         * @param binding The binding
+         * @param depth The depth of the binding below the visited location, starting with 0
+         * @return {@code true} to continue the walk
+         */
+        boolean visit(Name name, Binding binding, int depth);
+    }
+
+    /**
+     * The node found by walking a version of the tree, along with the context nodes passed through on the way.
+     */
+    private static final class Location {
+        private final TreeNode node;
+        private final ContextNode context;
+        private final int depth;
+        private final ContextNode[] path;
+
+        private Location(final TreeNode node, final int depth, final ContextNode[] path) {
+            this.node = node;
+            this.context = node instanceof ContextNode ? ContextNode.class.cast(node) : null;
+            this.depth = depth;
+            this.path = path;
+        }
+
+        /**
+         * Create a new version of the tree in which the context found has the given children.
+         *
+         * @param name The name that was walked
+         * @param children The new children of the context found
+         * @return The root of the new version
+         */
+        private ContextNode update(final Name name, final PersistentHashMap<String, TreeNode> children) {
+            ContextNode updated = context.withChildren(children);
+            for (int i = depth - 1; i >= 0; i--) {
+                final ContextNode parent = path[i];
+                updated = parent.withChildren(parent.children.put(name.get(i), updated));
+            }
+            return updated;
+        }
+    }
+
+    private static class TreeNode {
+        protected final Name fullName;
+        protected final Binding binding;
+
+        private TreeNode(final Name fullName, final Binding binding) {
+            this.fullName = fullName;
+            this.binding = binding;
+        }
+    }
+
+    private static class ContextNode extends TreeNode {
+        private final PersistentHashMap<String, TreeNode> children;
+
+        private ContextNode(final Name fullName, final NamingContext context) {
+            this(fullName, new Binding(getLastComponent(fullName), Context.class.getName(), context), PersistentHashMap.<String, TreeNode>empty());
+        }
+
+        private ContextNode(final Name fullName, final Binding binding, final PersistentHashMap<String, TreeNode> children) {
+            super(fullName, binding);
+            this.children = children;
+        }
+
+        private ContextNode withChildren(final PersistentHashMap<String, TreeNode> children) {
+            return new ContextNode(fullName, binding, children);
+        }
+    }
+}
@@ -23,17 +23,56 @@
 package org.jboss.as.naming.context;
 
 import javax.naming.Context;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Selects a naming context based on the provided identifier (eg. comp).  Maintains a thread local used to managed the current selector.
  * The current selector will be used by instances of {@code org.jboss.as.naming.contexts.NamespaceObjectFactory} to determine
  * which context to return.
+ * <p/>
+ * A selector whose contexts do not change once resolved can pin them, either eagerly through {@link #pinContexts(String...)}
+ * or, if it is created with {@code pinResolvedContexts} set, the first time each context is resolved.  Pinned contexts
+ * are handed out directly, without asking the selector to resolve them again.  The pinned and resolved request counts
+ * of all selectors are summed up by {@link #getTotalPinnedLookupCount()} and {@link #getTotalResolvedLookupCount()}.
  *
  * @author John E. Bailey
  */
 public abstract class NamespaceContextSelector {
     /* Thread local maintaining the current context selector */
-    private static ThreadLocal<NamespaceContextSelector> currentSelector = new ThreadLocal<NamespaceContextSelector>();
+    private static final ThreadLocal<NamespaceContextSelector> currentSelector = new ThreadLocal<NamespaceContextSelector>();
+
+    /* The pinned and resolved request counts of all selectors */
+    private static final AtomicLong totalPinnedLookups = new AtomicLong();
+    private static final AtomicLong totalResolvedLookups = new AtomicLong();
+
+    /* The pinned contexts by identifier, replaced as a whole when contexts are pinned or unpinned */
+    private volatile Map<String, Context> pinnedContexts = Collections.emptyMap();
+
+    private final boolean pinResolvedContexts;
+
+    private final AtomicLong pinnedLookups = new AtomicLong();
+    private final AtomicLong resolvedLookups = new AtomicLong();
+
+    /**
+     * Create a selector which resolves every request with {@link #getContext(String)} unless contexts are pinned
+     * through {@link #pinContexts(String...)}.
+     */
+    protected NamespaceContextSelector() {
+        this(false);
+    }
+
+    /**
+     * Create a selector.
+     *
+     * @param pinResolvedContexts {@code true} to pin each context the first time it is resolved, for selectors whose
+     *                            contexts do not change once resolved
+     */
+    protected NamespaceContextSelector(final boolean pinResolvedContexts) {
+        this.pinResolvedContexts = pinResolvedContexts;
+    }
 
     /**
      * Set the current context selector for the current thread.
@@ -61,4 +100,95 @@ public abstract class NamespaceContextSelector {
      * @return The context for this identifier
      */
     public abstract Context getContext(final String identifier);
+
+    /**
+     * Resolve the contexts for the given identifiers and pin them, so later requests for these identifiers are served
+     * without calling {@link #getContext(String)}.  Identifiers which do not resolve to a context are not pinned.
+     *
+     * @param identifiers The context identifiers (eg. comp, module, app)
+     */
+    public synchronized void pinContexts(final String... identifiers) {
+        final Map<String, Context> pinned = new HashMap<String, Context>(pinnedContexts);
+        for (String identifier : identifiers) {
+            final Context context = getContext(identifier);
+            if (context != null) {
+                pinned.put(identifier, context);
+            }
+        }
+        pinnedContexts = Collections.unmodifiableMap(pinned);
+    }
+
+    private synchronized void pinContext(final String identifier, final Context context) {
+        if (!pinnedContexts.containsKey(identifier)) {
+            final Map<String, Context> pinned = new HashMap<String, Context>(pinnedContexts);
+            pinned.put(identifier, context);
+            pinnedContexts = Collections.unmodifiableMap(pinned);
+        }
+    }
+
+    /**
+     * Release all pinned contexts, normally when the deployment owning the selector is removed.
+     */
+    public synchronized void unpinContexts() {
+        pinnedContexts = Collections.emptyMap();
+    }
+
+    /**
+     * Get the context for a given identifier, using the pinned context if there is one and resolving it with
+     * {@link #getContext(String)} otherwise.
+     *
+     * @param identifier The context identifier
+     * @return The context for this identifier
+     */
+    public final Context selectContext(final String identifier) {
+        final Context pinned = pinnedContexts.get(identifier);
+        if (pinned != null) {
+            pinnedLookups.incrementAndGet();
+            totalPinnedLookups.incrementAndGet();
+            return pinned;
+        }
+        resolvedLookups.incrementAndGet();
+        totalResolvedLookups.incrementAndGet();
+        final Context context = getContext(identifier);
+        if (pinResolvedContexts && context != null) {
+            pinContext(identifier, context);
+        }
+        return context;
+    }
+
+    /**
+     * Get the number of context requests served from the pinned contexts, bypassing resolution against the naming store.
+     *
+     * @return The pinned lookup count
+     */
+    public long getPinnedLookupCount() {
+        return pinnedLookups.get();
+    }
+
+    /**
+     * Get the number of context requests which had to be resolved by {@link #getContext(String)}.
+     *
+     * @return The resolved lookup count
+     */
+    public long getResolvedLookupCount() {
+        return resolvedLookups.get();
+    }
+
+    /**
+     * Get the number of context requests served from pinned contexts by all selectors.
+     *
+     * @return The total pinned lookup count
+     */
+    public static long getTotalPinnedLookupCount() {
+        return totalPinnedLookups.get();
+    }
+
+    /**
+     * Get the number of context requests resolved by {@link #getContext(String)} for all selectors.
+     *
+     * @return The total resolved lookup count
+     */
+    public static long getTotalResolvedLookupCount() {
+        return totalResolvedLookups.get();
+    }
 }
@@ -72,6 +72,6 @@ public class NamespaceObjectFactory implements ObjectFactory {
         if(selector == null) {
             throw new NamingException("Failed to get context with name " + contextName);
         }
-        return selector.getContext(contextName);
+        return selector.selectContext(contextName);
     }
 }
@@ -22,18 +22,35 @@
 
 package org.jboss.as.naming.service;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.naming.Binding;
+import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.LinkRef;
+import javax.naming.Name;
 import javax.naming.NameClassPair;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import org.jboss.as.naming.JndiPermissionChecker;
+import org.jboss.as.naming.NamingEventCoordinator;
+import org.jboss.as.naming.NamingLookupCache;
+import org.jboss.as.naming.NamingStore;
+import org.jboss.as.naming.PersistentNamingStore;
+import org.jboss.as.naming.context.NamespaceContextSelector;
 import org.jboss.logging.Logger;
 import org.jboss.msc.inject.Injector;
 import org.jboss.msc.service.Service;
@@ -49,7 +66,14 @@ public class JndiView implements JndiViewMBean, Service<JndiView> {
     private static final Logger log = Logger.getLogger("org.jboss.as.naming");
     private static final String OBJECT_NAME = "jboss:type=JNDIView";
 
+    private static final Comparator<Binding> BINDING_NAME_ORDER = new Comparator<Binding>() {
+        public int compare(Binding one, Binding two) {
+            return one.getName().compareTo(two.getName());
+        }
+    };
+
     private final InjectedValue<MBeanServer> mbeanServerValue = new InjectedValue<MBeanServer>();
+    private final InjectedValue<NamingStore> namingStoreValue = new InjectedValue<NamingStore>();
 
     public synchronized void start(StartContext context) throws StartException {
         final MBeanServer mbeanServer = getMbeanServer();
@@ -77,6 +101,105 @@ public class JndiView implements JndiViewMBean, Service<JndiView> {
         return mbeanServerValue;
     }
 
+    public Injector<NamingStore> getNamingStoreInjector() {
+        return namingStoreValue;
+    }
+
+    /**
+     * Get the number of lookups served from the naming store's lookup cache.
+     *
+     * @return the hit count, or 0 if the naming store does not cache lookups
+     */
+    public long getLookupCacheHits() {
+        final NamingLookupCache lookupCache = getLookupCache();
+        return lookupCache != null ? lookupCache.getHits() : 0L;
+    }
+
+    /**
+     * Get the number of lookups which missed the naming store's lookup cache.
+     *
+     * @return the miss count, or 0 if the naming store does not cache lookups
+     */
+    public long getLookupCacheMisses() {
+        final NamingLookupCache lookupCache = getLookupCache();
+        return lookupCache != null ? lookupCache.getMisses() : 0L;
+    }
+
+    /**
+     * Get the number of entries currently held in the naming store's lookup cache.
+     *
+     * @return the cache size, or 0 if the naming store does not cache lookups
+     */
+    public int getLookupCacheSize() {
+        final NamingLookupCache lookupCache = getLookupCache();
+        return lookupCache != null ? lookupCache.getSize() : 0;
+    }
+
+    /**
+     * Get the number of entries evicted from the naming store's lookup cache because it was full.
+     *
+     * @return the eviction count, or 0 if the naming store does not cache lookups
+     */
+    public long getLookupCacheEvictions() {
+        final NamingLookupCache lookupCache = getLookupCache();
+        return lookupCache != null ? lookupCache.getEvictions() : 0L;
+    }
+
+    /**
+     * Get the number of naming events dropped because a listener fell too far behind.
+     *
+     * @return the dropped event count, or 0 if the naming store does not support events
+     */
+    public long getNamingEventsDropped() {
+        final NamingEventCoordinator eventCoordinator = getEventCoordinator();
+        return eventCoordinator != null ? eventCoordinator.getDroppedEventCount() : 0L;
+    }
+
+    /**
+     * Get the number of naming events merged into an event still pending delivery.
+     *
+     * @return the coalesced event count, or 0 if the naming store does not support events
+     */
+    public long getNamingEventsCoalesced() {
+        final NamingEventCoordinator eventCoordinator = getEventCoordinator();
+        return eventCoordinator != null ? eventCoordinator.getCoalescedEventCount() : 0L;
+    }
+
+    /**
+     * Get the number of naming events pending delivery.
+     *
+     * @return the pending event count, or 0 if the naming store does not support events
+     */
+    public int getNamingEventsPending() {
+        final NamingEventCoordinator eventCoordinator = getEventCoordinator();
+        return eventCoordinator != null ? eventCoordinator.getPendingEventCount() : 0;
+    }
+
+    /**
+     * Get the number of java: namespace context requests served from contexts pinned by their selector.
+     *
+     * @return the pinned namespace lookup count
+     */
+    public long getNamespacePinnedLookups() {
+        return NamespaceContextSelector.getTotalPinnedLookupCount();
+    }
+
+    /**
+     * Get the number of java: namespace context requests which their selector had to resolve.
+     *
+     * @return the resolved namespace lookup count
+     */
+    public long getNamespaceResolvedLookups() {
+        return NamespaceContextSelector.getTotalResolvedLookupCount();
+    }
+
+    /**
+     * Refresh the security policy, discarding the JNDI permission decisions cached against the old policy.
+     */
+    public void refreshSecurityPolicy() {
+        JndiPermissionChecker.refreshPolicy();
+    }
+
     /**
      * List deployed application java:comp namespaces, the java:
      * namespace as well as the global InitialContext JNDI namespace.
@@ -471,6 +594,129 @@ public class JndiView implements JndiViewMBean, Service<JndiView> {
         buffer.append("</pre>\n");
     }
 
+    /**
+     * List a page of the binding names in a context of the naming store.  Names are listed in the naming store's own
+     * order, which only depends on the names: ascending {@code String} order for the in-memory stores and a stable hash
+     * order for the persistent store.  A listing is continued by passing the last name of the previous page as
+     * {@code afterName}, and each page is read straight from the store without listing the names before it.
+     *
+     * @param contextName the name of the context to list, relative to the naming store root
+     * @param afterName the name to list after, or {@code null} to list from the start
+     * @param maxResults the maximum number of names to return
+     * @return the binding names
+     */
+    public String[] listPage(String contextName, String afterName, int maxResults) {
+        final List<Binding> bindings;
+        try {
+            final Name name = new CompositeName(contextName != null ? contextName : "");
+            bindings = namingStoreValue.getValue().listBindings(name, afterName, Math.max(maxResults, 0));
+        } catch (NamingException e) {
+            throw new IllegalArgumentException("Failed to list context " + contextName + ", " + e.toString(true));
+        }
+        final String[] names = new String[bindings.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = bindings.get(i).getName();
+        }
+        return names;
+    }
+
+    /**
+     * Write the tree below a context of the naming store to a file, one binding per line.
+     *
+     * @param contextName the name of the context to write, relative to the naming store root
+     * @param fileName the name of the file to write
+     */
+    public void writeTree(String contextName, String fileName) {
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8");
+            try {
+                writeTree(contextName, writer);
+            } finally {
+                writer.close();
+            }
+        } catch (NamingException e) {
+            throw new IllegalArgumentException("Failed to list context " + contextName + ", " + e.toString(true));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to write " + fileName + ", " + e.toString());
+        }
+    }
+
+    /**
+     * Write the tree below a context of the naming store to a writer, one binding per line and the bindings of each
+     * context in ascending name order, without building the whole listing in memory.  If the naming store supports
+     * snapshots the tree written is a consistent snapshot.
+     *
+     * @param contextName the name of the context to write, relative to the naming store root
+     * @param writer the writer
+     * @throws NamingException if the context can not be listed
+     * @throws IOException if the writer fails
+     */
+    public void writeTree(String contextName, final Writer writer) throws NamingException, IOException {
+        final Name name = new CompositeName(contextName != null ? contextName : "");
+        writeTree(getBindingSource(), name, 0, writer);
+        writer.flush();
+    }
+
+    private void writeTree(BindingSource source, Name name, int depth, Writer writer) throws NamingException, IOException {
+        for (Binding binding : listSortedBindings(source, name)) {
+            writeBinding(writer, binding, depth);
+            if (binding.getObject() instanceof Context) {
+                writeTree(source, ((Name) name.clone()).add(binding.getName()), depth + 1, writer);
+            }
+        }
+    }
+
+    private BindingSource getBindingSource() {
+        final NamingStore namingStore = namingStoreValue.getValue();
+        if (namingStore instanceof PersistentNamingStore) {
+            final PersistentNamingStore.Snapshot snapshot = ((PersistentNamingStore) namingStore).snapshot();
+            return new BindingSource() {
+                public List<Binding> listBindings(Name name) throws NamingException {
+                    return snapshot.listBindings(name);
+                }
+            };
+        }
+        return new BindingSource() {
+            public List<Binding> listBindings(Name name) throws NamingException {
+                return namingStore.listBindings(name);
+            }
+        };
+    }
+
+    private static List<Binding> listSortedBindings(BindingSource source, Name name) throws NamingException {
+        final List<Binding> bindings = new ArrayList<Binding>(source.listBindings(name));
+        Collections.sort(bindings, BINDING_NAME_ORDER);
+        return bindings;
+    }
+
+    /**
+     * The bindings of a context, either read from the naming store or from one snapshot of it.
+     */
+    private interface BindingSource {
+        List<Binding> listBindings(Name name) throws NamingException;
+    }
+
+    private void writeBinding(Writer writer, Binding binding, int depth) throws IOException {
+        for (int i = 0; i < depth; i++) {
+            writer.write(" |  ");
+        }
+        writer.write(" +- ");
+        writer.write(binding.getName());
+        writer.write(" (class: ");
+        writer.write(String.valueOf(binding.getClassName()));
+        writer.write(")\n");
+    }
+
+    private NamingLookupCache getLookupCache() {
+        final NamingStore namingStore = namingStoreValue.getOptionalValue();
+        return namingStore != null ? namingStore.getLookupCache() : null;
+    }
+
+    private NamingEventCoordinator getEventCoordinator() {
+        final NamingStore namingStore = namingStoreValue.getOptionalValue();
+        return namingStore != null ? namingStore.getEventCoordinator() : null;
+    }
+
     private MBeanServer getMbeanServer() {
         MBeanServer mbeanServer = mbeanServerValue.getOptionalValue();
         if (mbeanServer == null) {
@@ -32,4 +32,28 @@ public interface JndiViewMBean {
   java.lang.String list(boolean verbose) ;
 
   java.lang.String listXML() ;
+
+  long getLookupCacheHits() ;
+
+  long getLookupCacheMisses() ;
+
+  int getLookupCacheSize() ;
+
+  long getLookupCacheEvictions() ;
+
+  long getNamingEventsDropped() ;
+
+  long getNamingEventsCoalesced() ;
+
+  int getNamingEventsPending() ;
+
+  long getNamespacePinnedLookups() ;
+
+  long getNamespaceResolvedLookups() ;
+
+  void refreshSecurityPolicy() ;
+
+  java.lang.String[] listPage(java.lang.String contextName, java.lang.String afterName, int maxResults) ;
+
+  void writeTree(java.lang.String contextName, java.lang.String fileName) ;
 }
@@ -22,9 +22,9 @@
 
 package org.jboss.as.naming.service;
 
+import java.util.concurrent.Executor;
 import javax.naming.NamingException;
 
-import org.jboss.as.naming.InMemoryNamingStore;
 import org.jboss.as.naming.NamingContext;
 import org.jboss.as.naming.NamingEventCoordinator;
 import org.jboss.as.naming.NamingStore;
@@ -34,6 +34,7 @@ import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.StartContext;
 import org.jboss.msc.service.StartException;
 import org.jboss.msc.service.StopContext;
+import org.jboss.msc.value.InjectedValue;
 
 /**
  * Service responsible for creating and managing the life-cycle of the Naming Server.
@@ -45,14 +46,27 @@ public class NamingService implements Service<NamingStore> {
     private static final Logger log = Logger.getLogger("org.jboss.as.naming");
     private NamingStore namingStore;
     private final boolean supportEvents;
+    private final NamingStoreType namingStoreType;
+    private final InjectedValue<Executor> eventExecutorValue = new InjectedValue<Executor>();
 
     /**
-     * Construct a new instance.
+     * Construct a new instance using the default in-memory naming store.
      *
      * @param supportEvents Should the naming impl support events.
      */
     public NamingService(final boolean supportEvents) {
+        this(supportEvents, NamingStoreType.IN_MEMORY);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param supportEvents Should the naming impl support events.
+     * @param namingStoreType The type of naming store to create
+     */
+    public NamingService(final boolean supportEvents, final NamingStoreType namingStoreType) {
         this.supportEvents = supportEvents;
+        this.namingStoreType = namingStoreType;
     }
 
     /**
@@ -64,16 +78,18 @@ public class NamingService implements Service<NamingStore> {
     public synchronized void start(StartContext context) throws StartException {
         log.info("Starting Naming Service ");
         try {
-            if(supportEvents)
-                namingStore = new InMemoryNamingStore(new NamingEventCoordinator());
-            else
-                namingStore = new InMemoryNamingStore();
+            namingStore = namingStoreType.create(supportEvents ? createEventCoordinator() : null);
             NamingContext.setActiveNamingStore(namingStore);
         } catch (Throwable t) {
             throw new StartException("Failed to start naming server", t);
         }
     }
 
+    private NamingEventCoordinator createEventCoordinator() {
+        final Executor eventExecutor = eventExecutorValue.getOptionalValue();
+        return eventExecutor != null ? new NamingEventCoordinator(eventExecutor) : new NamingEventCoordinator();
+    }
+
     /**
      * Removes the naming server from the naming context.
      *
@@ -97,4 +113,14 @@ public class NamingService implements Service<NamingStore> {
     public synchronized NamingStore getValue() throws IllegalStateException {
         return namingStore;
     }
+
+    /**
+     * Get the injector for the executor used to deliver naming events.  If nothing is injected the event coordinator
+     * uses its own threads.
+     *
+     * @return The injector
+     */
+    public InjectedValue<Executor> getEventExecutorInjector() {
+        return eventExecutorValue;
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.as.naming.ConcurrentNamingStore;
+import org.jboss.as.naming.InMemoryNamingStore;
+import org.jboss.as.naming.NamingEventCoordinator;
+import org.jboss.as.naming.NamingStore;
+import org.jboss.as.naming.PersistentNamingStore;
+
+/**
+ * The naming store implementations which can be selected with the naming subsystem "naming-store" attribute.
+ */
+public enum NamingStoreType {
+    UNKNOWN(null),
+    IN_MEMORY("in-memory") {
+        NamingStore create(final NamingEventCoordinator eventCoordinator) {
+            return new InMemoryNamingStore(eventCoordinator);
+        }
+    },
+    CONCURRENT("concurrent") {
+        NamingStore create(final NamingEventCoordinator eventCoordinator) {
+            return new ConcurrentNamingStore(eventCoordinator);
+        }
+    },
+    PERSISTENT("persistent") {
+        NamingStore create(final NamingEventCoordinator eventCoordinator) {
+            return new PersistentNamingStore(eventCoordinator);
+        }
+    },
+    ;
+    private final String name;
+
+    NamingStoreType(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the configuration name of this store type.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Create a new naming store of this type.
+     *
+     * @param eventCoordinator The event coordinator, or {@code null} if events are not supported
+     * @return The naming store
+     */
+    NamingStore create(final NamingEventCoordinator eventCoordinator) {
+        throw new IllegalStateException("Can not create a naming store of type " + this);
+    }
+
+    private static final Map<String, NamingStoreType> MAP;
+
+    static {
+        final Map<String, NamingStoreType> map = new HashMap<String, NamingStoreType>();
+        for (NamingStoreType type : values()) {
+            final String name = type.getName();
+            if (name != null) map.put(name, type);
+        }
+        MAP = map;
+    }
+
+    public static NamingStoreType forName(String name) {
+        final NamingStoreType type = MAP.get(name);
+        return type == null ? UNKNOWN : type;
+    }
+
+    public String toString() {
+        return getName();
+    }
+}
@@ -25,9 +25,12 @@ package org.jboss.as.naming.service;
 import javax.management.MBeanServer;
 import org.jboss.as.model.AbstractSubsystemElement;
 import org.jboss.as.naming.InitialContextFactoryBuilder;
+import org.jboss.as.naming.NamingStore;
 import org.jboss.as.naming.context.NamespaceObjectFactory;
+import org.jboss.as.threads.AbstractExecutorElement;
 import org.jboss.logging.Logger;
 import org.jboss.msc.service.BatchBuilder;
+import org.jboss.msc.service.BatchServiceBuilder;
 import org.jboss.msc.service.ServiceActivatorContext;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.value.Values;
@@ -38,6 +41,7 @@ import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.Reference;
 import javax.naming.spi.NamingManager;
+import java.util.concurrent.Executor;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 
@@ -56,6 +60,8 @@ final class NamingSubsystemElement extends AbstractSubsystemElement<NamingSubsys
     private boolean bindAppContext;
     private boolean bindModuleContext;
     private boolean bindCompContext;
+    private NamingStoreType namingStoreType = NamingStoreType.IN_MEMORY;
+    private String eventThreadPool;
 
     /**
      * Create a new instance without a stream reader.
@@ -98,6 +104,17 @@ final class NamingSubsystemElement extends AbstractSubsystemElement<NamingSubsys
                     bindCompContext = Boolean.parseBoolean(reader.getAttributeValue(i));
                     break;
                 }
+                case NAMING_STORE: {
+                    namingStoreType = NamingStoreType.forName(reader.getAttributeValue(i));
+                    if (namingStoreType == NamingStoreType.UNKNOWN) {
+                        throw new XMLStreamException("Invalid naming store '" + reader.getAttributeValue(i) + "'", reader.getLocation());
+                    }
+                    break;
+                }
+                case EVENT_THREAD_POOL: {
+                    eventThreadPool = reader.getAttributeValue(i);
+                    break;
+                }
                 default: throw unexpectedAttribute(reader, i);
             }
         }
@@ -123,6 +140,10 @@ final class NamingSubsystemElement extends AbstractSubsystemElement<NamingSubsys
         streamWriter.writeAttribute(Attribute.BIND_APP_CONTEXT.getLocalName(), Boolean.toString(isBindAppContext()));
         streamWriter.writeAttribute(Attribute.BIND_MODULE_CONTEXT.getLocalName(), Boolean.toString(isBindModuleContext()));
         streamWriter.writeAttribute(Attribute.BIND_COMP_CONTEXT.getLocalName(), Boolean.toString(isBindCompContext()));
+        streamWriter.writeAttribute(Attribute.NAMING_STORE.getLocalName(), getNamingStoreType().getName());
+        if (eventThreadPool != null) {
+            streamWriter.writeAttribute(Attribute.EVENT_THREAD_POOL.getLocalName(), eventThreadPool);
+        }
         streamWriter.writeEndElement();
     }
 
@@ -147,7 +168,11 @@ final class NamingSubsystemElement extends AbstractSubsystemElement<NamingSubsys
 
         // Create the Naming Service
         final BatchBuilder builder = context.getBatchBuilder();
-        builder.addService(NamingService.SERVICE_NAME, new NamingService(isSupportEvents()));
+        final NamingService namingService = new NamingService(isSupportEvents(), getNamingStoreType());
+        final BatchServiceBuilder<NamingStore> namingServiceBuilder = builder.addService(NamingService.SERVICE_NAME, namingService);
+        if (isSupportEvents() && eventThreadPool != null) {
+            namingServiceBuilder.addDependency(AbstractExecutorElement.JBOSS_THREAD_EXECUTOR.append(eventThreadPool), Executor.class, namingService.getEventExecutorInjector());
+        }
 
         // Create java: context service
         final JavaContextService javaContextService = new JavaContextService();
@@ -170,6 +195,7 @@ final class NamingSubsystemElement extends AbstractSubsystemElement<NamingSubsys
 
         final JndiView jndiView = new JndiView();
         builder.addService(ServiceName.JBOSS.append("naming", "jndi", "view"), jndiView)
+            .addDependency(NamingService.SERVICE_NAME, NamingStore.class, jndiView.getNamingStoreInjector())
             .addOptionalDependency(ServiceName.JBOSS.append("mbean", "server"), MBeanServer.class, jndiView.getMBeanServerInjector());
     }
 
@@ -195,4 +221,12 @@ final class NamingSubsystemElement extends AbstractSubsystemElement<NamingSubsys
     public boolean isBindCompContext() {
         return bindCompContext;
     }
+
+    public NamingStoreType getNamingStoreType() {
+        return namingStoreType;
+    }
+
+    public String getEventThreadPool() {
+        return eventThreadPool;
+    }
 }
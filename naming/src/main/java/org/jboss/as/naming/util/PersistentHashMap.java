@@ -0,0 +1,449 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming.util;
+
+/**
+ * An immutable hash array mapped trie.  Updates return a new map which shares all unchanged nodes with the map it was
+ * derived from, so a map can be handed to any number of readers and read without locking while writers derive new
+ * versions from it.
+ * <p/>
+ * The trie consumes the hash of a key from its most significant bits down, so visiting the map walks the entries in
+ * ascending order of their (unsigned) hash, and keys with equal hashes in their natural order.  That order only depends
+ * on the keys in the map, which allows a visit to resume after a given key in a later version of the map.
+ * <p/>
+ * Neither keys nor values may be {@code null}.
+ */
+public final class PersistentHashMap<K extends Comparable<K>, V> {
+
+    /* The shift of the top level of the trie.  Each level consumes 5 bits of the hash. */
+    private static final int TOP_SHIFT = 27;
+
+    /* The shift of the bottom level of the trie, which consumes the last 2 bits of the hash */
+    private static final int BOTTOM_SHIFT = -3;
+
+    @SuppressWarnings("unchecked")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(final Node<K, V> root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Get the empty map.
+     *
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<K>, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Get the value mapped to a key.
+     *
+     * @param key the key
+     * @return the value, or {@code null} if the key is not mapped
+     */
+    public V get(final K key) {
+        return root != null ? root.get(key, hash(key), TOP_SHIFT) : null;
+    }
+
+    /**
+     * Determine whether a key is mapped.
+     *
+     * @param key the key
+     * @return {@code true} if the key is mapped
+     */
+    public boolean containsKey(final K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Get a map with the key mapped to the value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the new map, or this map if the key is already mapped to the value
+     */
+    public PersistentHashMap<K, V> put(final K key, final V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Keys and values can not be null");
+        }
+        final boolean[] added = new boolean[1];
+        final Node<K, V> current = root != null ? root : BitmapNode.<K, V>emptyNode();
+        final Node<K, V> newRoot = current.put(key, hash(key), value, TOP_SHIFT, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Get a map without a mapping for the key.
+     *
+     * @param key the key
+     * @return the new map, or this map if the key is not mapped
+     */
+    public PersistentHashMap<K, V> remove(final K key) {
+        if (root == null) {
+            return this;
+        }
+        final Node<K, V> newRoot = root.remove(key, hash(key), TOP_SHIFT);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot != null ? new PersistentHashMap<K, V>(newRoot, size - 1) : PersistentHashMap.<K, V>empty();
+    }
+
+    /**
+     * Get the number of mappings.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determine whether the map is empty.
+     *
+     * @return {@code true} if the map has no mappings
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visit the entries of the map in order.
+     *
+     * @param after the key to start after, or {@code null} to start with the first entry.  The key does not have to be
+     * mapped.
+     * @param visitor the visitor
+     * @return {@code false} if the visitor stopped the visit
+     */
+    public boolean visit(final K after, final EntryVisitor<K, V> visitor) {
+        if (root == null) {
+            return true;
+        }
+        return root.visit(after, after != null ? hash(after) : 0, after != null, TOP_SHIFT, visitor);
+    }
+
+    /**
+     * Visitor of the entries of a map.
+     */
+    public interface EntryVisitor<K, V> {
+        /**
+         * Visit an entry.
+         *
+         * @param key the key
+         * @param value the value
+         * @return {@code true} to continue with the next entry
+         */
+        boolean visit(K key, V value);
+    }
+
+    private static int hash(final Object key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int chunk(final int hash, final int shift) {
+        return (shift >= 0 ? hash >>> shift : hash << -shift) & 0x1f;
+    }
+
+    private static <K extends Comparable<K>> int compare(final int hash, final K key, final int otherHash, final K otherKey) {
+        if (hash != otherHash) {
+            return (hash ^ 0x80000000) < (otherHash ^ 0x80000000) ? -1 : 1;
+        }
+        return key.compareTo(otherKey);
+    }
+
+    private static <K extends Comparable<K>, V> Node<K, V> createNode(final int shift, final K key1, final V value1, final int hash1, final K key2, final V value2, final int hash2) {
+        if (hash1 == hash2 || shift < BOTTOM_SHIFT) {
+            return new CollisionNode<K, V>(hash1, key1, value1).put(key2, hash2, value2, shift, new boolean[1]);
+        }
+        final boolean[] added = new boolean[1];
+        return BitmapNode.<K, V>emptyNode().put(key1, hash1, value1, shift, added).put(key2, hash2, value2, shift, added);
+    }
+
+    private abstract static class Node<K extends Comparable<K>, V> {
+        abstract V get(K key, int hash, int shift);
+
+        abstract Node<K, V> put(K key, int hash, V value, int shift, boolean[] added);
+
+        /* Returns null if the node is left empty */
+        abstract Node<K, V> remove(K key, int hash, int shift);
+
+        abstract boolean visit(K after, int afterHash, boolean bounded, int shift, EntryVisitor<K, V> visitor);
+    }
+
+    /**
+     * A trie node holding up to 32 slots, one per value of the hash chunk at its level.  Each slot holds either a key
+     * and its value, or a {@code null} key and the node for the next level.
+     */
+    private static final class BitmapNode<K extends Comparable<K>, V> extends Node<K, V> {
+        @SuppressWarnings("unchecked")
+        private static final BitmapNode EMPTY_NODE = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        private BitmapNode(final int bitmap, final Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K extends Comparable<K>, V> BitmapNode<K, V> emptyNode() {
+            return EMPTY_NODE;
+        }
+
+        private int index(final int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(final K key, final int hash, final int shift) {
+            final int bit = 1 << chunk(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            final int index = index(bit);
+            final Object slotKey = array[2 * index];
+            final Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                return ((Node<K, V>) slotValue).get(key, hash, shift - 5);
+            }
+            return key.equals(slotKey) ? (V) slotValue : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<K, V> put(final K key, final int hash, final V value, final int shift, final boolean[] added) {
+            final int bit = 1 << chunk(hash, shift);
+            final int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                final Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, 2 * index);
+                newArray[2 * index] = key;
+                newArray[2 * index + 1] = value;
+                System.arraycopy(array, 2 * index, newArray, 2 * index + 2, array.length - 2 * index);
+                added[0] = true;
+                return new BitmapNode<K, V>(bitmap | bit, newArray);
+            }
+            final Object slotKey = array[2 * index];
+            final Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                final Node<K, V> child = (Node<K, V>) slotValue;
+                final Node<K, V> newChild = child.put(key, hash, value, shift - 5, added);
+                return newChild == child ? this : replace(index, null, newChild);
+            }
+            if (key.equals(slotKey)) {
+                return slotValue == value ? this : replace(index, key, value);
+            }
+            added[0] = true;
+            final K existingKey = (K) slotKey;
+            return replace(index, null, createNode(shift - 5, existingKey, (V) slotValue, hash(existingKey), key, value, hash));
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<K, V> remove(final K key, final int hash, final int shift) {
+            final int bit = 1 << chunk(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int index = index(bit);
+            final Object slotKey = array[2 * index];
+            final Object slotValue = array[2 * index + 1];
+            if (slotKey == null) {
+                final Node<K, V> child = (Node<K, V>) slotValue;
+                final Node<K, V> newChild = child.remove(key, hash, shift - 5);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild != null) {
+                    return replace(index, null, newChild);
+                }
+            } else if (!key.equals(slotKey)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            final Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            System.arraycopy(array, 2 * index + 2, newArray, 2 * index, newArray.length - 2 * index);
+            return new BitmapNode<K, V>(bitmap & ~bit, newArray);
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean visit(final K after, final int afterHash, final boolean bounded, final int shift, final EntryVisitor<K, V> visitor) {
+            final int afterChunk = bounded ? chunk(afterHash, shift) : 0;
+            int index = 0;
+            for (int chunk = 0; chunk < 32; chunk++) {
+                if ((bitmap & (1 << chunk)) == 0) {
+                    continue;
+                }
+                final Object slotKey = array[2 * index];
+                final Object slotValue = array[2 * index + 1];
+                index++;
+                if (chunk < afterChunk) {
+                    continue;
+                }
+                final boolean slotBounded = bounded && chunk == afterChunk;
+                if (slotKey == null) {
+                    if (!((Node<K, V>) slotValue).visit(after, afterHash, slotBounded, shift - 5, visitor)) {
+                        return false;
+                    }
+                } else {
+                    final K key = (K) slotKey;
+                    if (slotBounded && compare(hash(key), key, afterHash, after) <= 0) {
+                        continue;
+                    }
+                    if (!visitor.visit(key, (V) slotValue)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private BitmapNode<K, V> replace(final int index, final Object key, final Object value) {
+            final Object[] newArray = array.clone();
+            newArray[2 * index] = key;
+            newArray[2 * index + 1] = value;
+            return new BitmapNode<K, V>(bitmap, newArray);
+        }
+    }
+
+    /**
+     * A node holding keys with the same hash, in their natural order.
+     */
+    private static final class CollisionNode<K extends Comparable<K>, V> extends Node<K, V> {
+        private final int hash;
+        private final Object[] keys;
+        private final Object[] values;
+
+        private CollisionNode(final int hash, final K key, final V value) {
+            this(hash, new Object[] {key}, new Object[] {value});
+        }
+
+        private CollisionNode(final int hash, final Object[] keys, final Object[] values) {
+            this.hash = hash;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @SuppressWarnings("unchecked")
+        private int search(final K key) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int comparison = ((K) keys[middle]).compareTo(key);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(final K key, final int hash, final int shift) {
+            if (hash != this.hash) {
+                return null;
+            }
+            final int index = search(key);
+            return index >= 0 ? (V) values[index] : null;
+        }
+
+        Node<K, V> put(final K key, final int hash, final V value, final int shift, final boolean[] added) {
+            if (hash != this.hash) {
+                // Split into a bitmap node holding this node and the new key
+                final BitmapNode<K, V> node = new BitmapNode<K, V>(1 << chunk(this.hash, shift), new Object[] {null, this});
+                return node.put(key, hash, value, shift, added);
+            }
+            final int index = search(key);
+            if (index >= 0) {
+                if (values[index] == value) {
+                    return this;
+                }
+                final Object[] newValues = values.clone();
+                newValues[index] = value;
+                return new CollisionNode<K, V>(hash, keys, newValues);
+            }
+            final int insert = -(index + 1);
+            final Object[] newKeys = new Object[keys.length + 1];
+            final Object[] newValues = new Object[values.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(values, 0, newValues, 0, insert);
+            newKeys[insert] = key;
+            newValues[insert] = value;
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(values, insert, newValues, insert + 1, values.length - insert);
+            added[0] = true;
+            return new CollisionNode<K, V>(hash, newKeys, newValues);
+        }
+
+        Node<K, V> remove(final K key, final int hash, final int shift) {
+            if (hash != this.hash) {
+                return this;
+            }
+            final int index = search(key);
+            if (index < 0) {
+                return this;
+            }
+            if (keys.length == 1) {
+                return null;
+            }
+            final Object[] newKeys = new Object[keys.length - 1];
+            final Object[] newValues = new Object[values.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, newKeys.length - index);
+            System.arraycopy(values, index + 1, newValues, index, newValues.length - index);
+            return new CollisionNode<K, V>(hash, newKeys, newValues);
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean visit(final K after, final int afterHash, final boolean bounded, final int shift, final EntryVisitor<K, V> visitor) {
+            for (int i = 0; i < keys.length; i++) {
+                final K key = (K) keys[i];
+                if (bounded && compare(hash, key, afterHash, after) <= 0) {
+                    continue;
+                }
+                if (!visitor.visit(key, (V) values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
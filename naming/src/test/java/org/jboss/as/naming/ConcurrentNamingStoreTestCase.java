@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NotContextException;
+import javax.naming.Reference;
+import javax.naming.spi.ResolveResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentNamingStoreTestCase {
+
+    private final ConcurrentNamingStore nameStore = new ConcurrentNamingStore();
+
+    @After
+    public void cleanup() throws Exception {
+        nameStore.close();
+    }
+
+    @Test
+    public void testBindEmptyName() throws Exception {
+        try {
+            nameStore.bind(null, new CompositeName(""), new Object(), Object.class.getName());
+            fail("Should have thrown and InvalidNameException");
+        } catch(InvalidNameException expected){}
+    }
+
+    @Test
+    public void testBindInvalidContext() throws Exception {
+        try {
+            nameStore.bind(null, new CompositeName("subcontext/test"), new Object(), Object.class.getName());
+            fail("Should have thrown and NameNotFoundException");
+        } catch(NameNotFoundException expected){}
+    }
+
+    @Test
+    public void testBindAndLookup() throws Exception {
+        final Name name = new CompositeName("test");
+        final Object object = new Object();
+        nameStore.bind(null, name, object, Object.class.getName());
+        assertEquals(object, nameStore.lookup(name));
+    }
+
+    @Test
+    public void testBindTwice() throws Exception {
+        final Name name = new CompositeName("test");
+        nameStore.bind(null, name, new Object(), Object.class.getName());
+        try {
+            nameStore.bind(null, name, new Object(), Object.class.getName());
+            fail("Should have thrown and NameAlreadyBoundException");
+        } catch(NameAlreadyBoundException expected){}
+    }
+
+    @Test
+    public void testBindToBinding() throws Exception {
+        nameStore.bind(null, new CompositeName("test"), new Object(), Object.class.getName());
+        try {
+            nameStore.bind(null, new CompositeName("test/nested"), new Object(), Object.class.getName());
+            fail("Should have thrown and NotContextException");
+        } catch(NotContextException expected){}
+    }
+
+    @Test
+    public void testBindAndLookupResolveResult() throws Exception {
+        final Name name = new CompositeName("test");
+        final Reference reference = new Reference(Context.class.getName());
+        nameStore.bind(null, name, reference, Context.class.getName());
+        final Object result = nameStore.lookup(new CompositeName("test/value"));
+        assertTrue(result instanceof ResolveResult);
+        assertEquals(new CompositeName("value"), ((ResolveResult) result).getRemainingName());
+    }
+
+    @Test
+    public void testBindUnbindLookup() throws Exception {
+        final Name name = new CompositeName("test");
+        final Object object = new Object();
+        nameStore.bind(null, name, object, Object.class.getName());
+        assertEquals(object, nameStore.lookup(name));
+        nameStore.unbind(null, name);
+        try {
+            nameStore.lookup(name);
+            fail("Should have thrown and NameNotFoundException");
+        } catch(NameNotFoundException expected) {}
+        try {
+            nameStore.unbind(null, name);
+            fail("Should have thrown and NameNotFoundException");
+        } catch(NameNotFoundException expected) {}
+    }
+
+    @Test
+    public void testBindAndRebind() throws Exception {
+        final Name name = new CompositeName("test");
+        nameStore.bind(null, name, new Object(), Object.class.getName());
+        final Object objectTwo = new Object();
+        nameStore.rebind(null, name, objectTwo, Object.class.getName());
+        assertEquals(objectTwo, nameStore.lookup(name));
+    }
+
+    @Test
+    public void testBindToSubcontext() throws Exception {
+        final Context context = nameStore.createSubcontext(null, new CompositeName("subcontext"));
+        final Object object = new Object();
+        context.bind("test", object);
+        assertEquals(object, context.lookup("test"));
+        assertEquals(object, nameStore.lookup(new CompositeName("subcontext/test")));
+        assertEquals(1, nameStore.list(new CompositeName("subcontext")).size());
+        assertEquals(1, nameStore.listBindings(new CompositeName()).size());
+    }
+
+    @Test
+    public void testListBinding() throws Exception {
+        nameStore.bind(null, new CompositeName("test"), new Object(), Object.class.getName());
+        try {
+            nameStore.list(new CompositeName("test"));
+            fail("Should have thrown and NotContextException");
+        } catch(NotContextException expected) {}
+    }
+
+    @Test
+    public void testListBindingsPaged() throws Exception {
+        nameStore.createSubcontext(null, new CompositeName("global"));
+        for (String childName : new String[] {"c", "a", "e", "b", "d"}) {
+            nameStore.bind(null, new CompositeName("global/" + childName), new Object(), Object.class.getName());
+        }
+
+        final Name global = new CompositeName("global");
+        assertEquals(Arrays.asList("a", "b"), names(nameStore.listBindings(global, null, 2)));
+        assertEquals(Arrays.asList("c", "d"), names(nameStore.listBindings(global, "b", 2)));
+        assertEquals(Arrays.asList("c", "d", "e"), names(nameStore.listBindings(global, "bb", 10)));
+        assertTrue(nameStore.listBindings(global, "e", 10).isEmpty());
+        assertTrue(nameStore.listBindings(global, null, 0).isEmpty());
+    }
+
+    private static List<String> names(final List<Binding> bindings) {
+        final List<String> names = new ArrayList<String>(bindings.size());
+        for (Binding binding : bindings) {
+            names.add(binding.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testConcurrentBind() throws Exception {
+        nameStore.createSubcontext(null, new CompositeName("global"));
+        final int threads = 8;
+        final int bindingsPerThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < bindingsPerThread; i++) {
+                            final Name name = new CompositeName("global/" + thread + "-" + i);
+                            nameStore.bind(null, name, name.toString(), String.class.getName());
+                            assertEquals(name.toString(), nameStore.lookup(name));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * bindingsPerThread, nameStore.list(new CompositeName("global")).size());
+    }
+
+    @Test
+    public void testApplyBatch() throws Exception {
+        final Object objectOne = new Object();
+        final Object objectTwo = new Object();
+        nameStore.applyBatch(null, new NamingBatch()
+                .createSubcontext(new CompositeName("subcontext"))
+                .bind(new CompositeName("subcontext/one"), objectOne, Object.class.getName())
+                .bind(new CompositeName("two"), objectTwo, Object.class.getName()));
+        assertEquals(objectOne, nameStore.lookup(new CompositeName("subcontext/one")));
+        assertEquals(objectTwo, nameStore.lookup(new CompositeName("two")));
+        assertEquals(1, nameStore.list(new CompositeName("subcontext")).size());
+    }
+
+    @Test
+    public void testApplyBatchRollback() throws Exception {
+        final Object existing = new Object();
+        nameStore.bind(null, new CompositeName("existing"), existing, Object.class.getName());
+        try {
+            nameStore.applyBatch(null, new NamingBatch()
+                    .bind(new CompositeName("new"), new Object(), Object.class.getName())
+                    .rebind(new CompositeName("existing"), new Object(), Object.class.getName())
+                    .bind(new CompositeName("existing"), new Object(), Object.class.getName()));
+            fail("Should have thrown and NameAlreadyBoundException");
+        } catch(NameAlreadyBoundException expected) {}
+        assertEquals(existing, nameStore.lookup(new CompositeName("existing")));
+        try {
+            nameStore.lookup(new CompositeName("new"));
+            fail("Should have thrown and NameNotFoundException");
+        } catch(NameNotFoundException expected) {}
+    }
+}
@@ -30,10 +30,12 @@ import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameClassPair;
 import javax.naming.NameNotFoundException;
 import javax.naming.Reference;
 import javax.naming.spi.ResolveResult;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -297,4 +299,61 @@ public class InMemoryNamingStoreTestCase {
         }
         assertTrue("Not all expected results were returned", expected.isEmpty());
     }
+
+    @Test
+    public void testListBindingsPaged() throws Exception {
+        nameStore.createSubcontext(null, new CompositeName("global"));
+        nameStore.bind(null, new CompositeName("global/c"), new Object(), Object.class.getName());
+        nameStore.bind(null, new CompositeName("global/a"), new Object(), Object.class.getName());
+        nameStore.applyBatch(null, new NamingBatch()
+                .bind(new CompositeName("global/d"), new Object(), Object.class.getName())
+                .bind(new CompositeName("global/b"), new Object(), Object.class.getName()));
+        nameStore.bind(null, new CompositeName("global/e"), new Object(), Object.class.getName());
+
+        final Name global = new CompositeName("global");
+        assertEquals(Arrays.asList("a", "b"), names(nameStore.listBindings(global, null, 2)));
+        assertEquals(Arrays.asList("c", "d"), names(nameStore.listBindings(global, "b", 2)));
+        assertEquals(Arrays.asList("c", "d", "e"), names(nameStore.listBindings(global, "bb", 10)));
+        assertTrue(nameStore.listBindings(global, "e", 10).isEmpty());
+        assertTrue(nameStore.listBindings(global, null, 0).isEmpty());
+    }
+
+    private static List<String> names(final List<Binding> bindings) {
+        final List<String> names = new ArrayList<String>(bindings.size());
+        for (Binding binding : bindings) {
+            names.add(binding.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testApplyBatch() throws Exception {
+        final Object objectOne = new Object();
+        final Object objectTwo = new Object();
+        nameStore.applyBatch(null, new NamingBatch()
+                .createSubcontext(new CompositeName("subcontext"))
+                .bind(new CompositeName("subcontext/one"), objectOne, Object.class.getName())
+                .bind(new CompositeName("two"), objectTwo, Object.class.getName()));
+        assertEquals(objectOne, nameStore.lookup(new CompositeName("subcontext/one")));
+        assertEquals(objectTwo, nameStore.lookup(new CompositeName("two")));
+        assertEquals(1, nameStore.list(new CompositeName("subcontext")).size());
+    }
+
+    @Test
+    public void testApplyBatchRollback() throws Exception {
+        final Object existing = new Object();
+        nameStore.bind(null, new CompositeName("existing"), existing, Object.class.getName());
+        try {
+            nameStore.applyBatch(null, new NamingBatch()
+                    .bind(new CompositeName("new"), new Object(), Object.class.getName())
+                    .rebind(new CompositeName("existing"), new Object(), Object.class.getName())
+                    .bind(new CompositeName("existing"), new Object(), Object.class.getName()));
+            fail("Should have thrown and NameAlreadyBoundException");
+        } catch(NameAlreadyBoundException expected) {}
+        assertEquals(existing, nameStore.lookup(new CompositeName("existing")));
+        try {
+            nameStore.lookup(new CompositeName("new"));
+            fail("Should have thrown and NameNotFoundException");
+        } catch(NameNotFoundException expected) {}
+    }
 }
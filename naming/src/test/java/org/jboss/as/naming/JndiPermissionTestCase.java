@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import org.junit.Test;
+
+import javax.naming.CompositeName;
+import java.security.PermissionCollection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JndiPermissionTestCase {
+
+    @Test
+    public void testCollectionImplies() throws Exception {
+        final PermissionCollection permissions = new JndiPermission("test", JndiPermission.Action.ALL).newPermissionCollection();
+        permissions.add(new JndiPermission("java:comp/env/-", JndiPermission.Action.LOOKUP));
+        permissions.add(new JndiPermission("java:global/*", JndiPermission.Action.LOOKUP, JndiPermission.Action.LIST));
+        permissions.add(new JndiPermission("java:global/app", JndiPermission.Action.BIND));
+
+        assertTrue(permissions.implies(new JndiPermission("java:comp/env/ds", JndiPermission.Action.LOOKUP)));
+        assertTrue(permissions.implies(new JndiPermission("java:comp/env/jdbc/ds", JndiPermission.Action.LOOKUP)));
+        assertFalse(permissions.implies(new JndiPermission("java:comp/env", JndiPermission.Action.LOOKUP)));
+        assertFalse(permissions.implies(new JndiPermission("java:comp/env/ds", JndiPermission.Action.BIND)));
+        assertTrue(permissions.implies(new JndiPermission("java:global/app", JndiPermission.Action.LOOKUP, JndiPermission.Action.BIND)));
+        assertFalse(permissions.implies(new JndiPermission("java:global/app/module", JndiPermission.Action.LOOKUP)));
+        assertFalse(permissions.implies(new JndiPermission("java:global/other", JndiPermission.Action.BIND)));
+
+        permissions.add(new JndiPermission("<<ALL BINDINGS>>", JndiPermission.Action.BIND));
+        assertTrue(permissions.implies(new JndiPermission("java:global/other", JndiPermission.Action.BIND)));
+    }
+
+    @Test
+    public void testCollectionMatchesPermissionImplies() throws Exception {
+        final String[] components = {"a", "b", "c", ""};
+        final JndiPermission.Action[] actions = {JndiPermission.Action.LOOKUP, JndiPermission.Action.BIND, JndiPermission.Action.LIST};
+        final Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            final PermissionCollection permissions = new JndiPermission("test", JndiPermission.Action.ALL).newPermissionCollection();
+            final JndiPermission[] granted = new JndiPermission[5];
+            for (int i = 0; i < granted.length; i++) {
+                final String path = randomPath(random, components);
+                final String suffix = new String[] {"", "/*", "/-"}[random.nextInt(3)];
+                granted[i] = new JndiPermission(path + suffix, actions[random.nextInt(actions.length)]);
+                permissions.add(granted[i]);
+            }
+            for (int i = 0; i < 50; i++) {
+                final JndiPermission requested = new JndiPermission(randomPath(random, components), actions[random.nextInt(actions.length)]);
+                boolean expected = false;
+                for (JndiPermission permission : granted) {
+                    expected |= permission.implies(requested);
+                }
+                assertEquals(requested + " against " + permissions, expected, permissions.implies(requested));
+            }
+        }
+    }
+
+    @Test
+    public void testInternedPermission() throws Exception {
+        final JndiPermission permission = JndiPermission.getInstance(new CompositeName("java:comp/env/ds"), JndiPermission.Action.LOOKUP);
+        assertSame(permission, JndiPermission.getInstance(new CompositeName("java:comp/env/ds"), JndiPermission.Action.LOOKUP));
+        assertEquals(new JndiPermission("java:comp/env/ds", JndiPermission.Action.LOOKUP), permission);
+        assertFalse(permission.equals(JndiPermission.getInstance(new CompositeName("java:comp/env/ds"), JndiPermission.Action.BIND)));
+    }
+
+    @Test
+    public void testUnusedInternedPermissionsEvicted() throws Exception {
+        final JndiPermission permission = JndiPermission.getInstance(new CompositeName("java:comp/env/used"), JndiPermission.Action.UNBIND);
+        for (int i = 0; i < 3 * JndiPermission.MAX_INTERNED; i++) {
+            JndiPermission.getInstance(new CompositeName("java:comp/env/name" + i), JndiPermission.Action.UNBIND);
+            assertTrue(JndiPermission.getInternedCount(JndiPermission.Action.UNBIND) <= JndiPermission.MAX_INTERNED);
+            assertSame(permission, JndiPermission.getInstance(new CompositeName("java:comp/env/used"), JndiPermission.Action.UNBIND));
+        }
+    }
+
+    private static String randomPath(final Random random, final String[] components) {
+        final StringBuilder path = new StringBuilder(components[random.nextInt(components.length - 1)]);
+        final int depth = random.nextInt(3);
+        for (int i = 0; i < depth; i++) {
+            path.append('/').append(components[random.nextInt(components.length)]);
+        }
+        return path.toString();
+    }
+}
@@ -331,6 +331,89 @@ public class NamingContextTestCase {
         assertEquals(objectTwo, namingContext.lookup(name));
     }
 
+    @Test
+    public void testCachedLookup() throws Exception {
+        final NamingStore namingStore = new InMemoryNamingStore();
+        final NamingContext context = new NamingContext(new CompositeName(), namingStore, null);
+        final NamingLookupCache lookupCache = namingStore.getLookupCache();
+        final Object object = new Object();
+        context.bind("test", object);
+
+        assertEquals(object, context.lookup("test"));
+        assertEquals(0, lookupCache.getHits());
+        assertEquals(1, lookupCache.getMisses());
+        assertEquals(object, context.lookup("test"));
+        assertEquals(1, lookupCache.getHits());
+
+        final Object objectTwo = new Object();
+        context.rebind("test", objectTwo);
+        assertEquals(objectTwo, context.lookup("test"));
+        assertEquals(1, lookupCache.getHits());
+        assertEquals(objectTwo, context.lookup("test"));
+        assertEquals(2, lookupCache.getHits());
+
+        context.unbind("test");
+        try {
+            context.lookup("test");
+            fail("Should have thrown and NameNotFoundException");
+        } catch(NameNotFoundException expected) {}
+    }
+
+    @Test
+    public void testCachedLookupRelativeToPrefix() throws Exception {
+        final NamingStore namingStore = new InMemoryNamingStore();
+        final NamingContext root = new NamingContext(new CompositeName(), namingStore, null);
+        root.bind("test", "root");
+        final Context subContext = root.createSubcontext("sub");
+        subContext.bind("test", "sub");
+
+        assertEquals("root", root.lookup("test"));
+        assertEquals("sub", subContext.lookup("test"));
+        assertEquals("root", root.lookup("test"));
+        assertEquals("sub", subContext.lookup("test"));
+        assertEquals(2, namingStore.getLookupCache().getHits());
+    }
+
+    @Test
+    public void testCachedReferenceLookup() throws Exception {
+        final NamingStore namingStore = new InMemoryNamingStore();
+        final NamingContext context = new NamingContext(new CompositeName(), namingStore, null);
+        context.bind("cacheable", new Reference(Object.class.getName(), CacheableNewInstanceObjectFactory.class.getName(), null));
+        context.bind("uncacheable", new Reference(Object.class.getName(), NewInstanceObjectFactory.class.getName(), null));
+
+        final Object cacheable = context.lookup("cacheable");
+        assertTrue(cacheable == context.lookup("cacheable"));
+        final Object uncacheable = context.lookup("uncacheable");
+        assertTrue(uncacheable != context.lookup("uncacheable"));
+
+        context.rebind("cacheable", new Reference(Object.class.getName(), CacheableNewInstanceObjectFactory.class.getName(), null));
+        assertTrue(cacheable != context.lookup("cacheable"));
+    }
+
+    @Test
+    public void testCachedReferenceLookupPerClassLoaderAndEnvironment() throws Exception {
+        final NamingStore namingStore = new InMemoryNamingStore();
+        final NamingContext context = new NamingContext(new CompositeName(), namingStore, null);
+        context.bind("cacheable", new Reference(Object.class.getName(), CacheableNewInstanceObjectFactory.class.getName(), null));
+        final Object cacheable = context.lookup("cacheable");
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader classLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(new ClassLoader(classLoader) {});
+        try {
+            assertTrue(cacheable != context.lookup("cacheable"));
+        } finally {
+            thread.setContextClassLoader(classLoader);
+        }
+
+        final Hashtable<String, Object> environment = new Hashtable<String, Object>();
+        environment.put("test.property", "value");
+        final NamingContext otherContext = new NamingContext(new CompositeName(), namingStore, environment);
+        final Object otherCacheable = otherContext.lookup("cacheable");
+        assertTrue(cacheable != otherCacheable);
+        assertTrue(otherCacheable == otherContext.lookup("cacheable"));
+    }
+
     @Test
     public void testRebindAndLookupWithContinuation() throws Exception {
         namingContext.createSubcontext("comp");
@@ -508,4 +591,14 @@ public class NamingContextTestCase {
             return new NamingContext(new CompositeName((String)reference.get(0).getContent()), null);
         }
     }
-}
\ No newline at end of file
+
+    public static class NewInstanceObjectFactory implements ObjectFactory {
+        @Override
+        public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) throws Exception {
+            return new Object();
+        }
+    }
+
+    public static class CacheableNewInstanceObjectFactory extends NewInstanceObjectFactory implements CacheableObjectFactory {
+    }
+}
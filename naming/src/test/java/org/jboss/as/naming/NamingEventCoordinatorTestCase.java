@@ -25,6 +25,7 @@ package org.jboss.as.naming;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.naming.Binding;
 import javax.naming.CompositeName;
 import javax.naming.event.EventContext;
 import javax.naming.event.NamespaceChangeListener;
@@ -32,8 +33,11 @@ import javax.naming.event.NamingEvent;
 import javax.naming.event.NamingExceptionEvent;
 import javax.naming.event.ObjectChangeListener;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
@@ -160,6 +164,94 @@ public class NamingEventCoordinatorTestCase {
         assertEquals(1, subtreeListenerThree.capturedEvents.size());
     }
 
+    @Test
+    public void testEventsDeliveredInOrder() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final NamingEventCoordinator coordinator = new NamingEventCoordinator(executor);
+
+        final CollectingListener listener = new CollectingListener(0);
+        coordinator.addListener("test", EventContext.ONELEVEL_SCOPE, listener);
+
+        for (int i = 0; i < 10; i++) {
+            coordinator.fireEvent(context, new CompositeName("test/" + i), null, null, NamingEvent.OBJECT_ADDED, "bind", EventContext.ONELEVEL_SCOPE);
+        }
+        assertEquals(10, coordinator.getPendingEventCount());
+        executor.runAll();
+
+        assertEquals(10, listener.capturedEvents.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(NamingEvent.OBJECT_ADDED, listener.capturedEvents.get(i).getType());
+        }
+        assertEquals(0, coordinator.getPendingEventCount());
+    }
+
+    @Test
+    public void testCoalesceChanges() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final NamingEventCoordinator coordinator = new NamingEventCoordinator(executor);
+
+        final CollectingListener listener = new CollectingListener(0);
+        coordinator.addListener("test/path", EventContext.OBJECT_SCOPE, listener);
+
+        final Binding first = new Binding("path", "first");
+        final Binding second = new Binding("path", "second");
+        final Binding third = new Binding("path", "third");
+        coordinator.fireEvent(context, new CompositeName("test/path"), first, second, NamingEvent.OBJECT_CHANGED, "rebind", EventContext.OBJECT_SCOPE);
+        coordinator.fireEvent(context, new CompositeName("test/path"), second, third, NamingEvent.OBJECT_CHANGED, "rebind", EventContext.OBJECT_SCOPE);
+        executor.runAll();
+
+        assertEquals(1, listener.capturedEvents.size());
+        assertEquals(first, listener.capturedEvents.get(0).getOldBinding());
+        assertEquals(third, listener.capturedEvents.get(0).getNewBinding());
+        assertEquals(1, coordinator.getCoalescedEventCount());
+    }
+
+    @Test
+    public void testBacklogOverflow() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final NamingEventCoordinator coordinator = new NamingEventCoordinator(executor, 5);
+
+        final CollectingListener listener = new CollectingListener(0);
+        coordinator.addListener("test", EventContext.ONELEVEL_SCOPE, listener);
+
+        for (int i = 0; i < 8; i++) {
+            coordinator.fireEvent(context, new CompositeName("test/" + i), null, null, NamingEvent.OBJECT_ADDED, "bind", EventContext.ONELEVEL_SCOPE);
+        }
+        executor.runAll();
+
+        assertEquals(5, listener.capturedEvents.size());
+        assertEquals(3, coordinator.getDroppedEventCount());
+    }
+
+    @Test
+    public void testRemovedListenerReceivesNoPendingEvents() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        final NamingEventCoordinator coordinator = new NamingEventCoordinator(executor);
+
+        final CollectingListener listener = new CollectingListener(0);
+        coordinator.addListener("test/path", EventContext.OBJECT_SCOPE, listener);
+        coordinator.fireEvent(context, new CompositeName("test/path"), null, null, NamingEvent.OBJECT_ADDED, "bind", EventContext.OBJECT_SCOPE);
+        coordinator.removeListener(listener);
+        executor.runAll();
+
+        assertTrue(listener.capturedEvents.isEmpty());
+    }
+
+    private static class QueuedExecutor implements Executor {
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+
+        private void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
     private class CollectingListener implements ObjectChangeListener, NamespaceChangeListener {
         private final List<NamingEvent> capturedEvents = new ArrayList<NamingEvent>();
 
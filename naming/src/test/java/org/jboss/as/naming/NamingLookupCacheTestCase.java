@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import org.junit.Test;
+
+import javax.naming.CompositeName;
+import javax.naming.Name;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the naming store lookup cache.
+ */
+public class NamingLookupCacheTestCase {
+
+    @Test
+    public void testInvalidateOnlyDropsEntriesUnderName() throws Exception {
+        final NamingLookupCache cache = new NamingLookupCache();
+        put(cache, "a");
+        put(cache, "a/b");
+        put(cache, "ab");
+        put(cache, "c/d");
+        assertEquals(4, cache.getSize());
+
+        cache.invalidate(new CompositeName("a"));
+        assertNull(cache.get("", "a"));
+        assertNull(cache.get("", "a/b"));
+        assertNotNull(cache.get("", "ab"));
+        assertNotNull(cache.get("", "c/d"));
+        assertEquals(2, cache.getSize());
+
+        cache.invalidate();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("", "c/d"));
+    }
+
+    @Test
+    public void testInvalidateSubtree() throws Exception {
+        final NamingLookupCache cache = new NamingLookupCache();
+        put(cache, "a");
+        put(cache, "a/b");
+        put(cache, "a/b/c");
+        put(cache, "a/bc");
+        // The same absolute name cached under another context prefix
+        assertNotNull(cache.put(cache.getVersion(), "a", "b/c", new CompositeName("a/b/c"), "a/b/c"));
+        assertEquals(5, cache.getSize());
+
+        cache.invalidate(Arrays.<Name>asList(new CompositeName("a/b"), new CompositeName("x/y")));
+        assertNotNull(cache.get("", "a"));
+        assertNull(cache.get("", "a/b"));
+        assertNull(cache.get("", "a/b/c"));
+        assertNull(cache.get("a", "b/c"));
+        assertNotNull(cache.get("", "a/bc"));
+        assertEquals(2, cache.getSize());
+
+        put(cache, "a/b/c");
+        cache.invalidate(new CompositeName("a/b/c"));
+        assertNull(cache.get("", "a/b/c"));
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void testEvictedEntriesAreNotInvalidatedTwice() throws Exception {
+        final NamingLookupCache cache = new NamingLookupCache(1);
+        put(cache, "a");
+        put(cache, "b");
+        assertEquals(1, cache.getSize());
+        cache.invalidate(new CompositeName("a"));
+        cache.invalidate(new CompositeName("b"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testStalePutIsNotCached() throws Exception {
+        final NamingLookupCache cache = new NamingLookupCache();
+        final long version = cache.getVersion();
+        // A bind of an unrelated name between reading the version and caching the result still rejects the result
+        cache.invalidate(new CompositeName("other"));
+        assertNull(cache.put(version, "", "a", new CompositeName("a"), "value"));
+        assertNull(cache.get("", "a"));
+        assertEquals(0, cache.getSize());
+
+        assertNotNull(cache.put(cache.getVersion(), "", "a", new CompositeName("a"), "value"));
+        assertEquals("value", cache.get("", "a").getValue());
+    }
+
+    @Test
+    public void testEvictionKeepsCacheBounded() throws Exception {
+        final NamingLookupCache cache = new NamingLookupCache(10);
+        for (int i = 0; i < 10; i++) {
+            put(cache, "hot" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            cache.get("", "hot" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            put(cache, "cold" + i);
+            assertTrue(cache.getSize() <= 10);
+        }
+        assertEquals(10, cache.getSize());
+        assertEquals(100, cache.getEvictions());
+    }
+
+    @Test
+    public void testBindKeepsUnrelatedLookupsCached() throws Exception {
+        final NamingStore namingStore = new InMemoryNamingStore();
+        final NamingContext context = new NamingContext(new CompositeName(), namingStore, null);
+        final NamingLookupCache lookupCache = namingStore.getLookupCache();
+        context.bind("one", "1");
+        context.lookup("one");
+        context.lookup("one");
+        assertEquals(1, lookupCache.getHits());
+
+        context.bind("two", "2");
+        assertEquals("1", context.lookup("one"));
+        assertEquals(2, lookupCache.getHits());
+
+        context.rebind("one", "uno");
+        assertEquals("uno", context.lookup("one"));
+        assertEquals(2, lookupCache.getHits());
+    }
+
+    private static void put(final NamingLookupCache cache, final String name) throws Exception {
+        final Name absoluteName = new CompositeName(name);
+        assertNotNull(cache.put(cache.getVersion(), "", name, absoluteName, name));
+    }
+}
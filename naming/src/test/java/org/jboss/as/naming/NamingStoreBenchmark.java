@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import javax.naming.CompositeName;
+import javax.naming.Name;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple benchmark comparing the naming store implementations under concurrent bind and lookup load.  This is not
+ * run as part of the test suite.  Run it from the command line with the test classpath:
+ * <pre>
+ *   java org.jboss.as.naming.NamingStoreBenchmark [bindings[,bindings...]] [threads]
+ * </pre>
+ * By default 10000 and 100000 bindings are bound into a single "global" context by 8 threads, while the same number
+ * of threads repeatedly look up the bound names.
+ */
+public class NamingStoreBenchmark {
+
+    private static final int LOOKUPS_PER_BINDING = 10;
+
+    public static void main(final String[] args) throws Exception {
+        final String[] sizes = (args.length > 0 ? args[0] : "10000,100000").split(",");
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        for (String size : sizes) {
+            final int bindings = Integer.parseInt(size.trim());
+            // Warm up all implementations before measuring
+            run(new InMemoryNamingStore(), Math.min(bindings, 5000), threads);
+            run(new ConcurrentNamingStore(), Math.min(bindings, 5000), threads);
+            run(new PersistentNamingStore(), Math.min(bindings, 5000), threads);
+
+            report("in-memory", bindings, threads, run(new InMemoryNamingStore(), bindings, threads));
+            report("concurrent", bindings, threads, run(new ConcurrentNamingStore(), bindings, threads));
+            report("persistent", bindings, threads, run(new PersistentNamingStore(), bindings, threads));
+        }
+    }
+
+    private static void report(final String store, final int bindings, final int threads, final long[] result) {
+        System.out.printf("%-12s bindings=%-8d threads=%-3d bind=%6d ms  lookup=%6d ms%n", store, bindings, threads,
+                TimeUnit.NANOSECONDS.toMillis(result[0]), TimeUnit.NANOSECONDS.toMillis(result[1]));
+    }
+
+    /**
+     * Bind the given number of entries with the given number of threads, then look every entry up
+     * {@value #LOOKUPS_PER_BINDING} times with the same number of threads while a writer keeps rebinding.
+     *
+     * @return the elapsed bind and lookup time in nanoseconds
+     */
+    private static long[] run(final NamingStore store, final int bindings, final int threads) throws Exception {
+        store.createSubcontext(null, new CompositeName("global"));
+        final Name[] names = new Name[bindings];
+        for (int i = 0; i < bindings; i++) {
+            names[i] = new CompositeName("global/binding" + i);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            final long bindTime = execute(executor, threads, new Task() {
+                public void run(final int thread) throws Exception {
+                    for (int i = thread; i < bindings; i += threads) {
+                        store.bind(null, names[i], Integer.valueOf(i), Integer.class.getName());
+                    }
+                }
+            });
+
+            final Future<Void> writer = executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = 0; i < bindings && !Thread.currentThread().isInterrupted(); i += 10) {
+                        store.rebind(null, names[i], Integer.valueOf(i), Integer.class.getName());
+                    }
+                    return null;
+                }
+            });
+            final long lookupTime = execute(executor, threads, new Task() {
+                public void run(final int thread) throws Exception {
+                    for (int n = 0; n < LOOKUPS_PER_BINDING; n++) {
+                        for (int i = thread; i < bindings; i += threads) {
+                            if (!Integer.valueOf(i).equals(store.lookup(names[i]))) {
+                                throw new IllegalStateException("Unexpected value bound to " + names[i]);
+                            }
+                        }
+                    }
+                }
+            });
+            writer.cancel(true);
+            return new long[] {bindTime, lookupTime};
+        } finally {
+            executor.shutdownNow();
+            store.close();
+        }
+    }
+
+    private static long execute(final ExecutorService executor, final int threads, final Task task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }
+            }));
+        }
+        final long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+}
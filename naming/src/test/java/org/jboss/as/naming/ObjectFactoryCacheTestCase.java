@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming;
+
+import org.junit.Test;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.spi.ObjectFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ObjectFactoryCacheTestCase {
+
+    private final ObjectFactoryCache cache = new ObjectFactoryCache();
+
+    @Test
+    public void testCachedPerClassName() throws Exception {
+        final ClassLoader classLoader = getClass().getClassLoader();
+        final ObjectFactory factory = cache.getObjectFactory(TestFactory.class.getName(), classLoader);
+        assertEquals(TestFactory.class, factory.getClass());
+        assertSame(factory, cache.getObjectFactory(TestFactory.class.getName(), classLoader));
+        assertNotSame(factory, cache.getObjectFactory(OtherTestFactory.class.getName(), classLoader));
+    }
+
+    @Test
+    public void testCachedPerClassLoader() throws Exception {
+        final ClassLoader classLoader = new IsolatingClassLoader(TestFactory.class);
+        final ObjectFactory factory = cache.getObjectFactory(TestFactory.class.getName(), classLoader);
+        assertSame(classLoader, factory.getClass().getClassLoader());
+        assertSame(factory, cache.getObjectFactory(TestFactory.class.getName(), classLoader));
+
+        final ObjectFactory parentFactory = cache.getObjectFactory(TestFactory.class.getName(), getClass().getClassLoader());
+        assertNotSame(factory.getClass(), parentFactory.getClass());
+        final ObjectFactory otherFactory = cache.getObjectFactory(TestFactory.class.getName(), new IsolatingClassLoader(TestFactory.class));
+        assertNotSame(factory.getClass(), otherFactory.getClass());
+    }
+
+    @Test
+    public void testClassNotFound() throws Exception {
+        try {
+            cache.getObjectFactory("org.jboss.as.naming.NoSuchFactory", getClass().getClassLoader());
+            fail("Expected the factory class not to be found");
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    public static class TestFactory implements ObjectFactory {
+        public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) throws Exception {
+            return obj;
+        }
+    }
+
+    public static class OtherTestFactory extends TestFactory {
+    }
+
+    /**
+     * Defines a class itself rather than delegating to its parent, like a deployment class loader.
+     */
+    private static final class IsolatingClassLoader extends ClassLoader {
+        private final Class<?> isolatedClass;
+
+        private IsolatingClassLoader(final Class<?> isolatedClass) {
+            super(isolatedClass.getClassLoader());
+            this.isolatedClass = isolatedClass;
+        }
+
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(isolatedClass.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                final byte[] bytes = readClass(name);
+                c = defineClass(name, bytes, 0, bytes.length);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+
+        private byte[] readClass(final String name) throws ClassNotFoundException {
+            final InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming.context;
+
+import org.jboss.as.naming.InMemoryNamingStore;
+import org.jboss.as.naming.NamingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NamespaceContextSelectorTestCase {
+
+    private NamingContext namingContext;
+    private CountingSelector selector;
+
+    @Before
+    public void setup() throws Exception {
+        NamingContext.setActiveNamingStore(new InMemoryNamingStore());
+        namingContext = new NamingContext(null);
+        namingContext.bind("comp", NamespaceObjectFactory.createReference("comp"));
+        selector = new CountingSelector(new NamingContext(new CompositeName("comp-context"), new InMemoryNamingStore(), new Hashtable<String, Object>()));
+        NamespaceContextSelector.setCurrentSelector(selector);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        NamespaceContextSelector.setCurrentSelector(null);
+        NamingContext.setActiveNamingStore(new InMemoryNamingStore());
+    }
+
+    @Test
+    public void testResolvedLookup() throws Exception {
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertEquals(2, selector.calls);
+        assertEquals(2, selector.getResolvedLookupCount());
+        assertEquals(0, selector.getPinnedLookupCount());
+    }
+
+    @Test
+    public void testPinnedLookup() throws Exception {
+        selector.pinContexts("comp", "module");
+        assertEquals(2, selector.calls);
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertEquals(2, selector.calls);
+        assertEquals(2, selector.getPinnedLookupCount());
+        assertEquals(0, selector.getResolvedLookupCount());
+
+        selector.unpinContexts();
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertEquals(3, selector.calls);
+        assertEquals(1, selector.getResolvedLookupCount());
+    }
+
+    @Test
+    public void testPinResolvedContexts() throws Exception {
+        selector = new CountingSelector(selector.context, true);
+        NamespaceContextSelector.setCurrentSelector(selector);
+        final long totalPinned = NamespaceContextSelector.getTotalPinnedLookupCount();
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertSame(selector.context, namingContext.lookup("comp"));
+        assertEquals(1, selector.calls);
+        assertEquals(1, selector.getResolvedLookupCount());
+        assertEquals(2, selector.getPinnedLookupCount());
+        assertEquals(totalPinned + 2, NamespaceContextSelector.getTotalPinnedLookupCount());
+    }
+
+    private static class CountingSelector extends NamespaceContextSelector {
+        private final Context context;
+        private int calls;
+
+        private CountingSelector(final Context context) {
+            this.context = context;
+        }
+
+        private CountingSelector(final Context context, final boolean pinResolvedContexts) {
+            super(pinResolvedContexts);
+            this.context = context;
+        }
+
+        public Context getContext(final String identifier) {
+            calls++;
+            return "comp".equals(identifier) ? context : null;
+        }
+    }
+}
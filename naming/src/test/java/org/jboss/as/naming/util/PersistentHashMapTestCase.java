@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.naming.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentHashMapTestCase {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        final PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        final PersistentHashMap<String, Integer> one = empty.put("one", 1);
+        final PersistentHashMap<String, Integer> two = one.put("two", 2);
+        assertTrue(empty.isEmpty());
+        assertEquals(1, one.size());
+        assertEquals(2, two.size());
+        assertEquals(Integer.valueOf(1), two.get("one"));
+        assertNull(one.get("two"));
+        final PersistentHashMap<String, Integer> removed = two.remove("one");
+        assertFalse(removed.containsKey("one"));
+        assertTrue(two.containsKey("one"));
+        assertSame(removed, removed.remove("missing"));
+    }
+
+    @Test
+    public void testCollisions() throws Exception {
+        // "Aa" and "BB" have the same hash code
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        map = map.put("Aa", 1).put("BB", 2).put("AaAa", 3).put("BBBB", 4).put("AaBB", 5);
+        assertEquals(5, map.size());
+        assertEquals(Integer.valueOf(2), map.get("BB"));
+        assertEquals(Integer.valueOf(5), map.get("AaBB"));
+        map = map.remove("Aa").remove("BBBB");
+        assertEquals(3, map.size());
+        assertNull(map.get("Aa"));
+        assertEquals(Integer.valueOf(2), map.get("BB"));
+        assertEquals(Integer.valueOf(3), map.get("AaAa"));
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        final Random random = new Random(7);
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            final String key = "key" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        final List<String> visited = visit(map, null, Integer.MAX_VALUE);
+        assertEquals(expected.size(), visited.size());
+        assertTrue(visited.containsAll(expected.keySet()));
+    }
+
+    @Test
+    public void testResumableVisit() throws Exception {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 500; i++) {
+            map = map.put("key" + i, i);
+        }
+        map = map.put("Aa", -1).put("BB", -2);
+        final List<String> all = visit(map, null, Integer.MAX_VALUE);
+        final List<String> paged = new ArrayList<String>();
+        String after = null;
+        List<String> page;
+        while (!(page = visit(map, after, 7)).isEmpty()) {
+            paged.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(all, paged);
+        // Resuming after a key that has since been removed continues from where it would have been
+        final int middle = all.size() / 2;
+        assertEquals(all.subList(middle + 1, all.size()), visit(map.remove(all.get(middle)), all.get(middle), Integer.MAX_VALUE));
+    }
+
+    private static List<String> visit(final PersistentHashMap<String, Integer> map, final String after, final int max) {
+        final List<String> keys = new ArrayList<String>();
+        map.visit(after, new PersistentHashMap.EntryVisitor<String, Integer>() {
+            public boolean visit(final String key, final Integer value) {
+                keys.add(key);
+                return keys.size() < max;
+            }
+        });
+        return keys;
+    }
+}
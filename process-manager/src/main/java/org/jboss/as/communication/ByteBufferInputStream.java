@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.communication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bytes between a buffer's position and limit without modifying the buffer. Unlike other streams
+ * an {@link EOFException} is thrown once all the bytes have been read, rather than {@code -1} being returned,
+ * so the parsing methods of {@link org.jboss.as.process.StreamUtils} can be used to find out whether the
+ * buffer holds a complete message.
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private int index;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.index = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (index >= buffer.limit()) {
+            throw new EOFException();
+        }
+        return buffer.get(index++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        final int count = Math.min(len, buffer.limit() - index);
+        if (count <= 0) {
+            throw new EOFException();
+        }
+        for (int i = 0; i < count; i++) {
+            b[off + i] = buffer.get(index++);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int count = (int) Math.max(0, Math.min(n, buffer.limit() - index));
+        index += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.limit() - index;
+    }
+
+    /**
+     * Get the number of bytes read from the buffer so far
+     *
+     * @return the number of bytes read
+     */
+    public int getBytesRead() {
+        return index - start;
+    }
+}
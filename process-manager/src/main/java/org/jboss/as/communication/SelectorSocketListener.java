@@ -0,0 +1,706 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.communication;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.process.Status;
+import org.jboss.as.process.StreamUtils;
+import org.jboss.logging.Logger;
+
+/**
+ * Manages a server socket and hands off the messages read from incoming connections to a {@link ConnectionHandler}.
+ * <p>
+ * Unlike {@link SocketListener} no thread is kept per connection. A single thread accepts connections and does
+ * non-blocking reads from all of them using a {@link Selector}, buffering the bytes read from each connection
+ * until they hold a complete message. Complete messages are handled by a pool of at most
+ * {@value #MAX_DISPATCH_THREADS} threads, which are only started while messages are waiting and exit once idle, so a
+ * handler blocking on one connection, or a write waiting for a slow peer, does not hold up the others. The messages read
+ * from one connection are handled one at a time, in the order they were received, so a connection never holds more
+ * than one of the threads.
+ * <p>
+ * The first message read from a connection is the initial request sent by
+ * {@link SocketConnection#connect(InetAddress, Integer, String...)}, which is passed to
+ * {@link ConnectionHandler#initializeConnection(Connection, byte[])}. The {@link MessageHandler} returned
+ * decides how the following messages are framed.
+ * <p>
+ * Work which can not be driven by a selector, such as reading the pipes of child processes, can be done on the
+ * same thread by setting a {@link Poller}, which is called between selects.
+ */
+public final class SelectorSocketListener {
+
+    /** The largest number of threads handling messages */
+    private static final int MAX_DISPATCH_THREADS = 16;
+
+    /** How long an idle thread handling messages is kept */
+    private static final long DISPATCH_KEEP_ALIVE = 60000;
+
+    /** How long a connection may take to send its initial request */
+    private static final long INITIAL_REQUEST_TIMEOUT = 10000;
+
+    /** How long a write may wait for a connection to become writable */
+    private static final long WRITE_TIMEOUT = 30000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The largest message which will be buffered */
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    /** The longest the selector waits before checking for timed out connections */
+    private static final long MAX_SELECT_TIMEOUT = 1000;
+
+    private final Logger log = Logger.getLogger(SelectorSocketListener.class);
+    private final String name;
+    private final ConnectionHandler connectionHandler;
+    private final InetAddress address;
+    private final int port;
+    private final int backlog;
+    private final ThreadPoolExecutor executor;
+
+    private volatile SelectorLoop selectorLoop;
+    private volatile Poller poller;
+
+    private SelectorSocketListener(String name, ConnectionHandler connectionHandler, InetAddress address, int port, int backlog) {
+        if (name == null) {
+            throw new IllegalArgumentException("Null name");
+        }
+        if (connectionHandler == null) {
+            throw new IllegalArgumentException("Null connectionHandler");
+        }
+        if (address == null) {
+            throw new IllegalArgumentException("Null address");
+        }
+        this.name = name;
+        this.connectionHandler = connectionHandler;
+        this.address = address;
+        this.port = port;
+        this.backlog = backlog;
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(MAX_DISPATCH_THREADS, MAX_DISPATCH_THREADS, DISPATCH_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "Socket Listener " + name + " Dispatch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static SelectorSocketListener createSocketListener(String name, ConnectionHandler connectionHandler, InetAddress address, int port, int backlog) throws IOException {
+        return new SelectorSocketListener(name, connectionHandler, address, port, backlog);
+    }
+
+    /**
+     * Start listening for requests
+     */
+    public void start() throws IOException {
+        selectorLoop = new SelectorLoop();
+        Thread t = new Thread(selectorLoop, "Socket Listener " + name);
+        t.start();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        if (selectorLoop != null) {
+            selectorLoop.shutdown();
+        }
+    }
+
+    /**
+     * Set the poller called by the selector thread between selects
+     *
+     * @param poller the poller, or {@code null} to stop polling
+     */
+    public void setPoller(Poller poller) {
+        this.poller = poller;
+        final SelectorLoop loop = selectorLoop;
+        if (loop != null) {
+            loop.selector.wakeup();
+        }
+    }
+
+    public InetAddress getAddress() {
+        SelectorLoop loop = this.selectorLoop;
+        if (loop == null)
+            throw new IllegalArgumentException(name + " not started ");
+        return loop.getAddress();
+    }
+
+    public Integer getPort() {
+        SelectorLoop loop = this.selectorLoop;
+        if (loop == null)
+            throw new IllegalArgumentException(name + " not started");
+        return loop.getPort();
+    }
+
+    /**
+     * Get the length of the initial request at the start of a buffer. The initial request is a line of words,
+     * as written by {@link SocketConnection#connect(InetAddress, Integer, String...)}.
+     *
+     * @param buffer the buffer
+     * @return the length of the initial request, or {@code -1} if the buffer does not hold all of it
+     * @throws IOException if the bytes are not a valid initial request
+     */
+    static int getInitialRequestLength(ByteBuffer buffer) throws IOException {
+        final ByteBufferInputStream input = new ByteBufferInputStream(buffer);
+        final StringBuilder b = new StringBuilder();
+        try {
+            Status status = Status.MORE;
+            while (status == Status.MORE) {
+                status = StreamUtils.readWord(input, b);
+            }
+            return input.getBytesRead();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Contains the server socket channel and the selector used to accept connections and read from them.
+     */
+    private class SelectorLoop implements Runnable {
+
+        private final Selector selector;
+        private final ServerSocketChannel serverChannel;
+        private final AtomicBoolean shutdown = new AtomicBoolean(false);
+        /** Connections which have been initialized and may read again */
+        private final Queue<Connection> initialized = new ConcurrentLinkedQueue<Connection>();
+
+        private SelectorLoop() throws IOException {
+            selector = Selector.open();
+            try {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.socket().setReuseAddress(true);
+                serverChannel.socket().bind(new InetSocketAddress(address, port), backlog);
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (Exception e) {
+                selector.close();
+                throw new RuntimeException("Error starting listener '" + name + "' on " + address + ":" + port, e);
+            }
+        }
+
+        int getPort() {
+            return serverChannel.socket().getLocalPort();
+        }
+
+        InetAddress getAddress() {
+            return serverChannel.socket().getInetAddress();
+        }
+
+        @Override
+        public void run() {
+            log.infof("%s listening on %d", name, getPort());
+            try {
+                long nextPoll = System.nanoTime();
+                while (!shutdown.get()) {
+                    selector.select(Math.max(1, Math.min(MAX_SELECT_TIMEOUT, TimeUnit.NANOSECONDS.toMillis(nextPoll - System.nanoTime()))));
+                    final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        try {
+                            if (key.isAcceptable()) {
+                                accept();
+                            } else if (key.isReadable()) {
+                                read((Connection) key.attachment());
+                            }
+                        } catch (CancelledKeyException e) {
+                            // The connection was closed by another thread
+                        }
+                    }
+                    Connection connection;
+                    while ((connection = initialized.poll()) != null) {
+                        resume(connection);
+                    }
+                    closeUninitializedConnections();
+                    final long now = System.nanoTime();
+                    if (now - nextPoll >= 0) {
+                        nextPoll = now + TimeUnit.MILLISECONDS.toNanos(poll());
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                log.infof("%s server socket was closed", name);
+            } catch (IOException e) {
+                log.errorf(e, "%s selector failed", name);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Call the poller
+         *
+         * @return how long to wait before calling it again
+         */
+        private long poll() {
+            final Poller poller = SelectorSocketListener.this.poller;
+            if (poller == null) {
+                return MAX_SELECT_TIMEOUT;
+            }
+            try {
+                return poller.poll();
+            } catch (Throwable t) {
+                log.errorf(t, "%s poller failed", name);
+                return MAX_SELECT_TIMEOUT;
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                log.debugf("%s got new connection on %d", name, channel.socket().getLocalPort());
+                try {
+                    channel.configureBlocking(false);
+                    final Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    log.errorf("%s process acceptor: error registering socket: %s", name, e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+        }
+
+        private void read(final Connection connection) {
+            try {
+                int read;
+                do {
+                    if (!connection.buffer.hasRemaining()) {
+                        connection.growBuffer();
+                    }
+                    read = connection.channel.read(connection.buffer);
+                } while (read > 0 && !connection.buffer.hasRemaining());
+
+                connection.decode();
+                if (read < 0) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                log.errorf("%s error reading from socket: %s", name, e.getMessage());
+                connection.close();
+            }
+        }
+
+        private void resume(final Connection connection) {
+            try {
+                connection.key.interestOps(SelectionKey.OP_READ);
+                connection.decode();
+            } catch (CancelledKeyException e) {
+                // The connection was closed while it was being initialized
+            } catch (IOException e) {
+                log.errorf("%s error reading from socket: %s", name, e.getMessage());
+                connection.close();
+            }
+        }
+
+        private void closeUninitializedConnections() {
+            final long now = System.currentTimeMillis();
+            for (SelectionKey key : selector.keys()) {
+                final Connection connection = (Connection) key.attachment();
+                if (connection != null && connection.initialRequest == null && now - connection.acceptTime > INITIAL_REQUEST_TIMEOUT) {
+                    log.errorf("%s process acceptor: Invalid initial request: did not receive any data on socket within %d seconds", name, INITIAL_REQUEST_TIMEOUT / 1000);
+                    connection.close();
+                }
+            }
+        }
+
+        private void shutdown() {
+            shutdown.set(true);
+            selector.wakeup();
+        }
+
+        /**
+         * Close the server socket and all the connections, called by the selector thread once it has stopped
+         */
+        private void close() {
+            shutdown.set(true);
+            try {
+                log.infof("%s closing server socket %d", name, getPort());
+                for (SelectionKey key : selector.keys()) {
+                    final Connection connection = (Connection) key.attachment();
+                    if (connection != null) {
+                        connection.close();
+                    }
+                }
+                serverChannel.close();
+                selector.close();
+                log.infof("%s closed server socket %d", name, getPort());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (ClosedSelectorException ignore) {
+            }
+        }
+    }
+
+    /**
+     * A connection accepted by the listener. Reads are done by the listener; the bytes read are buffered until
+     * they hold a complete message, which is then passed to the connection's {@link MessageHandler}.
+     */
+    public final class Connection {
+        private final SocketChannel channel;
+        private final long acceptTime = System.currentTimeMillis();
+        private volatile boolean closed;
+        private final OutputStream output;
+        /** The tasks waiting to be run for this connection, guarded by itself */
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private boolean running;
+
+        /** The following are only used by the selector thread */
+        private SelectionKey key;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private byte[] initialRequest;
+
+        private volatile MessageHandler messageHandler;
+        private volatile Selector writeSelector;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.output = new BufferedOutputStream(new ChannelOutputStream());
+        }
+
+        /**
+         * Get the stream used to write to this connection. Writes block until all the bytes have been written.
+         *
+         * @return the output stream
+         */
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        public SocketAddress getRemoteAddress() {
+            return channel.socket().getRemoteSocketAddress();
+        }
+
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        /**
+         * Close this connection. If the connection has been initialized its
+         * {@link MessageHandler#connectionClosed()} is called once all the messages already read have been handled.
+         */
+        public void close() {
+            final MessageHandler handler;
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+                handler = messageHandler;
+            }
+            log.debugf("%s closing connection %s", name, getRemoteAddress());
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+            final Selector writeSelector = this.writeSelector;
+            if (writeSelector != null) {
+                try {
+                    writeSelector.close();
+                } catch (IOException ignore) {
+                }
+            }
+            if (handler != null) {
+                dispatch(new Runnable() {
+                    public void run() {
+                        handler.connectionClosed();
+                    }
+                });
+            }
+        }
+
+        private void growBuffer() throws IOException {
+            if (buffer.capacity() >= MAX_MESSAGE_SIZE) {
+                throw new IOException("Message exceeds " + MAX_MESSAGE_SIZE + " bytes");
+            }
+            final ByteBuffer grown = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_MESSAGE_SIZE));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        /**
+         * Hand off all the complete messages in the buffer
+         */
+        private void decode() throws IOException {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining() && !closed) {
+                    if (initialRequest == null) {
+                        final int length = getInitialRequestLength(buffer);
+                        if (length < 0) {
+                            break;
+                        }
+                        initialRequest = new byte[length];
+                        buffer.get(initialRequest);
+                        // Stop reading until the handler for the following messages is known
+                        key.interestOps(0);
+                        dispatch(new InitializeTask(initialRequest));
+                        break;
+                    }
+                    final MessageHandler handler = messageHandler;
+                    if (handler == null) {
+                        break;
+                    }
+                    final int length = handler.getMessageLength(buffer);
+                    if (length < 0) {
+                        break;
+                    }
+                    final byte[] message = new byte[length];
+                    buffer.get(message);
+                    dispatch(new MessageTask(handler, message));
+                }
+            } finally {
+                buffer.compact();
+            }
+        }
+
+        /**
+         * Run a task once the tasks already dispatched for this connection have completed
+         */
+        private void dispatch(final Runnable task) {
+            synchronized (tasks) {
+                tasks.add(task);
+                if (running)
+                    return;
+                running = true;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        for (;;) {
+                            final Runnable next;
+                            synchronized (tasks) {
+                                next = tasks.poll();
+                                if (next == null) {
+                                    running = false;
+                                    return;
+                                }
+                            }
+                            try {
+                                next.run();
+                            } catch (Throwable t) {
+                                log.errorf(t, "%s failed handling message from %s", name, getRemoteAddress());
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (tasks) {
+                    tasks.clear();
+                    running = false;
+                }
+            }
+        }
+
+        private class InitializeTask implements Runnable {
+            private final byte[] request;
+
+            InitializeTask(byte[] request) {
+                this.request = request;
+            }
+
+            public void run() {
+                boolean ok = false;
+                MessageHandler handler = null;
+                boolean closedWhileInitializing = false;
+                try {
+                    handler = connectionHandler.initializeConnection(Connection.this, request);
+                    if (handler == null) {
+                        throw new InitialSocketRequestException("No message handler for initial request");
+                    }
+                    synchronized (Connection.this) {
+                        messageHandler = handler;
+                        closedWhileInitializing = closed;
+                    }
+                    ok = true;
+                } catch (InitialSocketRequestException e) {
+                    log.errorf("%s process acceptor: Invalid initial request: %s", name, e.getMessage());
+                } catch (IOException e) {
+                    log.errorf("%s process acceptor: error reading from socket: %s", name, e.getMessage());
+                } finally {
+                    if (!ok) {
+                        close();
+                    }
+                }
+                if (closedWhileInitializing) {
+                    // close() did not see the handler, so it has not been told yet
+                    handler.connectionClosed();
+                } else if (ok) {
+                    final SelectorLoop loop = selectorLoop;
+                    loop.initialized.add(Connection.this);
+                    loop.selector.wakeup();
+                }
+            }
+        }
+
+        private class MessageTask implements Runnable {
+            private final MessageHandler handler;
+            private final byte[] message;
+
+            MessageTask(MessageHandler handler, byte[] message) {
+                this.handler = handler;
+                this.message = message;
+            }
+
+            public void run() {
+                try {
+                    handler.handleMessage(message);
+                } catch (IOException e) {
+                    log.errorf("%s error handling message from %s: %s", name, getRemoteAddress(), e.getMessage());
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Writes to the non-blocking channel, waiting on a selector of its own while the socket's send
+         * buffer is full.
+         */
+        private class ChannelOutputStream extends OutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException {
+                final ByteBuffer source = ByteBuffer.wrap(b, off, len);
+                while (source.hasRemaining()) {
+                    if (channel.write(source) == 0) {
+                        awaitWritable();
+                    }
+                }
+            }
+
+            private void awaitWritable() throws IOException {
+                Selector selector = writeSelector;
+                if (selector == null) {
+                    selector = Selector.open();
+                    try {
+                        channel.register(selector, SelectionKey.OP_WRITE);
+                    } catch (IOException e) {
+                        selector.close();
+                        throw e;
+                    }
+                    writeSelector = selector;
+                }
+                try {
+                    if (selector.select(WRITE_TIMEOUT) == 0 && channel.isOpen()) {
+                        throw new IOException(name + " timed out writing to " + getRemoteAddress());
+                    }
+                    selector.selectedKeys().clear();
+                } catch (ClosedSelectorException e) {
+                    throw new ClosedChannelException();
+                }
+            }
+
+            @Override
+            public void close() {
+                Connection.this.close();
+            }
+        }
+    }
+
+    /**
+     * Work done by the selector thread between selects, see {@link SelectorSocketListener#setPoller(Poller)}.
+     * Polling must not block, since no connections are read while it runs.
+     */
+    public interface Poller {
+
+        /**
+         * Do any work which is ready
+         *
+         * @return how long in milliseconds to wait before polling again
+         */
+        long poll();
+    }
+
+    public interface ConnectionHandler {
+
+        /**
+         * Used to verify the initial request of a connection and to get the handler for the messages that follow
+         *
+         * @param connection the connection
+         * @param initialRequest the bytes of the initial request
+         * @return the handler for the following messages
+         * @throws IOException if there were some problems with the connection
+         * @throws InitialSocketRequestException if there were some problems with the initial request
+         */
+        MessageHandler initializeConnection(Connection connection, byte[] initialRequest) throws IOException, InitialSocketRequestException;
+    }
+
+    public interface MessageHandler {
+
+        /**
+         * Get the length of the message at the start of a buffer. Neither the bytes between the buffer's position
+         * and limit nor its position may be changed, see {@link ByteBufferInputStream}.
+         *
+         * @param buffer the bytes read from the connection which have not yet been handled
+         * @return the length of the message, or {@code -1} if the buffer does not hold all of it yet
+         * @throws IOException if the bytes are not a valid message
+         */
+        int getMessageLength(ByteBuffer buffer) throws IOException;
+
+        /**
+         * Handle a complete message
+         *
+         * @param message the bytes of the message
+         * @throws IOException if there were some problems with the message, the connection will be closed
+         */
+        void handleMessage(byte[] message) throws IOException;
+
+        /**
+         * Called once the connection has been closed, after the messages read from it have been handled
+         */
+        void connectionClosed();
+    }
+}
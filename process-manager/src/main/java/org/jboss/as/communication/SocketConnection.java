@@ -128,6 +128,16 @@ public class SocketConnection {
         }
     }
 
+    /**
+     * Set how long a read may block, see {@link Socket#setSoTimeout(int)}
+     *
+     * @param timeout the timeout in milliseconds, {@code 0} to block until data arrives
+     * @throws IOException if the timeout could not be set
+     */
+    public void setSoTimeout(int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
     public boolean isConnected() {
         return socket.isConnected();
     }
@@ -56,6 +56,9 @@ public class CommandLineConstants {
     /** Start a standalone server */
     public static final String STANDALONE = "-standalone";
 
+    /** Start a server which waits for the server manager to assign it to a server */
+    public static final String STANDBY = "-standby";
+
     /** Configure a default jvm */
     public static final String DEFAULT_JVM = "-default-jvm";
 
@@ -22,28 +22,26 @@
 
 package org.jboss.as.process;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import org.jboss.as.communication.SocketConnection;
+import org.jboss.as.communication.SelectorSocketListener;
 import org.jboss.as.process.ProcessManagerMaster.ProcessHandlerFactory;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommand;
 import org.jboss.as.process.ProcessOutputStreamHandler.Managed;
 import org.jboss.logging.Logger;
-import org.jboss.logging.NDC;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -51,6 +49,9 @@ import org.jboss.logging.NDC;
  *
  */
 public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
+    /** How much of the buffered output of a crashed process is logged */
+    private static final int CRASH_OUTPUT_BYTES = 4096;
+
     private final ProcessManagerMaster master;
     private final String processName;
     private final List<String> command;
@@ -66,6 +67,10 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
     private OutputStream stdinStream;
     private List<StopProcessListener> stopProcessListeners;
     private int respawnCount;
+    private ProcessOutputPoller.Registration errorStreamRegistration;
+    /** Kept across respawns, so the output of the crashed processes is still there */
+    private volatile ProcessOutputBuffer outputBuffer;
+    private volatile int pid = -1;
 
     ManagedProcess(final ProcessManagerMaster master, final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory, final RespawnPolicy respawnPolicy) {
         this.master = master;
@@ -81,15 +86,40 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
         return processName;
     }
 
-    synchronized void setSocket(SocketConnection socketConnection) throws IOException{
-        log.info("Initializing socket for " + processName);
-        commandStream.setSocketOutputStream(socketConnection.getOutputStream());
+    public ProcessOutputBuffer getOutputBuffer() {
+        return outputBuffer;
+    }
+
+    /**
+     * Get the operating system id of the running process
+     *
+     * @return the id, or {@code -1} if the process is not running or its id is not known
+     */
+    int getPid() {
+        return pid;
+    }
 
-        final ProcessOutputStreamHandler outputStreamHandler = new ProcessOutputStreamHandler(master, this, new BufferedInputStream(socketConnection.getInputStream()));
-        final Thread outputThread = new Thread(outputStreamHandler);
-        outputThread.setName("Process " + processName + " socket reader thread");
-        // todo - error handling in the event that a thread can't start?
-        outputThread.start();
+    /**
+     * Stop buffering the output of the process, once it has been removed
+     */
+    void closeOutputBuffer() {
+        final ProcessOutputBuffer outputBuffer = this.outputBuffer;
+        if (outputBuffer != null) {
+            outputBuffer.close();
+        }
+    }
+
+    /**
+     * Use the connection accepted from the process to send it commands
+     *
+     * @param connection the connection
+     * @param protocolVersion the protocol version of the commands read from the connection
+     * @return the handler for the commands read from the connection
+     */
+    synchronized ProcessOutputStreamHandler setConnection(SelectorSocketListener.Connection connection, int protocolVersion) throws IOException{
+        log.info("Initializing socket for " + processName);
+        commandStream.setSocketOutputStream(connection.getOutputStream());
+        return new ProcessOutputStreamHandler(master, this, protocolVersion);
     }
 
     void start() throws IOException {
@@ -103,6 +133,14 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
                 return;
             }
 
+            if (outputBuffer == null) {
+                try {
+                    outputBuffer = ProcessOutputBuffer.create(processName);
+                } catch (IOException e) {
+                    log.warnf("Could not create the output buffer for %s, its output will only be logged: %s", processName, e.getMessage());
+                }
+            }
+
             List<String> command = new ArrayList<String>(this.command);
             if (isRespawn && processName.equals(ProcessManagerMaster.SERVER_MANAGER_PROCESS_NAME)) {
                 command.add(CommandLineConstants.RESTART_SERVER_MANAGER);
@@ -114,8 +152,9 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
                     Collections.unmodifiableMap(env),
                     workingDirectory);
             stdinStream = proc.getInputStream();
+            pid = proc.getPid();
 
-            new Thread(new ErrorStreamHandler(processName, proc.getErrorStream()), "Process " + processName + " stderr thread").start();
+            errorStreamRegistration = master.getOutputPoller().addErrorStream(processName, proc.getErrorStream(), outputBuffer);
 
             start = true;
             stopped = false;
@@ -159,6 +198,17 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
         }
     }
 
+    void resourceUsage(List<ProcessResourceSample> samples) throws IOException {
+        checkServerManager(OutgoingPmCommand.RESOURCE_USAGE);
+        synchronized (this) {
+            // Samples are sent again after the next round, so there is no point buffering them until SM connects
+            if (!start || !commandStream.isConnected()) {
+                return;
+            }
+            OutgoingPmCommand.RESOURCE_USAGE.sendResourceUsage(commandStream, samples);
+        }
+    }
+
     void reconnectToServerManager (String addr, int port) throws IOException {
         synchronized (this) {
             if (!start) {
@@ -230,14 +280,37 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
         boolean respawn = false;
         synchronized (this) {
             start = false;
-            if (exitCode != 0)
+            pid = -1;
+            if (exitCode != 0) {
                 respawn = !stopped;
+                if (respawn) {
+                    logCrashOutput(exitCode);
+                }
+            }
+            if (errorStreamRegistration != null) {
+                errorStreamRegistration.cancel();
+                errorStreamRegistration = null;
+            }
         }
         invokeStopProcessListeners(exitCode);
         if (respawn)
             respawn();
     }
 
+    /**
+     * Log the end of the buffered output of a process which crashed, before a respawn overwrites it
+     */
+    private void logCrashOutput(final int exitCode) {
+        final ProcessOutputBuffer outputBuffer = this.outputBuffer;
+        if (outputBuffer == null) {
+            return;
+        }
+        final byte[] output = outputBuffer.tail(CRASH_OUTPUT_BYTES);
+        if (output.length > 0) {
+            log.warnf("Process %s exited with %d, its last %d bytes of output were:%n%s", processName, exitCode, output.length, new String(output));
+        }
+    }
+
     @Override
     public void processInputClosed() {
         synchronized (this) {
@@ -277,54 +350,6 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
         return "ManagedProcess[name=" + processName + "; start=" + start + "; stopped=" + true + "]";
     }
 
-    private static final class ErrorStreamHandler implements Runnable {
-        private static final Logger log = Logger.getLogger("org.jboss.as.process.stderr");
-
-        private final String processName;
-        private final InputStream errorStream;
-
-        private ErrorStreamHandler(final String processName, final InputStream errorStream) {
-            this.processName = processName;
-            this.errorStream = new BufferedInputStream(errorStream);
-        }
-
-        public void run() {
-            NDC.push(processName);
-            final int idx = NDC.getDepth();
-            final Reader reader = new InputStreamReader(errorStream);
-            final StringBuilder b = new StringBuilder();
-            try {
-                for (;;) {
-                    try {
-                        int c = reader.read();
-                        if (c == -1) {
-                            return;
-                        }
-                        if (c == '\n') {
-                            if (b.length() > 0) {
-                                log.error(b.toString());
-                            }
-                            b.setLength(0);
-                        } else {
-                            b.append((char) c);
-                            if (b.length() >= 8192) {
-                                log.error(b.toString());
-                                b.setLength(0);
-                            }
-                        }
-                    } catch (IOException e) {
-                        safeClose(reader);
-                        return;
-                    } finally {
-                        NDC.setMaxDepth(idx);
-                    }
-                }
-            } finally {
-                NDC.pop();
-            }
-        }
-    }
-
     /**
      * OutputStream to buffer commands to a process until the socket has been initialized
      *
@@ -395,6 +420,12 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
             }
         }
 
+        boolean isConnected() {
+            synchronized (this) {
+                return realOut != null;
+            }
+        }
+
         @Override
         public void close() {
             synchronized (this) {
@@ -406,40 +437,6 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
     }
 
 
-    private static class ProcessMonitor implements Runnable {
-        final Managed managed;
-        final Process process;
-
-        ProcessMonitor(Managed managed, Process process){
-            this.managed = managed;
-            this.process = process;
-        }
-
-        @Override
-        public void run() {
-            int exitCode = 0;
-
-            //Just discard the ouput from the process
-            InputStream processStdout = new BufferedInputStream(process.getInputStream());
-            try {
-                while (processStdout.read() != -1) {
-                }
-            } catch (IOException e) {
-            } finally {
-                safeClose(processStdout);
-            }
-
-            for (;;) {
-                try {
-                    exitCode = process.waitFor();
-                    managed.processEnded(exitCode);
-                    break;
-                } catch (InterruptedException e) {
-                }
-            }
-        }
-    }
-
     interface StopProcessListener{
         void processStopped(int exitCode);
     }
@@ -486,16 +483,29 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
          * @throws IllegalStateException if {@link #createProcess(Managed, List, Map, String)} has not yet been called
          */
         InputStream getErrorStream();
+
+        /**
+         * Get the operating system id of the process, used to sample the resources it uses
+         *
+         * @return the id, or {@code -1} if it is not known
+         * @throws IllegalStateException if {@link #createProcess(Managed, List, Map, String)} has not yet been called
+         */
+        int getPid();
     }
 
     static class RealProcessHandler implements ProcessHandler {
+        private final ProcessOutputPoller outputPoller;
         volatile InputStream errorStream;
         volatile OutputStream commandStream;
+        volatile int pid = -1;
+
+        RealProcessHandler(ProcessOutputPoller outputPoller) {
+            this.outputPoller = outputPoller;
+        }
 
         public ProcessHandler createProcess(Managed managed, List<String> command, Map<String, String> environment, String workingDirectory) throws IOException{
             final ProcessBuilder processBuilder = new ProcessBuilder(command);
             final Map<String, String> env = processBuilder.environment();
-            final String processName = managed.getProcessName();
             env.clear();
             env.putAll(environment);
             processBuilder.directory(new File(workingDirectory));
@@ -509,11 +519,9 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
 
             errorStream = process.getErrorStream();
             commandStream = process.getOutputStream();
+            pid = getPid(process);
 
-            final Thread monitorThread = new Thread(new ProcessMonitor(managed, process));
-            monitorThread.setName("Process " + processName + " monitor thread");
-            // todo - error handling in the event that a thread can't start?
-            monitorThread.start();
+            outputPoller.addProcess(managed, process);
 
             return this;
         }
@@ -531,6 +539,35 @@ public final class ManagedProcess implements ProcessOutputStreamHandler.Managed{
                 throw new IllegalStateException("Null errorStream, createProcess() must be called first");
             return errorStream;
         }
+
+        @Override
+        public int getPid() {
+            if (commandStream == null)
+                throw new IllegalStateException("Null commandStream, createProcess() must be called first");
+            return pid;
+        }
+
+        /**
+         * Get the id of a process. {@link Process} only has a method for it from Java 9, before that the Unix
+         * implementation keeps it in a private field.
+         */
+        private static int getPid(final Process process) {
+            try {
+                final Method method = Process.class.getMethod("pid");
+                return ((Long) method.invoke(process)).intValue();
+            } catch (NoSuchMethodException e) {
+                // Fall through
+            } catch (Exception e) {
+                return -1;
+            }
+            try {
+                final Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (Exception e) {
+                return -1;
+            }
+        }
     }
 
 
@@ -22,11 +22,10 @@
 
 package org.jboss.as.process;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -36,9 +35,10 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.jboss.as.communication.InitialSocketRequestException;
-import org.jboss.as.communication.SocketConnection;
-import org.jboss.as.communication.SocketListener;
-import org.jboss.as.communication.SocketListener.SocketHandler;
+import org.jboss.as.communication.SelectorSocketListener;
+import org.jboss.as.communication.SelectorSocketListener.Connection;
+import org.jboss.as.communication.SelectorSocketListener.ConnectionHandler;
+import org.jboss.as.communication.SelectorSocketListener.MessageHandler;
 import org.jboss.as.process.ManagedProcess.ProcessHandler;
 import org.jboss.as.process.ManagedProcess.RealProcessHandler;
 import org.jboss.as.process.ManagedProcess.StopProcessListener;
@@ -53,7 +53,11 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
 
     public static final String SERVER_MANAGER_PROCESS_NAME = "ServerManager";
 
-    private final SocketListener socketListener;
+    private final SelectorSocketListener socketListener;
+
+    private final ProcessOutputPoller outputPoller = new ProcessOutputPoller();
+
+    private final ProcessResourceSampler resourceSampler = new ProcessResourceSampler(this);
 
     private final Logger log = Logger.getLogger(ProcessManagerMaster.class);
 
@@ -68,8 +72,10 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
     }
 
     protected ProcessManagerMaster(ProcessHandlerFactory processHandlerFactory, InetAddress addr, int port) throws IOException {
-        socketListener = SocketListener.createSocketListener("PM", new ProcessAcceptor(), addr, port, 20);
-        this.processHandlerFactory = processHandlerFactory == null ? new RealProcessHandlerFactory() : processHandlerFactory;
+        socketListener = SelectorSocketListener.createSocketListener("PM", new ProcessAcceptor(), addr, port, 20);
+        // The process pipes are read by the same thread as the process sockets
+        socketListener.setPoller(outputPoller);
+        this.processHandlerFactory = processHandlerFactory == null ? new RealProcessHandlerFactory(outputPoller) : processHandlerFactory;
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 
             @Override
@@ -110,6 +116,7 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
             // AutoGenerated
             throw new RuntimeException(e);
         }
+        resourceSampler.start();
     }
 
     protected void shutdown() {
@@ -118,6 +125,7 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
             return;
 
         log.info("Initiating shutdown of ProcessManager");
+        resourceSampler.shutdown();
 
         ManagedProcess serverManager = null;
         synchronized (processes) {
@@ -140,11 +148,13 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
                 } catch (IOException e) {
                     log.error("Error sending SHUTDOWN to " + proc.getProcessName());
                 }
+                proc.closeOutputBuffer();
             }
             processes.clear();
         }
 
         socketListener.shutdown();
+        outputPoller.shutdown();
         log.info("Shutdown ProcessManager");
     }
 
@@ -156,6 +166,10 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
         return processHandlerFactory;
     }
 
+    ProcessOutputPoller getOutputPoller() {
+        return outputPoller;
+    }
+
     public InetAddress getInetAddress() {
         return socketListener.getAddress();
     }
@@ -240,8 +254,70 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
                     return;
                 }
                 processes.remove(processName);
+                process.closeOutputBuffer();
+                resourceSampler.remove(processName);
+            }
+        }
+    }
+
+    /**
+     * Get the resource usage samples kept for a process
+     *
+     * @param processName the name of the process
+     * @return the samples, oldest first, empty if the process has not been sampled
+     */
+    public List<ProcessResourceSample> getResourceSamples(final String processName) {
+        return resourceSampler.getSamples(processName);
+    }
+
+    /**
+     * Get the latest resource usage sample of each process
+     *
+     * @return the samples
+     */
+    public List<ProcessResourceSample> getLatestResourceSamples() {
+        return resourceSampler.getLatestSamples();
+    }
+
+    /**
+     * Get the ids of the running processes whose id is known, for the {@link ProcessResourceSampler}
+     *
+     * @return the ids by process name
+     */
+    Map<String, Integer> getProcessPids() {
+        final Map<String, Integer> pids = new HashMap<String, Integer>();
+        synchronized (processes) {
+            for (ManagedProcess process : processes.values()) {
+                final int pid = process.getPid();
+                if (pid > 0) {
+                    pids.put(process.getProcessName(), Integer.valueOf(pid));
+                }
             }
         }
+        return pids;
+    }
+
+    /**
+     * Send the latest resource usage samples to the server manager
+     *
+     * @param samples the samples
+     */
+    void sendResourceUsage(final List<ProcessResourceSample> samples) {
+        if (shutdown.get()) {
+            return;
+        }
+        final ManagedProcess serverManagerProcess;
+        synchronized (processes) {
+            serverManagerProcess = processes.get(SERVER_MANAGER_PROCESS_NAME);
+        }
+        if (serverManagerProcess == null) {
+            return;
+        }
+        try {
+            serverManagerProcess.resourceUsage(samples);
+        } catch (IOException e) {
+            log.debugf("Could not send %s to %s", ProcessManagerProtocol.OutgoingPmCommand.RESOURCE_USAGE, SERVER_MANAGER_PROCESS_NAME);
+        }
     }
 
     public void sendStdin(final String recipient, final byte[] msg) {
@@ -385,7 +461,7 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
         }
     }
 
-    protected void acceptedConnection(String processName, SocketConnection connection) {
+    protected void acceptedConnection(String processName, Connection connection) {
         //Hook for tests
     }
 
@@ -482,32 +558,38 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
         }
     }
 
-    class ProcessAcceptor implements SocketHandler {
+    class ProcessAcceptor implements ConnectionHandler {
 
         @Override
-        public void initializeConnection(Socket socket) throws IOException, InitialSocketRequestException {
-            InputStream in = socket.getInputStream();
+        public MessageHandler initializeConnection(Connection connection, byte[] initialRequest) throws IOException, InitialSocketRequestException {
+            InputStream in = new ByteArrayInputStream(initialRequest);
             StringBuilder sb = new StringBuilder();
 
-            socket.setSoTimeout(10000);
             Status status;
             String processName;
-            try {
+            status = StreamUtils.readWord(in, sb);
+            if (status != Status.MORE) {
+                throw new InitialSocketRequestException("Process acceptor: received '" + sb.toString() + "' but no more");
+            }
+            if (!sb.toString().equals("CONNECTED")) {
+                throw new InitialSocketRequestException("Process acceptor: received unknown start command '" + sb.toString() + "'");
+            }
+            sb = new StringBuilder();
+            status = StreamUtils.readWord(in, sb);
+            int requestedVersion = 0;
+            if (status == Status.MORE && sb.toString().equals(ProcessManagerProtocol.PROTOCOL)) {
                 status = StreamUtils.readWord(in, sb);
-                if (status != Status.MORE) {
-                    throw new InitialSocketRequestException("Process acceptor: received '" + sb.toString() + "' but no more");
-                }
-                if (!sb.toString().equals("CONNECTED")) {
-                    throw new InitialSocketRequestException("Process acceptor: received unknown start command '" + sb.toString() + "'");
-                }
-                sb = new StringBuilder();
-                while (status == Status.MORE) {
-                    status = StreamUtils.readWord(in, sb);
+                try {
+                    requestedVersion = Integer.parseInt(sb.toString());
+                } catch (NumberFormatException e) {
+                    throw new InitialSocketRequestException("Process acceptor: received invalid protocol version '" + sb.toString() + "'");
                 }
-                processName = sb.toString();
-            } catch (SocketTimeoutException e) {
-                throw new InitialSocketRequestException("Process acceptor: did not receive any data on socket within 10 seconds");
+                status = StreamUtils.readWord(in, sb);
             }
+            while (status == Status.MORE) {
+                status = StreamUtils.readWord(in, sb);
+            }
+            processName = sb.toString();
 
             final Map<String, ManagedProcess> processes = ProcessManagerMaster.this.processes;
             ManagedProcess process = null;
@@ -517,10 +599,15 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
                     throw new InitialSocketRequestException("Process acceptor: received connect command for unknown process '" + processName + "' (" +  processes.keySet() + ")");
                 }
             }
-            socket.setSoTimeout(0);
-            SocketConnection connection = SocketConnection.accepted(socket);
-            process.setSocket(connection);
+            // Processes which do not ask for a version only understand text
+            final int version = requestedVersion > 0 ? Math.min(requestedVersion, ProcessManagerProtocol.VERSION) : ProcessManagerProtocol.TEXT_VERSION;
+            if (requestedVersion > 0) {
+                // Answer before any commands buffered for the process are sent
+                ProcessManagerProtocol.writeProtocolVersion(connection.getOutputStream(), version);
+            }
+            MessageHandler handler = process.setConnection(connection, version);
             acceptedConnection(processName, connection);
+            return handler;
         }
     }
 
@@ -538,9 +625,15 @@ public class ProcessManagerMaster implements ProcessOutputStreamHandler.Master{
      */
     private static class RealProcessHandlerFactory implements ProcessHandlerFactory {
 
+        private final ProcessOutputPoller outputPoller;
+
+        RealProcessHandlerFactory(ProcessOutputPoller outputPoller) {
+            this.outputPoller = outputPoller;
+        }
+
         @Override
         public ProcessHandler createHandler() {
-            return new RealProcessHandler();
+            return new RealProcessHandler(outputPoller);
         }
     }
 }
@@ -21,10 +21,14 @@
  */
 package org.jboss.as.process;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -39,12 +43,30 @@ import org.jboss.as.process.ProcessOutputStreamHandler.Master;
  */
 public class ProcessManagerProtocol {
 
+    /** The version where all commands are sent as lines of text, used by processes which do not ask for a version */
+    public static final int TEXT_VERSION = 1;
+
+    /** The version where the commands sent to PM are binary frames, see {@link FrameOutput} */
+    public static final int BINARY_VERSION = 2;
+
+    /** The highest version supported */
+    public static final int VERSION = BINARY_VERSION;
+
+    /**
+     * Asks for a protocol version in the initial request of a connection to PM. It is followed by the highest
+     * version the process supports and precedes the process name. PM then starts its output with this word and the
+     * version the connection will use.
+     */
+    public static final String PROTOCOL = "PROTOCOL";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     /**
      * Commands sent from the processes to PM
      */
     public enum IncomingPmCommand {
         /** Tells the process manager to add a process (SM->PM) */
-        ADD {
+        ADD(0x01) {
             @Override
             public void sendAddProcess(final OutputStream output, final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) throws IOException {
                 if (processName == null) {
@@ -152,10 +174,67 @@ public class ProcessManagerProtocol {
                 master.addProcess(name, execCmd, env, workingDirectory);
                 return status;
             }
+
+            @Override
+            public void sendAddProcess(final FrameOutput output, final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) throws IOException {
+                if (processName == null) {
+                    throw new IllegalArgumentException("processName is null");
+                }
+                if (command == null) {
+                    throw new IllegalArgumentException("command is null");
+                }
+                if (env == null) {
+                    throw new IllegalArgumentException("env is null");
+                }
+                if (workingDirectory == null) {
+                    throw new IllegalArgumentException("workingDirectory is null");
+                }
+                final Frame frame = new Frame(this);
+                frame.writeString(processName);
+                frame.writeString(workingDirectory);
+                frame.writeInt(command.size());
+                for (String str : command) {
+                    frame.writeString(str);
+                }
+                int size = 0;
+                for (String key : env.keySet()) {
+                    if (key != null) {
+                        size++;
+                    }
+                }
+                frame.writeInt(size);
+                for (Map.Entry<String, String> entry : env.entrySet()) {
+                    final String key = entry.getKey();
+                    if (key != null) {
+                        final String value = entry.getValue();
+                        frame.writeString(key);
+                        frame.writeString(value != null ? value : "");
+                    }
+                }
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                final String name = input.readString();
+                final String workingDirectory = input.readString();
+                final int size = input.readCount();
+                final List<String> execCmd = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    execCmd.add(input.readString());
+                }
+                final int mapSize = input.readCount();
+                final Map<String, String> env = new HashMap<String, String>();
+                for (int i = 0; i < mapSize; i++) {
+                    final String key = input.readString();
+                    env.put(key, input.readString());
+                }
+                master.addProcess(name, execCmd, env, workingDirectory);
+            }
         },
 
         /** Tells the process manager to start a process (SM->PM) */
-        START {
+        START(0x02) {
             @Override
             public void sendStartProcess(final OutputStream output, final String processName) throws IOException {
                 if (processName == null) {
@@ -183,10 +262,25 @@ public class ProcessManagerProtocol {
                 master.startProcess(name);
                 return status;
             }
+
+            @Override
+            public void sendStartProcess(final FrameOutput output, final String processName) throws IOException {
+                if (processName == null) {
+                    throw new IllegalArgumentException("processName is null");
+                }
+                final Frame frame = new Frame(this);
+                frame.writeString(processName);
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                master.startProcess(input.readString());
+            }
         },
 
         /** Tells the process manager to stop a process (SM->PM) */
-        STOP{
+        STOP(0x03) {
             @Override
             public void sendStopProcess(final OutputStream output, final String processName) throws IOException {
                 if (processName == null) {
@@ -214,10 +308,25 @@ public class ProcessManagerProtocol {
                 master.stopProcess(name);
                 return status;
             }
+
+            @Override
+            public void sendStopProcess(final FrameOutput output, final String processName) throws IOException {
+                if (processName == null) {
+                    throw new IllegalArgumentException("processName is null");
+                }
+                final Frame frame = new Frame(this);
+                frame.writeString(processName);
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                master.stopProcess(input.readString());
+            }
         },
 
         /** Tells the process manager to remove a process (SM->PM) */
-        REMOVE{
+        REMOVE(0x04) {
             @Override
             public void sendRemoveProcess(final OutputStream output, final String processName) throws IOException {
                 if (processName == null) {
@@ -245,10 +354,25 @@ public class ProcessManagerProtocol {
                 master.removeProcess(name);
                 return status;
             }
+
+            @Override
+            public void sendRemoveProcess(final FrameOutput output, final String processName) throws IOException {
+                if (processName == null) {
+                    throw new IllegalArgumentException("processName is null");
+                }
+                final Frame frame = new Frame(this);
+                frame.writeString(processName);
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                master.removeProcess(input.readString());
+            }
         },
 
         /** The SM has been restarted, tell all server processes to reconnect (SM->PM)*/
-        RECONNECT_SERVERS {
+        RECONNECT_SERVERS(0x05) {
             @Override
             public void sendReconnectServers(final OutputStream output,InetAddress addr, int port) throws IOException {
                 StringBuilder b = new StringBuilder();
@@ -280,10 +404,24 @@ public class ProcessManagerProtocol {
                 master.reconnectServersToServerManager(smAddress, smPort);
                 return status;
             }
+
+            @Override
+            public void sendReconnectServers(final FrameOutput output, final InetAddress addr, final int port) throws IOException {
+                final Frame frame = new Frame(this);
+                frame.writeString(addr.getHostAddress());
+                frame.writeInt(port);
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                final String smAddress = input.readString();
+                master.reconnectServersToServerManager(smAddress, String.valueOf(input.readInt()));
+            }
         },
 
         /** The SM detected a server's connection went down, tell it to reconnect (SM->PM)*/
-        RECONNECT_SERVER {
+        RECONNECT_SERVER(0x06) {
             @Override
             public void sendReconnectServer(final OutputStream output,String recipient, InetAddress addr, int port) throws IOException {
                 StringBuilder b = new StringBuilder();
@@ -322,10 +460,26 @@ public class ProcessManagerProtocol {
                 master.reconnectProcessToServerManager(serverName, smAddress, smPort);
                 return status;
             }
+
+            @Override
+            public void sendReconnectServer(final FrameOutput output, final String recipient, final InetAddress addr, final int port) throws IOException {
+                final Frame frame = new Frame(this);
+                frame.writeString(recipient);
+                frame.writeString(addr.getHostAddress());
+                frame.writeInt(port);
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                final String serverName = input.readString();
+                final String smAddress = input.readString();
+                master.reconnectProcessToServerManager(serverName, smAddress, String.valueOf(input.readInt()));
+            }
         },
 
         /** Sends data to the process stdin (Process->PM) */
-        SEND_STDIN {
+        SEND_STDIN(0x07) {
             @Override
             public void sendStdin(final OutputStream output, final String recipient, final byte[] message) throws IOException {
                 if (recipient == null) {
@@ -357,6 +511,23 @@ public class ProcessManagerProtocol {
                 }
                 return status;
             }
+
+            @Override
+            public void sendStdin(final FrameOutput output, final String recipient, final byte[] message) throws IOException {
+                if (recipient == null) {
+                    throw new IllegalArgumentException("processName is null");
+                }
+                final Frame frame = new Frame(this);
+                frame.writeString(recipient);
+                frame.writeBytes(message);
+                output.send(frame);
+            }
+
+            @Override
+            public void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException {
+                final String recipient = input.readString();
+                master.sendStdin(recipient, input.readBytes());
+            }
         };
 
         /**
@@ -489,7 +660,119 @@ public class ProcessManagerProtocol {
             throw new IllegalStateException("Illegal operation for " + this);
         }
 
+        /**
+         * Tell PM to add a process, see {@link #sendAddProcess(OutputStream, String, List, Map, String)}
+         *
+         * @throws IllegalStateException if this is not {@link #ADD}
+         */
+        public void sendAddProcess(final FrameOutput output, final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
+        /**
+         * Tell PM to start a process, see {@link #sendStartProcess(OutputStream, String)}
+         *
+         * @throws IllegalStateException if this is not {@link #START}
+         */
+        public void sendStartProcess(final FrameOutput output, final String processName) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
+        /**
+         * Tell PM to stop a process, see {@link #sendStopProcess(OutputStream, String)}
+         *
+         * @throws IllegalStateException if this is not {@link #STOP}
+         */
+        public void sendStopProcess(final FrameOutput output, final String processName) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
+        /**
+         * Tell PM to remove a process, see {@link #sendRemoveProcess(OutputStream, String)}
+         *
+         * @throws IllegalStateException if this is not {@link #REMOVE}
+         */
+        public void sendRemoveProcess(final FrameOutput output, final String processName) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
+        /**
+         * Tell PM to send a message to a process via its stdin, see {@link #sendStdin(OutputStream, String, byte[])}
+         *
+         * @throws IllegalStateException if this is not {@link #SEND_STDIN}
+         */
+        public void sendStdin(final FrameOutput output, final String recipient, final byte[] message) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
+        /**
+         * Tell PM to tell processes to reconnect following a SM restart, see
+         * {@link #sendReconnectServers(OutputStream, InetAddress, int)}
+         *
+         * @throws IllegalStateException if this is not {@link #RECONNECT_SERVERS}
+         */
+        public void sendReconnectServers(final FrameOutput output, InetAddress addr, int port) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
+        /**
+         * Tell PM to tell a process to reconnect following a lost connection, see
+         * {@link #sendReconnectServer(OutputStream, String, InetAddress, int)}
+         *
+         * @throws IllegalStateException if this is not {@link #RECONNECT_SERVER}
+         */
+        public void sendReconnectServer(final FrameOutput output, String recipient, InetAddress addr, int port) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
         public abstract Status handleMessage(final InputStream inputStream, final Status currentStatus, final Master master, final String processName, final StringBuilder b) throws IOException;
+
+        /**
+         * Handle the fields of a command read as a binary frame
+         *
+         * @param input the fields following the command id
+         * @param master the process manager
+         * @param processName the name of the process which sent the command
+         * @throws IOException if the frame is not valid
+         */
+        public abstract void handleFrame(final FrameInput input, final Master master, final String processName) throws IOException;
+
+        private static final IncomingPmCommand[] BY_ID;
+        static {
+            int max = 0;
+            for (IncomingPmCommand command : values()) {
+                max = Math.max(max, command.id);
+            }
+            BY_ID = new IncomingPmCommand[max + 1];
+            for (IncomingPmCommand command : values()) {
+                BY_ID[command.id] = command;
+            }
+        }
+
+        private final int id;
+
+        IncomingPmCommand(final int id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the id identifying this command in binary frames
+         *
+         * @return the id
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Get the command with an id
+         *
+         * @param id the id
+         * @return the command, or {@code null} if there is none
+         */
+        public static IncomingPmCommand forId(final int id) {
+            return id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+        }
     }
 
     /**
@@ -576,6 +859,52 @@ public class ProcessManagerProtocol {
                 }
                 return status;
             }
+        },
+
+        /** Sent by PM after sampling the resources used by the processes, with the latest samples (PM->SM) */
+        RESOURCE_USAGE {
+            @Override
+            void sendResourceUsage(final OutputStream output, final List<ProcessResourceSample> samples) throws IOException {
+                final List<String> words = new ArrayList<String>(samples.size() * ProcessResourceSample.WORD_COUNT);
+                for (ProcessResourceSample sample : samples) {
+                    sample.toWords(words);
+                }
+                final StringBuilder sb = new StringBuilder();
+                sb.append(OutgoingPmCommand.RESOURCE_USAGE);
+                for (String word : words) {
+                    sb.append('\0');
+                    sb.append(word);
+                }
+                sb.append('\n');
+                synchronized (output) {
+                    StreamUtils.writeString(output, sb.toString());
+                    output.flush();
+                }
+            }
+
+            @Override
+            public Status handleMessage(final InputStream inputStream, final Status currentStatus, final OutgoingPmCommandHandler handler, final StringBuilder b) throws IOException {
+                Status status = currentStatus;
+                final List<String> words = new ArrayList<String>();
+                while (status == Status.MORE) {
+                    status = StreamUtils.readWord(inputStream, b);
+                    words.add(b.toString());
+                }
+                if (status == Status.END_OF_STREAM || words.size() % ProcessResourceSample.WORD_COUNT != 0) {
+                    // Only a partial was received
+                    return status;
+                }
+                final List<ProcessResourceSample> samples = new ArrayList<ProcessResourceSample>(words.size() / ProcessResourceSample.WORD_COUNT);
+                try {
+                    for (int i = 0; i < words.size(); i += ProcessResourceSample.WORD_COUNT) {
+                        samples.add(ProcessResourceSample.fromWords(words, i));
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid " + RESOURCE_USAGE + " sample: " + e.getMessage());
+                }
+                handler.handleResourceUsage(samples);
+                return status;
+            }
         };
 
         /**
@@ -638,6 +967,18 @@ public class ProcessManagerProtocol {
             throw new IllegalStateException("Illegal operation for " + this);
         }
 
+        /**
+         * Tell SM how much of the resources the processes use
+         *
+         * @param output output stream to SM
+         * @param samples the latest resource usage sample of each process
+         * @throws IOException if the command could not be sent to process
+         * @throws IllegalStateException if this is not {@link #RESOURCE_USAGE}
+         */
+        void sendResourceUsage(final OutputStream output, final List<ProcessResourceSample> samples) throws IOException {
+            throw new IllegalStateException("Illegal operation for " + this);
+        }
+
         public abstract Status handleMessage(final InputStream inputStream, final Status currentStatus, final OutgoingPmCommandHandler handler, final StringBuilder b) throws IOException;
     }
 
@@ -645,10 +986,289 @@ public class ProcessManagerProtocol {
         void handleShutdown();
         void handleDown(String serverName);
         void handleReconnectServerManager(String address, String port);
+        void handleResourceUsage(List<ProcessResourceSample> samples);
     }
 
     public interface IncomingPmCommandHandler {
         void handleShutdown();
         void handleReconnectServer(String addr, String port);
     }
+
+    /**
+     * Sends the commands to PM in the encoding of the protocol version negotiated for the connection
+     */
+    public interface IncomingPmCommandSender {
+        void addProcess(String processName, List<String> command, Map<String, String> env, String workingDirectory) throws IOException;
+        void startProcess(String processName) throws IOException;
+        void stopProcess(String processName) throws IOException;
+        void removeProcess(String processName) throws IOException;
+        void sendStdin(String recipient, byte[] message) throws IOException;
+        void reconnectServers(InetAddress addr, int port) throws IOException;
+        void reconnectServer(String recipient, InetAddress addr, int port) throws IOException;
+    }
+
+    /**
+     * Create the sender of the commands to PM
+     *
+     * @param output the output stream to PM
+     * @param version the protocol version negotiated for the connection
+     * @return the sender, writing binary frames from {@link #BINARY_VERSION} and text otherwise
+     */
+    public static IncomingPmCommandSender createCommandSender(final OutputStream output, final int version) {
+        if (version >= BINARY_VERSION) {
+            return new FrameCommandSender(new FrameOutput(output));
+        }
+        return new TextCommandSender(output);
+    }
+
+    private static final class TextCommandSender implements IncomingPmCommandSender {
+        private final OutputStream output;
+
+        TextCommandSender(final OutputStream output) {
+            this.output = output;
+        }
+
+        public void addProcess(final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) throws IOException {
+            IncomingPmCommand.ADD.sendAddProcess(output, processName, command, env, workingDirectory);
+        }
+
+        public void startProcess(final String processName) throws IOException {
+            IncomingPmCommand.START.sendStartProcess(output, processName);
+        }
+
+        public void stopProcess(final String processName) throws IOException {
+            IncomingPmCommand.STOP.sendStopProcess(output, processName);
+        }
+
+        public void removeProcess(final String processName) throws IOException {
+            IncomingPmCommand.REMOVE.sendRemoveProcess(output, processName);
+        }
+
+        public void sendStdin(final String recipient, final byte[] message) throws IOException {
+            IncomingPmCommand.SEND_STDIN.sendStdin(output, recipient, message);
+        }
+
+        public void reconnectServers(final InetAddress addr, final int port) throws IOException {
+            IncomingPmCommand.RECONNECT_SERVERS.sendReconnectServers(output, addr, port);
+        }
+
+        public void reconnectServer(final String recipient, final InetAddress addr, final int port) throws IOException {
+            IncomingPmCommand.RECONNECT_SERVER.sendReconnectServer(output, recipient, addr, port);
+        }
+    }
+
+    private static final class FrameCommandSender implements IncomingPmCommandSender {
+        private final FrameOutput output;
+
+        FrameCommandSender(final FrameOutput output) {
+            this.output = output;
+        }
+
+        public void addProcess(final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) throws IOException {
+            IncomingPmCommand.ADD.sendAddProcess(output, processName, command, env, workingDirectory);
+        }
+
+        public void startProcess(final String processName) throws IOException {
+            IncomingPmCommand.START.sendStartProcess(output, processName);
+        }
+
+        public void stopProcess(final String processName) throws IOException {
+            IncomingPmCommand.STOP.sendStopProcess(output, processName);
+        }
+
+        public void removeProcess(final String processName) throws IOException {
+            IncomingPmCommand.REMOVE.sendRemoveProcess(output, processName);
+        }
+
+        public void sendStdin(final String recipient, final byte[] message) throws IOException {
+            IncomingPmCommand.SEND_STDIN.sendStdin(output, recipient, message);
+        }
+
+        public void reconnectServers(final InetAddress addr, final int port) throws IOException {
+            IncomingPmCommand.RECONNECT_SERVERS.sendReconnectServers(output, addr, port);
+        }
+
+        public void reconnectServer(final String recipient, final InetAddress addr, final int port) throws IOException {
+            IncomingPmCommand.RECONNECT_SERVER.sendReconnectServer(output, recipient, addr, port);
+        }
+    }
+
+    /**
+     * Read the protocol version PM answered a connection's initial request with
+     *
+     * @param input the input stream from PM
+     * @return the version
+     * @throws IOException if PM did not answer with a version
+     */
+    public static int readProtocolVersion(final InputStream input) throws IOException {
+        final StringBuilder b = new StringBuilder();
+        Status status = StreamUtils.readWord(input, b);
+        if (status != Status.MORE || !PROTOCOL.equals(b.toString())) {
+            throw new IOException("Expected " + PROTOCOL + " but received '" + b + "'");
+        }
+        status = StreamUtils.readWord(input, b);
+        if (status != Status.END_OF_LINE) {
+            throw new IOException("Invalid " + PROTOCOL + " answer '" + b + "'");
+        }
+        try {
+            return Integer.parseInt(b.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid protocol version '" + b + "'");
+        }
+    }
+
+    /**
+     * Answer a connection's initial request with the protocol version it will use
+     *
+     * @param output the output stream to the process
+     * @param version the version
+     * @throws IOException if the answer could not be sent
+     */
+    public static void writeProtocolVersion(final OutputStream output, final int version) throws IOException {
+        synchronized (output) {
+            StreamUtils.writeString(output, PROTOCOL + '\0' + version + '\n');
+            output.flush();
+        }
+    }
+
+    /**
+     * Get the length of the binary frame at the start of a buffer. Neither the bytes of the buffer nor its
+     * position are changed.
+     *
+     * @param buffer the buffer
+     * @return the length of the frame including its length prefix, or {@code -1} if the buffer does not hold all of it
+     * @throws IOException if the length is not valid
+     */
+    public static int getFrameLength(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return -1;
+        }
+        final int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > Integer.MAX_VALUE - 4) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        return buffer.remaining() - 4 >= length ? length + 4 : -1;
+    }
+
+    /**
+     * Writes the commands sent to PM as binary frames, used from {@link #BINARY_VERSION}. A frame is the length of
+     * the rest of the frame as an int, followed by the {@link IncomingPmCommand#getId() id} of the command as a byte
+     * and the command's fields. Numbers are written as ints, strings as the length of their UTF-8 bytes followed by
+     * the bytes, and byte arrays as their length followed by the bytes, so PM can read a frame without parsing it.
+     */
+    public static final class FrameOutput {
+        private final OutputStream output;
+
+        public FrameOutput(final OutputStream output) {
+            if (output == null) {
+                throw new IllegalArgumentException("Null output");
+            }
+            this.output = output;
+        }
+
+        void send(final Frame frame) throws IOException {
+            frame.setLength();
+            synchronized (output) {
+                frame.writeTo(output);
+                output.flush();
+            }
+        }
+    }
+
+    /**
+     * A frame being written, the space for the length prefix is reserved when it is created
+     */
+    static final class Frame extends ByteArrayOutputStream {
+        Frame(final IncomingPmCommand command) {
+            super(128);
+            count = 4;
+            write(command.getId());
+        }
+
+        void writeInt(final int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeString(final String s) {
+            writeBytes(s.getBytes(UTF_8));
+        }
+
+        void writeBytes(final byte[] b) {
+            writeInt(b.length);
+            write(b, 0, b.length);
+        }
+
+        void setLength() {
+            final int length = count - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+        }
+    }
+
+    /**
+     * Reads the fields of a binary frame, see {@link FrameOutput}
+     */
+    public static final class FrameInput {
+        private final byte[] frame;
+        private int position;
+
+        /**
+         * Create an input reading a complete frame, including its length prefix
+         *
+         * @param frame the frame
+         */
+        public FrameInput(final byte[] frame) {
+            this.frame = frame;
+            this.position = 4;
+        }
+
+        public int readByte() throws IOException {
+            require(1);
+            return frame[position++] & 0xff;
+        }
+
+        public int readInt() throws IOException {
+            require(4);
+            final int v = (frame[position] & 0xff) << 24 | (frame[position + 1] & 0xff) << 16 | (frame[position + 2] & 0xff) << 8 | frame[position + 3] & 0xff;
+            position += 4;
+            return v;
+        }
+
+        /**
+         * Read a number of entries, which can not be more than the number of bytes left in the frame
+         */
+        int readCount() throws IOException {
+            final int count = readInt();
+            if (count < 0 || count > frame.length - position) {
+                throw new IOException("Invalid count " + count);
+            }
+            return count;
+        }
+
+        public String readString() throws IOException {
+            final int length = readCount();
+            final String s = new String(frame, position, length, UTF_8);
+            position += length;
+            return s;
+        }
+
+        public byte[] readBytes() throws IOException {
+            final int length = readCount();
+            final byte[] b = new byte[length];
+            System.arraycopy(frame, position, b, 0, length);
+            position += length;
+            return b;
+        }
+
+        private void require(final int length) throws IOException {
+            if (frame.length - position < length) {
+                throw new EOFException("Unexpected end of frame");
+            }
+        }
+    }
 }
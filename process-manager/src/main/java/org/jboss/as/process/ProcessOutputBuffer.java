@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Fixed size ring buffer holding the most recent stdout and stderr output of a managed process, so the output of a
+ * process which crashed can be looked at without the process manager logging everything the process writes.
+ * <p>
+ * The buffer is a memory-mapped file in the {@value #DIRECTORY_PROPERTY} directory, by default
+ * {@code jboss-process-output} in the temporary directory, of {@value #SIZE_PROPERTY} bytes, by default 64KB. The
+ * memory and I/O used per process are therefore constant however much it writes, and the pages are written back by
+ * the operating system rather than taking space on the heap. The file is deleted when the buffer is closed.
+ * <p>
+ * Whenever the output switches between stdout and stderr a marker line naming the stream, such as
+ * {@code --- stderr ---}, is written, so the two can be told apart.
+ */
+public final class ProcessOutputBuffer {
+
+    public static final String SIZE_PROPERTY = "jboss.process.output.buffer.size";
+
+    public static final String DIRECTORY_PROPERTY = "jboss.process.output.dir";
+
+    private static final int DEFAULT_SIZE = 64 * 1024;
+
+    private static final int MIN_SIZE = 4096;
+
+    private static final Logger log = Logger.getLogger(ProcessOutputBuffer.class);
+
+    /**
+     * The streams of a process
+     */
+    enum Stream {
+        STDOUT("\n--- stdout ---\n"),
+        STDERR("\n--- stderr ---\n");
+
+        private final byte[] marker;
+
+        private Stream(final String marker) {
+            this.marker = marker.getBytes();
+        }
+    }
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    /** The total number of bytes put in the buffer, including the markers */
+    private long written;
+    /** The total number of bytes the process has written */
+    private long outputWritten;
+    private Stream lastStream;
+    private byte lastByte = '\n';
+    private boolean closed;
+
+    private ProcessOutputBuffer(final File file, final MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    /**
+     * Create the buffer for a process
+     *
+     * @param processName the name of the process
+     * @return the buffer
+     * @throws IOException if the file could not be created or mapped
+     */
+    static ProcessOutputBuffer create(final String processName) throws IOException {
+        final String dir = System.getProperty(DIRECTORY_PROPERTY);
+        final File directory = dir != null ? new File(dir) : new File(System.getProperty("java.io.tmpdir"), "jboss-process-output");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        // Process names are chosen by the server manager, so only keep characters which are safe in any file name
+        final File file = File.createTempFile("process-" + processName.replaceAll("[^A-Za-z0-9._-]", "_") + "-", ".out", directory);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final int size = getSize();
+            raf.setLength(size);
+            // The mapping stays valid once the file is closed
+            return new ProcessOutputBuffer(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Append output of the process, overwriting the oldest output once the buffer is full
+     *
+     * @param stream the stream the output was read from
+     * @param b the bytes
+     * @param off the offset of the output in the bytes
+     * @param len the length of the output
+     */
+    synchronized void write(final Stream stream, final byte[] b, final int off, final int len) {
+        if (closed || len == 0) {
+            return;
+        }
+        if (stream != lastStream) {
+            // Only start a new line for the marker if the output did not end with one
+            final int skip = lastByte == '\n' ? 1 : 0;
+            put(stream.marker, skip, stream.marker.length - skip);
+            lastStream = stream;
+        }
+        put(b, off, len);
+        outputWritten += len;
+        lastByte = b[off + len - 1];
+    }
+
+    private void put(final byte[] b, final int off, final int len) {
+        int offset = off;
+        int length = len;
+        if (length > capacity) {
+            // Only the end of the output fits
+            offset += length - capacity;
+            length = capacity;
+        }
+        final int position = (int) ((written + len - length) % capacity);
+        final int first = Math.min(length, capacity - position);
+        buffer.position(position);
+        buffer.put(b, offset, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.put(b, offset + first, length - first);
+        }
+        written += len;
+    }
+
+    /**
+     * Get the most recent output
+     *
+     * @param maxBytes the maximum number of bytes to return, or {@code 0} for all the buffered output
+     * @return the output, oldest first
+     */
+    public synchronized byte[] tail(final int maxBytes) {
+        if (closed) {
+            return new byte[0];
+        }
+        final int available = (int) Math.min(written, capacity);
+        final int length = maxBytes > 0 ? Math.min(maxBytes, available) : available;
+        final byte[] result = new byte[length];
+        final int position = (int) ((written - length) % capacity);
+        final int first = Math.min(length, capacity - position);
+        buffer.position(position);
+        buffer.get(result, 0, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.get(result, first, length - first);
+        }
+        return result;
+    }
+
+    /**
+     * Get the total number of bytes the process has written, including those which no longer fit in the buffer
+     *
+     * @return the number of bytes, not counting the stream markers
+     */
+    public synchronized long getBytesWritten() {
+        return outputWritten;
+    }
+
+    /**
+     * Stop buffering and delete the file
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // The mapping is released once the buffer is garbage collected, deleting the file only removes its name
+        if (!file.delete()) {
+            log.debugf("Could not delete %s", file);
+        }
+    }
+
+    private static int getSize() {
+        final String value = System.getProperty(SIZE_PROPERTY);
+        if (value == null) {
+            return DEFAULT_SIZE;
+        }
+        try {
+            final int result = Integer.parseInt(value.trim());
+            if (result >= MIN_SIZE) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        log.warnf("Invalid %s [%s], using [%d]", SIZE_PROPERTY, value, DEFAULT_SIZE);
+        return DEFAULT_SIZE;
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.communication.SelectorSocketListener;
+import org.jboss.as.process.ProcessOutputStreamHandler.Managed;
+import org.jboss.logging.Logger;
+import org.jboss.logging.NDC;
+
+/**
+ * Reads the stdout and stderr of all the managed processes and waits for them to exit. It is polled by the
+ * {@link SelectorSocketListener} thread which reads the process sockets, so the process manager does all of its
+ * I/O on a single thread however many processes it manages.
+ * <p>
+ * The streams of a {@link Process} can not be used with a {@link java.nio.channels.Selector}, so instead of
+ * keeping blocking reader and monitor threads for each process the streams are polled: whatever bytes are
+ * {@link InputStream#available() available} are read without blocking into a buffer shared by all the streams.
+ * Both stdout and stderr are kept in the process's {@link ProcessOutputBuffer}, and stderr is also logged a line at a
+ * time unless {@value #LOG_PROPERTY} is {@code false}. At most {@value #LOG_RATE_PROPERTY} lines per second, by
+ * default 100, are logged for each process, so a flood of output from one process does not slow the others down.
+ * Only a line which has not been completed by the bytes read so far is copied, into a buffer kept by its stream.
+ * The lines are logged by a separate thread, since a log handler may block and would otherwise stall the socket I/O
+ * of every process; at most {@value #MAX_QUEUED_LINES} lines wait to be logged, and any more are dropped.
+ * A process has exited once
+ * {@link Process#exitValue()} no longer throws; the rest of its output is then read and
+ * {@link Managed#processEnded(int)} is called from one of at most {@value #MAX_EXIT_THREADS} threads, since it may
+ * wait to respawn the process.
+ */
+final class ProcessOutputPoller implements SelectorSocketListener.Poller {
+
+    static final String LOG_PROPERTY = "jboss.process.output.log";
+
+    static final String LOG_RATE_PROPERTY = "jboss.process.output.log.rate";
+
+    private static final int DEFAULT_LOG_RATE = 100;
+
+    /** How long to wait between polls when no process wrote anything */
+    private static final long MAX_POLL_INTERVAL = 100;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /** The largest number of threads handling process exits */
+    private static final int MAX_EXIT_THREADS = 4;
+
+    /** The largest number of lines waiting to be logged */
+    private static final int MAX_QUEUED_LINES = 1000;
+
+    private static final Logger log = Logger.getLogger("org.jboss.as.process.stderr");
+
+    private final List<PolledStream> streams = new CopyOnWriteArrayList<PolledStream>();
+    private final List<PolledProcess> processes = new CopyOnWriteArrayList<PolledProcess>();
+    private final ThreadPoolExecutor exitExecutor = createExitExecutor();
+    private final ExecutorService logExecutor;
+    private final boolean logOutput = Boolean.parseBoolean(System.getProperty(LOG_PROPERTY, "true"));
+    private final int logRate = getLogRate();
+    /** The buffer all streams are read into, only used by the polling thread */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long interval = 1;
+    private volatile boolean shutdown;
+
+    ProcessOutputPoller() {
+        this(createLogExecutor());
+    }
+
+    /**
+     * Create a poller
+     *
+     * @param logExecutor the executor logging the lines of stderr, which must reject lines rather than block when
+     * it falls behind
+     */
+    ProcessOutputPoller(final ExecutorService logExecutor) {
+        this.logExecutor = logExecutor;
+    }
+
+    /**
+     * Buffer and log the lines written to a process's error stream
+     *
+     * @param processName the name of the process
+     * @param errorStream the error stream
+     * @param outputBuffer the buffer of the process's output, or {@code null} if it is not buffered
+     * @return the registration, which should be cancelled once the process has ended
+     */
+    Registration addErrorStream(final String processName, final InputStream errorStream, final ProcessOutputBuffer outputBuffer) {
+        final PolledStream stream = new PolledStream(processName, errorStream, outputBuffer);
+        streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Buffer the output of a process and call {@link Managed#processEnded(int)} once it has exited
+     *
+     * @param managed the managed process
+     * @param process the process
+     */
+    void addProcess(final Managed managed, final Process process) {
+        processes.add(new PolledProcess(managed, process));
+    }
+
+    void shutdown() {
+        shutdown = true;
+        exitExecutor.shutdown();
+        logExecutor.shutdown();
+    }
+
+    @Override
+    public long poll() {
+        if (shutdown) {
+            return MAX_POLL_INTERVAL;
+        }
+        boolean read = false;
+        for (PolledStream stream : streams) {
+            if (stream.poll()) {
+                read = true;
+            }
+        }
+        for (PolledProcess process : processes) {
+            if (process.poll()) {
+                read = true;
+            }
+        }
+        // Poll again straight away while there is output, and back off while there is none
+        interval = read ? 1 : Math.min(interval * 2, MAX_POLL_INTERVAL);
+        return interval;
+    }
+
+    /**
+     * Read the bytes available from a stream into the shared buffer
+     *
+     * @param input the stream
+     * @param outputBuffer the buffer to keep the bytes read in, or {@code null}
+     * @param type the stream of the process being read
+     * @param stream the stream to log the lines read from, or {@code null} to not log them
+     * @return the number of bytes read
+     */
+    private int drain(final InputStream input, final ProcessOutputBuffer outputBuffer, final ProcessOutputBuffer.Stream type, final PolledStream stream) throws IOException {
+        int total = 0;
+        int available;
+        while ((available = input.available()) > 0) {
+            final int count = input.read(buffer, 0, Math.min(available, buffer.length));
+            if (count < 0) {
+                break;
+            }
+            total += count;
+            if (outputBuffer != null) {
+                outputBuffer.write(type, buffer, 0, count);
+            }
+            if (stream != null) {
+                stream.append(buffer, count);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Hand a line over to the logging thread
+     *
+     * @return {@code false} if too many lines are waiting to be logged
+     */
+    private boolean logLine(final String processName, final String line) {
+        try {
+            logExecutor.execute(new LoggedLine(processName, line));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private static ThreadPoolExecutor createExitExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_EXIT_THREADS, MAX_EXIT_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "Process Exit Handler-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createLogExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_LINES), new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "Process Output Logger");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int getLogRate() {
+        final String value = System.getProperty(LOG_RATE_PROPERTY);
+        if (value == null) {
+            return DEFAULT_LOG_RATE;
+        }
+        try {
+            final int result = Integer.parseInt(value.trim());
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        log.warnf("Invalid %s [%s], using [%d]", LOG_RATE_PROPERTY, value, DEFAULT_LOG_RATE);
+        return DEFAULT_LOG_RATE;
+    }
+
+    interface Registration {
+        void cancel();
+    }
+
+    static final class LoggedLine implements Runnable {
+        final String processName;
+        final String line;
+
+        LoggedLine(final String processName, final String line) {
+            this.processName = processName;
+            this.line = line;
+        }
+
+        public void run() {
+            NDC.push(processName);
+            try {
+                log.error(line);
+            } finally {
+                NDC.pop();
+            }
+        }
+    }
+
+    private class PolledStream implements Registration {
+        private final String processName;
+        private final InputStream input;
+        private final ProcessOutputBuffer outputBuffer;
+        /** The start of a line which has not been completed yet */
+        private byte[] line;
+        private int lineLength;
+        /** The start of the second in which lines were last logged, and how many were logged or dropped */
+        private long logSecond;
+        private int logged;
+        private int dropped;
+        private volatile boolean cancelled;
+
+        PolledStream(final String processName, final InputStream input, final ProcessOutputBuffer outputBuffer) {
+            this.processName = processName;
+            this.input = input;
+            this.outputBuffer = outputBuffer;
+        }
+
+        boolean poll() {
+            boolean read = false;
+            try {
+                read = drain(input, outputBuffer, ProcessOutputBuffer.Stream.STDERR, logOutput ? this : null) > 0;
+            } catch (IOException e) {
+                cancelled = true;
+            }
+            if (dropped > 0 && System.currentTimeMillis() / 1000 != logSecond) {
+                flushDropped();
+            }
+            if (cancelled) {
+                try {
+                    // The process has ended, so this is the rest of its output
+                    drain(input, outputBuffer, ProcessOutputBuffer.Stream.STDERR, logOutput ? this : null);
+                } catch (IOException ignored) {
+                }
+                flushLine();
+                flushDropped();
+                line = null;
+                ManagedProcess.safeClose(input);
+                streams.remove(this);
+            }
+            return read;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Log the complete lines in the bytes read, keeping the incomplete line at the end for the next read
+         */
+        void append(final byte[] bytes, final int count) {
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                if (bytes[i] == '\n') {
+                    if (lineLength > 0) {
+                        appendLine(bytes, start, i - start);
+                        flushLine();
+                    } else {
+                        log(bytes, start, i - start);
+                    }
+                    start = i + 1;
+                } else if (i - start + lineLength + 1 >= MAX_LINE_LENGTH) {
+                    appendLine(bytes, start, i + 1 - start);
+                    flushLine();
+                    start = i + 1;
+                }
+            }
+            if (start < count) {
+                appendLine(bytes, start, count - start);
+            }
+        }
+
+        private void appendLine(final byte[] bytes, final int off, final int len) {
+            if (line == null) {
+                line = new byte[Math.max(128, len)];
+            } else if (lineLength + len > line.length) {
+                final byte[] grown = new byte[Math.min(MAX_LINE_LENGTH, Math.max(line.length * 2, lineLength + len))];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            System.arraycopy(bytes, off, line, lineLength, len);
+            lineLength += len;
+        }
+
+        private void flushLine() {
+            if (line != null) {
+                log(line, 0, lineLength);
+            }
+            lineLength = 0;
+        }
+
+        private void log(final byte[] bytes, final int off, final int len) {
+            if (len == 0) {
+                return;
+            }
+            final long second = System.currentTimeMillis() / 1000;
+            if (second != logSecond) {
+                flushDropped();
+                logSecond = second;
+                logged = 0;
+            }
+            if (logged < logRate && logLine(processName, new String(bytes, off, len))) {
+                logged++;
+            } else {
+                dropped++;
+            }
+        }
+
+        private void flushDropped() {
+            if (dropped > 0 && logLine(processName, dropped + " lines of output were not logged, see the process's output buffer")) {
+                dropped = 0;
+            }
+        }
+    }
+
+    private class PolledProcess {
+        private final Managed managed;
+        private final Process process;
+        private final InputStream stdout;
+        private final ProcessOutputBuffer outputBuffer;
+
+        PolledProcess(final Managed managed, final Process process) {
+            this.managed = managed;
+            this.process = process;
+            this.stdout = process.getInputStream();
+            this.outputBuffer = managed.getOutputBuffer();
+        }
+
+        boolean poll() {
+            boolean read = false;
+            try {
+                //Just buffer the ouput from the process
+                read = drain(stdout, outputBuffer, ProcessOutputBuffer.Stream.STDOUT, null) > 0;
+            } catch (IOException e) {
+            }
+
+            final int exitCode;
+            try {
+                exitCode = process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                return read;
+            }
+            processes.remove(this);
+            try {
+                // Read what the process wrote between the drain above and exiting
+                drain(stdout, outputBuffer, ProcessOutputBuffer.Stream.STDOUT, null);
+            } catch (IOException ignored) {
+            }
+            ManagedProcess.safeClose(stdout);
+            try {
+                exitExecutor.execute(new Runnable() {
+                    public void run() {
+                        managed.processEnded(exitCode);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down
+            }
+            return read;
+        }
+    }
+}
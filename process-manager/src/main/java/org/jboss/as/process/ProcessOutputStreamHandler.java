@@ -21,15 +21,28 @@
  */
 package org.jboss.as.process;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
+import org.jboss.as.communication.ByteBufferInputStream;
+import org.jboss.as.communication.SelectorSocketListener;
+import org.jboss.as.process.ProcessManagerProtocol.FrameInput;
 import org.jboss.as.process.ProcessManagerProtocol.IncomingPmCommand;
 import org.jboss.logging.Logger;
 
-public final class ProcessOutputStreamHandler implements Runnable {
+/**
+ * Handles the commands a process sends to the process manager. The commands are either read by a thread of its own
+ * from a blocking stream, see {@link #run()}, or are handed off one by one by a {@link SelectorSocketListener}.
+ * Commands handed off by a {@link SelectorSocketListener} are binary frames if the process asked for
+ * {@link ProcessManagerProtocol#BINARY_VERSION} when it connected.
+ */
+public final class ProcessOutputStreamHandler implements Runnable, SelectorSocketListener.MessageHandler {
 
     private final Master master;
 
@@ -37,38 +50,45 @@ public final class ProcessOutputStreamHandler implements Runnable {
 
     private final InputStream inputStream;
 
+    private final int protocolVersion;
+
     private final Logger log;
 
     public ProcessOutputStreamHandler(Master master, Managed managed, InputStream inputStream) {
+        this(master, managed, inputStream, ProcessManagerProtocol.TEXT_VERSION);
+    }
+
+    private ProcessOutputStreamHandler(Master master, Managed managed, InputStream inputStream, int protocolVersion) {
         this.master = master;
         this.managed = managed;
         this.inputStream = inputStream;
+        this.protocolVersion = protocolVersion;
         this.log = Logger.getLogger(this.getClass().getName() + "-" + managed.getProcessName());
     }
 
+    /**
+     * Create a handler for messages read by a {@link SelectorSocketListener}
+     */
+    public ProcessOutputStreamHandler(Master master, Managed managed) {
+        this(master, managed, null, ProcessManagerProtocol.TEXT_VERSION);
+    }
+
+    /**
+     * Create a handler for messages read by a {@link SelectorSocketListener}
+     *
+     * @param protocolVersion the protocol version negotiated for the connection
+     */
+    public ProcessOutputStreamHandler(Master master, Managed managed, int protocolVersion) {
+        this(master, managed, null, protocolVersion);
+    }
+
     public void run() {
 
         // FIXME reliable transmission support (JBAS-8262)
         final StringBuilder b = new StringBuilder();
         final String processName = managed.getProcessName();
         try {
-            for (;;) {
-                Status status = StreamUtils.readWord(inputStream, b);
-                if (status == Status.END_OF_STREAM) {
-                    log.info("Received end of stream, shutting down " + processName);
-                    managed.processInputClosed();
-                    // no more input
-                    return;
-                }
-                try {
-                    final IncomingPmCommand command = IncomingPmCommand.valueOf(b.toString());
-                    status = command.handleMessage(inputStream, status, master, processName, b);
-                } catch (IllegalArgumentException e) {
-                    // unknown command...
-                    log.error("Received unknown command: " + b.toString());
-                }
-                if (status == Status.MORE) StreamUtils.readToEol(inputStream);
-
+            while (handleMessage(inputStream, b)) {
             }
         } catch (SocketException e) {
             log.error("Socket closed for " + processName + ", shutting down");
@@ -83,6 +103,84 @@ public final class ProcessOutputStreamHandler implements Runnable {
         }
     }
 
+    /**
+     * Read and handle a single command
+     *
+     * @return {@code false} if the end of the stream was reached
+     */
+    private boolean handleMessage(final InputStream input, final StringBuilder b) throws IOException {
+        final String processName = managed.getProcessName();
+        Status status = StreamUtils.readWord(input, b);
+        if (status == Status.END_OF_STREAM) {
+            log.info("Received end of stream, shutting down " + processName);
+            managed.processInputClosed();
+            // no more input
+            return false;
+        }
+        try {
+            final IncomingPmCommand command = IncomingPmCommand.valueOf(b.toString());
+            status = command.handleMessage(input, status, master, processName, b);
+        } catch (IllegalArgumentException e) {
+            // unknown command...
+            log.error("Received unknown command: " + b.toString());
+        }
+        if (status == Status.MORE) StreamUtils.readToEol(input);
+        return true;
+    }
+
+    @Override
+    public int getMessageLength(final ByteBuffer buffer) throws IOException {
+        if (protocolVersion >= ProcessManagerProtocol.BINARY_VERSION) {
+            return ProcessManagerProtocol.getFrameLength(buffer);
+        }
+        final ByteBufferInputStream input = new ByteBufferInputStream(buffer);
+        final StringBuilder b = new StringBuilder();
+        try {
+            Status status = StreamUtils.readWord(input, b);
+            if (status == Status.MORE && IncomingPmCommand.SEND_STDIN.name().equals(b.toString())) {
+                // The recipient is followed by the length prefixed bytes of the message, which may contain anything
+                status = StreamUtils.readWord(input, b);
+                if (status == Status.MORE) {
+                    final int length = StreamUtils.readInt(input);
+                    if (length < 0) {
+                        throw new IOException("Invalid " + IncomingPmCommand.SEND_STDIN + " length " + length);
+                    }
+                    if (input.skip(length) < length) {
+                        return -1;
+                    }
+                }
+            }
+            while (status == Status.MORE) {
+                status = StreamUtils.readWord(input, b);
+            }
+            return input.getBytesRead();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void handleMessage(final byte[] message) throws IOException {
+        if (protocolVersion >= ProcessManagerProtocol.BINARY_VERSION) {
+            final FrameInput input = new FrameInput(message);
+            final int id = input.readByte();
+            final IncomingPmCommand command = IncomingPmCommand.forId(id);
+            if (command == null) {
+                log.error("Received unknown command id: " + id);
+                return;
+            }
+            command.handleFrame(input, master, managed.getProcessName());
+            return;
+        }
+        handleMessage(new ByteArrayInputStream(message), new StringBuilder());
+    }
+
+    @Override
+    public void connectionClosed() {
+        log.info("Socket closed for " + managed.getProcessName() + ", shutting down");
+        managed.processInputClosed();
+    }
+
     public interface Master {
         void addProcess(final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory);
         void startProcess(final String processName);
@@ -99,5 +197,12 @@ public final class ProcessOutputStreamHandler implements Runnable {
         String getProcessName();
         void processInputClosed();
         void processEnded(int exitCode);
+
+        /**
+         * Get the buffer the output of the process is kept in
+         *
+         * @return the buffer, or {@code null} if the output is not kept
+         */
+        ProcessOutputBuffer getOutputBuffer();
     }
 }
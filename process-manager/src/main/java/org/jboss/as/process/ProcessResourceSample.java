@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import java.util.List;
+
+/**
+ * The resource usage of a managed process at one point in time, as read from {@code /proc} by the
+ * {@link ProcessResourceSampler}. Values which could not be read are {@code -1}.
+ */
+public final class ProcessResourceSample {
+
+    /** The number of words a sample is sent as, see {@link #toWords(List)} */
+    static final int WORD_COUNT = 10;
+
+    private final String processName;
+    private final int pid;
+    private final long timestamp;
+    private final long cpuTime;
+    private final double cpuPercent;
+    private final long residentSetSize;
+    private final int threadCount;
+    private final int openFileDescriptors;
+    private final long voluntaryContextSwitches;
+    private final long involuntaryContextSwitches;
+
+    public ProcessResourceSample(final String processName, final int pid, final long timestamp, final long cpuTime, final double cpuPercent,
+            final long residentSetSize, final int threadCount, final int openFileDescriptors, final long voluntaryContextSwitches,
+            final long involuntaryContextSwitches) {
+        this.processName = processName;
+        this.pid = pid;
+        this.timestamp = timestamp;
+        this.cpuTime = cpuTime;
+        this.cpuPercent = cpuPercent;
+        this.residentSetSize = residentSetSize;
+        this.threadCount = threadCount;
+        this.openFileDescriptors = openFileDescriptors;
+        this.voluntaryContextSwitches = voluntaryContextSwitches;
+        this.involuntaryContextSwitches = involuntaryContextSwitches;
+    }
+
+    public String getProcessName() {
+        return processName;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    /**
+     * Get the time the sample was taken
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the user and system CPU time used by the process since it started
+     *
+     * @return the time in milliseconds
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Get the CPU used by the process since the previous sample, which is above 100 if it kept more than one CPU busy
+     *
+     * @return the percentage of one CPU, or {@code -1} for the first sample of a process
+     */
+    public double getCpuPercent() {
+        return cpuPercent;
+    }
+
+    /**
+     * Get the resident set size of the process
+     *
+     * @return the size in bytes
+     */
+    public long getResidentSetSize() {
+        return residentSetSize;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getOpenFileDescriptors() {
+        return openFileDescriptors;
+    }
+
+    public long getVoluntaryContextSwitches() {
+        return voluntaryContextSwitches;
+    }
+
+    public long getInvoluntaryContextSwitches() {
+        return involuntaryContextSwitches;
+    }
+
+    /**
+     * Add the fields of this sample as the words of a text command
+     *
+     * @param words the words
+     */
+    void toWords(final List<String> words) {
+        words.add(processName);
+        words.add(String.valueOf(pid));
+        words.add(String.valueOf(timestamp));
+        words.add(String.valueOf(cpuTime));
+        words.add(String.valueOf(cpuPercent));
+        words.add(String.valueOf(residentSetSize));
+        words.add(String.valueOf(threadCount));
+        words.add(String.valueOf(openFileDescriptors));
+        words.add(String.valueOf(voluntaryContextSwitches));
+        words.add(String.valueOf(involuntaryContextSwitches));
+    }
+
+    /**
+     * Read a sample from the words of a text command, see {@link #toWords(List)}
+     *
+     * @param words the words
+     * @param offset the index of the first word of the sample
+     * @return the sample
+     * @throws NumberFormatException if the words are not a sample
+     */
+    static ProcessResourceSample fromWords(final List<String> words, final int offset) {
+        return new ProcessResourceSample(words.get(offset),
+                Integer.parseInt(words.get(offset + 1)),
+                Long.parseLong(words.get(offset + 2)),
+                Long.parseLong(words.get(offset + 3)),
+                Double.parseDouble(words.get(offset + 4)),
+                Long.parseLong(words.get(offset + 5)),
+                Integer.parseInt(words.get(offset + 6)),
+                Integer.parseInt(words.get(offset + 7)),
+                Long.parseLong(words.get(offset + 8)),
+                Long.parseLong(words.get(offset + 9)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[pid=%d; cpu=%.1f%%; cpuTime=%dms; rss=%dKB; threads=%d; fds=%d; ctxSwitches=%d/%d]",
+                processName, pid, cpuPercent, cpuTime, residentSetSize / 1024, threadCount, openFileDescriptors,
+                voluntaryContextSwitches, involuntaryContextSwitches);
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Samples the CPU time, resident set size, thread count, open file descriptors and context switches of every
+ * running managed process from {@code /proc/<pid>}, so a runaway server can be spotted before the operating system
+ * kills it. The last {@value #HISTORY_PROPERTY} samples of each process, by default 60, are kept until the process is
+ * removed, so they are still there once a process has crashed. The latest samples are sent to the server manager
+ * after each round and all of them are exposed through the {@link ProcessResourceSamplerMBean}, registered as
+ * {@value #OBJECT_NAME}.
+ * <p>
+ * The processes are sampled every {@value #INTERVAL_PROPERTY} milliseconds, by default 5000, on a single daemon
+ * thread; {@code 0} turns the sampler off. Sampling a process reads two small files and lists its file descriptors
+ * into a buffer kept by the sampler, which takes well under a millisecond, so even with 50 processes the sampler uses
+ * far less than 1% of a CPU. {@link #getSamplingTime()} tells how much it really used. If
+ * {@value #RSS_WARNING_PROPERTY} is set, a warning is logged when the resident set size of a process grows past that
+ * many megabytes. On systems without {@code /proc} the sampler does nothing.
+ */
+final class ProcessResourceSampler implements ProcessResourceSamplerMBean {
+
+    static final String INTERVAL_PROPERTY = "jboss.process.sampler.interval";
+
+    static final String HISTORY_PROPERTY = "jboss.process.sampler.history";
+
+    static final String RSS_WARNING_PROPERTY = "jboss.process.sampler.rss.warning";
+
+    static final String OBJECT_NAME = "jboss:type=ProcessResourceSampler";
+
+    private static final int DEFAULT_INTERVAL = 5000;
+
+    private static final int DEFAULT_HISTORY = 60;
+
+    /**
+     * The unit of the CPU times in {@code /proc/<pid>/stat} if {@code getconf CLK_TCK} can not tell, which is 100 on
+     * all the architectures Linux runs on
+     */
+    static final long DEFAULT_CLOCK_TICKS = 100;
+
+    /** The fields of {@code /proc/<pid>/stat} following the command name which hold the user and system CPU time */
+    private static final int UTIME_FIELD = 11;
+    private static final int STIME_FIELD = 12;
+
+    static final byte[] VM_RSS = key("VmRSS");
+    static final byte[] THREADS = key("Threads");
+    static final byte[] VOLUNTARY_CTXT_SWITCHES = key("voluntary_ctxt_switches");
+    static final byte[] NONVOLUNTARY_CTXT_SWITCHES = key("nonvoluntary_ctxt_switches");
+
+    private static final Logger log = Logger.getLogger(ProcessResourceSampler.class);
+
+    private final ProcessManagerMaster master;
+    private final long interval = getProperty(INTERVAL_PROPERTY, DEFAULT_INTERVAL, 0);
+    private final int historySize = (int) getProperty(HISTORY_PROPERTY, DEFAULT_HISTORY, 1);
+    private final long rssWarning = getProperty(RSS_WARNING_PROPERTY, 0, 0) * 1024 * 1024;
+    private final Map<String, History> histories = new HashMap<String, History>();
+    /** The buffer the files are read into, only used by the sampling thread */
+    private byte[] buffer = new byte[4096];
+    /** Set before the sampling thread is started */
+    private long clockTicks = DEFAULT_CLOCK_TICKS;
+    private volatile long samplingCount;
+    private volatile long samplingTime;
+    private ScheduledExecutorService executor;
+
+    ProcessResourceSampler(final ProcessManagerMaster master) {
+        this.master = master;
+    }
+
+    synchronized void start() {
+        if (interval == 0 || executor != null) {
+            return;
+        }
+        if (!new File("/proc/self/stat").isFile()) {
+            log.debug("Not sampling the resources used by the processes, there is no /proc");
+            return;
+        }
+        clockTicks = readClockTicks();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Process Resource Sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (Throwable t) {
+                    log.warn("Failed to sample the resources used by the processes", t);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            log.warn("Failed to register process resource sampler mbean", e);
+        }
+    }
+
+    synchronized void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            log.debug("Failed to unregister process resource sampler mbean", e);
+        }
+    }
+
+    /**
+     * Forget the samples of a process once it has been removed
+     *
+     * @param processName the name of the process
+     */
+    void remove(final String processName) {
+        synchronized (histories) {
+            histories.remove(processName);
+        }
+    }
+
+    /**
+     * Get the samples kept for a process
+     *
+     * @param processName the name of the process
+     * @return the samples, oldest first
+     */
+    List<ProcessResourceSample> getSamples(final String processName) {
+        synchronized (histories) {
+            final History history = histories.get(processName);
+            return history != null ? history.toList() : new ArrayList<ProcessResourceSample>(0);
+        }
+    }
+
+    /**
+     * Get the latest sample of each process
+     *
+     * @return the samples
+     */
+    List<ProcessResourceSample> getLatestSamples() {
+        synchronized (histories) {
+            final List<ProcessResourceSample> result = new ArrayList<ProcessResourceSample>(histories.size());
+            for (History history : histories.values()) {
+                final ProcessResourceSample sample = history.last();
+                if (sample != null) {
+                    result.add(sample);
+                }
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    @Override
+    public long getSamplingCount() {
+        return samplingCount;
+    }
+
+    @Override
+    public long getSamplingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(samplingTime);
+    }
+
+    @Override
+    public String[] listLatestSamples() {
+        return toStrings(getLatestSamples());
+    }
+
+    @Override
+    public String[] listSamples(final String processName) {
+        return toStrings(getSamples(processName));
+    }
+
+    private static String[] toStrings(final List<ProcessResourceSample> samples) {
+        final String[] result = new String[samples.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = samples.get(i).toString();
+        }
+        return result;
+    }
+
+    /**
+     * Sample all the running processes and send the samples to the server manager
+     */
+    void sample() {
+        final long start = System.nanoTime();
+        final Map<String, Integer> pids = master.getProcessPids();
+        final List<ProcessResourceSample> samples = new ArrayList<ProcessResourceSample>(pids.size());
+        for (Map.Entry<String, Integer> entry : pids.entrySet()) {
+            final String processName = entry.getKey();
+            History history;
+            final ProcessResourceSample previous;
+            synchronized (histories) {
+                history = histories.get(processName);
+                if (history == null) {
+                    history = new History(historySize);
+                    histories.put(processName, history);
+                }
+                previous = history.last();
+            }
+            final ProcessResourceSample sample = sample(processName, entry.getValue().intValue(), previous);
+            if (sample == null) {
+                continue;
+            }
+            synchronized (histories) {
+                history.add(sample);
+            }
+            checkResidentSetSize(history, sample);
+            samples.add(sample);
+        }
+        if (!samples.isEmpty()) {
+            master.sendResourceUsage(samples);
+        }
+        samplingCount++;
+        samplingTime += System.nanoTime() - start;
+    }
+
+    private void checkResidentSetSize(final History history, final ProcessResourceSample sample) {
+        if (rssWarning <= 0) {
+            return;
+        }
+        final boolean over = sample.getResidentSetSize() > rssWarning;
+        if (over && !history.overRssWarning) {
+            log.warnf("%s is using %d MB of memory, more than the %d MB of %s", sample.getProcessName(),
+                    sample.getResidentSetSize() / (1024 * 1024), rssWarning / (1024 * 1024), RSS_WARNING_PROPERTY);
+        } else if (!over && history.overRssWarning) {
+            log.infof("%s is using %d MB of memory again", sample.getProcessName(), sample.getResidentSetSize() / (1024 * 1024));
+        }
+        history.overRssWarning = over;
+    }
+
+    /**
+     * Sample a process
+     *
+     * @param processName the name of the process
+     * @param pid the id of the process
+     * @param previous the previous sample of the process, or {@code null}
+     * @return the sample, or {@code null} if the process has gone
+     */
+    private ProcessResourceSample sample(final String processName, final int pid, final ProcessResourceSample previous) {
+        final String dir = "/proc/" + pid;
+        final long timestamp = System.currentTimeMillis();
+        int length = read(dir + "/stat");
+        if (length < 0) {
+            return null;
+        }
+        final long cpuTime = readCpuTime(buffer, length, clockTicks);
+        double cpuPercent = -1;
+        if (cpuTime >= 0 && previous != null && previous.getPid() == pid && previous.getCpuTime() >= 0 && timestamp > previous.getTimestamp()) {
+            cpuPercent = (cpuTime - previous.getCpuTime()) * 100.0 / (timestamp - previous.getTimestamp());
+        }
+
+        long rss = -1;
+        long threads = -1;
+        long voluntary = -1;
+        long involuntary = -1;
+        length = read(dir + "/status");
+        if (length >= 0) {
+            rss = readStatusField(buffer, length, VM_RSS);
+            if (rss > 0) {
+                rss *= 1024;
+            }
+            threads = readStatusField(buffer, length, THREADS);
+            voluntary = readStatusField(buffer, length, VOLUNTARY_CTXT_SWITCHES);
+            involuntary = readStatusField(buffer, length, NONVOLUNTARY_CTXT_SWITCHES);
+        }
+
+        final String[] fds = new File(dir + "/fd").list();
+        return new ProcessResourceSample(processName, pid, timestamp, cpuTime, cpuPercent, rss, (int) threads,
+                fds != null ? fds.length : -1, voluntary, involuntary);
+    }
+
+    /**
+     * Read a file into the buffer, growing it if the file does not fit
+     *
+     * @param path the path of the file
+     * @return the length of the file, or {@code -1} if it could not be read
+     */
+    private int read(final String path) {
+        try {
+            final FileInputStream in = new FileInputStream(path);
+            try {
+                int length = 0;
+                int read;
+                while ((read = in.read(buffer, length, buffer.length - length)) > 0) {
+                    length += read;
+                    if (length == buffer.length) {
+                        final byte[] bigger = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, bigger, 0, length);
+                        buffer = bigger;
+                    }
+                }
+                return length;
+            } finally {
+                ManagedProcess.safeClose(in);
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the user and system CPU time from the contents of a {@code /proc/<pid>/stat}. The command name may contain
+     * spaces and brackets, so the fields are counted from the last closing bracket.
+     *
+     * @param buffer the buffer holding the file
+     * @param length the length of the file
+     * @param clockTicks the number of clock ticks per second
+     * @return the time in milliseconds, or {@code -1} if it could not be read
+     */
+    static long readCpuTime(final byte[] buffer, final int length, final long clockTicks) {
+        int i = length - 1;
+        while (i >= 0 && buffer[i] != ')') {
+            i--;
+        }
+        if (i < 0) {
+            return -1;
+        }
+        long utime = -1;
+        int field = -1;
+        while (++i < length) {
+            if (buffer[i] == ' ') {
+                field++;
+                if (field == UTIME_FIELD) {
+                    utime = parseLong(buffer, i + 1, length);
+                } else if (field == STIME_FIELD) {
+                    final long stime = parseLong(buffer, i + 1, length);
+                    return utime >= 0 && stime >= 0 ? (utime + stime) * 1000 / clockTicks : -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a numeric field from the contents of a {@code /proc/<pid>/status}
+     *
+     * @param buffer the buffer holding the file
+     * @param length the length of the file
+     * @param key the name of the field followed by a colon
+     * @return the value, or {@code -1} if the file has no such field
+     */
+    static long readStatusField(final byte[] buffer, final int length, final byte[] key) {
+        int line = 0;
+        while (line + key.length < length) {
+            boolean match = true;
+            for (int j = 0; j < key.length; j++) {
+                if (buffer[line + j] != key[j]) {
+                    match = false;
+                    break;
+                }
+            }
+            int i = line + (match ? key.length : 0);
+            if (match) {
+                while (i < length && (buffer[i] == ' ' || buffer[i] == '\t')) {
+                    i++;
+                }
+                return parseLong(buffer, i, length);
+            }
+            while (i < length && buffer[i] != '\n') {
+                i++;
+            }
+            line = i + 1;
+        }
+        return -1;
+    }
+
+    private static long parseLong(final byte[] buffer, final int offset, final int length) {
+        long result = 0;
+        int i = offset;
+        while (i < length && buffer[i] >= '0' && buffer[i] <= '9') {
+            result = result * 10 + buffer[i++] - '0';
+        }
+        return i > offset ? result : -1;
+    }
+
+    /**
+     * Get the number of clock ticks per second the CPU times in {@code /proc/<pid>/stat} are counted in
+     *
+     * @return the clock ticks
+     */
+    private static long readClockTicks() {
+        try {
+            final Process process = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                final String line = reader.readLine();
+                if (process.waitFor() == 0 && line != null) {
+                    final long ticks = Long.parseLong(line.trim());
+                    if (ticks > 0) {
+                        return ticks;
+                    }
+                }
+            } finally {
+                ManagedProcess.safeClose(reader);
+            }
+        } catch (IOException e) {
+            // Fall through
+        } catch (NumberFormatException e) {
+            // Fall through
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.debugf("Could not get the clock ticks from getconf, using [%d]", Long.valueOf(DEFAULT_CLOCK_TICKS));
+        return DEFAULT_CLOCK_TICKS;
+    }
+
+    private static byte[] key(final String name) {
+        final String key = name + ':';
+        final byte[] result = new byte[key.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) key.charAt(i);
+        }
+        return result;
+    }
+
+    private static long getProperty(final String name, final long defaultValue, final long min) {
+        final String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long result = Long.parseLong(value.trim());
+            if (result >= min) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        log.warnf("Invalid %s [%s], using [%d]", name, value, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * The most recent samples of a process, guarded by the lock of {@link ProcessResourceSampler#histories}
+     */
+    private static final class History {
+        private final ProcessResourceSample[] samples;
+        private int count;
+        private int next;
+        /** Only used by the sampling thread */
+        private boolean overRssWarning;
+
+        History(final int size) {
+            samples = new ProcessResourceSample[size];
+        }
+
+        void add(final ProcessResourceSample sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+        }
+
+        ProcessResourceSample last() {
+            return count > 0 ? samples[(next + samples.length - 1) % samples.length] : null;
+        }
+
+        List<ProcessResourceSample> toList() {
+            final List<ProcessResourceSample> result = new ArrayList<ProcessResourceSample>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(samples[(next + samples.length - count + i) % samples.length]);
+            }
+            return result;
+        }
+    }
+}
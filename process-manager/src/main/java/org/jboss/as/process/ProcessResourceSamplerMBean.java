@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+/**
+ * Management interface exposing the samples taken by the {@link ProcessResourceSampler}.
+ */
+public interface ProcessResourceSamplerMBean {
+
+    /**
+     * Get the time between two samples of the processes.
+     *
+     * @return The interval in milliseconds
+     */
+    long getInterval();
+
+    /**
+     * Get the number of samples kept for each process.
+     *
+     * @return The history size
+     */
+    int getHistorySize();
+
+    /**
+     * Get the number of times the processes have been sampled.
+     *
+     * @return The sampling count
+     */
+    long getSamplingCount();
+
+    /**
+     * Get the total time spent sampling the processes, to check the cost of the sampler.
+     *
+     * @return The time in milliseconds
+     */
+    long getSamplingTime();
+
+    /**
+     * List the latest sample of each process, one entry per process.
+     *
+     * @return The samples
+     */
+    String[] listLatestSamples();
+
+    /**
+     * List the samples kept for a process, oldest first.
+     *
+     * @param processName The name of the process
+     * @return The samples
+     */
+    String[] listSamples(String processName);
+}
@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.communication;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.as.communication.SelectorSocketListener.Connection;
+import org.jboss.as.communication.SelectorSocketListener.ConnectionHandler;
+import org.jboss.as.communication.SelectorSocketListener.MessageHandler;
+import org.jboss.as.process.Status;
+import org.jboss.as.process.StreamUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorSocketListenerTestCase {
+
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<String>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SelectorSocketListener listener;
+
+    @Before
+    public void startListener() throws Exception {
+        listener = SelectorSocketListener.createSocketListener("Test", new EchoConnectionHandler(), InetAddress.getByName("127.0.0.1"), 0, 10);
+        listener.start();
+    }
+
+    @After
+    public void stopListener() {
+        release.countDown();
+        listener.shutdown();
+    }
+
+    @Test
+    public void testMessagesHandledInOrder() throws Exception {
+        SocketConnection conn = SocketConnection.connect(listener.getAddress(), listener.getPort(), "CONNECTED", "Test");
+        try {
+            assertEquals("CONNECTED Test", messages.poll(10, TimeUnit.SECONDS));
+
+            OutputStream out = conn.getOutputStream();
+            for (int i = 0; i < 100; i++) {
+                writeMessage(out, "message" + i);
+            }
+            // A message split across writes, and one much larger than the read buffer
+            byte[] bytes = "split".getBytes("UTF-8");
+            StreamUtils.writeInt(out, bytes.length);
+            out.flush();
+            Thread.sleep(100);
+            out.write(bytes);
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                large.append((char) ('a' + i % 26));
+            }
+            writeMessage(out, large.toString());
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals("message" + i, messages.poll(10, TimeUnit.SECONDS));
+            }
+            assertEquals("split", messages.poll(10, TimeUnit.SECONDS));
+            assertEquals(large.toString(), messages.poll(10, TimeUnit.SECONDS));
+
+            // Each message is echoed back
+            InputStream in = conn.getInputStream();
+            for (int i = 0; i < 100; i++) {
+                assertEquals("message" + i, new String(StreamUtils.readBytesWithLength(in), "UTF-8"));
+            }
+        } finally {
+            conn.close();
+        }
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBlockedHandlersDoNotStallOtherConnections() throws Exception {
+        List<SocketConnection> blocked = new ArrayList<SocketConnection>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                SocketConnection conn = SocketConnection.connect(listener.getAddress(), listener.getPort(), "CONNECTED", "Blocked" + i);
+                blocked.add(conn);
+                assertEquals("CONNECTED Blocked" + i, messages.poll(10, TimeUnit.SECONDS));
+                writeMessage(conn.getOutputStream(), "block");
+                assertEquals("block", messages.poll(10, TimeUnit.SECONDS));
+            }
+
+            SocketConnection conn = SocketConnection.connect(listener.getAddress(), listener.getPort(), "CONNECTED", "Test");
+            try {
+                assertEquals("CONNECTED Test", messages.poll(10, TimeUnit.SECONDS));
+                writeMessage(conn.getOutputStream(), "message");
+                assertEquals("message", messages.poll(10, TimeUnit.SECONDS));
+                assertEquals("message", new String(StreamUtils.readBytesWithLength(conn.getInputStream()), "UTF-8"));
+            } finally {
+                conn.close();
+            }
+        } finally {
+            release.countDown();
+            for (SocketConnection conn : blocked) {
+                conn.close();
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidInitialRequestClosesConnection() throws Exception {
+        SocketConnection conn = SocketConnection.connect(listener.getAddress(), listener.getPort(), "UNKNOWN", "Test");
+        try {
+            assertEquals(-1, conn.getInputStream().read());
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void writeMessage(OutputStream out, String message) throws IOException {
+        byte[] bytes = message.getBytes("UTF-8");
+        StreamUtils.writeInt(out, bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    private class EchoConnectionHandler implements ConnectionHandler {
+
+        @Override
+        public MessageHandler initializeConnection(final Connection connection, byte[] initialRequest) throws IOException, InitialSocketRequestException {
+            InputStream in = new ByteArrayInputStream(initialRequest);
+            StringBuilder request = new StringBuilder();
+            StringBuilder sb = new StringBuilder();
+            Status status = Status.MORE;
+            while (status == Status.MORE) {
+                status = StreamUtils.readWord(in, sb);
+                if (request.length() > 0)
+                    request.append(' ');
+                request.append(sb);
+            }
+            if (!request.toString().startsWith("CONNECTED")) {
+                throw new InitialSocketRequestException("Unknown request " + request);
+            }
+            messages.add(request.toString());
+
+            return new MessageHandler() {
+                @Override
+                public int getMessageLength(ByteBuffer buffer) throws IOException {
+                    if (buffer.remaining() < 4) {
+                        return -1;
+                    }
+                    int length = buffer.getInt(buffer.position());
+                    return buffer.remaining() - 4 < length ? -1 : length + 4;
+                }
+
+                @Override
+                public void handleMessage(byte[] message) throws IOException {
+                    String content = new String(message, 4, message.length - 4, "UTF-8");
+                    messages.add(content);
+                    if (content.equals("block")) {
+                        try {
+                            release.await(30, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return;
+                    }
+                    if (message.length < 1000) {
+                        OutputStream out = connection.getOutputStream();
+                        out.write(message);
+                        out.flush();
+                    }
+                }
+
+                @Override
+                public void connectionClosed() {
+                    closed.countDown();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jboss.as.process.ProcessManagerProtocol.FrameInput;
+import org.jboss.as.process.ProcessManagerProtocol.FrameOutput;
+import org.jboss.as.process.ProcessManagerProtocol.IncomingPmCommand;
+import org.jboss.as.process.ProcessManagerProtocol.IncomingPmCommandSender;
+import org.jboss.as.process.ProcessOutputStreamHandler.Managed;
+import org.jboss.as.process.ProcessOutputStreamHandler.Master;
+import org.junit.Test;
+
+public class ProcessManagerProtocolTestCase {
+
+    @Test
+    public void testFrameRoundTrip() throws Exception {
+        final ProcessManagerProtocol.Frame frame = new ProcessManagerProtocol.Frame(IncomingPmCommand.SEND_STDIN);
+        frame.writeInt(-2);
+        frame.writeString("caf\u00e9 \u65e5\u672c");
+        frame.writeString("");
+        frame.writeBytes(new byte[] {0, '\n', (byte) 0xff});
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new FrameOutput(bytes).send(frame);
+        final byte[] sent = bytes.toByteArray();
+
+        assertEquals(sent.length, ProcessManagerProtocol.getFrameLength(ByteBuffer.wrap(sent)));
+        // Incomplete frames are waited for
+        assertEquals(-1, ProcessManagerProtocol.getFrameLength(ByteBuffer.wrap(sent, 0, 3)));
+        assertEquals(-1, ProcessManagerProtocol.getFrameLength(ByteBuffer.wrap(sent, 0, sent.length - 1)));
+
+        final FrameInput input = new FrameInput(sent);
+        assertEquals(IncomingPmCommand.SEND_STDIN.getId(), input.readByte());
+        assertEquals(-2, input.readInt());
+        assertEquals("caf\u00e9 \u65e5\u672c", input.readString());
+        assertEquals("", input.readString());
+        assertTrue(Arrays.equals(new byte[] {0, '\n', (byte) 0xff}, input.readBytes()));
+        try {
+            input.readByte();
+            fail("Read past the end of the frame");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void testInvalidFrames() throws Exception {
+        try {
+            ProcessManagerProtocol.getFrameLength(ByteBuffer.wrap(new byte[] {0, 0, 0, 0}));
+            fail("Accepted an empty frame");
+        } catch (IOException expected) {
+        }
+        // A string claiming to be longer than the frame
+        final FrameInput input = new FrameInput(new byte[] {0, 0, 0, 5, 0, 0, 0, 100, 'x'});
+        try {
+            input.readString();
+            fail("Read a string longer than the frame");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testTextCommands() throws Exception {
+        testCommands(ProcessManagerProtocol.TEXT_VERSION);
+    }
+
+    @Test
+    public void testBinaryCommands() throws Exception {
+        testCommands(ProcessManagerProtocol.BINARY_VERSION);
+    }
+
+    private void testCommands(final int version) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final IncomingPmCommandSender sender = ProcessManagerProtocol.createCommandSender(bytes, version);
+        final Map<String, String> env = new LinkedHashMap<String, String>();
+        env.put("JAVA_HOME", "/opt/java");
+        env.put("EMPTY", "");
+        final InetAddress addr = InetAddress.getByName("127.0.0.1");
+        sender.addProcess("Server:one", Arrays.asList("java", "-Dname=caf\u00e9", "-jar", "jboss-modules.jar"), env, "/tmp/work");
+        sender.startProcess("Server:one");
+        sender.sendStdin("Server:one", new byte[] {'a', 0, '\n', 'b'});
+        sender.stopProcess("Server:one");
+        sender.removeProcess("Server:one");
+        sender.reconnectServers(addr, 9999);
+        sender.reconnectServer("Server:two", addr, 9998);
+
+        final RecordingMaster master = new RecordingMaster();
+        final ProcessOutputStreamHandler handler = new ProcessOutputStreamHandler(master, new TestManaged(), version);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            final int length = handler.getMessageLength(buffer.duplicate());
+            assertTrue(length > 0);
+            final byte[] message = new byte[length];
+            buffer.get(message);
+            handler.handleMessage(message);
+        }
+
+        assertEquals(Arrays.asList(
+                "add Server:one /tmp/work [java, -Dname=caf\u00e9, -jar, jboss-modules.jar] {EMPTY=, JAVA_HOME=/opt/java}",
+                "start Server:one",
+                "stdin Server:one [97, 0, 10, 98]",
+                "stop Server:one",
+                "remove Server:one",
+                "reconnect 127.0.0.1 9999",
+                "reconnect Server:two 127.0.0.1 9998"), master.commands);
+    }
+
+    private static final class RecordingMaster implements Master {
+        final List<String> commands = new ArrayList<String>();
+
+        public void addProcess(final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) {
+            commands.add("add " + processName + " " + workingDirectory + " " + command + " " + new TreeMap<String, String>(env));
+        }
+
+        public void startProcess(final String processName) {
+            commands.add("start " + processName);
+        }
+
+        public void stopProcess(final String processName) {
+            commands.add("stop " + processName);
+        }
+
+        public void removeProcess(final String processName) {
+            commands.add("remove " + processName);
+        }
+
+        public void sendStdin(final String recipient, final byte[] msg) {
+            commands.add("stdin " + recipient + " " + Arrays.toString(msg));
+        }
+
+        public void downServer(final String serverName) {
+            commands.add("down " + serverName);
+        }
+
+        public void reconnectServersToServerManager(final String smAddress, final String smPort) {
+            commands.add("reconnect " + smAddress + " " + smPort);
+        }
+
+        public void reconnectProcessToServerManager(final String server, final String smAddress, final String smPort) {
+            commands.add("reconnect " + server + " " + smAddress + " " + smPort);
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+    }
+
+    private static final class TestManaged implements Managed {
+        public String getProcessName() {
+            return "ServerManager";
+        }
+
+        public void processInputClosed() {
+        }
+
+        public void processEnded(final int exitCode) {
+        }
+
+        public ProcessOutputBuffer getOutputBuffer() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jboss.as.process.ProcessOutputBuffer.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessOutputBufferTestCase {
+
+    private static final int SIZE = 4096;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("process-output", "");
+        directory.delete();
+        System.setProperty(ProcessOutputBuffer.DIRECTORY_PROPERTY, directory.getAbsolutePath());
+        System.setProperty(ProcessOutputBuffer.SIZE_PROPERTY, String.valueOf(SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ProcessOutputBuffer.DIRECTORY_PROPERTY);
+        System.clearProperty(ProcessOutputBuffer.SIZE_PROPERTY);
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testWrapAround() throws Exception {
+        final ProcessOutputBuffer buffer = ProcessOutputBuffer.create("Server:test");
+        try {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write("--- stdout ---\n".getBytes("UTF-8"));
+            final Random random = new Random(42);
+            long total = 0;
+            for (int i = 0; i < 200; i++) {
+                final byte[] bytes = new byte[random.nextInt(700) + 1];
+                random.nextBytes(bytes);
+                buffer.write(Stream.STDOUT, bytes, 0, bytes.length);
+                expected.write(bytes);
+                total += bytes.length;
+
+                final byte[] all = expected.toByteArray();
+                assertTrue(Arrays.equals(last(all, SIZE), buffer.tail(0)));
+                assertTrue(Arrays.equals(last(all, 100), buffer.tail(100)));
+            }
+            assertEquals(total, buffer.getBytesWritten());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testWriteLargerThanBuffer() throws Exception {
+        final ProcessOutputBuffer buffer = ProcessOutputBuffer.create("Server:test");
+        try {
+            final byte[] bytes = new byte[SIZE * 2 + 123];
+            new Random(7).nextBytes(bytes);
+            buffer.write(Stream.STDERR, "x".getBytes("UTF-8"), 0, 1);
+            // Written from an offset, wrapping from the middle of the buffer
+            buffer.write(Stream.STDERR, bytes, 10, bytes.length - 10);
+            assertTrue(Arrays.equals(last(bytes, SIZE), buffer.tail(0)));
+            assertEquals(bytes.length - 9, buffer.getBytesWritten());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testStreamMarkers() throws Exception {
+        final ProcessOutputBuffer buffer = ProcessOutputBuffer.create("Server:test");
+        try {
+            write(buffer, Stream.STDOUT, "out1\n");
+            write(buffer, Stream.STDOUT, "out2\n");
+            write(buffer, Stream.STDERR, "err");
+            write(buffer, Stream.STDOUT, "out3\n");
+            assertEquals("--- stdout ---\nout1\nout2\n--- stderr ---\nerr\n--- stdout ---\nout3\n", new String(buffer.tail(0), "UTF-8"));
+            assertEquals(18, buffer.getBytesWritten());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testCloseDeletesFile() throws Exception {
+        final ProcessOutputBuffer buffer = ProcessOutputBuffer.create("Server:test");
+        write(buffer, Stream.STDOUT, "output\n");
+        assertEquals(1, directory.listFiles().length);
+        buffer.close();
+        assertEquals(0, directory.listFiles().length);
+        assertEquals(0, buffer.tail(0).length);
+        // Writes after closing are ignored
+        write(buffer, Stream.STDOUT, "more\n");
+    }
+
+    private static void write(final ProcessOutputBuffer buffer, final Stream stream, final String output) throws Exception {
+        final byte[] bytes = output.getBytes("UTF-8");
+        buffer.write(stream, bytes, 0, bytes.length);
+    }
+
+    private static byte[] last(final byte[] bytes, final int length) {
+        final int start = Math.max(0, bytes.length - length);
+        return Arrays.copyOfRange(bytes, start, bytes.length);
+    }
+}
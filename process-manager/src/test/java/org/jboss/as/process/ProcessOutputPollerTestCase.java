@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ProcessOutputPollerTestCase {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ThreadPoolExecutor logExecutor;
+
+    @After
+    public void stopExecutor() {
+        release.countDown();
+        if (logExecutor != null) {
+            logExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLinesHandedToLogger() throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        logExecutor = new ThreadPoolExecutor(1, 1, 1L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(10)) {
+            public void execute(final Runnable command) {
+                lines.add(((ProcessOutputPoller.LoggedLine) command).line);
+            }
+        };
+        final ProcessOutputPoller poller = new ProcessOutputPoller(logExecutor);
+        final ProcessOutputPoller.Registration registration = poller.addErrorStream("Test", new ByteArrayInputStream("one\ntwo\n\nthr".getBytes("UTF-8")), null);
+
+        poller.poll();
+        assertEquals(Arrays.asList("one", "two"), lines);
+
+        // The incomplete line is logged once the stream ends
+        registration.cancel();
+        poller.poll();
+        assertEquals(Arrays.asList("one", "two", "thr"), lines);
+    }
+
+    @Test
+    public void testSlowLoggingDoesNotBlockPolling() throws Exception {
+        logExecutor = new ThreadPoolExecutor(1, 1, 1L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(5));
+        // Stall the logging thread
+        logExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            output.append("line").append(i).append('\n');
+        }
+        final byte[] bytes = output.toString().getBytes("UTF-8");
+        final ProcessOutputBuffer outputBuffer = ProcessOutputBuffer.create("Test");
+        try {
+            final ProcessOutputPoller poller = new ProcessOutputPoller(logExecutor);
+            poller.addErrorStream("Test", new ByteArrayInputStream(bytes), outputBuffer);
+
+            final Thread polling = new Thread(new Runnable() {
+                public void run() {
+                    poller.poll();
+                }
+            });
+            polling.start();
+            polling.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(polling.isAlive());
+
+            // All the output is buffered, while only the lines which fit in the queue wait to be logged
+            assertEquals(bytes.length, outputBuffer.getBytesWritten());
+            assertEquals(5, logExecutor.getQueue().size());
+
+            release.countDown();
+            logExecutor.shutdown();
+            assertTrue(logExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            outputBuffer.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.process;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+public class ProcessResourceSamplerTestCase {
+
+    private static final String STAT_FIELDS = " S 1 4242 4242 0 -1 4194560 35821 0 12 0 1530 275 0 0 20 0 97 0 48211 "
+            + "4925046784 131072 18446744073709551615 1 1 0 0 0 0 0 4096 16796879 0 0 0 17 3 0 0 0 0 0\n";
+
+    private static final String STATUS = "Name:\tjava\n"
+            + "Umask:\t0022\n"
+            + "State:\tS (sleeping)\n"
+            + "Pid:\t4242\n"
+            + "VmPeak:\t 4809616 kB\n"
+            + "VmRSS:\t  524288 kB\n"
+            + "Threads:\t97\n"
+            + "voluntary_ctxt_switches:\t1520\n"
+            + "nonvoluntary_ctxt_switches:\t38";
+
+    @Test
+    public void testCpuTime() throws Exception {
+        byte[] stat = bytes("4242 (java)" + STAT_FIELDS);
+        assertEquals((1530 + 275) * 10, ProcessResourceSampler.readCpuTime(stat, stat.length, 100));
+        assertEquals((1530 + 275) * 1000 / 250, ProcessResourceSampler.readCpuTime(stat, stat.length, 250));
+    }
+
+    @Test
+    public void testCpuTimeCommandWithSpaces() throws Exception {
+        byte[] stat = bytes("4242 (java -server 1 2 3)" + STAT_FIELDS);
+        assertEquals((1530 + 275) * 10, ProcessResourceSampler.readCpuTime(stat, stat.length, 100));
+    }
+
+    @Test
+    public void testCpuTimeCommandWithBrackets() throws Exception {
+        byte[] stat = bytes("4242 (a) S 1 2 3 4 5 6 7 8 9 (x))" + STAT_FIELDS);
+        assertEquals((1530 + 275) * 10, ProcessResourceSampler.readCpuTime(stat, stat.length, 100));
+    }
+
+    @Test
+    public void testCpuTimeOnlyReadsLength() throws Exception {
+        byte[] stat = bytes("4242 (java)" + STAT_FIELDS + "4242 (java) S 1 2 3 4 5 6 7 8 9 10 99999 99999");
+        assertEquals((1530 + 275) * 10, ProcessResourceSampler.readCpuTime(stat, bytes("4242 (java)" + STAT_FIELDS).length, 100));
+    }
+
+    @Test
+    public void testCpuTimeTruncated() throws Exception {
+        byte[] stat = bytes("4242 (java) S 1 4242 4242 0 -1 4194560 35821 0 12 0 1530");
+        assertEquals(-1, ProcessResourceSampler.readCpuTime(stat, stat.length, 100));
+        stat = bytes("4242 (java S 1 4242 4242 0 -1 4194560 35821 0 12 0 1530 275 0 0");
+        assertEquals(-1, ProcessResourceSampler.readCpuTime(stat, stat.length, 100));
+        assertEquals(-1, ProcessResourceSampler.readCpuTime(stat, 0, 100));
+    }
+
+    @Test
+    public void testStatusFields() throws Exception {
+        byte[] status = bytes(STATUS);
+        assertEquals(524288, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.VM_RSS));
+        assertEquals(97, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.THREADS));
+        assertEquals(1520, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.VOLUNTARY_CTXT_SWITCHES));
+        assertEquals(38, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.NONVOLUNTARY_CTXT_SWITCHES));
+    }
+
+    @Test
+    public void testMissingStatusField() throws Exception {
+        byte[] status = bytes("Name:\tjava\nVmPeak:\t 4809616 kB\nThreads:\t97\n");
+        assertEquals(-1, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.VM_RSS));
+        // Only the start of a line is matched
+        status = bytes("Name:\tThreads: 12\n");
+        assertEquals(-1, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.THREADS));
+        status = bytes("Threads:\tmany\n");
+        assertEquals(-1, ProcessResourceSampler.readStatusField(status, status.length, ProcessResourceSampler.THREADS));
+    }
+
+    private static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("US-ASCII");
+    }
+}
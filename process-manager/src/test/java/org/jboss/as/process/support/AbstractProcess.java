@@ -25,10 +25,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.jboss.as.communication.SocketConnection;
 import org.jboss.as.process.CommandLineConstants;
+import org.jboss.as.process.ProcessResourceSample;
 import org.jboss.as.process.Status;
 import org.jboss.as.process.StreamUtils;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommand;
@@ -228,5 +230,9 @@ public abstract class AbstractProcess {
         @Override
         public void handleReconnectServerManager(String address, String port) {
         }
+
+        @Override
+        public void handleResourceUsage(List<ProcessResourceSample> samples) {
+        }
     }
 }
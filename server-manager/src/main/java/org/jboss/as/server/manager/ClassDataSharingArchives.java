@@ -0,0 +1,391 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Maintains a class data sharing archive for each JVM configuration used to launch servers, so the JVMs of the
+ * servers on a host map the same pre-parsed class metadata instead of each loading it again.
+ * <p/>
+ * The first server launched for a JVM configuration without a valid archive records the classes it loads.  Once
+ * that server has started the archive is dumped from the recorded class list in the background, and servers launched
+ * from then on use it.  If the recording server fails before it has started, the next server launched for the JVM
+ * configuration records instead.  An archive is valid for as long as the JVM configuration and the module set it was
+ * dumped for are unchanged; otherwise it is recorded and dumped again.  If dumping the archive fails, the class list is
+ * discarded and the next server launched records it again, until {@value #MAX_DUMP_ATTEMPTS} dumps in a row have
+ * failed.  Servers fall back to running without the archive if their JVM can not map it.
+ * <p/>
+ * The options are only part of the launch command a server is added to the process manager with, so servers are
+ * added again before they are respawned to pick up an archive dumped since.
+ */
+class ClassDataSharingArchives {
+    private static final Logger log = Logger.getLogger("org.jboss.server.manager");
+
+    /* The number of failed dumps after which servers are launched without an archive for their JVM configuration */
+    static final int MAX_DUMP_ATTEMPTS = 3;
+
+    private final File archiveDir;
+    private final File homeDir;
+    private final File modulesDir;
+    private final ConcurrentMap<String, Archive> archives = new ConcurrentHashMap<String, Archive>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Class data sharing archive dump");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile String moduleFingerprint;
+
+    /**
+     * Create the archives.
+     *
+     * @param archiveDir The directory the archives are kept in
+     * @param homeDir The directory servers are launched in
+     * @param modulesDir The module repository of the servers
+     */
+    ClassDataSharingArchives(final File archiveDir, final File homeDir, final File modulesDir) {
+        this.archiveDir = archiveDir;
+        this.homeDir = homeDir;
+        this.modulesDir = modulesDir;
+    }
+
+    /**
+     * Get the options to add to the launch command of a server.
+     *
+     * @param jvmCommand The java command and JVM options of the server, which identify its JVM configuration
+     * @param processName The process name of the server
+     * @param record Whether the server may record the class list for its JVM configuration.  Only servers which
+     *        report when they have started should record.
+     * @return The options
+     */
+    List<String> getLaunchOptions(final List<String> jvmCommand, final String processName, final boolean record) {
+        final Archive archive = getArchive(jvmCommand);
+        synchronized (archive) {
+            if (archive.valid == null) {
+                archive.valid = Boolean.valueOf(archive.isValid());
+            }
+            if (archive.valid.booleanValue()) {
+                return Arrays.asList("-XX:SharedArchiveFile=" + archive.archiveFile.getAbsolutePath(), "-Xshare:auto");
+            }
+            if (record && archive.recordingProcessName == null && !archive.failed) {
+                if (!archiveDir.isDirectory() && !archiveDir.mkdirs()) {
+                    log.warnf("Could not create %s, servers are launched without class data sharing archives", archiveDir);
+                    archive.failed = true;
+                    return Collections.emptyList();
+                }
+                archive.recordingProcessName = processName;
+                archive.classListFile.delete();
+                log.infof("Server %s records the class list for a class data sharing archive", processName);
+                return Collections.singletonList("-XX:DumpLoadedClassList=" + archive.classListFile.getAbsolutePath());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Callback for when a server has started.  If it recorded a class list, the archive is dumped in the background.
+     *
+     * @param processName The process name of the server
+     */
+    void serverStarted(final String processName) {
+        for (final Archive archive : archives.values()) {
+            synchronized (archive) {
+                if (!processName.equals(archive.recordingProcessName) || archive.dumping) {
+                    continue;
+                }
+                archive.dumping = true;
+            }
+            executor.execute(new Runnable() {
+                public void run() {
+                    dump(archive);
+                }
+            });
+        }
+    }
+
+    /**
+     * Callback for when a server failed to start or went down.  If it was recording a class list that is not being
+     * dumped yet, the class list is discarded and the next server launched for its JVM configuration records it.
+     *
+     * @param processName The process name of the server
+     */
+    void serverFailed(final String processName) {
+        for (final Archive archive : archives.values()) {
+            synchronized (archive) {
+                if (processName.equals(archive.recordingProcessName) && !archive.dumping) {
+                    log.infof("Server %s failed before its class list was recorded", processName);
+                    archive.recordingProcessName = null;
+                    archive.classListFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop dumping archives.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Archive getArchive(final List<String> jvmCommand) {
+        final String profile = jvmCommand.toString();
+        Archive archive = archives.get(profile);
+        if (archive == null) {
+            final String name = "server-" + toHexString(digest(profile.getBytes())).substring(0, 16);
+            archive = new Archive(jvmCommand, new File(archiveDir, name + ".jsa"), new File(archiveDir, name + ".classlist"),
+                    new File(archiveDir, name + ".fingerprint"));
+            final Archive existing = archives.putIfAbsent(profile, archive);
+            if (existing != null) {
+                archive = existing;
+            }
+        }
+        return archive;
+    }
+
+    private void dump(final Archive archive) {
+        try {
+            final String fingerprint = archive.getFingerprint();
+            final File tmp = new File(archiveDir, archive.archiveFile.getName() + ".tmp");
+            final File classList = new File(archiveDir, archive.classListFile.getName() + ".tmp");
+            // The recording server is still running and may not have flushed the end of its class list yet
+            copyCompleteLines(archive.classListFile, classList);
+            final List<String> command = new ArrayList<String>(archive.jvmCommand);
+            command.add("-Xshare:dump");
+            command.add("-XX:SharedClassListFile=" + classList.getAbsolutePath());
+            command.add("-XX:SharedArchiveFile=" + tmp.getAbsolutePath());
+            // Servers are launched with -jar jboss-modules.jar from the home dir, the archive must use the same class path
+            command.add("-cp");
+            command.add("jboss-modules.jar");
+
+            final ProcessBuilder builder = new ProcessBuilder(command);
+            builder.directory(homeDir);
+            builder.redirectErrorStream(true);
+            final Process process = builder.start();
+            process.getOutputStream().close();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    log.debugf("Class data sharing archive dump: %s", line);
+                }
+            } finally {
+                reader.close();
+            }
+            final int exitCode = process.waitFor();
+            classList.delete();
+            if (exitCode != 0 || !tmp.isFile()) {
+                throw new IOException("Dumping " + archive.archiveFile + " failed with exit code " + exitCode);
+            }
+
+            synchronized (archive) {
+                archive.archiveFile.delete();
+                archive.fingerprintFile.delete();
+                if (!tmp.renameTo(archive.archiveFile)) {
+                    throw new IOException("Could not rename " + tmp + " to " + archive.archiveFile);
+                }
+                final OutputStream out = new FileOutputStream(archive.fingerprintFile);
+                try {
+                    out.write(fingerprint.getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+                archive.classListFile.delete();
+                archive.recordingProcessName = null;
+                archive.dumping = false;
+                archive.failedDumps = 0;
+                archive.valid = Boolean.TRUE;
+            }
+            log.infof("Created class data sharing archive %s", archive.archiveFile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            synchronized (archive) {
+                archive.recordingProcessName = null;
+                archive.classListFile.delete();
+                archive.dumping = false;
+                archive.failed = ++archive.failedDumps >= MAX_DUMP_ATTEMPTS;
+                if (archive.failed) {
+                    log.warnf(e, "Could not create class data sharing archive %s, servers are launched without it", archive.archiveFile);
+                } else {
+                    log.warnf(e, "Could not create class data sharing archive %s, the next server launched records its class list again", archive.archiveFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a file up to and including its last line separator, leaving out a partly written last line.
+     */
+    private static void copyCompleteLines(final File from, final File to) throws IOException {
+        final byte[] bytes = new byte[(int) from.length()];
+        final InputStream in = new FileInputStream(from);
+        int read = 0;
+        try {
+            int n;
+            while (read < bytes.length && (n = in.read(bytes, read, bytes.length - read)) != -1) {
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        int length = read;
+        while (length > 0 && bytes[length - 1] != '\n') {
+            length--;
+        }
+        if (length == 0) {
+            throw new IOException("No classes were recorded in " + from);
+        }
+        final OutputStream out = new FileOutputStream(to);
+        try {
+            out.write(bytes, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get a fingerprint of the module set, computed once as the modules do not change while the server manager runs.
+     */
+    private String getModuleFingerprint() {
+        String fingerprint = moduleFingerprint;
+        if (fingerprint == null) {
+            final MessageDigest digest = createDigest();
+            addToDigest(digest, new File(homeDir, "jboss-modules.jar"), "jboss-modules.jar");
+            addToDigest(digest, modulesDir, "");
+            moduleFingerprint = fingerprint = toHexString(digest.digest());
+        }
+        return fingerprint;
+    }
+
+    private static void addToDigest(final MessageDigest digest, final File file, final String path) {
+        digest.update(path.getBytes());
+        if (file.isDirectory()) {
+            final String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    addToDigest(digest, new File(file, name), path + "/" + name);
+                }
+            }
+        } else {
+            digest.update((file.length() + ":" + file.lastModified()).getBytes());
+        }
+    }
+
+    private static byte[] digest(final byte[] bytes) {
+        return createDigest().digest(bytes);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHexString(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private final class Archive {
+        private final List<String> jvmCommand;
+        private final File archiveFile;
+        private final File classListFile;
+        private final File fingerprintFile;
+        // Guarded by this
+        private Boolean valid;
+        private String recordingProcessName;
+        private boolean dumping;
+        private int failedDumps;
+        private boolean failed;
+
+        private Archive(final List<String> jvmCommand, final File archiveFile, final File classListFile, final File fingerprintFile) {
+            this.jvmCommand = new ArrayList<String>(jvmCommand);
+            this.archiveFile = archiveFile;
+            this.classListFile = classListFile;
+            this.fingerprintFile = fingerprintFile;
+        }
+
+        private String getFingerprint() {
+            final File javaCommand = new File(jvmCommand.get(0));
+            return jvmCommand + "\n" + (javaCommand.isFile() ? javaCommand.lastModified() : "") + "\n" + getModuleFingerprint();
+        }
+
+        private boolean isValid() {
+            if (!archiveFile.isFile() || !fingerprintFile.isFile()) {
+                return false;
+            }
+            try {
+                final byte[] bytes = new byte[(int) fingerprintFile.length()];
+                final InputStream in = new FileInputStream(fingerprintFile);
+                try {
+                    int read = 0;
+                    while (read < bytes.length) {
+                        final int n = in.read(bytes, read, bytes.length - read);
+                        if (n == -1) {
+                            return false;
+                        }
+                        read += n;
+                    }
+                } finally {
+                    in.close();
+                }
+                if (new String(bytes, "UTF-8").equals(getFingerprint())) {
+                    return true;
+                }
+                log.infof("Class data sharing archive %s is out of date", archiveFile);
+            } catch (IOException e) {
+                log.debugf(e, "Could not read %s", fingerprintFile);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.logging.Logger;
+
+/**
+ * Fetches deployment content from the domain controller in parallel.  Each deployment path is fetched at most once,
+ * however many servers need it, and every content request is notified as soon as all of its content is local.
+ */
+class DeploymentContentFetcher {
+    private static final Logger log = Logger.getLogger("org.jboss.server.manager");
+
+    private final FileRepository localFileRepository;
+    private final FileRepository remoteFileRepository;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, Fetch> fetches = new ConcurrentHashMap<String, Fetch>();
+
+    /**
+     * Create a fetcher.
+     *
+     * @param localFileRepository The local repository which is checked before the remote one
+     * @param remoteFileRepository The domain controller repository
+     * @param threads The maximum number of deployments to fetch at the same time
+     */
+    DeploymentContentFetcher(final FileRepository localFileRepository, final FileRepository remoteFileRepository, final int threads) {
+        this.localFileRepository = localFileRepository;
+        this.remoteFileRepository = remoteFileRepository;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Deployment fetcher " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Make sure the content for a set of deployment paths is local.  The callback is invoked exactly once, either
+     * from the calling thread if all content is already local or from a fetcher thread once the last missing
+     * content has been fetched or has failed to be fetched.
+     *
+     * @param deploymentPaths The deployment paths
+     * @param callback The callback
+     */
+    void fetch(final Collection<String> deploymentPaths, final Callback callback) {
+        final Set<String> paths = new LinkedHashSet<String>(deploymentPaths);
+        if (paths.isEmpty()) {
+            callback.contentAvailable();
+            return;
+        }
+        final Request request = new Request(paths.size(), callback);
+        for (String path : paths) {
+            Fetch fetch = fetches.get(path);
+            if (fetch == null) {
+                final Fetch newFetch = new Fetch(path);
+                fetch = fetches.putIfAbsent(path, newFetch);
+                if (fetch == null) {
+                    fetch = newFetch;
+                    if (localFileRepository.getDeploymentFile(path).exists()) {
+                        newFetch.complete(true);
+                    } else {
+                        executor.execute(newFetch);
+                    }
+                }
+            }
+            fetch.addRequest(request);
+        }
+    }
+
+    /**
+     * Stop accepting fetches.  Fetches which have already been requested still complete.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Notified once content requested with {@link DeploymentContentFetcher#fetch(Collection, Callback)} is local.
+     */
+    interface Callback {
+
+        /**
+         * All requested content is local.
+         */
+        void contentAvailable();
+
+        /**
+         * Some content could not be fetched.
+         *
+         * @param deploymentPaths The paths which could not be fetched
+         */
+        void contentUnavailable(Collection<String> deploymentPaths);
+    }
+
+    private static final class Request {
+        private final AtomicInteger remaining;
+        private final Callback callback;
+        private final List<String> failed = new ArrayList<String>();
+
+        private Request(final int count, final Callback callback) {
+            this.remaining = new AtomicInteger(count);
+            this.callback = callback;
+        }
+
+        void completed(final String path, final boolean available) {
+            if (!available) {
+                synchronized (failed) {
+                    failed.add(path);
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                final List<String> failed;
+                synchronized (this.failed) {
+                    failed = new ArrayList<String>(this.failed);
+                }
+                if (failed.isEmpty()) {
+                    callback.contentAvailable();
+                } else {
+                    callback.contentUnavailable(failed);
+                }
+            }
+        }
+    }
+
+    private final class Fetch implements Runnable {
+        private final String path;
+        private final List<Request> requests = new ArrayList<Request>();
+        private boolean done;
+        private boolean available;
+
+        private Fetch(final String path) {
+            this.path = path;
+        }
+
+        public void run() {
+            boolean available = false;
+            try {
+                final long start = System.currentTimeMillis();
+                final File file = remoteFileRepository.getDeploymentFile(path);
+                available = file != null && file.exists();
+                log.debugf("Fetched deployment [%s] in %d ms", path, System.currentTimeMillis() - start);
+            } catch (Throwable t) {
+                log.errorf(t, "Failed to fetch deployment [%s] from domain controller", path);
+            } finally {
+                complete(available);
+            }
+        }
+
+        void addRequest(final Request request) {
+            final boolean available;
+            synchronized (this) {
+                if (!done) {
+                    requests.add(request);
+                    return;
+                }
+                available = this.available;
+            }
+            request.completed(path, available);
+        }
+
+        void complete(final boolean available) {
+            final List<Request> requests;
+            synchronized (this) {
+                done = true;
+                this.available = available;
+                requests = new ArrayList<Request>(this.requests);
+                this.requests.clear();
+            }
+            for (Request request : requests) {
+                request.completed(path, available);
+            }
+        }
+    }
+}
@@ -21,15 +21,16 @@
  */
 package org.jboss.as.server.manager;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
-import java.net.Socket;
 
 import org.jboss.as.communication.InitialSocketRequestException;
-import org.jboss.as.communication.SocketConnection;
-import org.jboss.as.communication.SocketListener;
-import org.jboss.as.communication.SocketListener.SocketHandler;
+import org.jboss.as.communication.SelectorSocketListener;
+import org.jboss.as.communication.SelectorSocketListener.Connection;
+import org.jboss.as.communication.SelectorSocketListener.ConnectionHandler;
+import org.jboss.as.communication.SelectorSocketListener.MessageHandler;
 import org.jboss.as.process.Status;
 import org.jboss.as.process.StreamUtils;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerToServerManagerCommandHandler;
@@ -45,7 +46,7 @@ import org.jboss.logging.Logger;
 class DirectServerCommunicationListener{
     private final Logger log = Logger.getLogger(DirectServerCommunicationListener.class);
 
-    private final SocketListener socketListener;
+    private final SelectorSocketListener socketListener;
 
     private final ServerToServerManagerCommandHandler commandHandler;
 
@@ -54,7 +55,7 @@ class DirectServerCommunicationListener{
     DirectServerCommunicationListener(ServerToServerManagerCommandHandler commandHandler, ServerManager serverManager, InetAddress address, int port, int backlog) throws IOException {
         this.serverManager = serverManager;
         this.commandHandler = commandHandler;
-        socketListener = SocketListener.createSocketListener("ServerManager", new ServerAcceptor(), address, port, backlog);
+        socketListener = SelectorSocketListener.createSocketListener("ServerManager", new ServerAcceptor(), address, port, backlog);
     }
 
     static DirectServerCommunicationListener create(ServerToServerManagerCommandHandler commandHandler,ServerManager serverManager, InetAddress address, int port, int backlog) throws IOException {
@@ -79,14 +80,13 @@ class DirectServerCommunicationListener{
         return socketListener.getAddress();
     }
 
-    class ServerAcceptor implements SocketHandler {
+    class ServerAcceptor implements ConnectionHandler {
 
         @Override
-        public void initializeConnection(Socket socket) throws IOException, InitialSocketRequestException {
-            InputStream in = socket.getInputStream();
+        public MessageHandler initializeConnection(Connection connection, byte[] initialRequest) throws IOException, InitialSocketRequestException {
+            InputStream in = new ByteArrayInputStream(initialRequest);
             StringBuilder sb = new StringBuilder();
 
-            //TODO Timeout on the read?
             Status status = StreamUtils.readWord(in, sb);
             if (status != Status.MORE) {
                 throw new InitialSocketRequestException("Server acceptor: received '" + sb.toString() + "' but no more");
@@ -106,7 +106,9 @@ class DirectServerCommunicationListener{
             if (server == null) {
                 throw new InitialSocketRequestException("Server acceptor: unknown server " + processName);
             }
-            server.setCommunicationHandler(DirectServerManagerCommunicationHandler.create(SocketConnection.accepted(socket), processName, commandHandler, serverManager));
+            DirectServerManagerCommunicationHandler handler = DirectServerManagerCommunicationHandler.create(connection, processName, commandHandler, serverManager);
+            server.setCommunicationHandler(handler);
+            return handler.getMessageHandler();
         }
     }
 }
@@ -25,19 +25,27 @@ package org.jboss.as.server.manager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.jboss.as.communication.SelectorSocketListener;
+import org.jboss.as.communication.SelectorSocketListener.Connection;
 import org.jboss.as.communication.SocketConnection;
 import org.jboss.as.process.StreamUtils;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerToServerManagerCommandHandler;
 
 /**
+ * Handles the messages sent by a server over its direct connection to the server manager. The messages are either
+ * read by a thread of its own from a {@link SocketConnection}, or are handed off by the
+ * {@link SelectorSocketListener} which accepted the {@link Connection}.
  *
  * @author <a href="kabir.khan@jboss.com">Kabir Khan</a>
  * @version $Revision: 1.1 $
  */
 public class DirectServerManagerCommunicationHandler{
     private final SocketConnection socketConnection;
+    private final Connection connection;
     private final OutputStream output;
     private final InputStream input;
     private final String serverName;
@@ -47,6 +55,7 @@ public class DirectServerManagerCommunicationHandler{
 
     private DirectServerManagerCommunicationHandler(SocketConnection socketConnection, String serverName, ServerToServerManagerCommandHandler messageHandler, ShutdownListener shutdownListener) {
         this.socketConnection = socketConnection;
+        this.connection = null;
         this.output = socketConnection.getOutputStream();
         this.input = socketConnection.getInputStream();
         this.serverName = serverName;
@@ -55,12 +64,31 @@ public class DirectServerManagerCommunicationHandler{
         this.shutdownListener = shutdownListener;
     }
 
+    private DirectServerManagerCommunicationHandler(Connection connection, String serverName, ServerToServerManagerCommandHandler messageHandler, ShutdownListener shutdownListener) {
+        this.socketConnection = null;
+        this.connection = connection;
+        this.output = connection.getOutputStream();
+        this.input = null;
+        this.serverName = serverName;
+        this.messageHandler = messageHandler;
+        this.inputHandler = new InputStreamHandler();
+        this.shutdownListener = shutdownListener;
+    }
+
     public static DirectServerManagerCommunicationHandler create(SocketConnection socketConnection, String serverName, ServerToServerManagerCommandHandler messageHandler, ShutdownListener shutdownListener) {
         DirectServerManagerCommunicationHandler handler = new DirectServerManagerCommunicationHandler(socketConnection, serverName, messageHandler, shutdownListener);
         handler.start();
         return handler;
     }
 
+    /**
+     * Create a handler for a connection accepted by a {@link SelectorSocketListener}. No thread is started, the
+     * listener hands off the messages it reads to {@link #getMessageHandler()}.
+     */
+    public static DirectServerManagerCommunicationHandler create(Connection connection, String serverName, ServerToServerManagerCommandHandler messageHandler, ShutdownListener shutdownListener) {
+        return new DirectServerManagerCommunicationHandler(connection, serverName, messageHandler, shutdownListener);
+    }
+
     protected void start() {
         Thread t = new Thread(inputHandler);
         t.start();
@@ -79,10 +107,14 @@ public class DirectServerManagerCommunicationHandler{
     }
 
     public boolean isClosed() {
-        return !socketConnection.isOpen();
+        return socketConnection != null ? !socketConnection.isOpen() : !connection.isOpen();
     }
 
-    class InputStreamHandler implements Runnable {
+    SelectorSocketListener.MessageHandler getMessageHandler() {
+        return inputHandler;
+    }
+
+    class InputStreamHandler implements Runnable, SelectorSocketListener.MessageHandler {
         AtomicBoolean shutdown = new AtomicBoolean();
 
         @Override
@@ -98,9 +130,36 @@ public class DirectServerManagerCommunicationHandler{
             }
         }
 
+        @Override
+        public int getMessageLength(ByteBuffer buffer) throws IOException {
+            if (buffer.remaining() < 4) {
+                return -1;
+            }
+            final int length = buffer.getInt(buffer.position());
+            if (length < 0) {
+                throw new IOException("Invalid message length " + length);
+            }
+            return buffer.remaining() - 4 < length ? -1 : length + 4;
+        }
+
+        @Override
+        public void handleMessage(byte[] message) throws IOException {
+            if (!shutdown.get()) {
+                messageHandler.handleCommand(serverName, Arrays.copyOfRange(message, 4, message.length));
+            }
+        }
+
+        @Override
+        public void connectionClosed() {
+            shutdown();
+        }
+
         void shutdown() {
             if (!shutdown.getAndSet(true)) {
-                socketConnection.close();
+                if (socketConnection != null)
+                    socketConnection.close();
+                else
+                    connection.close();
                 if (shutdownListener != null)
                     shutdownListener.connectionClosed(serverName);
             }
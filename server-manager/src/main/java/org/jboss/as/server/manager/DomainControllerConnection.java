@@ -22,6 +22,9 @@
 
 package org.jboss.as.server.manager;
 
+import java.util.List;
+import org.jboss.as.domain.controller.ModelUpdateResponse;
+import org.jboss.as.model.AbstractDomainModelUpdate;
 import org.jboss.as.model.DomainModel;
 
 /**
@@ -42,6 +45,15 @@ public interface DomainControllerConnection {
      */
     void unregister();
 
+    /**
+     * Apply updates to the domain model.  The domain controller records the applied updates in its change log and
+     * pushes them to all registered server managers.
+     *
+     * @param updates The updates to apply
+     * @return A list of response objects to reflect the result of each update applied.
+     */
+    List<ModelUpdateResponse<?>> applyDomainModelUpdates(List<AbstractDomainModelUpdate<?>> updates);
+
     /**
      * Get the file repository for the domain controller.  This can be used to pull contents from the domain
      * controllers repository.
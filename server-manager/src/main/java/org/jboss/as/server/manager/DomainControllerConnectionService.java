@@ -85,7 +85,7 @@ public class DomainControllerConnectionService implements Service<Void> {
             }
         }
         final NetworkInterfaceBinding managementInterface = localManagementInterface.getValue();
-        serverManager.setDomainControllerConnection(new RemoteDomainControllerConnection(serverManager.getName(), dcAddress, domainControllerPort.getValue(), managementInterface.getAddress(), localManagementPort.getValue(), localRepository, connectionRetryLimit, connectionRetryInterval, connectTimeout, executorService.getValue()));
+        serverManager.setDomainControllerConnection(new RemoteDomainControllerConnection(serverManager, dcAddress, domainControllerPort.getValue(), managementInterface.getAddress(), localManagementPort.getValue(), localRepository, connectionRetryLimit, connectionRetryInterval, connectTimeout, executorService.getValue()));
     }
 
     /**
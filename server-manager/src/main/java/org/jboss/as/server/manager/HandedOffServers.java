@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Maps the process names of the standby servers that took over a server to the process name the server was
+ * created with, which stays the key the server manager knows the server by.
+ */
+final class HandedOffServers {
+
+    // Guarded by this
+    private final Map<String, String> serverProcessNames = new HashMap<String, String>();
+
+    /**
+     * Record that a server now runs in a standby server process, replacing any process it was handed off to before.
+     *
+     * @param serverProcessName The process name the server was created with
+     * @param processName The process name of the standby server
+     */
+    synchronized void handedOff(final String serverProcessName, final String processName) {
+        remove(serverProcessName);
+        serverProcessNames.put(processName, serverProcessName);
+    }
+
+    /**
+     * Get the process name a server was created with.
+     *
+     * @param processName The process name used by the process manager or the server
+     * @return The process name the server was created with, or <code>processName</code> if the server was not handed off
+     */
+    synchronized String getServerProcessName(final String processName) {
+        final String serverProcessName = serverProcessNames.get(processName);
+        return serverProcessName != null ? serverProcessName : processName;
+    }
+
+    /**
+     * Forget the standby server process a server was handed off to.
+     *
+     * @param serverProcessName The process name the server was created with
+     * @return The process name of the standby server, or <code>null</code> if the server was not handed off
+     */
+    synchronized String reclaim(final String serverProcessName) {
+        return remove(serverProcessName);
+    }
+
+    private String remove(final String serverProcessName) {
+        final Iterator<Map.Entry<String, String>> it = serverProcessNames.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, String> entry = it.next();
+            if (entry.getValue().equals(serverProcessName)) {
+                it.remove();
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+}
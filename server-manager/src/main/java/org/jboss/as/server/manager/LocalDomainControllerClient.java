@@ -68,19 +68,16 @@ public class LocalDomainControllerClient implements DomainControllerClient {
     }
 
     /** {@inheritDoc} */
-    public List<ModelUpdateResponse<?>> updateDomainModel(List<AbstractDomainModelUpdate<?>> updates) {
+    public List<ModelUpdateResponse<?>> updateDomainModel(List<AbstractDomainModelUpdate<?>> updates, String changeLogId, long version) {
+        // The local server manager shares the domain controller's domain model, which already has the updates applied
+        serverManager.setDomainModelVersion(changeLogId, version);
         final List<ModelUpdateResponse<?>> responses = new ArrayList<ModelUpdateResponse<?>>(updates.size());
-        for(AbstractDomainModelUpdate<?> update : updates) {
-            responses.add(executeUpdate(update));
+        for(int i = 0; i < updates.size(); i++) {
+            responses.add(ModelUpdateResponse.applied());
         }
         return responses;
     }
 
-    private <R> ModelUpdateResponse<R> executeUpdate(AbstractDomainModelUpdate<R> domainUpdate) {
-        final R result = null;  // TODO execute update
-        return new ModelUpdateResponse<R>(result);
-    }
-
     private <R> ModelUpdateResponse<R> executeUpdate(AbstractHostModelUpdate<R> hostUpdate) {
         final R result = null;  // TODO execute update
         return new ModelUpdateResponse<R>(result);
@@ -22,7 +22,10 @@
 
 package org.jboss.as.server.manager;
 
+import java.util.List;
 import org.jboss.as.domain.controller.DomainController;
+import org.jboss.as.domain.controller.ModelUpdateResponse;
+import org.jboss.as.model.AbstractDomainModelUpdate;
 import org.jboss.as.model.DomainModel;
 
 /**
@@ -58,6 +61,11 @@ public class LocalDomainControllerConnection implements DomainControllerConnecti
         domainController.removeClient(client.getId());
     }
 
+    /** {@inheritDoc} */
+    public List<ModelUpdateResponse<?>> applyDomainModelUpdates(final List<AbstractDomainModelUpdate<?>> updates) {
+        return domainController.applyUpdates(updates);
+    }
+
     /** {@inheritDoc} */
     public FileRepository getRemoteFileRepository() {
         return fileRepository;
@@ -24,7 +24,6 @@ package org.jboss.as.server.manager;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
@@ -34,7 +33,8 @@ import org.jboss.as.communication.SocketConnection;
 import org.jboss.as.process.ManagedProcess;
 import org.jboss.as.process.Status;
 import org.jboss.as.process.StreamUtils;
-import org.jboss.as.process.ProcessManagerProtocol.IncomingPmCommand;
+import org.jboss.as.process.ProcessManagerProtocol;
+import org.jboss.as.process.ProcessManagerProtocol.IncomingPmCommandSender;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommand;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommandHandler;
 import org.jboss.logging.Logger;
@@ -42,6 +42,9 @@ import org.jboss.logging.Logger;
 /**
  * Remote-process-side counterpart to a {@link ManagedProcess} that exchanges messages
  * with the process-manager-side ManagedProcess.
+ * <p>
+ * The commands sent to the process manager are binary frames if it agrees to
+ * {@link ProcessManagerProtocol#BINARY_VERSION} when connecting, and text otherwise.
  *
  * FIXME reliable transmission support (JBAS-8262)
  *
@@ -50,11 +53,15 @@ import org.jboss.logging.Logger;
  */
 public final class ProcessManagerSlave {
 
+    /** How long to wait for the process manager to answer with the protocol version */
+    private static final int PROTOCOL_VERSION_TIMEOUT = 30000;
+
     Logger log = Logger.getLogger(ProcessManagerSlave.class);
     private final OutgoingPmCommandHandler handler;
     private final InputStream input;
-    private final OutputStream output;
     private final SocketConnection socketConnection;
+    /** Writes the commands to the process manager in the negotiated protocol version */
+    private final IncomingPmCommandSender commandSender;
     private final Controller controller = new Controller();
 
     public ProcessManagerSlave(String processName, InetAddress addr, Integer port, OutgoingPmCommandHandler handler) {
@@ -64,10 +71,20 @@ public final class ProcessManagerSlave {
         if (handler == null) {
             throw new IllegalArgumentException("handler is null");
         }
-        this.socketConnection = SocketConnection.connect(addr, port, "CONNECTED", processName);
+        this.socketConnection = SocketConnection.connect(addr, port, "CONNECTED", ProcessManagerProtocol.PROTOCOL, String.valueOf(ProcessManagerProtocol.VERSION), processName);
         this.input = socketConnection.getInputStream();
-        this.output = socketConnection.getOutputStream();
         this.handler = handler;
+        final int protocolVersion;
+        try {
+            socketConnection.setSoTimeout(PROTOCOL_VERSION_TIMEOUT);
+            protocolVersion = ProcessManagerProtocol.readProtocolVersion(input);
+            socketConnection.setSoTimeout(0);
+        } catch (IOException e) {
+            socketConnection.close();
+            throw new RuntimeException(e);
+        }
+        log.debugf("Using process manager protocol version %d", protocolVersion);
+        this.commandSender = ProcessManagerProtocol.createCommandSender(socketConnection.getOutputStream(), protocolVersion);
     }
 
     public Runnable getController() {
@@ -75,31 +92,31 @@ public final class ProcessManagerSlave {
     }
 
     public void addProcess(final String processName, final List<String> command, final Map<String, String> env, final String workingDirectory) throws IOException {
-        IncomingPmCommand.ADD.sendAddProcess(output, processName, command, env, workingDirectory);
+        commandSender.addProcess(processName, command, env, workingDirectory);
     }
 
     public void startProcess(final String processName) throws IOException {
-        IncomingPmCommand.START.sendStartProcess(output, processName);
+        commandSender.startProcess(processName);
     }
 
     public void stopProcess(final String processName) throws IOException {
-        IncomingPmCommand.STOP.sendStopProcess(output, processName);
+        commandSender.stopProcess(processName);
     }
 
     public void removeProcess(final String processName) throws IOException {
-        IncomingPmCommand.REMOVE.sendRemoveProcess(output, processName);
+        commandSender.removeProcess(processName);
     }
 
     public void sendStdin(final String recipient, final byte[] message) throws IOException {
-        IncomingPmCommand.SEND_STDIN.sendStdin(output, recipient, message);
+        commandSender.sendStdin(recipient, message);
     }
 
     public void reconnectServers(InetAddress addr, int port) throws IOException {
-        IncomingPmCommand.RECONNECT_SERVERS.sendReconnectServers(output, addr, port);
+        commandSender.reconnectServers(addr, port);
     }
 
     public void reconnectServer(String serverName, InetAddress addr, int port) throws IOException {
-        IncomingPmCommand.RECONNECT_SERVER.sendReconnectServer(output, serverName, addr, port);
+        commandSender.reconnectServer(serverName, addr, port);
     }
 
     private final class Controller implements Runnable {
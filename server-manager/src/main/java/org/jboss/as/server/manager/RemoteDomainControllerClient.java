@@ -65,7 +65,7 @@ public class RemoteDomainControllerClient implements DomainControllerClient {
     /** {@inheritDoc} */
     public void updateDomainModel(final DomainModel domain) {
         try {
-            new UpdateFullDomainRequest(domain).execute();
+            new UpdateFullDomainRequest(domain).executeForResult();
         } catch (ManagementException e) {
             throw new RuntimeException("Failed to update domain", e);
         }
@@ -81,9 +81,9 @@ public class RemoteDomainControllerClient implements DomainControllerClient {
     }
 
     /** {@inheritDoc} */
-    public List<ModelUpdateResponse<?>> updateDomainModel(final List<AbstractDomainModelUpdate<?>> updates) {
+    public List<ModelUpdateResponse<?>> updateDomainModel(final List<AbstractDomainModelUpdate<?>> updates, final String changeLogId, final long version) {
         try {
-            return new UpdateDomainModelRequest(updates).executeForResult();
+            return new UpdateDomainModelRequest(updates, changeLogId, version).executeForResult();
         } catch (ManagementException e) {
             throw new RuntimeException("Failed to update domain model", e);
         }
@@ -167,9 +167,13 @@ public class RemoteDomainControllerClient implements DomainControllerClient {
 
     private class UpdateDomainModelRequest extends ServerManagerRequest<List<ModelUpdateResponse<?>>> {
         private final List<AbstractDomainModelUpdate<?>> updates;
+        private final String changeLogId;
+        private final long version;
 
-        private UpdateDomainModelRequest(final List<AbstractDomainModelUpdate<?>> updates) {
+        private UpdateDomainModelRequest(final List<AbstractDomainModelUpdate<?>> updates, final String changeLogId, final long version) {
             this.updates = updates;
+            this.changeLogId = changeLogId;
+            this.version = version;
         }
 
         public final byte getRequestCode() {
@@ -183,6 +187,9 @@ public class RemoteDomainControllerClient implements DomainControllerClient {
         protected void sendRequest(final int protocolVersion, final ByteDataOutput output) throws ManagementException {
             super.sendRequest(protocolVersion, output);
             try {
+                output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_VERSION);
+                output.writeUTF(changeLogId);
+                output.writeLong(version);
                 output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE_COUNT);
                 output.writeInt(updates.size());
                 for(AbstractDomainModelUpdate<?> update : updates) {
@@ -22,19 +22,23 @@
 
 package org.jboss.as.server.manager;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
+import org.jboss.as.domain.controller.ModelUpdateResponse;
+import org.jboss.as.model.AbstractDomainModelUpdate;
 import org.jboss.as.model.DomainModel;
 import org.jboss.as.server.manager.management.ByteDataInput;
 import org.jboss.as.server.manager.management.ByteDataOutput;
+import org.jboss.as.server.manager.management.FileManifest;
+import org.jboss.as.server.manager.management.FileTransferUtils;
 import org.jboss.as.server.manager.management.ManagementException;
 import org.jboss.as.server.manager.management.ManagementProtocol;
 import static org.jboss.as.server.manager.management.ManagementUtils.expectHeader;
+import static org.jboss.as.server.manager.management.ManagementUtils.marshal;
 import static org.jboss.as.server.manager.management.ManagementUtils.unmarshal;
 import org.jboss.as.server.manager.management.AbstractManagementRequest;
 import org.jboss.logging.Logger;
@@ -46,6 +50,7 @@ import org.jboss.logging.Logger;
  */
 public class RemoteDomainControllerConnection implements DomainControllerConnection {
     private static final Logger log = Logger.getLogger("org.jboss.as.management");
+    private final ServerManager serverManager;
     private final String serverManagerId;
     private final InetAddress dcAddress;
     private final int dcPort;
@@ -60,7 +65,7 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
     /**
      * Create an instance.
      *
-     * @param serverManagerId  The identifier of the server manager
+     * @param serverManager  The server manager
      * @param dcAddress  The domain controller port
      * @param dcPort  The domain controller port
      * @param localManagementAddress The local management address
@@ -71,8 +76,9 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
      * @param connectTimeout  The timeout for connecting to the remote DC (in seconds)
      * @param executorService The executor service
      */
-    public RemoteDomainControllerConnection(final String serverManagerId, final InetAddress dcAddress, final int dcPort, final InetAddress localManagementAddress, final int localManagementPort, final FileRepository localFileRepository, final int connectionRetryLimit, final long connectionRetryInterval, final long connectTimeout, final ScheduledExecutorService executorService) {
-        this.serverManagerId = serverManagerId;
+    public RemoteDomainControllerConnection(final ServerManager serverManager, final InetAddress dcAddress, final int dcPort, final InetAddress localManagementAddress, final int localManagementPort, final FileRepository localFileRepository, final int connectionRetryLimit, final long connectionRetryInterval, final long connectTimeout, final ScheduledExecutorService executorService) {
+        this.serverManager = serverManager;
+        this.serverManagerId = serverManager.getName();
         this.dcAddress = dcAddress;
         this.dcPort = dcPort;
         this.localManagementAddress = localManagementAddress;
@@ -84,10 +90,20 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
         this.executorService = executorService;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Register with the domain controller.  If this server manager already holds a domain model recorded by the domain
+     * controller, only the updates applied since are transferred and applied to it.  If they can not be applied the
+     * full domain model is requested instead.
+     *
+     * @return The domain model
+     */
     public DomainModel register() {
         try {
-            return new RegisterOperation(localManagementAddress, localManagementPort, this).executeForResult();
+            DomainModel domainModel = new RegisterOperation(localManagementAddress, localManagementPort, true, this).executeForResult();
+            if (domainModel == null) {
+                domainModel = new RegisterOperation(localManagementAddress, localManagementPort, false, this).executeForResult();
+            }
+            return domainModel;
         } catch (ManagementException e) {
             throw new RuntimeException("Failed to register with the domain controller", e);
         }
@@ -96,12 +112,21 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
     /** {@inheritDoc} */
     public void unregister() {
         try {
-            new UnregisterOperation(this).execute();
+            new UnregisterOperation(this).executeForResult();
         } catch (ManagementException e) {
             throw new RuntimeException("Failed to register with the domain controller", e);
         }
     }
 
+    /** {@inheritDoc} */
+    public List<ModelUpdateResponse<?>> applyDomainModelUpdates(final List<AbstractDomainModelUpdate<?>> updates) {
+        try {
+            return new ApplyDomainModelUpdatesOperation(updates, this).executeForResult();
+        } catch (ManagementException e) {
+            throw new RuntimeException("Failed to apply domain model updates", e);
+        }
+    }
+
     /** {@inheritDoc} */
     public FileRepository getRemoteFileRepository() {
         return remoteFileRepository;
@@ -133,11 +158,15 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
     private static class RegisterOperation extends DomainControllerRequest<DomainModel> {
         private final InetAddress localManagementAddress;
         private final int localManagementPort;
+        private final boolean incremental;
+        private final ServerManager serverManager;
 
-        private RegisterOperation(final InetAddress localManagementAddress, final int localManagementPort, final RemoteDomainControllerConnection connection) {
+        private RegisterOperation(final InetAddress localManagementAddress, final int localManagementPort, final boolean incremental, final RemoteDomainControllerConnection connection) {
             super(connection);
             this.localManagementAddress = localManagementAddress;
             this.localManagementPort = localManagementPort;
+            this.incremental = incremental;
+            this.serverManager = connection.serverManager;
         }
 
         public final byte getRequestCode() {
@@ -157,6 +186,18 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
                 output.write(address);
                 output.writeByte(ManagementProtocol.PARAM_SERVER_MANAGER_PORT);
                 output.writeInt(localManagementPort);
+                output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_VERSION);
+                final DomainModel domainModel = serverManager.getDomainModel();
+                final String changeLogId = serverManager.getDomainModelChangeLogId();
+                if (incremental && domainModel != null && changeLogId != null) {
+                    output.writeUTF(changeLogId);
+                    output.writeLong(serverManager.getDomainModelVersion());
+                    output.writeLong(domainModel.elementHash());
+                } else {
+                    output.writeUTF("");
+                    output.writeLong(0L);
+                    output.writeLong(0L);
+                }
             } catch (Exception e) {
                 throw new ManagementException("Failed to write local management connection information in request", e);
             }
@@ -164,9 +205,35 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
 
         protected final DomainModel receiveResponse(final int protocolVersion, final ByteDataInput input) throws ManagementException {
             try {
-                expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL);
-                log.infof("Registered with remote domain controller");
-                return unmarshal(input, DomainModel.class);
+                expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_VERSION);
+                final String changeLogId = input.readUTF();
+                final long version = input.readLong();
+                final byte param = input.readByte();
+                if (param == ManagementProtocol.PARAM_DOMAIN_MODEL) {
+                    final DomainModel domainModel = unmarshal(input, DomainModel.class);
+                    serverManager.setDomainModel(domainModel, changeLogId, version);
+                    log.infof("Registered with remote domain controller");
+                    return domainModel;
+                } else if (param == ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE_COUNT) {
+                    final int count = input.readInt();
+                    final List<AbstractDomainModelUpdate<?>> updates = new ArrayList<AbstractDomainModelUpdate<?>>(count);
+                    for (int i = 0; i < count; i++) {
+                        expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE);
+                        updates.add(unmarshal(input, AbstractDomainModelUpdate.class));
+                    }
+                    for (ModelUpdateResponse<?> response : serverManager.applyDomainModelUpdates(updates, changeLogId, version)) {
+                        if (response.getUpdateException() != null) {
+                            log.warnf(response.getUpdateException(), "Failed to apply domain model updates received on registration, requesting full domain model");
+                            return null;
+                        }
+                    }
+                    log.infof("Registered with remote domain controller, applied %d domain model updates", count);
+                    return serverManager.getDomainModel();
+                } else {
+                    throw new ManagementException("Invalid register response parameter " + param);
+                }
+            } catch (ManagementException e) {
+                throw e;
             } catch (Exception e) {
                 throw new ManagementException("Failed to read domain model from response", e);
             }
@@ -192,10 +259,63 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
         }
     }
 
+    private static class ApplyDomainModelUpdatesOperation extends DomainControllerRequest<List<ModelUpdateResponse<?>>> {
+        private final List<AbstractDomainModelUpdate<?>> updates;
+
+        private ApplyDomainModelUpdatesOperation(final List<AbstractDomainModelUpdate<?>> updates, final RemoteDomainControllerConnection connection) {
+            super(connection);
+            this.updates = updates;
+        }
+
+        public final byte getRequestCode() {
+            return ManagementProtocol.APPLY_DOMAIN_MODEL_UPDATES_REQUEST;
+        }
+
+        protected final byte getResponseCode() {
+            return ManagementProtocol.APPLY_DOMAIN_MODEL_UPDATES_RESPONSE;
+        }
+
+        protected final void sendRequest(final int protocolVersion, final ByteDataOutput output) throws ManagementException {
+            super.sendRequest(protocolVersion, output);
+            try {
+                output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE_COUNT);
+                output.writeInt(updates.size());
+                for (AbstractDomainModelUpdate<?> update : updates) {
+                    output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE);
+                    marshal(output, update);
+                }
+            } catch (Exception e) {
+                throw new ManagementException("Failed to write domain model updates", e);
+            }
+        }
+
+        protected final List<ModelUpdateResponse<?>> receiveResponse(final int protocolVersion, final ByteDataInput input) throws ManagementException {
+            try {
+                expectHeader(input, ManagementProtocol.PARAM_MODEL_UPDATE_RESPONSE_COUNT);
+                final int responseCount = input.readInt();
+                if (responseCount != updates.size()) {
+                    throw new ManagementException("Invalid domain model update response.  Response count not equal to update count.");
+                }
+                final List<ModelUpdateResponse<?>> responses = new ArrayList<ModelUpdateResponse<?>>(responseCount);
+                for (int i = 0; i < responseCount; i++) {
+                    expectHeader(input, ManagementProtocol.PARAM_MODEL_UPDATE_RESPONSE);
+                    responses.add(unmarshal(input, ModelUpdateResponse.class));
+                }
+                return responses;
+            } catch (ManagementException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ManagementException("Failed to receive domain model update responses", e);
+            }
+        }
+    }
+
     private static class GetFileOperation extends DomainControllerRequest<File> {
         private final byte rootId;
         private final String filePath;
         private final FileRepository localFileRepository;
+        private File localPath;
+        private FileManifest manifest;
 
         private GetFileOperation(final byte rootId, final String filePath, final FileRepository localFileRepository, final RemoteDomainControllerConnection connection) {
             super(connection);
@@ -214,18 +334,6 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
 
         protected final void sendRequest(final int protocolVersion, final ByteDataOutput output) throws ManagementException {
             super.sendRequest(protocolVersion, output);
-            try {
-                output.writeByte(ManagementProtocol.PARAM_ROOT_ID);
-                output.writeByte(rootId);
-                output.writeByte(ManagementProtocol.PARAM_FILE_PATH);
-                output.writeUTF(filePath);
-            } catch (IOException e) {
-                throw new ManagementException("Failed to send sync file request", e);
-            }
-        }
-
-        protected final File receiveResponse(final int protocolVersion, final ByteDataInput input) throws ManagementException {
-            final File localPath;
             switch (rootId) {
                 case 0: {
                     localPath = localFileRepository.getFile(filePath);
@@ -243,6 +351,23 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
                     localPath = null;
                 }
             }
+            try {
+                // Tell the DC what we already have so only missing and changed content is sent
+                manifest = FileManifest.create(localPath);
+                output.writeByte(ManagementProtocol.PARAM_ROOT_ID);
+                output.writeByte(rootId);
+                output.writeByte(ManagementProtocol.PARAM_FILE_PATH);
+                output.writeUTF(filePath);
+                if (protocolVersion >= ManagementProtocol.SYNC_MANIFEST_VERSION) {
+                    output.writeByte(ManagementProtocol.PARAM_MANIFEST);
+                    manifest.write(output);
+                }
+            } catch (IOException e) {
+                throw new ManagementException("Failed to send sync file request", e);
+            }
+        }
+
+        protected final File receiveResponse(final int protocolVersion, final ByteDataInput input) throws ManagementException {
             try {
                 expectHeader(input, ManagementProtocol.PARAM_NUM_FILES);
                 int numFiles = input.readInt();
@@ -251,7 +376,7 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
                         break;
                     }
                     case 0: { // Found on DC, but was an empty dir
-                        if (!localPath.mkdirs()) {
+                        if (!localPath.isDirectory() && !localPath.mkdirs()) {
                             throw new ManagementException("Unable to create local directory: " + localPath);
                         }
                         break;
@@ -261,32 +386,26 @@ public class RemoteDomainControllerConnection implements DomainControllerConnect
                             expectHeader(input, ManagementProtocol.FILE_START);
                             expectHeader(input, ManagementProtocol.PARAM_FILE_PATH);
                             final String path = input.readUTF();
-                            expectHeader(input, ManagementProtocol.PARAM_FILE_SIZE);
-                            final long length = input.readLong();
-                            log.debugf("Received file [%s] of length %d", path, length);
                             final File file = new File(localPath, path);
-                            if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
-                                throw new ManagementException("Unable to create local directory " + localPath.getParent());
-                            }
-                            long totalRead = 0;
-                            OutputStream fileOut = null;
-                            try {
-                                fileOut = new BufferedOutputStream(new FileOutputStream(file));
-                                final byte[] buffer = new byte[8192];
-                                int read;
-                                while (totalRead < length && (read = input.read(buffer, 0, Math.min((int) (length - totalRead), buffer.length))) != -1) {
-                                    if (read > 0) {
-                                        fileOut.write(buffer, 0, read);
-                                        totalRead += read;
-                                    }
+                            final byte type = input.readByte();
+                            if (type == ManagementProtocol.FILE_UNCHANGED) {
+                                log.tracef("File [%s] is unchanged", path);
+                            } else if (type == ManagementProtocol.FILE_DELTA) {
+                                final FileManifest.Entry entry = manifest.getEntry(path);
+                                if (entry == null) {
+                                    throw new ManagementException("Received delta for unknown file " + path);
                                 }
-                            } finally {
-                                if (fileOut != null) {
-                                    fileOut.close();
+                                log.debugf("Received delta for file [%s]", path);
+                                FileTransferUtils.receiveDelta(input, file, entry.getBlockSize(), file);
+                            } else if (type == ManagementProtocol.PARAM_FILE_SIZE) {
+                                final long length = input.readLong();
+                                log.debugf("Received file [%s] of length %d", path, length);
+                                if (!file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+                                    throw new ManagementException("Unable to create local directory " + localPath.getParent());
                                 }
-                            }
-                            if (totalRead != length) {
-                                throw new ManagementException("Did not read the entire file. Missing: " + (length - totalRead));
+                                FileTransferUtils.receiveFile(input, length, file);
+                            } else {
+                                throw new ManagementException("Invalid file type " + type + " for file " + path);
                             }
                             expectHeader(input, ManagementProtocol.FILE_END);
                         }
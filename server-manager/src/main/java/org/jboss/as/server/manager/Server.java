@@ -22,7 +22,10 @@
 
 package org.jboss.as.server.manager;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.as.model.ServerModel;
@@ -37,9 +40,11 @@ import org.jboss.as.server.manager.ServerManagerProtocol.ServerManagerToServerPr
  */
 public final class Server {
 
-    private final String serverProcessName;
+    private volatile String serverProcessName;
     private final ServerModel serverConfig;
     private volatile DirectServerManagerCommunicationHandler communicationHandler;
+    private volatile Map<String, String> assignedProperties;
+    private final File modelSnapshotFile;
 
     private final RespawnPolicy respawnPolicy;
     private final AtomicInteger respawnCount = new AtomicInteger();
@@ -92,6 +97,18 @@ public final class Server {
 //    }
 
     public Server(ServerModel serverConfig, RespawnPolicy respawnPolicy) {
+        this(serverConfig, respawnPolicy, null);
+    }
+
+    /**
+     * Create a server which is handed its configuration in a snapshot file, rather than in the START_SERVER message.
+     *
+     * @param serverConfig the server configuration
+     * @param respawnPolicy the respawn policy
+     * @param modelSnapshotFile the file the configuration is written to when the server is started, or {@code null}
+     *        to send it in the message
+     */
+    public Server(ServerModel serverConfig, RespawnPolicy respawnPolicy, File modelSnapshotFile) {
         if (serverConfig == null) {
             throw new IllegalArgumentException("serverConfig is null");
         }
@@ -101,10 +118,31 @@ public final class Server {
         this.serverProcessName = ServerManager.getServerProcessName(serverConfig);
         this.serverConfig = serverConfig;
         this.respawnPolicy = respawnPolicy;
+        this.modelSnapshotFile = modelSnapshotFile;
         this.state = ServerState.BOOTING;
 //        this.communicationHandler = communicationHandler;
     }
 
+    /**
+     * Create a standby server, which is not yet assigned to a server configuration.
+     *
+     * @param standbyProcessName the process name of the standby server
+     * @param respawnPolicy the respawn policy
+     */
+    Server(String standbyProcessName, RespawnPolicy respawnPolicy) {
+        if (standbyProcessName == null) {
+            throw new IllegalArgumentException("standbyProcessName is null");
+        }
+        if (respawnPolicy == null) {
+            throw new IllegalArgumentException("respawnPolicy is null");
+        }
+        this.serverProcessName = standbyProcessName;
+        this.serverConfig = null;
+        this.respawnPolicy = respawnPolicy;
+        this.modelSnapshotFile = null;
+        this.state = ServerState.BOOTING;
+    }
+
     public ServerState getState() {
         return state;
     }
@@ -129,12 +167,67 @@ public final class Server {
         return serverConfig;
     }
 
+    boolean isStandby() {
+        return serverConfig == null;
+    }
+
+    /**
+     * Take over the process of a standby server. From now on this server runs in the standby server's process, which
+     * is assigned to this server with the given system properties when it is started.
+     *
+     * @param standby the standby server
+     * @param properties the system properties of this server
+     */
+    void handOff(Server standby, Map<String, String> properties) {
+        if (isStandby() || !standby.isStandby()) {
+            throw new IllegalArgumentException("Can only hand off a standby server to a server");
+        }
+        this.assignedProperties = new HashMap<String, String>(properties);
+        this.communicationHandler = standby.communicationHandler;
+        this.serverProcessName = standby.serverProcessName;
+    }
+
+    boolean isHandedOff() {
+        return assignedProperties != null;
+    }
+
+    /**
+     * Stop running in the process of the standby server this server was handed off to, so that it can be started
+     * in its own process again.
+     */
+    void reclaim() {
+        this.assignedProperties = null;
+        this.communicationHandler = null;
+        this.serverProcessName = ServerManager.getServerProcessName(serverConfig);
+    }
+
     void setCommunicationHandler(DirectServerManagerCommunicationHandler communicationHandler) {
         this.communicationHandler = communicationHandler;
     }
 
     public void start() throws IOException {
-        sendCommand(ServerManagerToServerProtocolCommand.START_SERVER, serverConfig);
+        final Map<String, String> assignedProperties = this.assignedProperties;
+        if (assignedProperties != null) {
+            sendCommand(ServerManagerToServerProtocolCommand.ASSIGN_SERVER, assignedProperties);
+        }
+        final File modelSnapshotFile = this.modelSnapshotFile;
+        if (modelSnapshotFile != null) {
+            final byte[] hash = ServerManagerProtocolUtils.writeSnapshot(serverConfig, modelSnapshotFile);
+            communicationHandler.sendMessage(ServerManagerProtocolUtils.createSnapshotCommandBytes(
+                    ServerManagerToServerProtocolCommand.START_SERVER_SNAPSHOT, modelSnapshotFile, hash));
+        } else {
+            sendCommand(ServerManagerToServerProtocolCommand.START_SERVER, serverConfig);
+        }
+    }
+
+    /**
+     * Delete the model snapshot written for the last start, if the server did not get to read and delete it.
+     */
+    void deleteModelSnapshot() {
+        final File modelSnapshotFile = this.modelSnapshotFile;
+        if (modelSnapshotFile != null && modelSnapshotFile.exists() && !modelSnapshotFile.delete()) {
+            modelSnapshotFile.deleteOnExit();
+        }
     }
 
     public void stop() throws IOException {
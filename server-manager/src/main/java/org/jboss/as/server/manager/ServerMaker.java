@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -47,6 +48,16 @@ public final class ServerMaker {
      */
     static final String SERVER_PROCESS_NAME_PREFIX = "Server:";
 
+    /**
+     * Prefix applied to the id of a standby server to create it's process name.
+     */
+    static final String STANDBY_PROCESS_NAME_PREFIX = "Standby:";
+
+    /**
+     * The system property naming the boot log file of a server.
+     */
+    static final String BOOT_LOG_FILE = "org.jboss.boot.log.file";
+
     private final ProcessManagerSlave processManagerSlave;
 
     @SuppressWarnings("unused")
@@ -55,6 +66,8 @@ public final class ServerMaker {
 
     private final CommunicationVariables communicationVariables;
 
+    private final ClassDataSharingArchives classDataSharingArchives;
+
     public ServerMaker(ServerManagerEnvironment environment,
             ProcessManagerSlave processManagerSlave,
             OutgoingPmCommandHandler messageHandler,
@@ -78,6 +91,13 @@ public final class ServerMaker {
             throw new IllegalArgumentException("communicationVariables is null");
         }
         this.communicationVariables = communicationVariables;
+
+        if (environment.isClassDataSharing()) {
+            classDataSharingArchives = new ClassDataSharingArchives(new File(environment.getDomainDataDir(), "cds"),
+                    environment.getHomeDir(), environment.getModulesDir());
+        } else {
+            classDataSharingArchives = null;
+        }
     }
 
     public Server makeServer(ServerModel serverConfig, JvmElement jvmElement, RespawnPolicy respawnPolicy) throws IOException {
@@ -111,24 +131,126 @@ public final class ServerMaker {
 //        // Write commands and responses to here
 //        final OutputStream outputStream = process.getOutputStream();
         String serverName = serverConfig.getServerName();
-        String serverProcessName = ServerManager.getServerProcessName(serverConfig);
-        List<String> command = getServerLaunchCommand(serverName, serverProcessName, jvmElement, serverConfig.getSystemProperties());
-
-        Map<String, String> env = getServerLaunchEnvironment(jvmElement);
 
         //Add to process manager
-        processManagerSlave.addProcess(serverProcessName, command, env, environment.getHomeDir().getAbsolutePath());
+        addServerProcess(serverConfig, jvmElement);
 
         //Server gets started in process manager in ServerManager.startServers() after being added to the map of
         //available servers
 
-        Server server = new Server(serverConfig, respawnPolicy);
+        // The configuration is handed to the server in a file rather than in the START_SERVER message
+        File modelSnapshotFile = new File(environment.getDomainTempDir(), "server-model-" + serverName + ".bin");
+        Server server = new Server(serverConfig, respawnPolicy, modelSnapshotFile);
 //        messageHandler.registerServer(serverConfig.getServerName(), server);
         return server;
     }
 
+    /**
+     * Add the process of a server to the process manager under the server's own process name, see
+     * {@link ServerManager#getServerProcessName(ServerModel)}.
+     *
+     * @param serverConfig the server configuration
+     * @param jvmElement the JVM configuration of the server
+     * @throws IOException if the process could not be added
+     */
+    void addServerProcess(ServerModel serverConfig, JvmElement jvmElement) throws IOException {
+        String serverName = serverConfig.getServerName();
+        String serverProcessName = ServerManager.getServerProcessName(serverConfig);
+        List<String> command = getServerLaunchCommand(serverName, serverProcessName, jvmElement, serverConfig.getSystemProperties());
+        Map<String, String> env = getServerLaunchEnvironment(jvmElement);
+        processManagerSlave.addProcess(serverProcessName, command, env, environment.getHomeDir().getAbsolutePath());
+    }
+
+    /**
+     * Add a standby server process to the process manager. The standby server boots the JVM the given configuration
+     * describes and then waits to be assigned to a server, see {@link Server#handOff(Server, Map)}.
+     *
+     * @param jvmElement the JVM configuration
+     * @param standbyProcessName the process name of the standby server
+     * @param standbyId an id for the standby server which is safe to use in a file name
+     * @param respawnPolicy the respawn policy of the standby server
+     * @return the standby server
+     * @throws IOException if the process could not be added
+     */
+    Server makeStandbyServer(JvmElement jvmElement, String standbyProcessName, String standbyId, RespawnPolicy respawnPolicy) throws IOException {
+        List<String> command = new ArrayList<String>();
+        Map<String, String> jvmProps = appendJvmLaunchCommand(jvmElement, standbyProcessName, false, "domain/servers/standby/" + standbyId + "/logs/boot.log", command);
+        appendInterprocessArgs(standbyProcessName, command);
+        command.add(CommandLineConstants.STANDBY);
+        command.add("-D" + ServerManagerEnvironment.HOME_DIR + "=" + getPropertyValue(ServerManagerEnvironment.HOME_DIR, jvmProps,
+                Collections.<String, String>emptyMap(), environment.getHomeDir().getAbsolutePath()));
+
+        processManagerSlave.addProcess(standbyProcessName, command, getServerLaunchEnvironment(jvmElement), environment.getHomeDir().getAbsolutePath());
+        return new Server(standbyProcessName, respawnPolicy);
+    }
+
+    /**
+     * Callback for when a server has started.
+     *
+     * @param serverProcessName the process name of the server
+     */
+    void serverStarted(String serverProcessName) {
+        if (classDataSharingArchives != null) {
+            classDataSharingArchives.serverStarted(serverProcessName);
+        }
+    }
+
+    /**
+     * Callback for when a server failed to start or went down.
+     *
+     * @param serverProcessName the process name of the server
+     */
+    void serverFailed(String serverProcessName) {
+        if (classDataSharingArchives != null) {
+            classDataSharingArchives.serverFailed(serverProcessName);
+        }
+    }
+
+    void shutdown() {
+        if (classDataSharingArchives != null) {
+            classDataSharingArchives.shutdown();
+        }
+    }
+
+    /**
+     * Get the system properties a standby server needs to be assigned to a server. These are the properties which
+     * are passed as arguments to main when a server is launched directly, and the server's boot log file.
+     *
+     * @param serverConfig the server configuration
+     * @param jvmElement the JVM configuration of the server
+     * @return the system properties
+     */
+    Map<String, String> getServerProperties(ServerModel serverConfig, JvmElement jvmElement) {
+        Map<String, String> properties = getServerProperties(serverConfig.getServerName(), getJvmSystemProperties(jvmElement), serverConfig.getSystemProperties());
+        properties.put(BOOT_LOG_FILE, getBootLogFile(serverConfig.getServerName()));
+        return properties;
+    }
+
+    /**
+     * Get a key identifying how the JVM of a server is launched. A standby server can only be assigned to a server
+     * whose JVM configuration has the same key.
+     *
+     * @param jvmElement the JVM configuration
+     * @return the key
+     */
+    String getJvmProfile(JvmElement jvmElement) {
+        List<String> command = new ArrayList<String>();
+        command.add(getJavaCommand(jvmElement));
+        appendJavaOptions(jvmElement, command);
+        return command + " " + getServerLaunchEnvironment(jvmElement);
+    }
+
     private List<String> getServerLaunchCommand(final String serverName, final String serverProcessName, final JvmElement jvm, final PropertiesElement systemProperties) {
         List<String> command = new ArrayList<String>();
+        Map<String, String> sysProps = appendJvmLaunchCommand(jvm, serverProcessName, true, getBootLogFile(serverName), command);
+        appendInterprocessArgs(serverProcessName, command);
+        for (Map.Entry<String, String> prop : getServerProperties(serverName, sysProps, systemProperties).entrySet()) {
+            command.add("-D" + prop.getKey() + "=" + prop.getValue());
+        }
+        return command;
+    }
+
+    private Map<String, String> appendJvmLaunchCommand(final JvmElement jvm, final String processName, final boolean recordClassList, final String bootLogFile, final List<String> command) {
 
 //      if (false) {
 //          // Example: run at high priority on *NIX
@@ -146,8 +268,12 @@ public final class ServerMaker {
 
         Map<String, String> sysProps = appendJavaOptions(jvm, command);
 
+        if (classDataSharingArchives != null) {
+            command.addAll(classDataSharingArchives.getLaunchOptions(command, processName, recordClassList));
+        }
+
         command.add("-Djava.util.logging.manager=org.jboss.logmanager.LogManager");
-        command.add("-Dorg.jboss.boot.log.file=domain/servers/" + serverName + "/logs/boot.log");
+        command.add("-D" + BOOT_LOG_FILE + "=" + bootLogFile);
         command.add("-jar");
         command.add("jboss-modules.jar");
         command.add("-mp");
@@ -156,9 +282,11 @@ public final class ServerMaker {
         command.add("org.jboss.logmanager");
         command.add("org.jboss.as.server");
 
-        appendArgsToMain(serverName, serverProcessName, sysProps, systemProperties, command);
+        return sysProps;
+    }
 
-        return command;
+    private static String getBootLogFile(String serverName) {
+        return "domain/servers/" + serverName + "/logs/boot.log";
     }
 
     private String getJavaCommand(JvmElement jvm) {
@@ -196,10 +324,7 @@ public final class ServerMaker {
             command.add("-Xmx"+ max);
         }
 
-        PropertiesElement propsEl = jvm.getSystemProperties();
-        Map<String, String> sysProps = propsEl == null ? new HashMap<String, String>() : propsEl.getProperties();
-        addStandardProperties(sysProps);
-
+        Map<String, String> sysProps = getJvmSystemProperties(jvm);
         for (Map.Entry<String, String> prop : sysProps.entrySet()) {
             StringBuilder sb = new StringBuilder("-D");
             sb.append(prop.getKey());
@@ -211,8 +336,14 @@ public final class ServerMaker {
         return sysProps;
     }
 
-    private void appendArgsToMain(final String serverName, final String serverProcessName, final Map<String, String> jvmProps, final PropertiesElement propertiesElement, final List<String> command) {
+    private Map<String, String> getJvmSystemProperties(JvmElement jvm) {
+        PropertiesElement propsEl = jvm.getSystemProperties();
+        Map<String, String> sysProps = propsEl == null ? new HashMap<String, String>() : propsEl.getProperties();
+        addStandardProperties(sysProps);
+        return sysProps;
+    }
 
+    private void appendInterprocessArgs(final String serverProcessName, final List<String> command) {
         command.add(CommandLineConstants.INTERPROCESS_PM_ADDRESS);
         command.add(communicationVariables.getProcessManagerAddress());
         command.add(CommandLineConstants.INTERPROCESS_PM_PORT);
@@ -223,7 +354,9 @@ public final class ServerMaker {
         command.add(communicationVariables.getServerManagerAddress());
         command.add(CommandLineConstants.INTERPROCESS_SM_PORT);
         command.add(communicationVariables.getServerManagerPort());
+    }
 
+    private Map<String, String> getServerProperties(final String serverName, final Map<String, String> jvmProps, final PropertiesElement propertiesElement) {
         // Pass through as args to main any sys props that are read at primordial boot
         Map<String, String> sysProps = null;
         if (propertiesElement == null) {
@@ -233,33 +366,22 @@ public final class ServerMaker {
             sysProps = propertiesElement.getProperties();
         }
 
-        StringBuilder sb = new StringBuilder("-D");
-        sb.append(ServerManagerEnvironment.HOME_DIR);
-        sb.append('=');
-        sb.append(getPropertyValue(ServerManagerEnvironment.HOME_DIR, jvmProps, sysProps, environment.getHomeDir().getAbsolutePath()));
-        command.add(sb.toString());
+        Map<String, String> serverProps = new LinkedHashMap<String, String>();
+        serverProps.put(ServerManagerEnvironment.HOME_DIR, getPropertyValue(ServerManagerEnvironment.HOME_DIR, jvmProps, sysProps, environment.getHomeDir().getAbsolutePath()));
 
         String key = "jboss.server.base.dir";  // TODO fragile! common constant between server-manager and server modules
-        sb = new StringBuilder("-D");
-        sb.append(key);
-        sb.append('=');
         File serverBaseDir = new File(environment.getDomainServersDir(), serverName);
-        sb.append(getPropertyValue(key, jvmProps, sysProps, serverBaseDir.getAbsolutePath()));
-        command.add(sb.toString());
+        serverProps.put(key, getPropertyValue(key, jvmProps, sysProps, serverBaseDir.getAbsolutePath()));
 
         // TODO fragile! common constants between server-manager and server modules
         String[] keys = {"jboss.server.config.dir", "jboss.server.config.dir",
                 "jboss.server.data.dir", "jboss.server.log.dir", "jboss.server.temp.dir"};
         for (String propkey : keys) {
             if (sysProps.containsKey(propkey)) {
-                sb = new StringBuilder("-D");
-                sb.append(propkey);
-                sb.append('=');
-                sb.append(sysProps.get(propkey));
-                command.add(sb.toString());
+                serverProps.put(propkey, sysProps.get(propkey));
             }
         }
-
+        return serverProps;
     }
 
     private static String getPropertyValue(String property, Map<String, String> jvmProps, Map<String, String> sysProps, String defaultVal) {
@@ -31,8 +31,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -44,6 +47,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import javax.xml.stream.XMLInputFactory;
 
 import org.jboss.as.domain.controller.DomainController;
+import org.jboss.as.domain.controller.ModelUpdateResponse;
+import org.jboss.as.model.AbstractDomainModelUpdate;
 import org.jboss.as.model.DomainModel;
 import org.jboss.as.model.Element;
 import org.jboss.as.model.HostModel;
@@ -55,7 +60,9 @@ import org.jboss.as.model.ServerElement;
 import org.jboss.as.model.ServerGroupDeploymentElement;
 import org.jboss.as.model.ServerGroupElement;
 import org.jboss.as.model.ServerModel;
+import org.jboss.as.model.UpdateFailedException;
 import org.jboss.as.model.socket.ServerInterfaceElement;
+import org.jboss.as.process.ProcessResourceSample;
 import org.jboss.as.process.RespawnPolicy;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommand;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommandHandler;
@@ -111,8 +118,12 @@ public class ServerManager implements ShutdownListener {
     private volatile DirectServerCommunicationListener directServerCommunicationListener;
     private HostModel hostConfig;
     private DomainModel domainConfig;
-    private DomainControllerConnection domainControllerConnection;
+    private String domainModelChangeLogId;
+    private long domainModelVersion;
+    private final AtomicBoolean domainModelResyncing = new AtomicBoolean();
+    private volatile DomainControllerConnection domainControllerConnection;
     private ServerMaker serverMaker;
+    private StandbyServerPool standbyServerPool;
     private final ServiceContainer serviceContainer = ServiceContainer.Factory.create();
     private final AtomicBoolean serversStarted = new AtomicBoolean();
     private final AtomicBoolean stopping = new AtomicBoolean();
@@ -121,6 +132,9 @@ public class ServerManager implements ShutdownListener {
 //    private final Lock hostLock = new ReentrantLock();
 //    private final Lock domainLock = new ReentrantLock();
     private final Map<String, Server> servers = Collections.synchronizedMap(new HashMap<String, Server>());
+    private final HandedOffServers handedOffServers = new HandedOffServers();
+    /** The latest resource usage samples PM sent, by process name */
+    private volatile Map<String, ProcessResourceSample> resourceUsage = Collections.emptyMap();
 
     public ServerManager(ServerManagerEnvironment environment) {
         if (environment == null) {
@@ -187,42 +201,65 @@ public class ServerManager implements ShutdownListener {
     private void initializeServerMaker() {
         CommunicationVariables variables = new CommunicationVariables(environment, this);
         this.serverMaker = new ServerMaker(environment, processManagerSlave, processManagerCommmandHandler, variables);
+        this.standbyServerPool = new StandbyServerPool(serverMaker, processManagerSlave, environment.getStandbyServers());
     }
 
     public void startServers() {
-        for (ServerElement serverEl : hostConfig.getServers()) {
-            // TODO take command line input on what servers to start
-            if (serverEl.isStart()) {
-                log.info("Starting server " + serverEl.getName());
-                ServerModel serverConf = new ServerModel(domainConfig, hostConfig, serverEl.getName());
-                JvmElement jvmElement = getServerJvmElement(domainConfig, hostConfig, serverEl.getName());
-                try {
-
-                    Server server = serverMaker.makeServer(serverConf, jvmElement, getRespawnPolicy(serverConf));
-                    servers.put(getServerProcessName(serverConf), server);
-                    // Now that the server is in the servers map we can start it
-                    startServer(serverConf, server);
-                } catch (IOException e) {
-                    // FIXME handle failure to start server
-                    log.error("Failed to start server " + serverEl.getName(), e);
+        // Deployments are fetched in parallel and each server is started as soon as all of its content is local
+        final DeploymentContentFetcher fetcher = new DeploymentContentFetcher(fileRepository,
+                domainControllerConnection.getRemoteFileRepository(), environment.getDeploymentFetchThreads());
+        final List<JvmElement> jvmElements = new ArrayList<JvmElement>();
+        try {
+            for (ServerElement serverEl : hostConfig.getServers()) {
+                // TODO take command line input on what servers to start
+                if (serverEl.isStart()) {
+                    log.info("Starting server " + serverEl.getName());
+                    ServerModel serverConf = new ServerModel(domainConfig, hostConfig, serverEl.getName());
+                    JvmElement jvmElement = getServerJvmElement(domainConfig, hostConfig, serverEl.getName());
+                    jvmElements.add(jvmElement);
+                    try {
+
+                        Server server = serverMaker.makeServer(serverConf, jvmElement, getRespawnPolicy(serverConf));
+                        servers.put(getServerProcessName(serverConf), server);
+                        // Now that the server is in the servers map we can start it
+                        startServer(serverConf, server, fetcher);
+                    } catch (IOException e) {
+                        // FIXME handle failure to start server
+                        log.error("Failed to start server " + serverEl.getName(), e);
+                    }
                 }
+                else log.info("Server " + serverEl.getName() + " is configured to not be started");
             }
-            else log.info("Server " + serverEl.getName() + " is configured to not be started");
+        } finally {
+            fetcher.shutdown();
+        }
+        // Standby servers are only started once the servers themselves have been started
+        for (JvmElement jvmElement : jvmElements) {
+            standbyServerPool.ensure(jvmElement);
         }
     }
 
-    private void startServer(final ServerModel serverModel, final Server server) throws IOException {
+    private void startServer(final ServerModel serverModel, final Server server, final DeploymentContentFetcher fetcher) {
         // We need to make sure we have all the deployments locally
         final Set<ServerGroupDeploymentElement> deployments = serverModel.getDeployments();
-        final FileRepository localFileRepository = this.fileRepository;
-        final FileRepository dcFileRepository = this.domainControllerConnection.getRemoteFileRepository();
+        final List<String> deploymentPaths = new ArrayList<String>(deployments.size());
         for(ServerGroupDeploymentElement deployment : deployments) {
-            final String deploymentPath = generateDeploymentPath(deployment);
-            if(!localFileRepository.getDeploymentFile(deploymentPath).exists() && !dcFileRepository.getDeploymentFile(deploymentPath).exists()) {
-                throw new RuntimeException("Unable to get content for deployment [" + deployment.getRuntimeName() + "] from domain controller ");
-            }
+            deploymentPaths.add(generateDeploymentPath(deployment));
         }
-        processManagerSlave.startProcess(server.getServerProcessName());
+        fetcher.fetch(deploymentPaths, new DeploymentContentFetcher.Callback() {
+            public void contentAvailable() {
+                try {
+                    processManagerSlave.startProcess(server.getServerProcessName());
+                } catch (IOException e) {
+                    // FIXME handle failure to start server
+                    log.error("Failed to start server " + server.getServerProcessName(), e);
+                }
+            }
+
+            public void contentUnavailable(final Collection<String> deploymentPaths) {
+                log.errorf("Unable to get content for deployments %s from domain controller, not starting server %s", deploymentPaths, server.getServerProcessName());
+            }
+        });
     }
 
     private String generateDeploymentPath(final ServerGroupDeploymentElement deployment) {
@@ -275,7 +312,7 @@ public class ServerManager implements ShutdownListener {
         if (stopping.get())
             return;
 
-        Server server = servers.get(processName);
+        Server server = getServer(processName);
 
         if (server == null) {
             log.errorf("No server called %s with a closed connection", processName);
@@ -307,7 +344,11 @@ public class ServerManager implements ShutdownListener {
      */
     void availableServer(String serverName) {
         try {
-            Server server = servers.get(serverName);
+            if (standbyServerPool.getStandby(serverName) != null) {
+                standbyServerPool.availableStandby(serverName);
+                return;
+            }
+            Server server = getServerByProcessName(serverName);
             if (server == null) {
                 log.errorf("No server called %s available", serverName);
                 return;
@@ -332,6 +373,12 @@ public class ServerManager implements ShutdownListener {
         }
 
         log.info("Stopping ServerManager");
+        if (standbyServerPool != null) {
+            standbyServerPool.shutdown();
+        }
+        if (serverMaker != null) {
+            serverMaker.shutdown();
+        }
         directServerCommunicationListener.shutdown();
         if(domainControllerConnection != null) {
             domainControllerConnection.unregister();
@@ -349,7 +396,7 @@ public class ServerManager implements ShutdownListener {
         if (stopping.get())
             return;
 
-        Server server = servers.get(serverName);
+        Server server = getServerByProcessName(serverName);
         if (server == null) {
             log.errorf("No server called %s exists for stop", serverName);
             return;
@@ -378,13 +425,14 @@ public class ServerManager implements ShutdownListener {
      * @param serverName the name of the server
      */
     void startedServer(String serverName) {
-        Server server = servers.get(serverName);
+        Server server = getServerByProcessName(serverName);
         if (server == null) {
             log.errorf("No server called %s exists for start", serverName);
             return;
         }
         checkState(server, ServerState.STARTING);
         server.setState(ServerState.STARTED);
+        serverMaker.serverStarted(serverName);
     }
 
     /**
@@ -393,7 +441,7 @@ public class ServerManager implements ShutdownListener {
      * @param serverName the name of the server
      */
     void failedStartServer(String serverName) {
-        Server server = servers.get(serverName);
+        Server server = getServerByProcessName(serverName);
         if (server == null) {
             log.errorf("No server called %s exists", serverName);
             return;
@@ -404,7 +452,7 @@ public class ServerManager implements ShutdownListener {
     }
 
     void reconnectedServer(String serverName, ServerState state) {
-        Server server = servers.get(serverName);
+        Server server = getServerByProcessName(serverName);
         if (server == null) {
             log.errorf("No server found for reconnected server %s", serverName);
             return;
@@ -423,6 +471,8 @@ public class ServerManager implements ShutdownListener {
     }
 
     private void respawn(Server server){
+        server.deleteModelSnapshot();
+        serverMaker.serverFailed(server.getServerProcessName());
         try {
             processManagerSlave.stopProcess(server.getServerProcessName());
         } catch (IOException e) {
@@ -438,12 +488,27 @@ public class ServerManager implements ShutdownListener {
             } catch (IOException e) {
                 log.errorf(e, "Error stopping respawned server % s", server.getServerProcessName());
             }
+            if (server.isHandedOff()) {
+                handedOffServers.reclaim(getServerProcessName(server.getServerConfig()));
+                server.reclaim();
+            }
             return;
         }
 
         //TODO JBAS-8390 Put in actual sleep
         //Thread.sleep(timeout);
 
+        if (handOffToStandby(server)) {
+            return;
+        }
+
+        try {
+            readdServerProcess(server);
+        } catch (IOException e) {
+            log.errorf(e, "Error respawning server % s", server.getServerProcessName());
+            return;
+        }
+
         try {
             server.setState(ServerState.BOOTING);
             processManagerSlave.startProcess(server.getServerProcessName());
@@ -452,8 +517,69 @@ public class ServerManager implements ShutdownListener {
         }
     }
 
+    /**
+     * Replace a failed server by a standby server with the same JVM configuration, if one is available.
+     *
+     * @param server the failed server
+     * @return <code>true</code> if the server was handed off to a standby server
+     */
+    private boolean handOffToStandby(Server server) {
+        final ServerModel serverConfig = server.getServerConfig();
+        final JvmElement jvmElement = getServerJvmElement(getDomainModel(), hostConfig, serverConfig.getServerName());
+        final Server standby = standbyServerPool.take(jvmElement);
+        if (standby == null) {
+            return false;
+        }
+
+        final String failedProcessName = server.getServerProcessName();
+        try {
+            processManagerSlave.removeProcess(failedProcessName);
+        } catch (IOException e) {
+            log.errorf(e, "Could not remove failed server %s", failedProcessName);
+        }
+        server.handOff(standby, serverMaker.getServerProperties(serverConfig, jvmElement));
+        handedOffServers.handedOff(getServerProcessName(serverConfig), server.getServerProcessName());
+        log.infof("Server %s was handed off to standby server %s", serverConfig.getServerName(), server.getServerProcessName());
+
+        server.setState(ServerState.AVAILABLE);
+        try {
+            server.start();
+            server.setState(ServerState.STARTING);
+        } catch (IOException e) {
+            log.errorf(e, "Could not start server %s", server.getServerProcessName());
+        }
+        return true;
+    }
+
+    /**
+     * Add the process of a server to the process manager again before it is respawned, rather than restarting the
+     * command it was added with.  The new command picks up any class data sharing archive created since, and a server
+     * that was handed off to a standby server gets its own process back.
+     *
+     * @param server the server
+     * @throws IOException if the process could not be added
+     */
+    private void readdServerProcess(Server server) throws IOException {
+        final ServerModel serverConfig = server.getServerConfig();
+        final String failedProcessName = server.getServerProcessName();
+        if (server.isHandedOff()) {
+            handedOffServers.reclaim(getServerProcessName(serverConfig));
+            server.reclaim();
+        }
+        try {
+            processManagerSlave.removeProcess(failedProcessName);
+        } catch (IOException e) {
+            log.errorf(e, "Could not remove failed server %s", failedProcessName);
+        }
+        serverMaker.addServerProcess(serverConfig, getServerJvmElement(getDomainModel(), hostConfig, serverConfig.getServerName()));
+    }
+
     public void downServer(String downServerName) {
-        Server server = servers.get(downServerName);
+        if (standbyServerPool.getStandby(downServerName) != null) {
+            standbyServerPool.downStandby(downServerName);
+            return;
+        }
+        Server server = getServerByProcessName(downServerName);
         if (server == null) {
             log.errorf("No server called %s exists", downServerName);
             return;
@@ -643,7 +769,9 @@ public class ServerManager implements ShutdownListener {
      * @param domain The domain configuration
      */
     public void setDomain(final DomainModel domain) {
-        this.domainConfig = domain;
+        synchronized (this) {
+            this.domainConfig = domain;
+        }
         if(serversStarted.compareAndSet(false, true)) {
             if (!environment.isRestart()) {
                 startServers();
@@ -653,6 +781,129 @@ public class ServerManager implements ShutdownListener {
         }
     }
 
+    synchronized DomainModel getDomainModel() {
+        return domainConfig;
+    }
+
+    synchronized String getDomainModelChangeLogId() {
+        return domainModelChangeLogId;
+    }
+
+    synchronized long getDomainModelVersion() {
+        return domainModelVersion;
+    }
+
+    synchronized void setDomainModel(final DomainModel domain, final String changeLogId, final long version) {
+        this.domainConfig = domain;
+        setDomainModelVersion(changeLogId, version);
+    }
+
+    /**
+     * Set the domain controller change log position the current domain reflects.
+     *
+     * @param changeLogId The id of the domain controller change log, or {@code null} if the position is not known
+     * @param version The domain model version
+     */
+    public synchronized void setDomainModelVersion(final String changeLogId, final long version) {
+        this.domainModelChangeLogId = changeLogId;
+        this.domainModelVersion = version;
+    }
+
+    /**
+     * Apply a list of updates to the domain model through the domain controller, which records them in its change
+     * log and pushes them to all registered server managers.
+     *
+     * @param updates The updates to apply
+     * @return A list of response objects to reflect the result of each update applied.
+     */
+    public List<ModelUpdateResponse<?>> updateDomainModel(final List<AbstractDomainModelUpdate<?>> updates) {
+        final DomainControllerConnection connection = domainControllerConnection;
+        if(connection == null) {
+            throw new IllegalStateException("Not connected to a domain controller");
+        }
+        return connection.applyDomainModelUpdates(updates);
+    }
+
+    /**
+     * Apply a list of domain model updates recorded by the domain controller to the current domain.  Updates this
+     * server manager already holds, as the domain controller may push updates which were also returned on
+     * registration, are not applied again.  If updates are missing between the version this server manager holds
+     * and the first of the updates, none of them are applied and the full domain model is requested from the domain
+     * controller instead.
+     *
+     * @param updates The updates to apply
+     * @param changeLogId The id of the domain controller change log which recorded the updates
+     * @param version The domain model version once all the updates are applied
+     * @return A list of response objects to reflect the result of each update applied.
+     */
+    public synchronized List<ModelUpdateResponse<?>> applyDomainModelUpdates(final List<AbstractDomainModelUpdate<?>> updates, final String changeLogId, final long version) {
+        final List<ModelUpdateResponse<?>> responses = new ArrayList<ModelUpdateResponse<?>>(updates.size());
+        final boolean sameChangeLog = changeLogId.equals(domainModelChangeLogId);
+        final long firstVersion = version - updates.size() + 1;
+        if(!updates.isEmpty() && (!sameChangeLog || firstVersion > domainModelVersion + 1)) {
+            final UpdateFailedException failure = new UpdateFailedException("Domain model updates from version " + firstVersion
+                    + " do not follow the held version " + domainModelVersion + ", the full domain model is required");
+            for(int i = 0; i < updates.size(); i++) {
+                responses.add(new ModelUpdateResponse<Void>(failure));
+            }
+            log.warnf("Missing domain model updates before version %d, held version is %d of change log %s", firstVersion, domainModelVersion, domainModelChangeLogId);
+            resyncDomainModel();
+            return responses;
+        }
+        long updateVersion = firstVersion;
+        for(AbstractDomainModelUpdate<?> update : updates) {
+            if(sameChangeLog && updateVersion <= domainModelVersion) {
+                responses.add(ModelUpdateResponse.applied());
+            } else {
+                responses.add(applyDomainModelUpdate(update));
+            }
+            updateVersion++;
+        }
+        if(domainConfig != null && (!sameChangeLog || version > domainModelVersion)) {
+            setDomainModelVersion(changeLogId, version);
+        }
+        return responses;
+    }
+
+    private <R> ModelUpdateResponse<R> applyDomainModelUpdate(final AbstractDomainModelUpdate<R> update) {
+        if(domainConfig == null) {
+            return new ModelUpdateResponse<R>(new UpdateFailedException("No domain model to apply update to"));
+        }
+        try {
+            domainConfig.update(update);
+            return ModelUpdateResponse.applied();
+        } catch (UpdateFailedException e) {
+            return new ModelUpdateResponse<R>(e);
+        }
+    }
+
+    /**
+     * Register with the domain controller again, requesting the full domain model.  This is done from another thread
+     * as it is triggered while handling a request from the domain controller.
+     */
+    private void resyncDomainModel() {
+        // Updates pushed until the full domain model is received are rejected as well
+        domainModelChangeLogId = null;
+        domainModelVersion = 0L;
+        final DomainControllerConnection connection = domainControllerConnection;
+        if(connection == null || !domainModelResyncing.compareAndSet(false, true)) {
+            return;
+        }
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    setDomain(connection.register());
+                } catch (RuntimeException e) {
+                    log.errorf(e, "Failed to request the full domain model from the domain controller");
+                } finally {
+                    domainModelResyncing.set(false);
+                }
+            }
+        }, "Server Manager Domain Model Resync");
+        t.start();
+    }
+
     /**
      * Combines information from the domain, server group, host and server levels
      * to come up with an overall JVM configuration for a server.
@@ -695,7 +946,12 @@ public class ServerManager implements ShutdownListener {
     }
 
     Server getServer(String name) {
-        return servers.get(name);
+        final Server server = getServerByProcessName(name);
+        return server != null ? server : standbyServerPool.getStandby(name);
+    }
+
+    private Server getServerByProcessName(String processName) {
+        return servers.get(handedOffServers.getServerProcessName(processName));
     }
 
     static String getServerProcessName(ServerModel serverConfig) {
@@ -719,6 +975,24 @@ public class ServerManager implements ShutdownListener {
         }
     }
 
+    /**
+     * Get the resource usage of the processes, as last sampled by the process manager, so a server using too much
+     * memory or CPU can be spotted
+     *
+     * @return the latest sample of each process, by process name as in {@link #getServers()}
+     */
+    public Map<String, ProcessResourceSample> getResourceUsage() {
+        return resourceUsage;
+    }
+
+    private void updateResourceUsage(List<ProcessResourceSample> samples) {
+        final Map<String, ProcessResourceSample> usage = new HashMap<String, ProcessResourceSample>(samples.size());
+        for (ProcessResourceSample sample : samples) {
+            usage.put(sample.getProcessName(), sample);
+        }
+        resourceUsage = Collections.unmodifiableMap(usage);
+    }
+
     DirectServerCommunicationListener getDirectServerCommunicationListener() {
         return directServerCommunicationListener;
     }
@@ -778,6 +1052,11 @@ public class ServerManager implements ShutdownListener {
             ServerManager.this.downServer(serverName);
         }
 
+        @Override
+        public void handleResourceUsage(List<ProcessResourceSample> samples) {
+            ServerManager.this.updateResourceUsage(samples);
+        }
+
 //        public void registerServer(String serverName, Server server) {
 //            if (serverName == null) {
 //                throw new IllegalArgumentException("serverName is null");
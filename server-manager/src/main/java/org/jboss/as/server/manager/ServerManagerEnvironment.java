@@ -93,6 +93,46 @@ public class ServerManagerEnvironment {
      */
     public static final String DOMAIN_TEMP_DIR = "jboss.domain.temp.dir";
 
+    /**
+     * Constant that holds the name of the environment property
+     * for specifying the number of deployments the server manager
+     * fetches from the domain controller in parallel when starting
+     * servers.
+     *
+     * <p>Defaults to <tt>4</tt> .
+     */
+    public static final String DEPLOYMENT_FETCH_THREADS = "jboss.domain.deployment.fetch.threads";
+
+    private static final int DEFAULT_DEPLOYMENT_FETCH_THREADS = 4;
+
+    /**
+     * Constant that holds the name of the environment property
+     * for specifying the number of idle standby servers the server
+     * manager keeps started for each JVM configuration its servers
+     * use, so a failed server can be replaced without a cold start.
+     *
+     * <p>Defaults to <tt>0</tt> .
+     */
+    public static final String STANDBY_SERVERS = "jboss.domain.standby.servers";
+
+    /**
+     * Constant that holds the name of the environment property
+     * for specifying whether the server manager maintains class data
+     * sharing archives for the JVM configurations its servers use.
+     * Requires server JVMs which support application class data
+     * sharing class lists.
+     *
+     * <p>Servers are launched with <tt>-jar jboss-modules.jar</tt>,
+     * so an archive only holds the JDK classes and the jboss-modules
+     * classes a server loads from the class path.  MSC, the server
+     * and the subsystems are loaded by module class loaders and are
+     * not in the archive, which only shortens the part of the boot
+     * time spent loading those JDK and jboss-modules classes.
+     *
+     * <p>Defaults to <tt>false</tt> .
+     */
+    public static final String CLASS_DATA_SHARING = "jboss.domain.class.data.sharing";
+
     private final Properties props;
     private final String processName;
     private final InetAddress processManagerAddress;
@@ -109,6 +149,9 @@ public class ServerManagerEnvironment {
     private final File domainServersDir;
     private final File domainTempDir;
     private final File defaultJVM;
+    private final int deploymentFetchThreads;
+    private final int standbyServers;
+    private final boolean classDataSharing;
     private final boolean isRestart;
 
     private final InputStream stdin;
@@ -229,6 +272,36 @@ public class ServerManagerEnvironment {
         } else {
             this.defaultJVM = null;
         }
+
+        final String fetchThreads = props.getProperty(DEPLOYMENT_FETCH_THREADS, null);
+        if (fetchThreads != null) {
+            try {
+                this.deploymentFetchThreads = Integer.parseInt(fetchThreads.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + DEPLOYMENT_FETCH_THREADS + ": " + fetchThreads);
+            }
+            if (this.deploymentFetchThreads < 1) {
+                throw new IllegalArgumentException(DEPLOYMENT_FETCH_THREADS + " must be at least 1");
+            }
+        } else {
+            this.deploymentFetchThreads = DEFAULT_DEPLOYMENT_FETCH_THREADS;
+        }
+
+        final String standby = props.getProperty(STANDBY_SERVERS, null);
+        if (standby != null) {
+            try {
+                this.standbyServers = Integer.parseInt(standby.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + STANDBY_SERVERS + ": " + standby);
+            }
+            if (this.standbyServers < 0) {
+                throw new IllegalArgumentException(STANDBY_SERVERS + " must not be negative");
+            }
+        } else {
+            this.standbyServers = 0;
+        }
+
+        this.classDataSharing = Boolean.parseBoolean(props.getProperty(CLASS_DATA_SHARING, "false").trim());
     }
 
     /**
@@ -357,6 +430,33 @@ public class ServerManagerEnvironment {
         return defaultJVM;
     }
 
+    /**
+     * Gets the number of deployments to fetch from the domain controller in parallel.
+     *
+     * @return the number of fetch threads
+     */
+    public int getDeploymentFetchThreads() {
+        return deploymentFetchThreads;
+    }
+
+    /**
+     * Gets the number of standby servers to keep started for each JVM configuration.
+     *
+     * @return the number of standby servers, <code>0</code> if none are used
+     */
+    public int getStandbyServers() {
+        return standbyServers;
+    }
+
+    /**
+     * Gets whether class data sharing archives are used for the servers.
+     *
+     * @return <code>true</code> if class data sharing archives are used
+     */
+    public boolean isClassDataSharing() {
+        return classDataSharing;
+    }
+
     private static InetAddress findLocalhost() {
         // FIXME implement findLocalhost
         throw new UnsupportedOperationException("implement me");
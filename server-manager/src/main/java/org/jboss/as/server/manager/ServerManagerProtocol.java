@@ -23,6 +23,7 @@ package org.jboss.as.server.manager;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -58,6 +59,18 @@ public class ServerManagerProtocol {
             }
         },
 
+        /**
+         * Message sent from ServerManager to Server containing the path and hash of a file holding a snapshot of a
+         * {@link org.jboss.as.model.ServerModel}, see {@link ServerManagerProtocolUtils#writeSnapshot(Object, java.io.File)}
+         */
+        START_SERVER_SNAPSHOT((byte)4, true) {
+
+            @Override
+            public void handleCommand(ServerManagerToServerCommandHandler handler, Command<ServerManagerToServerProtocolCommand> cmd) throws IOException, ClassNotFoundException {
+                handler.handleStartServer(ServerManagerProtocolUtils.readSnapshotCommandData(ServerModel.class, cmd));
+            }
+        },
+
         /** Message sent from ServerManager to Server. No data */
         STOP_SERVER((byte)2) {
 
@@ -65,6 +78,19 @@ public class ServerManagerProtocol {
             public void handleCommand(ServerManagerToServerCommandHandler handler, Command<ServerManagerToServerProtocolCommand> cmd) {
                 handler.handleStopServer();
             }
+        },
+
+        /**
+         * Message sent from ServerManager to a standby Server containing a {@code Map} of the system properties of the
+         * server it is assigned to. Always followed by {@link #START_SERVER}
+         */
+        ASSIGN_SERVER((byte)3, true) {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleCommand(ServerManagerToServerCommandHandler handler, Command<ServerManagerToServerProtocolCommand> cmd) throws IOException, ClassNotFoundException {
+                handler.handleAssignServer(ServerManagerProtocolUtils.unmarshallCommandData(Map.class, cmd));
+            }
         };
 
 
@@ -73,6 +99,8 @@ public class ServerManagerProtocol {
             Map<Byte, ServerManagerToServerProtocolCommand> cmds = new HashMap<Byte, ServerManagerToServerProtocolCommand>();
             cmds.put(START_SERVER.getId(), START_SERVER);
             cmds.put(STOP_SERVER.getId(), STOP_SERVER);
+            cmds.put(ASSIGN_SERVER.getId(), ASSIGN_SERVER);
+            cmds.put(START_SERVER_SNAPSHOT.getId(), START_SERVER_SNAPSHOT);
             COMMANDS = Collections.unmodifiableMap(cmds);
         }
 
@@ -92,6 +120,10 @@ public class ServerManagerProtocol {
             return id;
         }
 
+        boolean hasData() {
+            return hasData;
+        }
+
         public byte[] createCommandBytes(byte[] data) throws IOException{
             int length = data == null ? 0 : data.length;
             if (length == 0 && hasData)
@@ -115,10 +147,10 @@ public class ServerManagerProtocol {
         }
 
         public static Command<ServerManagerToServerProtocolCommand> readCommand(byte[] bytes) throws IOException {
-            ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-            byte command = (byte)in.read();
-            byte[] data = bytes.length > 1 ? Arrays.copyOfRange(bytes, 1, bytes.length) : Command.NO_DATA;
-            return new Command<ServerManagerToServerProtocolCommand>(ServerManagerToServerProtocolCommand.parse(command), data);
+            if (bytes.length == 0)
+                throw new IOException("No command");
+            // The data is read in place, following the command id
+            return new Command<ServerManagerToServerProtocolCommand>(ServerManagerToServerProtocolCommand.parse(bytes[0]), bytes, 1);
         }
 
         public abstract void handleCommand(ServerManagerToServerCommandHandler handler, Command<ServerManagerToServerProtocolCommand> cmd) throws IOException, ClassNotFoundException;
@@ -196,6 +228,10 @@ public class ServerManagerProtocol {
             return id;
         }
 
+        boolean hasData() {
+            return hasData;
+        }
+
         public byte[] createCommandBytes(byte[] data) throws IOException{
             int length = data == null ? 0 : data.length;
             if (length == 0 && hasData)
@@ -220,10 +256,10 @@ public class ServerManagerProtocol {
 
 
         public static Command<ServerToServerManagerProtocolCommand> readCommand(byte[] bytes) throws IOException {
-            ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-            byte command = (byte)in.read();
-            byte[] data = bytes.length > 1 ? Arrays.copyOfRange(bytes, 1, bytes.length) : Command.NO_DATA;
-            return new Command<ServerToServerManagerProtocolCommand>(ServerToServerManagerProtocolCommand.parse(command), data);
+            if (bytes.length == 0)
+                throw new IOException("No command");
+            // The data is read in place, following the command id
+            return new Command<ServerToServerManagerProtocolCommand>(ServerToServerManagerProtocolCommand.parse(bytes[0]), bytes, 1);
         }
 
         public abstract void handleCommand(String sourceProcessName, ServerToServerManagerCommandHandler handler, Command<ServerToServerManagerProtocolCommand> cmd) throws IOException, ClassNotFoundException;
@@ -231,26 +267,44 @@ public class ServerManagerProtocol {
     }
 
     public static class Command<T extends Enum<?>> {
-        private static final byte[] NO_DATA = new byte[0];
-
         private final T command;
-        private final byte[] data;
+        private final byte[] bytes;
+        private final int offset;
 
-        private Command(T command, byte[] data) {
+        private Command(T command, byte[] bytes, int offset) {
             if (command == null)
                 throw new IllegalArgumentException("Null command");
-            if (data == null)
+            if (bytes == null)
                 throw new IllegalArgumentException("Null data");
             this.command = command;
-            this.data = data;
+            this.bytes = bytes;
+            this.offset = offset;
         }
 
         public T getCommand() {
             return command;
         }
 
+        /**
+         * Get a copy of the data that goes with the command.
+         *
+         * @return the data
+         */
         public byte[] getData() {
-            return data;
+            return Arrays.copyOfRange(bytes, offset, bytes.length);
+        }
+
+        int getDataLength() {
+            return bytes.length - offset;
+        }
+
+        /**
+         * Get a stream reading the data that goes with the command, without copying it.
+         *
+         * @return the stream
+         */
+        InputStream getDataStream() {
+            return new ByteArrayInputStream(bytes, offset, bytes.length - offset);
         }
     }
 
@@ -275,6 +329,7 @@ public class ServerManagerProtocol {
 
         public abstract void handleStartServer(ServerModel serverModel);
         public abstract void handleStopServer();
+        public abstract void handleAssignServer(Map<String, String> properties);
     }
 
     public abstract static class ServerToServerManagerCommandHandler {
@@ -21,10 +21,23 @@
  */
 package org.jboss.as.server.manager;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.jboss.as.server.manager.ServerManagerProtocol.Command;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerManagerToServerProtocolCommand;
@@ -45,43 +58,178 @@ import org.jboss.modules.ModuleLoadException;
  * @version $Revision: 1.1 $
  */
 public class ServerManagerProtocolUtils {
-    private static final MarshallerFactory MARSHALLER_FACTORY;
-    private static final MarshallingConfiguration CONFIG;
-    static {
+
+    /** The algorithm used to hash snapshot files */
+    static final String SNAPSHOT_DIGEST_ALGORITHM = "SHA-1";
+
+    public static byte[] createCommandBytes(ServerManagerToServerProtocolCommand protocol, Object data) throws IOException {
+        if (data == null || !protocol.hasData()) {
+            return protocol.createCommandBytes(createDataBytes(data));
+        }
+        return createCommandBytes(protocol.getId(), data);
+    }
+
+    public static byte[] createCommandBytes(ServerToServerManagerProtocolCommand protocol, Object data) throws IOException {
+        if (data == null || !protocol.hasData()) {
+            return protocol.createCommandBytes(createDataBytes(data));
+        }
+        return createCommandBytes(protocol.getId(), data);
+    }
+
+    /**
+     * Create the bytes of a {@link ServerManagerToServerProtocolCommand#START_SERVER_SNAPSHOT} style command, which
+     * only carry the location and hash of a snapshot written by {@link #writeSnapshot(Object, File)}.
+     *
+     * @param protocol the command
+     * @param file the snapshot file
+     * @param hash the hash of the snapshot file
+     * @return the command bytes
+     * @throws IOException
+     */
+    public static byte[] createSnapshotCommandBytes(ServerManagerToServerProtocolCommand protocol, File file, byte[] hash) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(baos);
+        out.writeUTF(file.getAbsolutePath());
+        out.writeByte(hash.length);
+        out.write(hash);
+        out.close();
+        return protocol.createCommandBytes(baos.toByteArray());
+    }
+
+    /**
+     * Write a snapshot of an object to a file.  The object is marshalled straight to the file rather than to memory,
+     * so the size of the snapshot does not matter to the server manager.
+     *
+     * @param data the object
+     * @param file the file
+     * @return the hash of the file
+     * @throws IOException
+     */
+    public static byte[] writeSnapshot(Object data, File file) throws IOException {
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        final MessageDigest digest = createDigest();
+        final FileOutputStream fos = new FileOutputStream(file);
         try {
-            MARSHALLER_FACTORY = Marshalling.getMarshallerFactory("river", ModuleClassLoader.forModuleName("org.jboss.marshalling.river"));
-        } catch (ModuleLoadException e) {
-            throw new RuntimeException(e);
+            final OutputStream out = new DigestOutputStream(new BufferedOutputStream(fos, 8192), digest);
+            marshall(data, out);
+            out.close();
+        } finally {
+            safeClose(fos);
         }
-        final MarshallingConfiguration config = new MarshallingConfiguration();
-        config.setClassTable(ModularClassTable.getInstance());
-        CONFIG = config;
+        return digest.digest();
     }
 
-    public static byte[] createCommandBytes(ServerManagerToServerProtocolCommand protocol, Object data) throws IOException {
-        return protocol.createCommandBytes(createDataBytes(data));
+    /**
+     * Read the object from the snapshot file a {@link ServerManagerToServerProtocolCommand#START_SERVER_SNAPSHOT}
+     * style command refers to.  The file is deleted once it has been read.
+     *
+     * @param clazz the expected type of the object
+     * @param command the command
+     * @return the object
+     * @throws IOException if the file could not be read or does not match the hash in the command
+     * @throws ClassNotFoundException
+     */
+    public static <T> T readSnapshotCommandData(Class<T> clazz, Command<?> command) throws IOException, ClassNotFoundException {
+        if (clazz == null)
+            throw new IllegalArgumentException("Null clazz");
+
+        return unmarshall(clazz, new ByteBufferInputStream(readSnapshotCommandBuffer(command)));
     }
 
-    public static byte[] createCommandBytes(ServerToServerManagerProtocolCommand protocol, Object data) throws IOException {
-        return protocol.createCommandBytes(createDataBytes(data));
+    /**
+     * Read the snapshot file a {@link ServerManagerToServerProtocolCommand#START_SERVER_SNAPSHOT} style command
+     * refers to, and check it against the hash in the command.  The file is deleted once it has been read.
+     *
+     * @param command the command
+     * @return the contents of the file
+     * @throws IOException if the file could not be read or does not match the hash in the command
+     */
+    static ByteBuffer readSnapshotCommandBuffer(Command<?> command) throws IOException {
+        if (command == null)
+            throw new IllegalArgumentException("Null command");
+        if (command.getDataLength() == 0)
+            throw new IllegalArgumentException("No data in command ");
+
+        final DataInputStream in = new DataInputStream(command.getDataStream());
+        final File file = new File(in.readUTF());
+        final byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        try {
+            return readSnapshot(file, hash);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
     }
 
-    private static byte[] createDataBytes(Object data) throws IOException {
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
-        byte[] objectBytes = null;
-        if (data != null) {
-            final Marshaller marshaller = MARSHALLER_FACTORY.createMarshaller(CONFIG);
+    /**
+     * Read a snapshot file written by {@link #writeSnapshot(Object, File)}, and check it against its hash before
+     * anything is unmarshalled from it.  The file is memory mapped where possible.
+     *
+     * @param file the file
+     * @param hash the expected hash of the file
+     * @return the contents of the file
+     * @throws IOException if the file could not be read or does not match the hash
+     */
+    static ByteBuffer readSnapshot(File file, byte[] hash) throws IOException {
+        final FileInputStream fis = new FileInputStream(file);
+        try {
+            final FileChannel channel = fis.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " is too large");
+            }
+            ByteBuffer buffer;
             try {
-                marshaller.start(Marshalling.createByteOutput(baos));
-                marshaller.writeObject(data);
-                marshaller.finish();
-                marshaller.close();
-                objectBytes = baos.toByteArray();
-            } finally {
-                safeClose(marshaller);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException e) {
+                // Not every file system supports mapping files, fall back to reading it
+                final byte[] bytes = new byte[(int) size];
+                new DataInputStream(new BufferedInputStream(fis, 8192)).readFully(bytes);
+                buffer = ByteBuffer.wrap(bytes);
             }
+            final MessageDigest digest = createDigest();
+            digest.update(buffer.duplicate());
+            if (!MessageDigest.isEqual(hash, digest.digest())) {
+                throw new IOException("Snapshot " + file + " does not match its hash");
+            }
+            return buffer;
+        } finally {
+            safeClose(fis);
+        }
+    }
+
+    private static byte[] createCommandBytes(byte id, Object data) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+        // Marshal straight after the command id, rather than copying the object bytes into the command
+        baos.write(id);
+        marshall(data, baos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] createDataBytes(Object data) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+        marshall(data, baos);
+        return baos.toByteArray();
+    }
+
+    private static void marshall(Object data, OutputStream out) throws IOException {
+        final Marshaller marshaller = MarshallingHolder.MARSHALLER_FACTORY.createMarshaller(MarshallingHolder.CONFIG);
+        try {
+            marshaller.start(Marshalling.createByteOutput(out));
+            marshaller.writeObject(data);
+            marshaller.finish();
+            marshaller.close();
+        } finally {
+            safeClose(marshaller);
         }
-        return objectBytes;
     }
 
     public static <T> T unmarshallCommandData(Class<T> clazz, Command<?> command) throws IOException, ClassNotFoundException{
@@ -90,13 +238,16 @@ public class ServerManagerProtocolUtils {
 
         if (clazz == null)
             throw new IllegalArgumentException("Null clazz");
-        if (command.getData() == null || command.getData().length == 0)
+        if (command.getDataLength() == 0)
             throw new IllegalArgumentException("No data in command ");
 
-        final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(command.getData());
-        final Unmarshaller unmarshaller = MARSHALLER_FACTORY.createUnmarshaller(CONFIG);
+        return unmarshall(clazz, command.getDataStream());
+    }
+
+    private static <T> T unmarshall(Class<T> clazz, InputStream in) throws IOException, ClassNotFoundException {
+        final Unmarshaller unmarshaller = MarshallingHolder.MARSHALLER_FACTORY.createUnmarshaller(MarshallingHolder.CONFIG);
         try {
-            unmarshaller.start(Marshalling.createByteInput(byteArrayInputStream));
+            unmarshaller.start(Marshalling.createByteInput(in));
             final T obj = unmarshaller.readObject(clazz);
             unmarshaller.finish();
             unmarshaller.close();
@@ -106,6 +257,14 @@ public class ServerManagerProtocolUtils {
         }
     }
 
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(SNAPSHOT_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to hash snapshots with " + SNAPSHOT_DIGEST_ALGORITHM + ": " + e.getMessage());
+        }
+    }
+
     private static void safeClose(final Closeable closeable) {
         if (closeable != null) try {
             closeable.close();
@@ -113,4 +272,53 @@ public class ServerManagerProtocolUtils {
             // todo: log me
         }
     }
+
+    /**
+     * Sets up the marshalling on first use, so that reading and checking snapshots does not need the modules.
+     */
+    private static final class MarshallingHolder {
+        private static final MarshallerFactory MARSHALLER_FACTORY;
+        private static final MarshallingConfiguration CONFIG;
+        static {
+            try {
+                MARSHALLER_FACTORY = Marshalling.getMarshallerFactory("river", ModuleClassLoader.forModuleName("org.jboss.marshalling.river"));
+            } catch (ModuleLoadException e) {
+                throw new RuntimeException(e);
+            }
+            final MarshallingConfiguration config = new MarshallingConfiguration();
+            config.setClassTable(ModularClassTable.getInstance());
+            CONFIG = config;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.model.JvmElement;
+import org.jboss.as.process.RespawnPolicy;
+import org.jboss.logging.Logger;
+
+/**
+ * Keeps a number of standby servers started for each JVM configuration used by the servers of this server manager.
+ * A standby server has booted its JVM and connected to the server manager, and waits to be assigned to a server.
+ * Handing a failed server off to a standby server replaces it without waiting for a new JVM to boot.
+ */
+class StandbyServerPool {
+    private static final Logger log = Logger.getLogger("org.jboss.server.manager");
+
+    private final ServerMaker serverMaker;
+    private final ProcessManagerSlave processManagerSlave;
+    private final int size;
+    private final AtomicInteger ids = new AtomicInteger();
+
+    // Guarded by this
+    private final Map<String, Profile> profiles = new HashMap<String, Profile>();
+    private final Map<String, Standby> standbys = new HashMap<String, Standby>();
+    private boolean shutdown;
+
+    /**
+     * Create a pool.
+     *
+     * @param serverMaker The server maker used to add standby servers to the process manager
+     * @param processManagerSlave The process manager connection
+     * @param size The number of standby servers to keep started for each JVM configuration
+     */
+    StandbyServerPool(final ServerMaker serverMaker, final ProcessManagerSlave processManagerSlave, final int size) {
+        this.serverMaker = serverMaker;
+        this.processManagerSlave = processManagerSlave;
+        this.size = size;
+    }
+
+    /**
+     * Make sure standby servers are started for a JVM configuration.
+     *
+     * @param jvmElement The JVM configuration
+     */
+    synchronized void ensure(final JvmElement jvmElement) {
+        if (size == 0 || shutdown) {
+            return;
+        }
+        final String key = serverMaker.getJvmProfile(jvmElement);
+        Profile profile = profiles.get(key);
+        if (profile == null) {
+            profile = new Profile(jvmElement);
+            profiles.put(key, profile);
+            fill(profile);
+        }
+    }
+
+    /**
+     * Take a standby server which is available to be assigned to a server with the given JVM configuration.  A new
+     * standby server is started in its place.
+     *
+     * @param jvmElement The JVM configuration of the server
+     * @return The standby server, or {@code null} if none is available
+     */
+    synchronized Server take(final JvmElement jvmElement) {
+        final Profile profile = profiles.get(serverMaker.getJvmProfile(jvmElement));
+        if (profile == null) {
+            return null;
+        }
+        final Server server = profile.available.poll();
+        if (server == null) {
+            return null;
+        }
+        standbys.remove(server.getServerProcessName());
+        profile.started--;
+        fill(profile);
+        return server;
+    }
+
+    /**
+     * Get a standby server which has not been taken yet.
+     *
+     * @param processName The process name
+     * @return The standby server, or {@code null} if there is no standby server with that process name
+     */
+    synchronized Server getStandby(final String processName) {
+        final Standby standby = standbys.get(processName);
+        return standby != null ? standby.server : null;
+    }
+
+    /**
+     * Callback for when a standby server has sent the SERVER_AVAILABLE message.
+     *
+     * @param processName The process name of the standby server
+     */
+    synchronized void availableStandby(final String processName) {
+        final Standby standby = standbys.get(processName);
+        if (standby == null) {
+            log.errorf("No standby server called %s available", processName);
+            return;
+        }
+        standby.server.setState(ServerState.AVAILABLE);
+        standby.profile.failures = 0;
+        standby.profile.available.add(standby.server);
+        log.debugf("Standby server %s is available", processName);
+    }
+
+    /**
+     * Callback for when the process of a standby server is down.  It is removed from the process manager and a new
+     * standby server is started, unless standby servers for its JVM configuration keep failing.
+     *
+     * @param processName The process name of the standby server
+     */
+    synchronized void downStandby(final String processName) {
+        final Standby standby = standbys.remove(processName);
+        if (standby == null) {
+            return;
+        }
+        final Profile profile = standby.profile;
+        profile.available.remove(standby.server);
+        profile.started--;
+        try {
+            processManagerSlave.stopProcess(processName);
+            processManagerSlave.removeProcess(processName);
+        } catch (IOException e) {
+            log.errorf(e, "Could not remove standby server %s", processName);
+        }
+        if (shutdown) {
+            return;
+        }
+        if (standby.server.getRespawnPolicy().getTimeOutMs(++profile.failures) < 0) {
+            log.errorf("Standby server %s failed, not starting any more standby servers for its JVM configuration", processName);
+            profile.disabled = true;
+            return;
+        }
+        log.warnf("Standby server %s failed, starting a new one", processName);
+        fill(profile);
+    }
+
+    /**
+     * Stop starting standby servers. The process manager stops the remaining ones when it shuts down.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    private void fill(final Profile profile) {
+        while (!shutdown && !profile.disabled && profile.started < size) {
+            final int id = ids.incrementAndGet();
+            final String processName = ServerMaker.STANDBY_PROCESS_NAME_PREFIX + id;
+            try {
+                final Server server = serverMaker.makeStandbyServer(profile.jvmElement, processName, String.valueOf(id), RespawnPolicy.DefaultRespawnPolicy.INSTANCE);
+                standbys.put(processName, new Standby(server, profile));
+                profile.started++;
+                processManagerSlave.startProcess(processName);
+            } catch (IOException e) {
+                log.errorf(e, "Could not start standby server %s", processName);
+                profile.disabled = true;
+            }
+        }
+    }
+
+    private static final class Profile {
+        private final JvmElement jvmElement;
+        private final Deque<Server> available = new ArrayDeque<Server>();
+        private int started;
+        private int failures;
+        private boolean disabled;
+
+        private Profile(final JvmElement jvmElement) {
+            this.jvmElement = jvmElement;
+        }
+    }
+
+    private static final class Standby {
+        private final Server server;
+        private final Profile profile;
+
+        private Standby(final Server server, final Profile profile) {
+            this.server = server;
+            this.profile = profile;
+        }
+    }
+}
@@ -22,6 +22,7 @@
 
 package org.jboss.as.server.manager.management;
 
+import java.io.EOFException;
 import java.io.IOException;
 import org.jboss.marshalling.ByteInput;
 
@@ -38,6 +39,7 @@ public class ChunkyByteInput implements ByteInput {
     public static final int CHUNK_START = 0x98;
     public static final int END = 0x99;
     private ByteInput input;
+    private final byte[] lengthBytes = new byte[4];
     private int remaining = 0;
     private boolean finished;
 
@@ -144,6 +146,15 @@ public class ChunkyByteInput implements ByteInput {
     }
 
     private int readInt() throws IOException {
-        return input.read() << 24 | (input.read() & 0xff) << 16 | (input.read() & 0xff) << 8 | (input.read() & 0xff);
+        final byte[] bytes = lengthBytes;
+        int read = 0;
+        while (read < bytes.length) {
+            final int count = input.read(bytes, read, bytes.length - read);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of stream reading chunk length");
+            }
+            read += count;
+        }
+        return bytes[0] << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
     }
 }
@@ -37,15 +37,26 @@ public class ChunkyByteOutput implements ByteOutput {
     public static final int CHUNK_START = 0x98;
     public static final int END = 0x99;
     private final ByteOutput output;
-    private final byte[] buffer;
+    private ManagementBufferPool pool;
+    private final byte[] header = new byte[5];
+    private byte[] buffer;
     private int position;
 
+    /**
+     * Create an instance writing chunks of up to the {@link ManagementBufferPool} buffer size, using a pooled buffer
+     * which is returned to the pool on close.
+     *
+     * @param output The byte output to write the chunks to
+     */
     public ChunkyByteOutput(final ByteOutput output) {
-        this(output, 8192);
+        this.output = output;
+        this.pool = ManagementBufferPool.getInstance();
+        buffer = pool.allocate();
     }
 
     public ChunkyByteOutput(final ByteOutput output, final int bufferSize) {
         this.output = output;
+        this.pool = null;
         buffer = new byte[bufferSize];
     }
 
@@ -69,22 +80,21 @@ public class ChunkyByteOutput implements ByteOutput {
     }
 
     /** {@inheritDoc} */
-    public void write(final byte[] bytes, final int off, int len) throws IOException {
-        byte[] buffer = this.buffer;
-        final int position = this.position;
-        int offSet = off;
-        while (offSet < len) {
-            int remaining = buffer.length - position;
-            int toRead = len - offSet;
-            if (toRead < remaining) {
-                System.arraycopy(bytes, offSet, buffer, position, toRead);
-                this.position = position + toRead;
-                offSet = offSet + len;
-            } else {
-                System.arraycopy(bytes, offSet, buffer, position, remaining);
-                this.position += remaining;
+    public void write(final byte[] bytes, int off, int len) throws IOException {
+        final byte[] buffer = this.buffer;
+        if (position == 0 && len >= buffer.length) {
+            // Nothing buffered, write the caller's array as a single chunk
+            writeChunk(bytes, off, len);
+            return;
+        }
+        while (len > 0) {
+            final int count = Math.min(len, buffer.length - position);
+            System.arraycopy(bytes, off, buffer, position, count);
+            position += count;
+            off += count;
+            len -= count;
+            if (position == buffer.length) {
                 flush();
-                offSet = offSet + remaining;
             }
         }
     }
@@ -95,8 +105,16 @@ public class ChunkyByteOutput implements ByteOutput {
      * @throws IOException
      */
     public void close() throws IOException {
-        flush();
-        output.write(END); // Don't close the underlying output
+        try {
+            flush();
+            output.write(END); // Don't close the underlying output
+        } finally {
+            if (pool != null) {
+                pool.release(buffer);
+                pool = null;
+                buffer = null;
+            }
+        }
     }
 
     /**
@@ -106,24 +124,21 @@ public class ChunkyByteOutput implements ByteOutput {
      * @throws IOException
      */
     public void flush() throws IOException {
-        final ByteOutput output = this.output;
         final int pos = this.position;
         if (pos > 0) {
-            output.write(CHUNK_START);
-            writeInt(pos);
-            final byte[] buffer = this.buffer;
-            output.write(buffer, 0, pos);
+            writeChunk(buffer, 0, pos);
         }
         this.position = 0;
     }
 
-    public void writeInt(final int i) throws IOException {
-        final ByteOutput output = this.output;
-        byte[] bytes = new byte[4];
-        bytes[0] = (byte) (i >> 24);
-        bytes[1] = (byte) (i >> 16);
-        bytes[2] = (byte) (i >> 8);
-        bytes[3] = (byte) i;
-        output.write(bytes);
+    private void writeChunk(final byte[] bytes, final int off, final int len) throws IOException {
+        final byte[] header = this.header;
+        header[0] = (byte) CHUNK_START;
+        header[1] = (byte) (len >> 24);
+        header[2] = (byte) (len >> 16);
+        header[3] = (byte) (len >> 8);
+        header[4] = (byte) len;
+        output.write(header);
+        output.write(bytes, off, len);
     }
 }
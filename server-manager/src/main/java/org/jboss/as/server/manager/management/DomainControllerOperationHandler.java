@@ -22,21 +22,26 @@
 
 package org.jboss.as.server.manager.management;
 
-import java.io.DataOutput;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import org.jboss.as.domain.controller.DomainController;
 import org.jboss.as.domain.controller.DomainControllerClient;
+import org.jboss.as.domain.controller.DomainModelChangeLog;
+import org.jboss.as.domain.controller.ModelUpdateResponse;
+import org.jboss.as.model.AbstractDomainModelUpdate;
+import org.jboss.as.model.DomainModel;
 import org.jboss.as.server.manager.FileRepository;
 import org.jboss.as.server.manager.RemoteDomainControllerClient;
 import static org.jboss.as.server.manager.management.ManagementUtils.expectHeader;
 import static org.jboss.as.server.manager.management.ManagementUtils.marshal;
+import static org.jboss.as.server.manager.management.ManagementUtils.unmarshal;
 import org.jboss.logging.Logger;
 import org.jboss.msc.inject.Injector;
 import org.jboss.msc.service.Service;
@@ -64,6 +69,8 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
     private DomainController domainController;
     private ScheduledExecutorService executorService;
     private FileRepository localFileRepository;
+    /** The hashes of the files sent to server managers, by absolute path */
+    private final ConcurrentMap<String, FileHash> fileHashes = new ConcurrentHashMap<String, FileHash>();
 
 
     /** {@inheritDoc} */
@@ -83,6 +90,7 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
         domainController = null;
         executorService = null;
         localFileRepository = null;
+        fileHashes.clear();
     }
 
     /** {@inheritDoc} */
@@ -119,7 +127,7 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
             throw new ManagementException("ServerManager Request failed to read command code", e);
         }
 
-        final ManagementOperation operation = operationFor(commandCode);
+        final ManagementOperation operation = operationFor(commandCode, protocolVersion);
         if (operation == null) {
             throw new ManagementException("Invalid command code " + commandCode + " received from server manager");
         }
@@ -131,14 +139,16 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
         }
     }
 
-    private ManagementOperation operationFor(final byte commandByte) {
+    private ManagementOperation operationFor(final byte commandByte, final int protocolVersion) {
         switch (commandByte) {
             case ManagementProtocol.REGISTER_REQUEST:
                 return new RegisterOperation();
             case ManagementProtocol.SYNC_FILE_REQUEST:
-                return new GetFileOperation();
+                return new GetFileOperation(protocolVersion);
             case ManagementProtocol.UNREGISTER_REQUEST:
                 return new UnregisterOperation();
+            case ManagementProtocol.APPLY_DOMAIN_MODEL_UPDATES_REQUEST:
+                return new ApplyDomainModelUpdatesOperation();
             default: {
                 return null;
             }
@@ -162,6 +172,9 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
     }
 
     private class RegisterOperation extends DomainControllerOperation {
+        private String knownChangeLogId;
+        private long knownVersion;
+        private long knownHash;
 
         public final byte getRequestCode() {
             return ManagementProtocol.REGISTER_REQUEST;
@@ -179,6 +192,11 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
                 input.readFully(addressBytes);
                 expectHeader(input, ManagementProtocol.PARAM_SERVER_MANAGER_PORT);
                 final int port = input.readInt();
+                expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_VERSION);
+                final String changeLogId = input.readUTF();
+                knownChangeLogId = changeLogId.length() > 0 ? changeLogId : null;
+                knownVersion = input.readLong();
+                knownHash = input.readLong();
                 final InetAddress address = InetAddress.getByAddress(addressBytes);
                 final DomainControllerClient client = new RemoteDomainControllerClient(serverManagerId, address, port, executorService);
                 domainController.addClient(client);
@@ -190,8 +208,34 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
 
         protected final void sendResponse(final ByteDataOutput output) throws ManagementException {
             try {
-                output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL);
-                marshal(output, domainController.getDomainModel());
+                // Hold the domain controller lock so the domain model, change log and version are consistent
+                synchronized (domainController) {
+                    final DomainModel domainModel = domainController.getDomainModel();
+                    final DomainModelChangeLog changeLog = domainController.getChangeLog();
+                    List<AbstractDomainModelUpdate<?>> updates = null;
+                    if (knownChangeLogId != null) {
+                        updates = changeLog.getUpdatesSince(knownChangeLogId, knownVersion);
+                        if (updates == null && knownHash == domainModel.elementHash()) {
+                            // The server manager already has this domain model, recorded by a previous domain controller
+                            updates = Collections.emptyList();
+                        }
+                    }
+                    output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_VERSION);
+                    output.writeUTF(changeLog.getId());
+                    output.writeLong(changeLog.getVersion());
+                    if (updates != null) {
+                        output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE_COUNT);
+                        output.writeInt(updates.size());
+                        for (AbstractDomainModelUpdate<?> update : updates) {
+                            output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE);
+                            marshal(output, update);
+                        }
+                        log.debugf("Sent %d domain model updates to registering server manager", updates.size());
+                    } else {
+                        output.writeByte(ManagementProtocol.PARAM_DOMAIN_MODEL);
+                        marshal(output, domainModel);
+                    }
+                }
             } catch (Exception e) {
                 throw new ManagementException("Unable to write domain configuration to server manager", e);
             }
@@ -213,8 +257,94 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
         }
     }
 
+    private class ApplyDomainModelUpdatesOperation extends DomainControllerOperation {
+        private List<AbstractDomainModelUpdate<?>> updates;
+
+        public final byte getRequestCode() {
+            return ManagementProtocol.APPLY_DOMAIN_MODEL_UPDATES_REQUEST;
+        }
+
+        protected final byte getResponseCode() {
+            return ManagementProtocol.APPLY_DOMAIN_MODEL_UPDATES_RESPONSE;
+        }
+
+        protected final void readRequest(final String serverManagerId, final ByteDataInput input) throws ManagementException {
+            try {
+                expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE_COUNT);
+                final int count = input.readInt();
+                updates = new ArrayList<AbstractDomainModelUpdate<?>>(count);
+                for (int i = 0; i < count; i++) {
+                    expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE);
+                    updates.add(unmarshal(input, AbstractDomainModelUpdate.class));
+                }
+                log.infof("Server manager [%s] requested domain model updates %s", serverManagerId, updates);
+            } catch (Exception e) {
+                throw new ManagementException("Unable to read domain model updates from request", e);
+            }
+        }
+
+        protected final void sendResponse(final ByteDataOutput output) throws ManagementException {
+            final List<ModelUpdateResponse<?>> responses = domainController.applyUpdates(updates);
+            try {
+                output.writeByte(ManagementProtocol.PARAM_MODEL_UPDATE_RESPONSE_COUNT);
+                output.writeInt(responses.size());
+                for (ModelUpdateResponse<?> response : responses) {
+                    output.writeByte(ManagementProtocol.PARAM_MODEL_UPDATE_RESPONSE);
+                    marshal(output, response);
+                }
+            } catch (Exception e) {
+                throw new ManagementException("Unable to send domain model update responses", e);
+            }
+        }
+    }
+
+    /**
+     * Get the hash of a file, which is only computed again once the length or modification time of the file changes.
+     *
+     * @param file The file
+     * @return The hash
+     * @throws IOException If the file can not be read
+     */
+    private byte[] getHash(final File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final FileHash cached = fileHashes.get(key);
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached.hash;
+        }
+        final byte[] hash = FileManifest.hash(file);
+        if (file.length() == length && file.lastModified() == lastModified) {
+            fileHashes.put(key, new FileHash(length, lastModified, hash));
+        } else {
+            // Changed while it was hashed
+            fileHashes.remove(key);
+        }
+        return hash;
+    }
+
+    private static final class FileHash {
+        private final long length;
+        private final long lastModified;
+        private final byte[] hash;
+
+        private FileHash(final long length, final long lastModified, final byte[] hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
     private class GetFileOperation extends DomainControllerOperation {
+        private final int protocolVersion;
         private File localPath;
+        private FileManifest manifest;
+        private int unchanged;
+        private int deltas;
+
+        private GetFileOperation(final int protocolVersion) {
+            this.protocolVersion = protocolVersion;
+        }
 
         public final byte getRequestCode() {
             return ManagementProtocol.SYNC_FILE_REQUEST;
@@ -232,6 +362,13 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
                 rootId = input.readByte();
                 expectHeader(input, ManagementProtocol.PARAM_FILE_PATH);
                 filePath = input.readUTF();
+                if (protocolVersion >= ManagementProtocol.SYNC_MANIFEST_VERSION) {
+                    expectHeader(input, ManagementProtocol.PARAM_MANIFEST);
+                    manifest = FileManifest.read(input);
+                } else {
+                    // Older server managers do not say what they hold, so every file is sent whole
+                    manifest = FileManifest.create(null);
+                }
             } catch (Exception e) {
                 throw new ManagementException("Unable to read file request attributes", e);
             }
@@ -261,61 +398,38 @@ public class DomainControllerOperationHandler implements ManagementOperationHand
                 output.writeByte(ManagementProtocol.PARAM_NUM_FILES);
                 if (localPath == null || !localPath.exists()) {
                     output.writeInt(-1);
-                } else if (localPath.isFile()) {
-                    output.writeInt(1);
-                    writeFile(localPath, output);
                 } else {
-                    final List<File> childFiles = getChildFiles(localPath);
-                    output.writeInt(childFiles.size());
-                    for (File child : childFiles) {
-                        writeFile(child, output);
+                    final List<File> files = FileManifest.getFiles(localPath);
+                    output.writeInt(files.size());
+                    for (File file : files) {
+                        writeFile(file, output);
                     }
+                    log.debugf("Sent %d of %d files for [%s], %d as delta and %d unchanged", files.size() - unchanged, files.size(), localPath, deltas, unchanged);
                 }
             } catch (Exception e) {
                 throw new ManagementException("Unable to write response to server manager", e);
             }
         }
 
-        private List<File> getChildFiles(final File base) {
-            final List<File> childFiles = new ArrayList<File>();
-            getChildFiles(base, childFiles);
-            return childFiles;
-        }
-
-        private void getChildFiles(final File base, final List<File> childFiles) {
-            for(File child : base.listFiles()) {
-                if(child.isFile()) {
-                    childFiles.add(child);
-                } else {
-                    getChildFiles(child, childFiles);
-                }
-            }
-        }
-
-        private String getRelativePath(final File parent, final File child) {
-            return child.getAbsolutePath().substring(parent.getAbsolutePath().length());
-        }
-
-        private void writeFile(final File file, final DataOutput output) throws IOException {
+        private void writeFile(final File file, final ByteDataOutput output) throws IOException {
+            final String path = FileManifest.getRelativePath(localPath, file);
+            final long length = file.length();
             output.writeByte(ManagementProtocol.FILE_START);
             output.writeByte(ManagementProtocol.PARAM_FILE_PATH);
-            output.writeUTF(getRelativePath(localPath, file));
-            output.writeByte(ManagementProtocol.PARAM_FILE_SIZE);
-            output.writeLong(file.length());
-            InputStream inputStream = null;
-            try {
-                inputStream = new FileInputStream(file);
-                byte[] buffer = new byte[8192];
-                int len;
-                while ((len = inputStream.read(buffer)) != -1) {
-                    output.write(buffer, 0, len);
-                }
-            } finally {
-                if(inputStream != null) {
-                    try {
-                        inputStream.close();
-                    } catch(IOException ignored){}
-                }
+            output.writeUTF(path);
+            final FileManifest.Entry entry = manifest.getEntry(path);
+            // Only hash the file if the length already matches
+            if (entry != null && entry.getLength() == length && entry.matches(length, getHash(file))) {
+                output.writeByte(ManagementProtocol.FILE_UNCHANGED);
+                unchanged++;
+            } else if (entry != null && entry.getBlockSize() > 0) {
+                output.writeByte(ManagementProtocol.FILE_DELTA);
+                FileTransferUtils.sendDelta(file, length, entry, output);
+                deltas++;
+            } else {
+                output.writeByte(ManagementProtocol.PARAM_FILE_SIZE);
+                output.writeLong(length);
+                FileTransferUtils.sendFile(file, length, output);
             }
             output.writeByte(ManagementProtocol.FILE_END);
         }
@@ -0,0 +1,377 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.jboss.as.server.manager.management.ManagementUtils.expectHeader;
+
+/**
+ * The content a server manager holds for a synced file or directory.  The manifest is sent along with a sync file
+ * request so the domain controller only needs to send the files which are missing or have changed.
+ * <p/>
+ * Each entry holds the length and the {@value #DIGEST_ALGORITHM} hash of a file.  Files of at least
+ * {@link #DELTA_THRESHOLD} bytes are also split into blocks with a weak rolling checksum and a strong hash per block,
+ * in the style of rsync, so the domain controller can send a changed file as a delta against the blocks the server
+ * manager already has (see {@link FileTransferUtils#sendDelta(File, long, Entry, ByteDataOutput)}).
+ */
+public final class FileManifest {
+
+    /* The algorithm used for the file and block hashes */
+    static final String DIGEST_ALGORITHM = "SHA-1";
+    static final int DIGEST_LENGTH = 20;
+
+    /* Files smaller than this are always sent whole */
+    static final long DELTA_THRESHOLD = 256 * 1024;
+    /* The block size is grown for large files so a manifest entry never holds more than MAX_BLOCKS blocks */
+    static final int MIN_BLOCK_SIZE = 8 * 1024;
+    static final int MAX_BLOCKS = 16 * 1024;
+
+    private static final FileManifest EMPTY = new FileManifest(Collections.<String, Entry>emptyMap());
+
+    private final Map<String, Entry> entries;
+
+    private FileManifest(final Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Create the manifest for a local file or directory.  A directory manifest holds an entry for each file below
+     * the directory.
+     *
+     * @param root The file or directory
+     * @return The manifest, which is empty if the root does not exist
+     * @throws IOException If a file can not be read
+     */
+    public static FileManifest create(final File root) throws IOException {
+        if (root == null || !root.exists()) {
+            return EMPTY;
+        }
+        final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (File file : getFiles(root)) {
+            final Entry entry = createEntry(getRelativePath(root, file), file);
+            entries.put(entry.getPath(), entry);
+        }
+        return new FileManifest(entries);
+    }
+
+    /**
+     * Read a manifest written by {@link #write(ByteDataOutput)}.
+     *
+     * @param input The management input
+     * @return The manifest
+     * @throws IOException If the manifest can not be read
+     * @throws ManagementException If the manifest is invalid
+     */
+    public static FileManifest read(final ByteDataInput input) throws IOException, ManagementException {
+        final int count = input.readInt();
+        if (count == 0) {
+            return EMPTY;
+        }
+        final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (int i = 0; i < count; i++) {
+            expectHeader(input, ManagementProtocol.PARAM_FILE_PATH);
+            final String path = input.readUTF();
+            expectHeader(input, ManagementProtocol.PARAM_FILE_SIZE);
+            final long length = input.readLong();
+            expectHeader(input, ManagementProtocol.PARAM_FILE_HASH);
+            final byte[] hash = new byte[DIGEST_LENGTH];
+            input.readFully(hash);
+            expectHeader(input, ManagementProtocol.PARAM_BLOCK_SIZE);
+            final int blockSize = input.readInt();
+            final int blockCount = blockSize > 0 ? getBlockCount(length, blockSize) : 0;
+            final int[] weakChecksums = new int[blockCount];
+            final byte[][] strongChecksums = new byte[blockCount][];
+            for (int j = 0; j < blockCount; j++) {
+                weakChecksums[j] = input.readInt();
+                strongChecksums[j] = new byte[DIGEST_LENGTH];
+                input.readFully(strongChecksums[j]);
+            }
+            entries.put(path, new Entry(path, length, hash, blockSize, weakChecksums, strongChecksums));
+        }
+        return new FileManifest(entries);
+    }
+
+    /**
+     * Write this manifest to a management output.
+     *
+     * @param output The management output
+     * @throws IOException If the manifest can not be written
+     */
+    public void write(final ByteDataOutput output) throws IOException {
+        output.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            output.writeByte(ManagementProtocol.PARAM_FILE_PATH);
+            output.writeUTF(entry.path);
+            output.writeByte(ManagementProtocol.PARAM_FILE_SIZE);
+            output.writeLong(entry.length);
+            output.writeByte(ManagementProtocol.PARAM_FILE_HASH);
+            output.write(entry.hash);
+            output.writeByte(ManagementProtocol.PARAM_BLOCK_SIZE);
+            output.writeInt(entry.blockSize);
+            for (int i = 0; i < entry.weakChecksums.length; i++) {
+                output.writeInt(entry.weakChecksums[i]);
+                output.write(entry.strongChecksums[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the entry for a file.
+     *
+     * @param path The path of the file relative to the manifest root, as returned by {@link #getRelativePath(File, File)}
+     * @return The entry, or {@code null} if the manifest does not hold the file
+     */
+    public Entry getEntry(final String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Get all entries in this manifest.
+     *
+     * @return The entries
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Get the files below a root.
+     *
+     * @param root The root file or directory
+     * @return The root itself if it is a file, otherwise all files below the root
+     */
+    public static List<File> getFiles(final File root) {
+        final List<File> files = new ArrayList<File>();
+        if (root.isFile()) {
+            files.add(root);
+        } else {
+            getFiles(root, files);
+        }
+        return files;
+    }
+
+    private static void getFiles(final File base, final List<File> files) {
+        final File[] children = base.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isFile()) {
+                files.add(child);
+            } else {
+                getFiles(child, files);
+            }
+        }
+    }
+
+    /**
+     * Get the path of a file relative to a root, using '/' as separator so paths match across platforms.
+     *
+     * @param root The root
+     * @param file The file
+     * @return The relative path, which is empty if the file is the root
+     */
+    public static String getRelativePath(final File root, final File file) {
+        return file.getAbsolutePath().substring(root.getAbsolutePath().length()).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Get the {@value #DIGEST_ALGORITHM} hash of a file.
+     *
+     * @param file The file
+     * @return The hash
+     * @throws IOException If the file can not be read
+     */
+    public static byte[] hash(final File file) throws IOException {
+        final MessageDigest digest = createDigest();
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final FileChannel channel = inputStream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(FileTransferUtils.CHUNK_SIZE);
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                digest.update(buffer.array(), 0, read);
+                buffer.clear();
+            }
+        } finally {
+            inputStream.close();
+        }
+        return digest.digest();
+    }
+
+    private static Entry createEntry(final String path, final File file) throws IOException {
+        final long length = file.length();
+        if (length < DELTA_THRESHOLD) {
+            return new Entry(path, length, hash(file), 0, new int[0], new byte[0][]);
+        }
+        // Hash the file and its blocks in a single pass
+        final int blockSize = getBlockSize(length);
+        final int blockCount = getBlockCount(length, blockSize);
+        final int[] weakChecksums = new int[blockCount];
+        final byte[][] strongChecksums = new byte[blockCount][];
+        final MessageDigest fileDigest = createDigest();
+        final MessageDigest blockDigest = createDigest();
+        final byte[] block = new byte[blockSize];
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final FileChannel channel = inputStream.getChannel();
+            for (int i = 0; i < blockCount; i++) {
+                final int blockLength = (int) Math.min(blockSize, length - (long) i * blockSize);
+                final ByteBuffer buffer = ByteBuffer.wrap(block, 0, blockLength);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) == -1) {
+                        throw new EOFException("File " + file + " is shorter than " + length + " bytes");
+                    }
+                }
+                fileDigest.update(block, 0, blockLength);
+                weakChecksums[i] = weakChecksum(block, 0, blockLength);
+                blockDigest.update(block, 0, blockLength);
+                strongChecksums[i] = blockDigest.digest();
+            }
+        } finally {
+            inputStream.close();
+        }
+        return new Entry(path, length, fileDigest.digest(), blockSize, weakChecksums, strongChecksums);
+    }
+
+    static int getBlockSize(final long length) {
+        return (int) Math.max(MIN_BLOCK_SIZE, (length + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    }
+
+    static int getBlockCount(final long length, final int blockSize) {
+        return (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Compute the rsync style weak checksum of a block.  The checksum of the block starting one byte later can be
+     * computed from this one with {@link #rollA(int, int, int)} and {@link #rollB(int, int, int, int)}.
+     */
+    static int weakChecksum(final byte[] bytes, final int offset, final int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            final int value = bytes[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return weakChecksum(a, b);
+    }
+
+    static int weakChecksum(final int a, final int b) {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    static int rollA(final int a, final int removed, final int added) {
+        return (a - removed + added) & 0xffff;
+    }
+
+    static int rollB(final int b, final int a, final int removed, final int blockSize) {
+        return (b - blockSize * removed + a) & 0xffff;
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Required digest algorithm " + DIGEST_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * The content of a single file.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long length;
+        private final byte[] hash;
+        private final int blockSize;
+        private final int[] weakChecksums;
+        private final byte[][] strongChecksums;
+
+        private Entry(final String path, final long length, final byte[] hash, final int blockSize, final int[] weakChecksums, final byte[][] strongChecksums) {
+            this.path = path;
+            this.length = length;
+            this.hash = hash;
+            this.blockSize = blockSize;
+            this.weakChecksums = weakChecksums;
+            this.strongChecksums = strongChecksums;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Determine whether the file has the given content.
+         *
+         * @param length The length of the content
+         * @param hash The hash of the content
+         * @return {@code true} if the file has the same length and hash
+         */
+        public boolean matches(final long length, final byte[] hash) {
+            return this.length == length && MessageDigest.isEqual(this.hash, hash);
+        }
+
+        /**
+         * Get the block size a delta for this file must use.
+         *
+         * @return The block size, or 0 if the file has no block checksums and must be sent whole
+         */
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        int getBlockCount() {
+            return weakChecksums.length;
+        }
+
+        int getBlockLength(final int index) {
+            return (int) Math.min(blockSize, length - (long) index * blockSize);
+        }
+
+        int getWeakChecksum(final int index) {
+            return weakChecksums[index];
+        }
+
+        byte[] getStrongChecksum(final int index) {
+            return strongChecksums[index];
+        }
+    }
+}
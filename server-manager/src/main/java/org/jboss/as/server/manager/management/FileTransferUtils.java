@@ -0,0 +1,436 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility class for sending files over a management connection, used to sync files from the domain controller.
+ * <p/>
+ * The file bytes are moved between the {@link FileChannel} and the management connection in large chunks through a
+ * single heap buffer, whose array is handed directly to the connection.  Management streams are framed and may be
+ * multiplexed over a shared connection (see {@link ManagementChannel}), so the file can not be handed to the socket
+ * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}; doing so would only make
+ * the JDK copy it through a temporary buffer of its own.
+ * <p/>
+ * A received file is written to a temporary file in the target directory which is renamed over the target once the
+ * transfer is complete, so a partially transferred file is never visible.  Where the platform will not rename over an
+ * existing file, the target is first moved aside and is only removed once the new content is in place, so the old
+ * content is restored if the rename fails.
+ * <p/>
+ * A file the receiving side already holds an older copy of can be sent as a delta against the blocks listed in its
+ * {@link FileManifest} entry.  The delta is a sequence of {@link ManagementProtocol#DELTA_COPY} instructions, which
+ * reference a run of blocks of the old copy, and {@link ManagementProtocol#DELTA_DATA} instructions carrying literal
+ * bytes, terminated by {@link ManagementProtocol#DELTA_END} and the hash of the new content.
+ */
+public final class FileTransferUtils {
+
+    /* The size of the chunks moved between a file and the connection */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private FileTransferUtils() {}
+
+    /**
+     * Write the first {@code length} bytes of a file to a management output.
+     *
+     * @param file The file
+     * @param length The number of bytes to write, as already announced to the receiving side
+     * @param output The management output
+     * @throws IOException If the file can not be read or is shorter than {@code length}
+     */
+    public static void sendFile(final File file, final long length, final ByteDataOutput output) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final FileChannel channel = inputStream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, Math.max(length, 1)));
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                final int read = channel.read(buffer);
+                if (read == -1) {
+                    throw new EOFException("File " + file + " is shorter than " + length + " bytes");
+                }
+                output.write(buffer.array(), 0, read);
+                remaining -= read;
+            }
+        } finally {
+            safeClose(inputStream);
+        }
+    }
+
+    /**
+     * Read {@code length} bytes from a management input into a file.  The bytes are written to a temporary file
+     * which replaces the target file once all of them have been received.
+     *
+     * @param input The management input
+     * @param length The number of bytes to read
+     * @param file The target file
+     * @throws IOException If the bytes can not be read or the file can not be written
+     */
+    public static void receiveFile(final ByteDataInput input, final long length, final File file) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final File tempFile = createTempFile(file, ".part", directory);
+        boolean complete = false;
+        try {
+            final FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                final FileChannel channel = outputStream.getChannel();
+                final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, Math.max(length, 1)));
+                long remaining = length;
+                while (remaining > 0) {
+                    final int read = input.read(buffer.array(), 0, (int) Math.min(remaining, buffer.capacity()));
+                    if (read == -1) {
+                        throw new EOFException("Did not read the entire file. Missing: " + remaining);
+                    }
+                    buffer.clear();
+                    buffer.limit(read);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    remaining -= read;
+                }
+            } finally {
+                outputStream.close();
+            }
+            rename(tempFile, file);
+            complete = true;
+        } finally {
+            if (!complete) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Write the first {@code length} bytes of a file to a management output as a delta against the content described
+     * by a manifest entry.  Blocks of the file which are found anywhere in the old content, at any offset, are sent as
+     * a reference to the old block.
+     *
+     * @param file The file
+     * @param length The number of bytes of the file to send
+     * @param base The manifest entry of the content held by the receiving side, which must have block checksums
+     * @param output The management output
+     * @throws IOException If the file can not be read or is shorter than {@code length}
+     */
+    public static void sendDelta(final File file, final long length, final FileManifest.Entry base, final ByteDataOutput output) throws IOException {
+        final int blockSize = base.getBlockSize();
+        final Map<Integer, List<Integer>> blocksByChecksum = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < base.getBlockCount(); i++) {
+            if (base.getBlockLength(i) != blockSize) {
+                continue; // The short last block is only matched at the end of the file
+            }
+            List<Integer> blocks = blocksByChecksum.get(base.getWeakChecksum(i));
+            if (blocks == null) {
+                blocks = new ArrayList<Integer>(1);
+                blocksByChecksum.put(base.getWeakChecksum(i), blocks);
+            }
+            blocks.add(Integer.valueOf(i));
+        }
+
+        final MessageDigest fileDigest = FileManifest.createDigest();
+        final MessageDigest blockDigest = FileManifest.createDigest();
+        final DeltaWriter writer = new DeltaWriter(output);
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final FileChannel channel = inputStream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(blockSize + CHUNK_SIZE);
+            final byte[] bytes = buffer.array();
+            long remaining = length;
+            // The window being matched is [start, start + blockSize), unmatched bytes from literalStart are pending
+            int start = 0;
+            int literalStart = 0;
+            int limit = 0;
+            boolean rolling = false;
+            int a = 0;
+            int b = 0;
+            for (;;) {
+                if (remaining > 0 && limit - start <= blockSize) {
+                    // Make room for more of the file, sending the pending literal bytes first
+                    writer.data(bytes, literalStart, start - literalStart);
+                    System.arraycopy(bytes, start, bytes, 0, limit - start);
+                    limit -= start;
+                    start = 0;
+                    literalStart = 0;
+                    buffer.clear();
+                    buffer.position(limit);
+                    buffer.limit((int) Math.min(buffer.capacity(), limit + remaining));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer) == -1) {
+                            throw new EOFException("File " + file + " is shorter than " + length + " bytes");
+                        }
+                    }
+                    fileDigest.update(bytes, limit, buffer.position() - limit);
+                    remaining -= buffer.position() - limit;
+                    limit = buffer.position();
+                }
+                final int available = limit - start;
+                if (available < blockSize) {
+                    // The end of the file, which can only match the short last block of the old content
+                    final int last = base.getBlockCount() - 1;
+                    if (available > 0 && last >= 0 && base.getBlockLength(last) == available
+                            && FileManifest.weakChecksum(bytes, start, available) == base.getWeakChecksum(last)
+                            && matches(blockDigest, bytes, start, available, base.getStrongChecksum(last))) {
+                        writer.data(bytes, literalStart, start - literalStart);
+                        writer.copy(last);
+                        literalStart = limit;
+                    }
+                    break;
+                }
+                if (!rolling) {
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        final int value = bytes[start + i] & 0xff;
+                        a += value;
+                        b += (blockSize - i) * value;
+                    }
+                    a &= 0xffff;
+                    b &= 0xffff;
+                    rolling = true;
+                }
+                final int match = findBlock(blocksByChecksum.get(FileManifest.weakChecksum(a, b)), base, blockDigest, bytes, start, blockSize);
+                if (match >= 0) {
+                    writer.data(bytes, literalStart, start - literalStart);
+                    writer.copy(match);
+                    start += blockSize;
+                    literalStart = start;
+                    rolling = false;
+                } else if (start + blockSize < limit) {
+                    final int removed = bytes[start] & 0xff;
+                    a = FileManifest.rollA(a, removed, bytes[start + blockSize] & 0xff);
+                    b = FileManifest.rollB(b, a, removed, blockSize);
+                    start++;
+                } else {
+                    // Nothing left to roll in, the remaining bytes are sent as they are
+                    break;
+                }
+            }
+            writer.data(bytes, literalStart, limit - literalStart);
+            writer.end(fileDigest.digest());
+        } finally {
+            safeClose(inputStream);
+        }
+    }
+
+    private static int findBlock(final List<Integer> candidates, final FileManifest.Entry base, final MessageDigest digest, final byte[] bytes, final int offset, final int length) {
+        if (candidates == null) {
+            return -1;
+        }
+        for (Integer candidate : candidates) {
+            if (matches(digest, bytes, offset, length, base.getStrongChecksum(candidate.intValue()))) {
+                return candidate.intValue();
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(final MessageDigest digest, final byte[] bytes, final int offset, final int length, final byte[] expected) {
+        digest.update(bytes, offset, length);
+        return MessageDigest.isEqual(digest.digest(), expected);
+    }
+
+    /**
+     * Read a delta written by {@link #sendDelta(File, long, FileManifest.Entry, ByteDataOutput)} and apply it to the
+     * old content.  The new content is written to a temporary file which replaces the target file once the delta has
+     * been applied and the hash of the new content has been verified.
+     *
+     * @param input The management input
+     * @param base The old content the delta was computed against, which may be the target file itself
+     * @param blockSize The block size of the manifest entry of the old content
+     * @param file The target file
+     * @throws IOException If the delta can not be read or applied, or the new content does not match its hash
+     */
+    public static void receiveDelta(final ByteDataInput input, final File base, final int blockSize, final File file) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final File tempFile = createTempFile(file, ".part", directory);
+        final MessageDigest digest = FileManifest.createDigest();
+        boolean complete = false;
+        try {
+            final FileInputStream baseStream = new FileInputStream(base);
+            try {
+                final FileOutputStream outputStream = new FileOutputStream(tempFile);
+                try {
+                    final FileChannel baseChannel = baseStream.getChannel();
+                    final FileChannel channel = outputStream.getChannel();
+                    final long baseLength = baseChannel.size();
+                    final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                    for (;;) {
+                        final byte instruction = input.readByte();
+                        if (instruction == ManagementProtocol.DELTA_END) {
+                            break;
+                        } else if (instruction == ManagementProtocol.DELTA_COPY) {
+                            final long position = (long) input.readInt() * blockSize;
+                            final long count = Math.min((long) input.readInt() * blockSize, baseLength - position);
+                            if (position < 0 || count <= 0) {
+                                throw new IOException("Invalid block reference in delta for " + file);
+                            }
+                            for (long offset = 0; offset < count;) {
+                                buffer.clear();
+                                buffer.limit((int) Math.min(buffer.capacity(), count - offset));
+                                final int read = baseChannel.read(buffer, position + offset);
+                                if (read == -1) {
+                                    throw new EOFException("File " + base + " changed while applying delta");
+                                }
+                                buffer.flip();
+                                write(buffer, channel, digest);
+                                offset += read;
+                            }
+                        } else if (instruction == ManagementProtocol.DELTA_DATA) {
+                            int remaining = input.readInt();
+                            while (remaining > 0) {
+                                final int read = input.read(buffer.array(), 0, Math.min(remaining, buffer.capacity()));
+                                if (read == -1) {
+                                    throw new EOFException("Did not read the entire delta. Missing: " + remaining);
+                                }
+                                buffer.clear();
+                                buffer.limit(read);
+                                write(buffer, channel, digest);
+                                remaining -= read;
+                            }
+                        } else {
+                            throw new IOException("Invalid delta instruction " + instruction + " for " + file);
+                        }
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                safeClose(baseStream);
+            }
+            final byte[] hash = new byte[FileManifest.DIGEST_LENGTH];
+            input.readFully(hash);
+            if (!MessageDigest.isEqual(hash, digest.digest())) {
+                throw new IOException("Content of " + file + " does not match its hash after applying delta");
+            }
+            rename(tempFile, file);
+            complete = true;
+        } finally {
+            if (!complete) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void write(final ByteBuffer buffer, final FileChannel channel, final MessageDigest digest) throws IOException {
+        digest.update(buffer.array(), 0, buffer.limit());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static File createTempFile(final File file, final String suffix, final File directory) throws IOException {
+        // The prefix must be at least three characters long
+        return File.createTempFile("." + file.getName() + ".", suffix, directory);
+    }
+
+    private static void rename(final File source, final File target) throws IOException {
+        if (source.renameTo(target)) {
+            return;
+        }
+        if (!target.exists()) {
+            throw new IOException("Unable to rename " + source + " to " + target);
+        }
+        // Some platforms will not rename over an existing file, so it is moved aside until it has been replaced
+        final File backup = createTempFile(target, ".old", target.getAbsoluteFile().getParentFile());
+        if (!backup.delete() || !target.renameTo(backup)) {
+            backup.delete();
+            throw new IOException("Unable to replace file " + target);
+        }
+        if (!source.renameTo(target)) {
+            if (!backup.renameTo(target)) {
+                throw new IOException("Unable to rename " + source + " to " + target + ", the previous content is kept in " + backup);
+            }
+            throw new IOException("Unable to rename " + source + " to " + target);
+        }
+        backup.delete();
+    }
+
+    private static void safeClose(final FileInputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Writes delta instructions, merging references to consecutive blocks into a single instruction.
+     */
+    private static final class DeltaWriter {
+        private final ByteDataOutput output;
+        private int copyStart = -1;
+        private int copyCount;
+
+        private DeltaWriter(final ByteDataOutput output) {
+            this.output = output;
+        }
+
+        void copy(final int block) throws IOException {
+            if (copyCount > 0 && copyStart + copyCount == block) {
+                copyCount++;
+                return;
+            }
+            flushCopy();
+            copyStart = block;
+            copyCount = 1;
+        }
+
+        void data(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            flushCopy();
+            output.writeByte(ManagementProtocol.DELTA_DATA);
+            output.writeInt(length);
+            output.write(bytes, offset, length);
+        }
+
+        void end(final byte[] hash) throws IOException {
+            flushCopy();
+            output.writeByte(ManagementProtocol.DELTA_END);
+            output.write(hash);
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyCount > 0) {
+                output.writeByte(ManagementProtocol.DELTA_COPY);
+                output.writeInt(copyStart);
+                output.writeInt(copyCount);
+                copyCount = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.logging.Logger;
+
+/**
+ * Pool of the buffers used by the management I/O classes.  Each thread caches one released buffer for its next
+ * allocation, and further released buffers are kept in a bounded pool shared by all threads, so bursts of management
+ * requests reuse buffers rather than allocating new ones for every request.
+ * <p/>
+ * The buffer size is set with the {@value #BUFFER_SIZE_PROPERTY} system property, and the number of buffers kept in
+ * the shared pool with the {@value #POOL_SIZE_PROPERTY} system property.
+ */
+public final class ManagementBufferPool {
+
+    public static final String BUFFER_SIZE_PROPERTY = "jboss.management.buffer.size";
+    public static final String POOL_SIZE_PROPERTY = "jboss.management.buffer.pool.size";
+
+    private static final Logger log = Logger.getLogger("org.jboss.as.management");
+    private static final int DEFAULT_BUFFER_SIZE = 16384;
+    private static final int MIN_BUFFER_SIZE = 512;
+    private static final int DEFAULT_POOL_SIZE = 64;
+
+    private static final ManagementBufferPool INSTANCE = new ManagementBufferPool(getProperty(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE, MIN_BUFFER_SIZE),
+            getProperty(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE, 0));
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ThreadLocal<byte[]> cached = new ThreadLocal<byte[]>();
+    private final Queue<byte[]> pooled = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * Create a pool.
+     *
+     * @param bufferSize The size of the buffers
+     * @param maxPooled The maximum number of buffers kept in the shared pool
+     */
+    ManagementBufferPool(final int bufferSize, final int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Get the pool used by the management I/O classes.
+     *
+     * @return The pool
+     */
+    public static ManagementBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the size of the buffers of this pool.
+     *
+     * @return The size in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Get the number of buffers this pool has had to create.
+     *
+     * @return The count
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Get a buffer.  The contents of the buffer are undefined.
+     *
+     * @return The buffer
+     */
+    public byte[] allocate() {
+        byte[] buffer = cached.get();
+        if (buffer != null) {
+            cached.set(null);
+            return buffer;
+        }
+        buffer = pooled.poll();
+        if (buffer != null) {
+            pooledCount.decrementAndGet();
+            return buffer;
+        }
+        created.incrementAndGet();
+        return new byte[bufferSize];
+    }
+
+    /**
+     * Return a buffer to the pool.  The caller must not use the buffer afterwards.  Buffers which were not allocated
+     * from this pool are ignored.
+     *
+     * @param buffer The buffer
+     */
+    public void release(final byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize) {
+            return;
+        }
+        if (cached.get() == null) {
+            cached.set(buffer);
+            return;
+        }
+        if (pooledCount.incrementAndGet() > maxPooled) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+        pooled.offer(buffer);
+    }
+
+    private static int getProperty(final String name, final int defaultValue, final int minValue) {
+        final String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int result = Integer.parseInt(value.trim());
+            if (result >= minValue) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        log.warnf("Invalid %s [%s], using [%d]", name, value, defaultValue);
+        return defaultValue;
+    }
+}
@@ -0,0 +1,805 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.jboss.logging.Logger;
+
+/**
+ * A long-lived connection carrying many concurrent management requests.  Each request is given its own
+ * {@link Stream}, whose input and output are sent over the connection as frames tagged with the request id:
+ * <pre>
+ *   CHANNEL_DATA request-id length bytes
+ *   CHANNEL_END  request-id
+ * </pre>
+ * A connection is switched to a channel by sending a {@link ManagementRequestHeader} with the
+ * {@link ManagementProtocol#MULTIPLEXED_CHANNEL_REQUEST} handler id.  Inside a stream the usual request and response
+ * headers are exchanged, so {@link ManagementOperationHandler}s work on a stream exactly as they do on a socket.  Both sides
+ * end their output of a stream with a {@code CHANNEL_END} frame once they are done with it.
+ * <p/>
+ * If the response header of the channel request advertises the configured {@link ManagementCompression} codec, the
+ * connecting side selects it with a {@code CHANNEL_COMPRESSION} frame before opening any stream.  From then on both sides
+ * send frames of at least {@link ManagementCompression#getThreshold()} bytes as
+ * <pre>
+ *   CHANNEL_DATA_COMPRESSED request-id compressed-length length bytes
+ * </pre>
+ * whenever compressing makes them smaller.  Each frame is compressed on its own, so frames of different streams can be
+ * compressed concurrently by the threads writing them.
+ * <p/>
+ * If the response header also advertises {@link ManagementProtocol#CAPABILITY_FLOW_CONTROL}, the connecting side switches
+ * the channel to flow control with a {@code CHANNEL_FLOW_CONTROL} frame.  Each side may then only have
+ * {@value #STREAM_WINDOW} data frames of a stream outstanding, and is allowed to send more once the other side has read
+ * them from the stream and sent
+ * <pre>
+ *   CHANNEL_CREDIT request-id frames
+ * </pre>
+ * A writer waits for credit rather than the thread reading the connection waiting for a slow stream, so one stream can
+ * not hold up the others.  Without flow control a stream which falls {@value #STREAM_WINDOW} frames behind fails on its
+ * own, and its further frames are discarded.
+ * <p/>
+ * Peers answering the channel request with a protocol version before {@link ManagementProtocol#CHANNEL_VERSION} do not
+ * support channels, and {@link #connect} returns {@code null} so the caller can send its requests on separate
+ * connections instead.
+ */
+public final class ManagementChannel {
+    private static final Logger log = Logger.getLogger("org.jboss.as.management");
+
+    /* The largest frame payload, sent when a stream is given a large array to write */
+    private static final int MAX_FRAME_SIZE = 65536;
+    /* The number of data frames of a stream which may be sent before the receiving side has read them */
+    private static final int STREAM_WINDOW = 64;
+    /* The number of data frames read from a stream before they are credited back to the sending side */
+    private static final int CREDIT_BATCH = STREAM_WINDOW / 4;
+    /* Marks the end of the frames of a stream */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final ManagementBufferPool bufferPool = ManagementBufferPool.getInstance();
+    private final Closeable transport;
+    private final ByteDataInput input;
+    private final ByteDataOutput output;
+    private final StreamHandler streamHandler;
+    private final long readTimeout;
+    private final ConcurrentMap<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final int compressionThreshold = ManagementCompression.getThreshold();
+    private volatile ManagementCompression compression = ManagementCompression.NONE;
+    private volatile boolean flowControl;
+    private volatile int version = ManagementProtocol.VERSION;
+    private final ThreadLocal<Boolean> batching = new ThreadLocal<Boolean>();
+    private volatile boolean closed;
+
+    private ManagementChannel(final Closeable transport, final ByteDataInput input, final ByteDataOutput output, final StreamHandler streamHandler, final long readTimeout) {
+        this.transport = transport;
+        this.input = input;
+        this.output = output;
+        this.streamHandler = streamHandler;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Connect to a remote management port and switch the connection to a channel.  The frames sent back by the remote
+     * side are read by a daemon thread owned by the channel.
+     *
+     * @param address The remote address
+     * @param connectTimeout The timeout for connecting, in milliseconds
+     * @param readTimeout The timeout for reading from a stream, in milliseconds, or 0 to wait forever
+     * @return The connected channel, or {@code null} if the remote side does not support channels
+     * @throws IOException If the connection can not be established
+     * @throws ManagementException If the remote side does not accept the channel
+     */
+    public static ManagementChannel connect(final InetSocketAddress address, final int connectTimeout, final long readTimeout) throws IOException, ManagementException {
+        return connect(address, connectTimeout, readTimeout, ManagementCompression.getConfigured());
+    }
+
+    /**
+     * Connect to a remote management port and switch the connection to a channel, compressing frames with the given
+     * codec if the remote side accepts it.
+     *
+     * @param address The remote address
+     * @param connectTimeout The timeout for connecting, in milliseconds
+     * @param readTimeout The timeout for reading from a stream, in milliseconds, or 0 to wait forever
+     * @param compression The compression codec to use
+     * @return The connected channel, or {@code null} if the remote side does not support channels
+     * @throws IOException If the connection can not be established
+     * @throws ManagementException If the remote side does not accept the channel
+     */
+    public static ManagementChannel connect(final InetSocketAddress address, final int connectTimeout, final long readTimeout, final ManagementCompression compression) throws IOException, ManagementException {
+        final Socket socket = new Socket();
+        final Closeable transport = new Closeable() {
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+        try {
+            socket.connect(address, connectTimeout);
+            socket.setSoTimeout(connectTimeout);
+            socket.setTcpNoDelay(true);
+
+            final ByteDataInput input = new SimpleByteDataInput(socket.getInputStream());
+            final ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+            new ManagementRequestHeader(ManagementProtocol.VERSION, 0, (byte) ManagementProtocol.MULTIPLEXED_CHANNEL_REQUEST).write(output);
+            output.flush();
+            final ManagementResponseHeader responseHeader = new ManagementResponseHeader(input);
+            if (responseHeader.getVersion() < ManagementProtocol.CHANNEL_VERSION) {
+                // The remote side fails the request for the unknown handler id
+                safeClose(transport);
+                return null;
+            }
+            // The channel is idle between requests, stream reads enforce the read timeout instead
+            socket.setSoTimeout(0);
+
+            final ManagementChannel channel = new ManagementChannel(transport, input, output, null, readTimeout);
+            channel.version = Math.min(responseHeader.getVersion(), ManagementProtocol.VERSION);
+            if (compression != ManagementCompression.NONE && (responseHeader.getCapabilities() & compression.getCapability()) != 0) {
+                output.writeByte(ManagementProtocol.CHANNEL_COMPRESSION);
+                output.writeInt(0);
+                output.writeByte(compression.getId());
+                channel.compression = compression;
+            }
+            if ((responseHeader.getCapabilities() & ManagementProtocol.CAPABILITY_FLOW_CONTROL) != 0) {
+                output.writeByte(ManagementProtocol.CHANNEL_FLOW_CONTROL);
+                output.writeInt(0);
+                channel.flowControl = true;
+            }
+            output.flush();
+            channel.start("Management channel to " + address);
+            return channel;
+        } catch (IOException e) {
+            safeClose(transport);
+            throw e;
+        } catch (ManagementException e) {
+            safeClose(transport);
+            throw e;
+        }
+    }
+
+    /**
+     * Create a channel on a connection accepted by a management port, once the channel request header has been
+     * answered.  The caller must then invoke {@link #start(String)} or {@link #run()} to read frames until the
+     * connection closes.
+     *
+     * @param transport The connection
+     * @param input The connection input, used to read the request header
+     * @param output The connection output, used to write the response header
+     * @param streamHandler The handler for streams opened by the remote side
+     * @return The channel
+     */
+    public static ManagementChannel accepted(final Closeable transport, final ByteDataInput input, final ByteDataOutput output, final StreamHandler streamHandler) {
+        return new ManagementChannel(transport, input, output, streamHandler, 0L);
+    }
+
+    /**
+     * Open a new stream for a request.
+     *
+     * @return The stream
+     * @throws IOException If the channel is closed
+     */
+    public Stream openStream() throws IOException {
+        if (closed) {
+            throw new IOException("Management channel is closed");
+        }
+        final int requestId = nextRequestId.incrementAndGet();
+        final Stream stream = new Stream(requestId);
+        streams.put(Integer.valueOf(requestId), stream);
+        if (closed) {
+            stream.fail();
+            throw new IOException("Management channel is closed");
+        }
+        return stream;
+    }
+
+    /**
+     * Start a batch on the calling thread.  Until {@link #endBatch()} the frames written by this thread are not flushed
+     * to the connection, so several requests can be sent together.
+     */
+    public void startBatch() {
+        batching.set(Boolean.TRUE);
+    }
+
+    /**
+     * End the batch of the calling thread and flush the frames written in it.  If they can not be flushed the channel
+     * is closed, which fails all its streams.
+     */
+    public void endBatch() {
+        batching.remove();
+        try {
+            synchronized (output) {
+                output.flush();
+            }
+        } catch (IOException e) {
+            log.debugf(e, "Failed to flush management channel batch");
+            close();
+        }
+    }
+
+    /**
+     * Get the protocol version requests sent on this channel are written for.  For a connected channel this is the
+     * lower of the current protocol version and the version the remote side answered the channel request with.
+     *
+     * @return The protocol version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Determine whether the channel is still open.
+     *
+     * @return {@code true} if the channel can open streams
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Start a daemon thread reading frames from the connection until it is closed.
+     *
+     * @param threadName The name of the thread
+     */
+    public void start(final String threadName) {
+        final Thread reader = new Thread(new Runnable() {
+            public void run() {
+                ManagementChannel.this.run();
+            }
+        }, threadName);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Read frames from the connection and hand them to their streams until the connection is closed.
+     */
+    public void run() {
+        Inflater inflater = null;
+        byte[] compressed = null;
+        try {
+            while (!closed) {
+                final byte frameType = input.readByte();
+                final int requestId = input.readInt();
+                final byte[] data;
+                switch (frameType) {
+                    case ManagementProtocol.CHANNEL_DATA: {
+                        final int length = input.readInt();
+                        if (length < 0 || length > MAX_FRAME_SIZE) {
+                            throw new ManagementException("Invalid management channel frame length " + length);
+                        }
+                        data = new byte[length];
+                        input.readFully(data);
+                        break;
+                    }
+                    case ManagementProtocol.CHANNEL_DATA_COMPRESSED: {
+                        final int compressedLength = input.readInt();
+                        final int length = input.readInt();
+                        if (compressedLength < 0 || compressedLength > length || length > MAX_FRAME_SIZE) {
+                            throw new ManagementException("Invalid management channel frame length " + compressedLength + "/" + length);
+                        }
+                        if (inflater == null) {
+                            inflater = new Inflater();
+                            compressed = new byte[MAX_FRAME_SIZE];
+                        }
+                        input.readFully(compressed, 0, compressedLength);
+                        data = new byte[length];
+                        inflater.reset();
+                        inflater.setInput(compressed, 0, compressedLength);
+                        if (inflater.inflate(data) != length || !inflater.finished()) {
+                            throw new ManagementException("Invalid compressed management channel frame");
+                        }
+                        break;
+                    }
+                    case ManagementProtocol.CHANNEL_COMPRESSION: {
+                        // Compress our own frames with the codec selected by the connecting side
+                        compression = ManagementCompression.forId(input.readByte());
+                        continue;
+                    }
+                    case ManagementProtocol.CHANNEL_FLOW_CONTROL: {
+                        flowControl = true;
+                        continue;
+                    }
+                    case ManagementProtocol.CHANNEL_CREDIT: {
+                        final int credit = input.readInt();
+                        final Stream stream = streams.get(Integer.valueOf(requestId));
+                        if (stream != null) {
+                            stream.credit(credit);
+                        }
+                        continue;
+                    }
+                    case ManagementProtocol.CHANNEL_END: {
+                        data = END_OF_STREAM;
+                        break;
+                    }
+                    default: {
+                        throw new ManagementException("Invalid management channel frame type " + frameType);
+                    }
+                }
+                final Stream stream = streamFor(requestId);
+                if (stream != null) {
+                    stream.receive(data);
+                }
+            }
+        } catch (DataFormatException e) {
+            log.errorf(e, "Invalid compressed management channel frame");
+        } catch (Exception e) {
+            if (!closed) {
+                log.debugf(e, "Management channel closed");
+            }
+        } finally {
+            close();
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Close the channel.  All open streams fail with an {@code IOException}.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        safeClose(transport);
+        for (Stream stream : streams.values()) {
+            stream.fail();
+        }
+        streams.clear();
+    }
+
+    private Stream streamFor(final int requestId) {
+        final Integer key = Integer.valueOf(requestId);
+        Stream stream = streams.get(key);
+        // Streams are only ever opened by the remote side of an accepted channel.  A stream stays registered until both
+        // sides have ended it, so an unknown id is always a new stream.
+        if (stream == null && streamHandler != null) {
+            stream = new Stream(requestId);
+            streams.put(key, stream);
+            streamHandler.handleStream(stream);
+        }
+        return stream;
+    }
+
+    private void writeFrame(final int frameType, final int requestId, final byte[] data, final int offset, final int length) throws IOException {
+        writeFrame(frameType, requestId, data, offset, length, -1);
+    }
+
+    private void writeCredit(final int requestId, final int credit, final boolean flush) throws IOException {
+        if (closed) {
+            throw new IOException("Management channel is closed");
+        }
+        try {
+            synchronized (output) {
+                output.writeByte(ManagementProtocol.CHANNEL_CREDIT);
+                output.writeInt(requestId);
+                output.writeInt(credit);
+                if (flush) {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void writeFrame(final int frameType, final int requestId, final byte[] data, final int offset, final int length, final int uncompressedLength) throws IOException {
+        if (closed) {
+            throw new IOException("Management channel is closed");
+        }
+        try {
+            synchronized (output) {
+                output.writeByte(frameType);
+                output.writeInt(requestId);
+                if (data != null) {
+                    output.writeInt(length);
+                    if (uncompressedLength >= 0) {
+                        output.writeInt(uncompressedLength);
+                    }
+                    output.write(data, offset, length);
+                }
+                if (batching.get() == null) {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static void safeClose(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Handler for streams opened by the remote side of a channel.
+     */
+    public interface StreamHandler {
+        /**
+         * Handle a new stream.  Called by the thread reading the channel, so implementations should hand the stream off
+         * to another thread rather than reading from it.
+         *
+         * @param stream The stream
+         */
+        void handleStream(Stream stream);
+    }
+
+    /**
+     * The input and output for a single request on a channel.
+     */
+    public final class Stream {
+        private final int requestId;
+        /* Bounded by the window of the sending side, or by failing the stream without flow control */
+        private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+        private final ByteDataInput dataInput;
+        private final StreamOutputStream streamOutput;
+        private final ByteDataOutput dataOutput;
+        private final AtomicBoolean readyFired = new AtomicBoolean();
+        private volatile Runnable readyListener;
+        private volatile boolean failed;
+        private volatile boolean discarded;
+        private volatile boolean full;
+        private boolean localEnded;
+        private volatile boolean remoteEnded;
+        /* The data frames which may still be sent before the remote side credits more, guarded by this stream */
+        private int sendCredit = STREAM_WINDOW;
+
+        private Stream(final int requestId) {
+            this.requestId = requestId;
+            this.dataInput = new SimpleByteDataInput(new StreamInputStream());
+            this.streamOutput = new StreamOutputStream();
+            this.dataOutput = new SimpleByteDataOutput(streamOutput);
+        }
+
+        /**
+         * Get the request id of this stream.
+         *
+         * @return The request id
+         */
+        public int getRequestId() {
+            return requestId;
+        }
+
+        /**
+         * Get the input of this stream.
+         *
+         * @return The input
+         */
+        public ByteDataInput getInput() {
+            return dataInput;
+        }
+
+        /**
+         * Get the output of this stream.
+         *
+         * @return The output
+         */
+        public ByteDataOutput getOutput() {
+            return dataOutput;
+        }
+
+        /**
+         * Set a listener to run once the input of this stream can be read without waiting on the remote side for long.
+         * That is once the remote side has ended the stream, once the stream holds as many frames as it can buffer, or
+         * once the channel has failed.  This allows the input to be read by a thread which is only taken once the input
+         * is ready.  The listener runs at most once, possibly on the thread reading the channel, so it should hand the
+         * stream off to another thread rather than reading from it.
+         *
+         * @param listener The listener
+         */
+        public void setReadyListener(final Runnable listener) {
+            readyListener = listener;
+            if (remoteEnded || failed || full) {
+                fireReady();
+            }
+        }
+
+        /**
+         * Close the stream.  Flushes and ends the output, and discards any input still to arrive.
+         */
+        public void close() {
+            discarded = true;
+            frames.clear();
+            if (flowControl && !remoteEnded && !closed) {
+                // The rest of the input is discarded, so never hold up the remote side again.  The credit is flushed
+                // with the end of the output, unless that was already sent.
+                try {
+                    writeCredit(requestId, Integer.MAX_VALUE, streamOutput.ended);
+                } catch (IOException e) {
+                    log.debugf(e, "Failed to credit management channel stream %d", requestId);
+                }
+            }
+            try {
+                dataOutput.close();
+            } catch (IOException e) {
+                log.debugf(e, "Failed to close management channel stream %d", requestId);
+            }
+            try {
+                // Returns the input buffer to the pool
+                dataInput.close();
+            } catch (IOException e) {
+                log.debugf(e, "Failed to close management channel stream %d", requestId);
+            }
+            synchronized (this) {
+                localEnded = true;
+                if (!remoteEnded) {
+                    return;
+                }
+            }
+            streams.remove(Integer.valueOf(requestId), this);
+        }
+
+        private void receive(final byte[] data) {
+            if (!discarded) {
+                if (data != END_OF_STREAM && frames.size() >= STREAM_WINDOW) {
+                    // The remote side sent beyond its window, or it can not be slowed down as there is no flow control
+                    log.warnf("Management channel stream %d fell %d frames behind, failing it", requestId, STREAM_WINDOW);
+                    discarded = true;
+                    fail();
+                } else {
+                    frames.offer(data);
+                    if (frames.size() >= STREAM_WINDOW) {
+                        // Let a waiting reader start reading, the remote side can not send more until it does
+                        full = true;
+                        fireReady();
+                    }
+                }
+            }
+            if (data == END_OF_STREAM) {
+                synchronized (this) {
+                    remoteEnded = true;
+                }
+                fireReady();
+                synchronized (this) {
+                    if (!localEnded) {
+                        return;
+                    }
+                }
+                streams.remove(Integer.valueOf(requestId), this);
+            }
+        }
+
+        private void fail() {
+            failed = true;
+            frames.clear();
+            frames.offer(END_OF_STREAM);
+            synchronized (this) {
+                notifyAll();
+            }
+            fireReady();
+        }
+
+        private synchronized void credit(final int credit) {
+            sendCredit = (int) Math.min((long) sendCredit + credit, Integer.MAX_VALUE);
+            notifyAll();
+        }
+
+        /**
+         * Wait until the remote side allows another data frame to be sent.
+         */
+        private void acquireCredit() throws IOException {
+            if (!flowControl) {
+                return;
+            }
+            synchronized (this) {
+                final long end = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : Long.MAX_VALUE;
+                while (sendCredit == 0) {
+                    if (closed || failed) {
+                        throw new IOException("Management channel closed while writing stream " + requestId);
+                    }
+                    final long remaining = end - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timed out waiting for the remote side to read stream " + requestId);
+                    }
+                    try {
+                        wait(readTimeout > 0 ? remaining : 0L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted writing management channel stream " + requestId);
+                    }
+                }
+                sendCredit--;
+            }
+        }
+
+        private void fireReady() {
+            final Runnable listener = readyListener;
+            if (listener != null && readyFired.compareAndSet(false, true)) {
+                listener.run();
+            }
+        }
+
+        private class StreamInputStream extends InputStream {
+            private byte[] current;
+            private int position;
+            private int uncredited;
+
+            public int read() throws IOException {
+                if (!next()) {
+                    return -1;
+                }
+                return current[position++] & 0xff;
+            }
+
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!next()) {
+                    return -1;
+                }
+                final int count = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            public int available() {
+                return current != null && current != END_OF_STREAM ? current.length - position : 0;
+            }
+
+            private boolean next() throws IOException {
+                while (current == null || (current != END_OF_STREAM && position == current.length)) {
+                    final byte[] frame;
+                    try {
+                        frame = readTimeout > 0 ? frames.poll(readTimeout, TimeUnit.MILLISECONDS) : frames.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted reading management channel stream " + requestId);
+                    }
+                    if (frame == null) {
+                        throw new SocketTimeoutException("Timed out reading management channel stream " + requestId);
+                    }
+                    current = frame;
+                    position = 0;
+                    if (frame != END_OF_STREAM && flowControl && ++uncredited == CREDIT_BATCH) {
+                        uncredited = 0;
+                        if (!remoteEnded) {
+                            writeCredit(requestId, CREDIT_BATCH, true);
+                        }
+                    }
+                }
+                if (current == END_OF_STREAM) {
+                    if (failed) {
+                        throw new IOException("Management channel closed while reading stream " + requestId);
+                    }
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Sends every write as frames straight away, as the stream's data output already buffers.
+         */
+        private class StreamOutputStream extends OutputStream {
+            private final byte[] single = new byte[1];
+            private boolean ended;
+            private Deflater deflater;
+            private ManagementCompression deflaterCompression;
+            private byte[] compressed;
+
+            public void write(final int b) throws IOException {
+                single[0] = (byte) b;
+                write(single, 0, 1);
+            }
+
+            public void write(final byte[] b, int off, int len) throws IOException {
+                if (ended) {
+                    throw new IOException("Management channel stream " + requestId + " is closed");
+                }
+                while (len > 0) {
+                    final int count = Math.min(len, MAX_FRAME_SIZE);
+                    writeData(b, off, count);
+                    off += count;
+                    len -= count;
+                }
+            }
+
+            public void close() throws IOException {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                if (closed) {
+                    return;
+                }
+                try {
+                    writeFrame(ManagementProtocol.CHANNEL_END, requestId, null, 0, 0);
+                } finally {
+                    if (deflater != null) {
+                        deflater.end();
+                        deflater = null;
+                    }
+                }
+            }
+
+            private void writeData(final byte[] b, final int off, final int len) throws IOException {
+                final ManagementCompression compression = ManagementChannel.this.compression;
+                if (compression != ManagementCompression.NONE && len >= compressionThreshold) {
+                    if (deflaterCompression != compression) {
+                        if (deflater != null) {
+                            deflater.end();
+                        }
+                        deflater = compression.createDeflater();
+                        deflaterCompression = compression;
+                    }
+                    deflater.reset();
+                    deflater.setInput(b, off, len);
+                    deflater.finish();
+                    // Only worth sending compressed if it is smaller
+                    final int limit = len - 1;
+                    final byte[] compressed;
+                    if (limit <= bufferPool.getBufferSize()) {
+                        compressed = bufferPool.allocate();
+                    } else {
+                        if (this.compressed == null) {
+                            this.compressed = new byte[MAX_FRAME_SIZE];
+                        }
+                        compressed = this.compressed;
+                    }
+                    int compressedLength = 0;
+                    while (!deflater.finished() && compressedLength < limit) {
+                        final int count = deflater.deflate(compressed, compressedLength, limit - compressedLength);
+                        if (count == 0) {
+                            break;
+                        }
+                        compressedLength += count;
+                    }
+                    try {
+                        if (deflater.finished()) {
+                            acquireCredit();
+                            writeFrame(ManagementProtocol.CHANNEL_DATA_COMPRESSED, requestId, compressed, 0, compressedLength, len);
+                            return;
+                        }
+                    } finally {
+                        if (compressed != this.compressed) {
+                            bufferPool.release(compressed);
+                        }
+                    }
+                }
+                acquireCredit();
+                writeFrame(ManagementProtocol.CHANNEL_DATA, requestId, b, off, len);
+            }
+        }
+    }
+}
@@ -22,13 +22,21 @@
 
 package org.jboss.as.server.manager.management;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 import org.jboss.as.communication.InitialSocketRequestException;
 import org.jboss.as.communication.SocketConnection;
 import org.jboss.as.communication.SocketListener;
@@ -47,17 +55,30 @@ import org.jboss.msc.value.InjectedValue;
  * Service responsible for accepting remote communication to server manager processes.  This will wait on a {@link java.net.ServerSocket}
  * for requests and will and the requesting socket over to a {@link org.jboss.as.server.manager.management.ManagementOperationHandler} to
  * process the request.
+ * <p/>
+ * A connection may either carry a single request, or be switched to a {@link ManagementChannel} carrying any number of
+ * concurrent requests for as long as the remote side keeps it open.  A channel is read by its own thread, so it does not
+ * hold a thread of the executor while it is idle, and the requests it carries are handled by the executor.  Channels
+ * still open, both accepted ones and those opened by {@link ManagementRequest}s of this process, are closed when the
+ * service stops.
+ * <p/>
+ * The latency and throughput of the handled requests are collected in {@link ManagementMetrics}, which is registered
+ * as an mbean while the service is started.
  *
  * @author John E. Bailey
  */
 public class ManagementCommunicationService implements Service<ManagementCommunicationService> {
     public static final ServiceName SERVICE_NAME = ServiceName.JBOSS.append("server", "manager", "management", "communication");
     private static final Logger log = Logger.getLogger("org.jboss.as.domain.controller");
+    private static final String METRICS_OBJECT_NAME = "jboss:type=ManagementMetrics";
     private final InjectedValue<NetworkInterfaceBinding> interfaceBindingValue = new InjectedValue<NetworkInterfaceBinding>();
     private final InjectedValue<Integer> portValue = new InjectedValue<Integer>();
     private final InjectedValue<ExecutorService> executorServiceValue = new InjectedValue<ExecutorService>();
     private final ConcurrentMap<Byte, ManagementOperationHandler> handlers = new ConcurrentHashMap<Byte, ManagementOperationHandler>();
+    private final Set<ManagementChannel> channels = Collections.newSetFromMap(new ConcurrentHashMap<ManagementChannel, Boolean>());
+    private final ManagementMetrics metrics = new ManagementMetrics();
     private SocketListener socketListener;
+    private ScheduledExecutorService summaryExecutor;
 
 
     /**
@@ -76,6 +97,26 @@ public class ManagementCommunicationService implements Service<ManagementCommuni
         } catch (Exception e) {
             throw new StartException("Failed to start server socket", e);
         }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(METRICS_OBJECT_NAME));
+        } catch (Exception e) {
+            log.warn("Failed to register management metrics mbean", e);
+        }
+        final long summaryInterval = ManagementMetrics.getSummaryInterval();
+        if (summaryInterval > 0L) {
+            summaryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "Management Metrics Summary");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            summaryExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    metrics.logSummary();
+                }
+            }, summaryInterval, summaryInterval, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -87,6 +128,21 @@ public class ManagementCommunicationService implements Service<ManagementCommuni
         if (socketListener != null) {
             socketListener.shutdown();
         }
+        for (ManagementChannel channel : channels) {
+            channel.close();
+        }
+        channels.clear();
+        ManagementRequest.closeChannels();
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdown();
+            summaryExecutor = null;
+            metrics.logSummary();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(METRICS_OBJECT_NAME));
+        } catch (Exception e) {
+            log.debug("Failed to unregister management metrics mbean", e);
+        }
     }
 
     /** {@inheritDoc} */
@@ -94,6 +150,15 @@ public class ManagementCommunicationService implements Service<ManagementCommuni
         return this;
     }
 
+    /**
+     * Get the metrics of the requests handled by this service.
+     *
+     * @return The metrics
+     */
+    public ManagementMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Get the interface binding injector.
      *
@@ -142,47 +207,111 @@ public class ManagementCommunicationService implements Service<ManagementCommuni
 
         @Override
         public void initializeConnection(final Socket socket) throws IOException, InitialSocketRequestException {
-            executorService.execute(new RequestTask(SocketConnection.accepted(socket)));
+            executorService.execute(new RequestTask(SocketConnection.accepted(socket), socket.getRemoteSocketAddress()));
         }
     }
 
     private class RequestTask implements Runnable {
         private final SocketConnection socketConnection;
+        private final SocketAddress remoteAddress;
 
-        private RequestTask(final SocketConnection socketConnection) {
+        private RequestTask(final SocketConnection socketConnection, final SocketAddress remoteAddress) {
             this.socketConnection = socketConnection;
+            this.remoteAddress = remoteAddress;
         }
 
         public void run() {
+            boolean channelStarted = false;
             try {
+                final long startTime = System.nanoTime();
                 final ByteDataInput input = new SimpleByteDataInput(socketConnection.getInputStream());
                 final ByteDataOutput output =  new SimpleByteDataOutput(socketConnection.getOutputStream());
 
                 // Start by reading the request header
                 final ManagementRequestHeader requestHeader = new ManagementRequestHeader(input);
 
-                // Work with the lowest protocol version
-                int workingVersion = Math.min(ManagementProtocol.VERSION, requestHeader.getVersion());
-
-                // Now write the response header
-                final ManagementResponseHeader responseHeader = new ManagementResponseHeader(workingVersion, requestHeader.getRequestId());
-                responseHeader.write(output);
-                output.flush();
-
-                byte handlerId = requestHeader.getOperationHandlerId();
-                if (handlerId == -1) {
-                    throw new ManagementException("Management request failed.  Invalid handler id");
+                if (requestHeader.getOperationHandlerId() == ManagementProtocol.MULTIPLEXED_CHANNEL_REQUEST) {
+                    final ManagementResponseHeader responseHeader = new ManagementResponseHeader(Math.min(ManagementProtocol.VERSION, requestHeader.getVersion()),
+                            requestHeader.getRequestId(), ManagementCompression.getAdvertisedCapabilities() | ManagementProtocol.CAPABILITY_FLOW_CONTROL);
+                    responseHeader.write(output);
+                    output.flush();
+                    // Serve requests on this connection until the remote side closes it, or the service stops
+                    final ManagementChannel[] channel = new ManagementChannel[1];
+                    channel[0] = ManagementChannel.accepted(new Closeable() {
+                        public void close() {
+                            socketConnection.close();
+                            channels.remove(channel[0]);
+                        }
+                    }, input, output, new ChannelStreamHandler());
+                    channels.add(channel[0]);
+                    channel[0].start("Management channel from " + remoteAddress);
+                    channelStarted = true;
+                } else {
+                    handleRequest(startTime, requestHeader, input, output);
+                    // Returns the buffers to the pool, the channel above shares them with other threads instead
+                    output.close();
+                    input.close();
                 }
-                final ManagementOperationHandler handler = handlers.get(handlerId);
-                if (handler == null) {
-                    throw new ManagementException("Management request failed.  NO handler found for id" + handlerId);
+            } catch (Exception e) {
+                log.error("Failed to process management request", e);
+            } finally {
+                if (!channelStarted) {
+                    socketConnection.close();
                 }
-                handler.handleRequest(workingVersion, input, output);
+            }
+        }
+    }
+
+    private class ChannelStreamHandler implements ManagementChannel.StreamHandler {
+        public void handleStream(final ManagementChannel.Stream stream) {
+            executorServiceValue.getValue().execute(new ChannelRequestTask(stream));
+        }
+    }
+
+    private class ChannelRequestTask implements Runnable {
+        private final ManagementChannel.Stream stream;
+
+        private ChannelRequestTask(final ManagementChannel.Stream stream) {
+            this.stream = stream;
+        }
+
+        public void run() {
+            try {
+                final long startTime = System.nanoTime();
+                final ByteDataInput input = stream.getInput();
+                handleRequest(startTime, new ManagementRequestHeader(input), input, stream.getOutput());
             } catch (Exception e) {
                 log.error("Failed to process management request", e);
             } finally {
-                socketConnection.close();
+                stream.close();
+            }
+        }
+    }
+
+    private void handleRequest(final long startTime, final ManagementRequestHeader requestHeader, final ByteDataInput input, final ByteDataOutput output) throws Exception {
+        // Work with the lowest protocol version
+        int workingVersion = Math.min(ManagementProtocol.VERSION, requestHeader.getVersion());
+
+        // Now write the response header
+        final ManagementResponseHeader responseHeader = new ManagementResponseHeader(workingVersion, requestHeader.getRequestId());
+        responseHeader.write(output);
+        output.flush();
+
+        byte handlerId = requestHeader.getOperationHandlerId();
+        final ManagementMetrics.Request request = metrics.startRequest(handlerId, startTime);
+        boolean success = false;
+        try {
+            if (handlerId == -1) {
+                throw new ManagementException("Management request failed.  Invalid handler id");
+            }
+            final ManagementOperationHandler handler = handlers.get(handlerId);
+            if (handler == null) {
+                throw new ManagementException("Management request failed.  NO handler found for id" + handlerId);
             }
+            handler.handleRequest(workingVersion, request.meter(input), request.meter(output));
+            success = true;
+        } finally {
+            request.complete(success);
         }
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+import org.jboss.logging.Logger;
+
+/**
+ * The compression codecs a {@link ManagementChannel} can use for its frames.  The codecs a management port accepts are
+ * advertised in the capabilities of the {@link ManagementResponseHeader} answering a channel request, and the
+ * connecting side selects one of them for the connection.  Peers which do not advertise any capabilities are sent
+ * uncompressed frames.
+ * <p/>
+ * The codec used when connecting is set with the {@value #COMPRESSION_PROPERTY} system property, one of {@code none},
+ * {@code huffman}, {@code fast} (the default) and {@code default}.  Setting it to {@code none} on a management port stops
+ * it from advertising compression.  Frames smaller than {@value #THRESHOLD_PROPERTY} bytes are never compressed.
+ */
+public enum ManagementCompression {
+    /** No compression */
+    NONE(0, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY),
+    /** Huffman coding only, the cheapest codec, mostly useful for text such as marshalled models */
+    HUFFMAN(1, Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY),
+    /** Deflate tuned for speed */
+    FAST(2, Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY),
+    /** Deflate with the default compression level */
+    DEFAULT(3, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY),
+    ;
+
+    public static final String COMPRESSION_PROPERTY = "jboss.management.compression";
+    public static final String THRESHOLD_PROPERTY = "jboss.management.compression.threshold";
+
+    private static final Logger log = Logger.getLogger("org.jboss.as.management");
+    private static final ManagementCompression DEFAULT_COMPRESSION = FAST;
+    private static final int DEFAULT_THRESHOLD = 512;
+
+    private final int id;
+    private final int level;
+    private final int strategy;
+
+    ManagementCompression(final int id, final int level, final int strategy) {
+        this.id = id;
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Get the id of this codec, as sent when selecting it for a channel.
+     *
+     * @return The id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the capability flag advertising this codec.
+     *
+     * @return The flag, or 0 for {@link #NONE}
+     */
+    public int getCapability() {
+        return id == 0 ? 0 : 1 << (id - 1);
+    }
+
+    /**
+     * Create a deflater for this codec.
+     *
+     * @return The deflater
+     */
+    Deflater createDeflater() {
+        final Deflater deflater = new Deflater(level);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    /**
+     * Get the codec with an id.
+     *
+     * @param id The id
+     * @return The codec
+     * @throws ManagementException If there is no codec with the id
+     */
+    public static ManagementCompression forId(final int id) throws ManagementException {
+        for (ManagementCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new ManagementException("Unknown management compression codec " + id);
+    }
+
+    /**
+     * Get the configured codec.
+     *
+     * @return The codec
+     */
+    public static ManagementCompression getConfigured() {
+        final String value = System.getProperty(COMPRESSION_PROPERTY);
+        if (value == null) {
+            return DEFAULT_COMPRESSION;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            log.warnf("Invalid %s [%s], using [%s]", COMPRESSION_PROPERTY, value, DEFAULT_COMPRESSION);
+            return DEFAULT_COMPRESSION;
+        }
+    }
+
+    /**
+     * Get the capabilities a management port advertises, which is every codec unless compression is configured off.
+     *
+     * @return The capability flags
+     */
+    public static int getAdvertisedCapabilities() {
+        if (getConfigured() == NONE) {
+            return 0;
+        }
+        int capabilities = 0;
+        for (ManagementCompression compression : values()) {
+            capabilities |= compression.getCapability();
+        }
+        return capabilities;
+    }
+
+    /**
+     * Get the configured size below which frames are not compressed.
+     *
+     * @return The threshold in bytes
+     */
+    public static int getThreshold() {
+        final String value = System.getProperty(THRESHOLD_PROPERTY);
+        if (value == null) {
+            return DEFAULT_THRESHOLD;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warnf("Invalid %s [%s], using [%d]", THRESHOLD_PROPERTY, value, DEFAULT_THRESHOLD);
+            return DEFAULT_THRESHOLD;
+        }
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import org.jboss.logging.Logger;
+
+/**
+ * Latency and throughput metrics of the management requests handled by a {@link ManagementCommunicationService}.
+ * Requests are accounted to their operation handler and to the operation code read by the handler, and each request
+ * is timed in three phases:
+ * <ul>
+ * <li>header - reading the request header and writing the response header, which is dominated by the network</li>
+ * <li>execution - processing the operation, not counting the time the handler is blocked reading or writing</li>
+ * <li>transfer - reading the request body and writing the response</li>
+ * </ul>
+ * A slow header phase therefore points at the network, while slow execution points at the process handling the
+ * request.  The metrics are exposed through the {@link ManagementMetricsMBean} interface and a summary of the
+ * operations performed since the last summary is logged at the interval in seconds set by the
+ * {@value #SUMMARY_INTERVAL_PROPERTY} system property.
+ */
+public final class ManagementMetrics implements ManagementMetricsMBean {
+
+    public static final String SUMMARY_INTERVAL_PROPERTY = "jboss.management.metrics.summary.interval";
+
+    private static final Logger log = Logger.getLogger("org.jboss.as.management");
+    private static final long DEFAULT_SUMMARY_INTERVAL = 300L;
+    private static final byte UNKNOWN_OPERATION = -1;
+
+    private final ConcurrentMap<Integer, OperationMetrics> operations = new ConcurrentHashMap<Integer, OperationMetrics>();
+
+    /**
+     * Get the interval between logged summaries, set with the {@value #SUMMARY_INTERVAL_PROPERTY} system property.
+     *
+     * @return The interval in seconds, {@code 0} if no summary should be logged
+     */
+    public static long getSummaryInterval() {
+        final String value = System.getProperty(SUMMARY_INTERVAL_PROPERTY);
+        if (value == null) {
+            return DEFAULT_SUMMARY_INTERVAL;
+        }
+        try {
+            final long result = Long.parseLong(value.trim());
+            if (result >= 0L) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        log.warnf("Invalid %s [%s], using [%d]", SUMMARY_INTERVAL_PROPERTY, value, DEFAULT_SUMMARY_INTERVAL);
+        return DEFAULT_SUMMARY_INTERVAL;
+    }
+
+    /**
+     * Start timing a request once its header has been negotiated.
+     *
+     * @param handlerId The id of the handler the request is for
+     * @param startTime The {@link System#nanoTime()} at which reading the request header started
+     * @return The request
+     */
+    Request startRequest(final byte handlerId, final long startTime) {
+        return new Request(handlerId, startTime);
+    }
+
+    /**
+     * Get the metrics of an operation.
+     *
+     * @param handlerId The handler id
+     * @param operationCode The operation code
+     * @return The metrics, or {@code null} if no such operation has been performed
+     */
+    public OperationMetrics getOperationMetrics(final byte handlerId, final byte operationCode) {
+        return operations.get(key(handlerId, operationCode));
+    }
+
+    /**
+     * Get the metrics of all operations performed, ordered by handler id and operation code.
+     *
+     * @return The operation metrics
+     */
+    public List<OperationMetrics> getOperationMetrics() {
+        final List<OperationMetrics> result = new ArrayList<OperationMetrics>(operations.values());
+        Collections.sort(result, new Comparator<OperationMetrics>() {
+            public int compare(final OperationMetrics o1, final OperationMetrics o2) {
+                return key(o1.handlerId, o1.operationCode).compareTo(key(o2.handlerId, o2.operationCode));
+            }
+        });
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public long getRequestCount() {
+        long result = 0L;
+        for (OperationMetrics metrics : operations.values()) {
+            result += metrics.getRequestCount();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public long getFailureCount() {
+        long result = 0L;
+        for (OperationMetrics metrics : operations.values()) {
+            result += metrics.getFailureCount();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public long getBytesRead() {
+        long result = 0L;
+        for (OperationMetrics metrics : operations.values()) {
+            result += metrics.getBytesRead();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public long getBytesWritten() {
+        long result = 0L;
+        for (OperationMetrics metrics : operations.values()) {
+            result += metrics.getBytesWritten();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public String[] listOperations() {
+        final List<OperationMetrics> metrics = getOperationMetrics();
+        final String[] result = new String[metrics.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = metrics.get(i).toString();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public CompositeData[] getOperations() {
+        final List<OperationMetrics> metrics = getOperationMetrics();
+        final CompositeData[] result = new CompositeData[metrics.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = metrics.get(i).toCompositeData();
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * Log the metrics of the operations performed since the last summary was logged.
+     */
+    public void logSummary() {
+        boolean logged = false;
+        for (OperationMetrics metrics : getOperationMetrics()) {
+            final long requests = metrics.getRequestCount();
+            if (requests == metrics.summarizedRequests) {
+                continue;
+            }
+            metrics.summarizedRequests = requests;
+            if (!logged) {
+                log.info("Management request metrics:");
+                logged = true;
+            }
+            log.infof("    %s", metrics);
+        }
+    }
+
+    private OperationMetrics metricsFor(final byte handlerId, final byte operationCode) {
+        final Integer key = key(handlerId, operationCode);
+        OperationMetrics metrics = operations.get(key);
+        if (metrics == null) {
+            metrics = new OperationMetrics(handlerId, operationCode);
+            final OperationMetrics existing = operations.putIfAbsent(key, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    private static Integer key(final byte handlerId, final byte operationCode) {
+        return Integer.valueOf((handlerId & 0xff) << 8 | (operationCode & 0xff));
+    }
+
+    /**
+     * The metrics of the requests for one operation code of one handler.  Requests which failed before the handler
+     * read the operation code are accounted with an operation code of {@code -1}.
+     */
+    public static final class OperationMetrics {
+        private final byte handlerId;
+        private final byte operationCode;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final LatencyHistogram header = new LatencyHistogram();
+        private final LatencyHistogram execution = new LatencyHistogram();
+        private final LatencyHistogram transfer = new LatencyHistogram();
+        private volatile long summarizedRequests;
+
+        private OperationMetrics(final byte handlerId, final byte operationCode) {
+            this.handlerId = handlerId;
+            this.operationCode = operationCode;
+        }
+
+        public byte getHandlerId() {
+            return handlerId;
+        }
+
+        public byte getOperationCode() {
+            return operationCode;
+        }
+
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.get();
+        }
+
+        /**
+         * Get the time taken to negotiate the request and response headers.
+         *
+         * @return The header latency
+         */
+        public LatencyHistogram getHeaderLatency() {
+            return header;
+        }
+
+        /**
+         * Get the time taken to process the operation, not counting the time spent reading or writing.
+         *
+         * @return The execution latency
+         */
+        public LatencyHistogram getExecutionLatency() {
+            return execution;
+        }
+
+        /**
+         * Get the time taken to read the request body and write the response.
+         *
+         * @return The transfer latency
+         */
+        public LatencyHistogram getTransferLatency() {
+            return transfer;
+        }
+
+        CompositeData toCompositeData() {
+            try {
+                return new CompositeDataSupport(OpenTypes.OPERATION, OpenTypes.OPERATION_ITEMS, new Object[] {
+                        Byte.valueOf(handlerId), Byte.valueOf(operationCode), Long.valueOf(getRequestCount()),
+                        Long.valueOf(getFailureCount()), Long.valueOf(getBytesRead()), Long.valueOf(getBytesWritten()),
+                        header.toCompositeData(), execution.toCompositeData(), transfer.toCompositeData() });
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String toString() {
+            return String.format("handler=0x%02x operation=0x%02x requests=%d failures=%d read=%d written=%d header[%s] execution[%s] transfer[%s]",
+                    handlerId & 0xff, operationCode & 0xff, getRequestCount(), getFailureCount(), getBytesRead(), getBytesWritten(),
+                    header, execution, transfer);
+        }
+    }
+
+    /**
+     * Histogram of latencies, bucketed by powers of two microseconds.  Percentiles are reported as the upper bound of
+     * the bucket they fall in, so they are accurate to within a factor of two.
+     */
+    public static final class LatencyHistogram {
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(final long nanos) {
+            final long micros = Math.max(0L, nanos) / 1000L;
+            // Bucket 0 holds latencies below 1us, bucket n those from 2^(n-1)us up to 2^n us
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long current;
+            while ((current = max.get()) < nanos && !max.compareAndSet(current, nanos)) {
+                // Retry
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return total.get();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        public long getMeanNanos() {
+            final long count = this.count.get();
+            return count == 0L ? 0L : total.get() / count;
+        }
+
+        /**
+         * Get an upper bound of a percentile of the recorded latencies.
+         *
+         * @param percentile The percentile, between 0 and 100
+         * @return The latency in nanoseconds
+         */
+        public long getPercentileNanos(final double percentile) {
+            final long count = this.count.get();
+            if (count == 0L) {
+                return 0L;
+            }
+            final long target = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+            final long max = this.max.get();
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(max, TimeUnit.MICROSECONDS.toNanos(1L << i));
+                }
+            }
+            return max;
+        }
+
+        CompositeData toCompositeData() {
+            try {
+                return new CompositeDataSupport(OpenTypes.LATENCY, OpenTypes.LATENCY_ITEMS, new Object[] {
+                        Long.valueOf(getCount()), Long.valueOf(getMeanNanos()), Long.valueOf(getPercentileNanos(50.0)),
+                        Long.valueOf(getPercentileNanos(90.0)), Long.valueOf(getPercentileNanos(99.0)), Long.valueOf(getMaxNanos()) });
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String toString() {
+            return String.format("mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", millis(getMeanNanos()), millis(getPercentileNanos(50.0)),
+                    millis(getPercentileNanos(99.0)), millis(getMaxNanos()));
+        }
+
+        private static double millis(final long nanos) {
+            return nanos / 1000000.0;
+        }
+    }
+
+    /**
+     * The open types of the composite data exposed through {@link ManagementMetricsMBean#getOperations()}.
+     */
+    private static final class OpenTypes {
+        static final String[] LATENCY_ITEMS = { "count", "meanNanos", "p50Nanos", "p90Nanos", "p99Nanos", "maxNanos" };
+        static final String[] OPERATION_ITEMS = { "handlerId", "operationCode", "requestCount", "failureCount", "bytesRead",
+                "bytesWritten", "headerLatency", "executionLatency", "transferLatency" };
+        static final CompositeType LATENCY;
+        static final CompositeType OPERATION;
+
+        static {
+            try {
+                LATENCY = new CompositeType("LatencyHistogram", "Management request latency", LATENCY_ITEMS, new String[] {
+                        "Number of requests", "Mean latency in nanoseconds", "Upper bound of the 50th percentile in nanoseconds",
+                        "Upper bound of the 90th percentile in nanoseconds", "Upper bound of the 99th percentile in nanoseconds",
+                        "Maximum latency in nanoseconds" }, new OpenType<?>[] { SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG });
+                OPERATION = new CompositeType("OperationMetrics", "Management operation metrics", OPERATION_ITEMS, new String[] {
+                        "Operation handler id", "Operation code", "Number of requests", "Number of failed requests",
+                        "Request bytes read", "Response bytes written", "Time to negotiate the headers",
+                        "Time to process the operation", "Time to read the request body and write the response" },
+                        new OpenType<?>[] { SimpleType.BYTE, SimpleType.BYTE, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG, LATENCY, LATENCY, LATENCY });
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Timing and byte counts of a single request, collected by the handler thread through the metered input and
+     * output and recorded once the request completes.
+     */
+    final class Request {
+        private final byte handlerId;
+        private final long startTime;
+        private final long headerTime = System.nanoTime();
+        private byte operationCode = UNKNOWN_OPERATION;
+        private int firstByte = -1;
+        private long transferTime;
+        private long bytesRead;
+        private long bytesWritten;
+
+        private Request(final byte handlerId, final long startTime) {
+            this.handlerId = handlerId;
+            this.startTime = startTime;
+        }
+
+        ByteDataInput meter(final ByteDataInput input) {
+            return new MeteredInput(input);
+        }
+
+        ByteDataOutput meter(final ByteDataOutput output) {
+            return new MeteredOutput(output);
+        }
+
+        /**
+         * Record the request.
+         *
+         * @param success {@code true} if the handler completed the request
+         */
+        void complete(final boolean success) {
+            final long endTime = System.nanoTime();
+            final OperationMetrics metrics = metricsFor(handlerId, operationCode);
+            metrics.requests.incrementAndGet();
+            if (!success) {
+                metrics.failures.incrementAndGet();
+            }
+            metrics.bytesRead.addAndGet(bytesRead);
+            metrics.bytesWritten.addAndGet(bytesWritten);
+            metrics.header.record(headerTime - startTime);
+            metrics.execution.record(endTime - headerTime - transferTime);
+            metrics.transfer.record(transferTime);
+        }
+
+        private void read(final long start, final long count) {
+            transferTime += System.nanoTime() - start;
+            bytesRead += count;
+        }
+
+        private void read(final long start, final byte[] b, final int off, final int len) {
+            // Every request body starts with REQUEST_OPERATION followed by the operation code
+            for (int i = 0; i < len && bytesRead + i < 2; i++) {
+                if (bytesRead + i == 0) {
+                    firstByte = b[off + i] & 0xff;
+                } else if (firstByte == ManagementProtocol.REQUEST_OPERATION) {
+                    operationCode = b[off + i];
+                }
+            }
+            read(start, len);
+        }
+
+        private void readByte(final long start, final int b) {
+            if (bytesRead == 0L) {
+                firstByte = b & 0xff;
+            } else if (bytesRead == 1L && firstByte == ManagementProtocol.REQUEST_OPERATION) {
+                operationCode = (byte) b;
+            }
+            read(start, 1L);
+        }
+
+        private void written(final long start, final long count) {
+            transferTime += System.nanoTime() - start;
+            bytesWritten += count;
+        }
+
+        private class MeteredInput implements ByteDataInput {
+            private final ByteDataInput input;
+
+            private MeteredInput(final ByteDataInput input) {
+                this.input = input;
+            }
+
+            public int read() throws IOException {
+                final long start = System.nanoTime();
+                final int b = input.read();
+                if (b == -1) {
+                    Request.this.read(start, 0L);
+                } else {
+                    Request.this.readByte(start, b);
+                }
+                return b;
+            }
+
+            public int read(final byte[] b) throws IOException {
+                return read(b, 0, b.length);
+            }
+
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final long start = System.nanoTime();
+                final int count = input.read(b, off, len);
+                Request.this.read(start, b, off, Math.max(0, count));
+                return count;
+            }
+
+            public int available() throws IOException {
+                return input.available();
+            }
+
+            public long skip(final long n) throws IOException {
+                final long start = System.nanoTime();
+                final long count = input.skip(n);
+                Request.this.read(start, count);
+                return count;
+            }
+
+            public void close() throws IOException {
+                input.close();
+            }
+
+            public void readFully(final byte[] b) throws IOException {
+                readFully(b, 0, b.length);
+            }
+
+            public void readFully(final byte[] b, final int off, final int len) throws IOException {
+                final long start = System.nanoTime();
+                input.readFully(b, off, len);
+                Request.this.read(start, b, off, len);
+            }
+
+            public int skipBytes(final int n) throws IOException {
+                final long start = System.nanoTime();
+                final int count = input.skipBytes(n);
+                Request.this.read(start, count);
+                return count;
+            }
+
+            public boolean readBoolean() throws IOException {
+                final long start = System.nanoTime();
+                final boolean v = input.readBoolean();
+                Request.this.read(start, 1L);
+                return v;
+            }
+
+            public byte readByte() throws IOException {
+                final long start = System.nanoTime();
+                final byte v = input.readByte();
+                Request.this.readByte(start, v);
+                return v;
+            }
+
+            public int readUnsignedByte() throws IOException {
+                final long start = System.nanoTime();
+                final int v = input.readUnsignedByte();
+                Request.this.readByte(start, v);
+                return v;
+            }
+
+            public short readShort() throws IOException {
+                final long start = System.nanoTime();
+                final short v = input.readShort();
+                Request.this.read(start, 2L);
+                return v;
+            }
+
+            public int readUnsignedShort() throws IOException {
+                final long start = System.nanoTime();
+                final int v = input.readUnsignedShort();
+                Request.this.read(start, 2L);
+                return v;
+            }
+
+            public char readChar() throws IOException {
+                final long start = System.nanoTime();
+                final char v = input.readChar();
+                Request.this.read(start, 2L);
+                return v;
+            }
+
+            public int readInt() throws IOException {
+                final long start = System.nanoTime();
+                final int v = input.readInt();
+                Request.this.read(start, 4L);
+                return v;
+            }
+
+            public long readLong() throws IOException {
+                final long start = System.nanoTime();
+                final long v = input.readLong();
+                Request.this.read(start, 8L);
+                return v;
+            }
+
+            public float readFloat() throws IOException {
+                final long start = System.nanoTime();
+                final float v = input.readFloat();
+                Request.this.read(start, 4L);
+                return v;
+            }
+
+            public double readDouble() throws IOException {
+                final long start = System.nanoTime();
+                final double v = input.readDouble();
+                Request.this.read(start, 8L);
+                return v;
+            }
+
+            @SuppressWarnings("deprecation")
+            public String readLine() throws IOException {
+                final long start = System.nanoTime();
+                final String v = input.readLine();
+                Request.this.read(start, v == null ? 0L : v.length() + 1L);
+                return v;
+            }
+
+            public String readUTF() throws IOException {
+                // Reads through this input, so the length and content are counted
+                return DataInputStream.readUTF(this);
+            }
+        }
+
+        private class MeteredOutput implements ByteDataOutput {
+            private final ByteDataOutput output;
+
+            private MeteredOutput(final ByteDataOutput output) {
+                this.output = output;
+            }
+
+            public void write(final int b) throws IOException {
+                final long start = System.nanoTime();
+                output.write(b);
+                written(start, 1L);
+            }
+
+            public void write(final byte[] b) throws IOException {
+                write(b, 0, b.length);
+            }
+
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                final long start = System.nanoTime();
+                output.write(b, off, len);
+                written(start, len);
+            }
+
+            public void flush() throws IOException {
+                final long start = System.nanoTime();
+                output.flush();
+                written(start, 0L);
+            }
+
+            public void close() throws IOException {
+                final long start = System.nanoTime();
+                output.close();
+                written(start, 0L);
+            }
+
+            public void writeBoolean(final boolean v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeBoolean(v);
+                written(start, 1L);
+            }
+
+            public void writeByte(final int v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeByte(v);
+                written(start, 1L);
+            }
+
+            public void writeShort(final int v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeShort(v);
+                written(start, 2L);
+            }
+
+            public void writeChar(final int v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeChar(v);
+                written(start, 2L);
+            }
+
+            public void writeInt(final int v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeInt(v);
+                written(start, 4L);
+            }
+
+            public void writeLong(final long v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeLong(v);
+                written(start, 8L);
+            }
+
+            public void writeFloat(final float v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeFloat(v);
+                written(start, 4L);
+            }
+
+            public void writeDouble(final double v) throws IOException {
+                final long start = System.nanoTime();
+                output.writeDouble(v);
+                written(start, 8L);
+            }
+
+            public void writeBytes(final String s) throws IOException {
+                final long start = System.nanoTime();
+                output.writeBytes(s);
+                written(start, s.length());
+            }
+
+            public void writeChars(final String s) throws IOException {
+                final long start = System.nanoTime();
+                output.writeChars(s);
+                written(start, 2L * s.length());
+            }
+
+            public void writeUTF(final String s) throws IOException {
+                final long start = System.nanoTime();
+                output.writeUTF(s);
+                written(start, 2L + utfLength(s));
+            }
+        }
+    }
+
+    private static long utfLength(final String s) {
+        long length = 0L;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                length++;
+            } else if (c <= 0x07ff) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager.management;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Management interface exposing the request metrics collected by the {@link ManagementCommunicationService}.
+ */
+public interface ManagementMetricsMBean {
+
+    /**
+     * Get the number of requests handled.
+     *
+     * @return The request count
+     */
+    long getRequestCount();
+
+    /**
+     * Get the number of requests which failed.
+     *
+     * @return The failure count
+     */
+    long getFailureCount();
+
+    /**
+     * Get the number of request bytes read by the operation handlers.
+     *
+     * @return The number of bytes read
+     */
+    long getBytesRead();
+
+    /**
+     * Get the number of response bytes written by the operation handlers.
+     *
+     * @return The number of bytes written
+     */
+    long getBytesWritten();
+
+    /**
+     * List the metrics of each handler and operation code, one entry per operation.
+     *
+     * @return The operation metrics
+     */
+    String[] listOperations();
+
+    /**
+     * Get the metrics of each handler and operation code, one entry per operation, ordered by handler id and
+     * operation code.  Each entry holds the handler id, operation code, request, failure and byte counts, and the
+     * header, execution and transfer latencies with their count, mean, 50th, 90th and 99th percentiles and maximum
+     * in nanoseconds.
+     *
+     * @return The operation metrics
+     */
+    CompositeData[] getOperations();
+
+    /**
+     * Discard all collected metrics.
+     */
+    void reset();
+}
@@ -29,7 +29,10 @@ public interface ManagementProtocol {
     // Headers
     byte[] SIGNATURE = {Byte.MAX_VALUE, Byte.MIN_VALUE, Byte.MAX_VALUE, Byte.MIN_VALUE};
     int VERSION_FIELD = 0x00; // The version field header
-    int VERSION = 1; // The current protocol version
+    int VERSION = 2; // The current protocol version
+    int CAPABILITIES_FIELD = 0x4A; // The capabilities field header, sent in response headers from version 2
+    int CHANNEL_VERSION = 2; // The first protocol version accepting multiplexed channel requests
+    int CAPABILITY_FLOW_CONTROL = 0x100; // Capability flag of management ports accepting CHANNEL_FLOW_CONTROL
 
     int REQUEST_START = 0x01;
     int REQUEST_END = 0x02;
@@ -38,6 +41,15 @@ public interface ManagementProtocol {
 
     int DOMAIN_CONTROLLER_REQUEST = 0x05;
     int SERVER_MANAGER_REQUEST = 0x06;
+    int MULTIPLEXED_CHANNEL_REQUEST = 0x39; // Handler id used to switch a connection to a multiplexed channel
+
+    // Multiplexed channel frames
+    int CHANNEL_DATA = 0x40;
+    int CHANNEL_END = 0x41;
+    int CHANNEL_COMPRESSION = 0x4B; // Selects the compression codec used by both sides of the channel
+    int CHANNEL_DATA_COMPRESSED = 0x4C;
+    int CHANNEL_FLOW_CONTROL = 0x4E; // Switches both sides of the channel to per stream flow control
+    int CHANNEL_CREDIT = 0x4F; // Allows the remote side to send more data frames for a stream
 
 
     // Domain Controller requests
@@ -59,6 +71,16 @@ public interface ManagementProtocol {
     int FILE_START = 0x22;
     int FILE_END = 0x23;
     int SYNC_FILE_RESPONSE = 0x24;
+    // Sync file manifest and delta transfer
+    int PARAM_MANIFEST = 0x42; // Sent with sync file requests from SYNC_MANIFEST_VERSION
+    int SYNC_MANIFEST_VERSION = 2; // The first protocol version sending a manifest with sync file requests
+    int PARAM_FILE_HASH = 0x43;
+    int PARAM_BLOCK_SIZE = 0x44;
+    int FILE_UNCHANGED = 0x45;
+    int FILE_DELTA = 0x46;
+    int DELTA_COPY = 0x47;
+    int DELTA_DATA = 0x48;
+    int DELTA_END = 0x49;
 
     // Server Manager requests
     int UPDATE_FULL_DOMAIN_REQUEST = 0x25;
@@ -66,6 +88,9 @@ public interface ManagementProtocol {
     int UPDATE_DOMAIN_MODEL_REQUEST = 0x27;
     int PARAM_DOMAIN_MODEL_UPDATE_COUNT = 0x28;
     int PARAM_DOMAIN_MODEL_UPDATE = 0x29;
+    int PARAM_DOMAIN_MODEL_VERSION = 0x4D; // Change log id and version of the domain model, also sent on register
+    int APPLY_DOMAIN_MODEL_UPDATES_REQUEST = 0x50; // Asks the domain controller to apply and push domain model updates
+    int APPLY_DOMAIN_MODEL_UPDATES_RESPONSE = 0x51;
     int PARAM_MODEL_UPDATE_RESPONSE_COUNT = 0x30;
     int PARAM_MODEL_UPDATE_RESPONSE = 0x31;
     int UPDATE_DOMAIN_MODEL_RESPONSE = 0x32;
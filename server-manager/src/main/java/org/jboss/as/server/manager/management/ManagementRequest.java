@@ -22,27 +22,62 @@
 
 package org.jboss.as.server.manager.management;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.logging.Logger;
 
 /**
  * Base management request used for remote requests.  Provides the basic mechanism for connecting to a remote server manager
  * for performing a task.  It will manage connecting and retreiving the correct response.
+ * <p/>
+ * Requests to the same remote address share a single {@link ManagementChannel}, so many requests can be in flight over
+ * one connection.  Channels are connected by a thread of the executor, and requests to a remote address which is still
+ * being connected to are queued until the handshake completes, so neither the caller nor requests to other remote
+ * addresses wait for a slow or unreachable host.  A channel which fails is discarded and the next request connects
+ * again.  Remote sides which do not support channels are remembered, and each request to them is sent on a connection
+ * of its own by a thread of the executor.
+ * <p/>
+ * Requests do not hold a thread while waiting for the remote side.  The request header and body are written straight
+ * away, for the protocol version agreed when the channel was connected, and the response is only read by a thread of
+ * the executor once the remote side has sent it.  Several requests to the same remote address can be sent together with
+ * {@link #executeBatch(List)}.  Cancelling the future of a request closes its stream or connection.
  *
  * @author John Bailey
  */
 public abstract class ManagementRequest<T> {
+    private static final Logger log = Logger.getLogger("org.jboss.as.management");
+
+    /* The open channels by remote address */
+    private static final ConcurrentMap<InetSocketAddress, ManagementChannel> channels = new ConcurrentHashMap<InetSocketAddress, ManagementChannel>();
+    /* The channels being connected by remote address */
+    private static final ConcurrentMap<InetSocketAddress, PendingChannel> pendingChannels = new ConcurrentHashMap<InetSocketAddress, PendingChannel>();
+    /* The remote addresses which do not support channels */
+    private static final Set<InetSocketAddress> unsupportedChannelAddresses = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
     private final InetAddress address;
     private final int port;
     private final int connectionRetryLimit;
     private final long connectionRetryInterval;
     private final long connectTimeout;
+    private final long responseTimeout;
     private final ScheduledExecutorService executorService;
 
     /**
@@ -52,15 +87,33 @@ public abstract class ManagementRequest<T> {
      * @param port The remote port to connect to
      * @param connectionRetryLimit The connection retry limit
      * @param connectionRetryInterval The interval between connection attempts
-     * @param connectTimeout The timeout for connecting
+     * @param connectTimeout The timeout for connecting, in seconds
      * @param executorService The executor server to schedule tasks with
      */
     public ManagementRequest(InetAddress address, int port, int connectionRetryLimit, long connectionRetryInterval, long connectTimeout, ScheduledExecutorService executorService) {
+        this(address, port, connectionRetryLimit, connectionRetryInterval, connectTimeout, 0L, executorService);
+    }
+
+    /**
+     * Construct a new request object with the required connection parameters and a limit on the time allowed for the
+     * remote side to respond.
+     *
+     * @param address The remote address to connect to
+     * @param port The remote port to connect to
+     * @param connectionRetryLimit The connection retry limit
+     * @param connectionRetryInterval The interval between connection attempts
+     * @param connectTimeout The timeout for connecting, in seconds
+     * @param responseTimeout The time allowed for the remote side to respond once the request is sent, in seconds, or
+     *                        0 to wait for the response forever
+     * @param executorService The executor server to schedule tasks with
+     */
+    public ManagementRequest(InetAddress address, int port, int connectionRetryLimit, long connectionRetryInterval, long connectTimeout, long responseTimeout, ScheduledExecutorService executorService) {
         this.address = address;
         this.port = port;
         this.connectionRetryLimit = connectionRetryLimit;
         this.connectionRetryInterval = connectionRetryInterval;
         this.connectTimeout = connectTimeout;
+        this.responseTimeout = responseTimeout;
         this.executorService = executorService;
     }
 
@@ -72,16 +125,25 @@ public abstract class ManagementRequest<T> {
     protected abstract byte getHandlerId();
 
     /**
-     * Execute the request by connecting and then delegating to the implementation's execute
-     * and return a future used to get the response when complete.
+     * Execute the request and return a future used to get the response when complete.  Any failure to connect or to
+     * execute the request is reported by the future.
      *
      * @return A future to retrieve the result when the request is complete
-     * @throws ManagementException If any problems occur with the request
      */
-    public final Future<T> execute() throws ManagementException {
-        final InitiatingFuture<T> initiatingFuture = new InitiatingFuture<T>();
-        executorService.execute(new InitiateRequestTask<T>(this, initiatingFuture));
-        return initiatingFuture.get();
+    public final Future<T> execute() {
+        final ResultFuture<T> future = new ResultFuture<T>();
+        createExchange(future).run();
+        return future;
+    }
+
+    /**
+     * Execute the request and notify a handler once it is complete.  The handler is called by a thread of the executor
+     * service, or by the calling thread if the request fails straight away.
+     *
+     * @param handler The handler for the result
+     */
+    public final void execute(final ResultHandler<T> handler) {
+        new Exchange(handler).run();
     }
 
     /**
@@ -91,156 +153,561 @@ public abstract class ManagementRequest<T> {
      * @throws ManagementException If any problems occur
      */
     public T executeForResult() throws ManagementException {
-            try {
-                return execute().get();
-            } catch (ManagementException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new ManagementException("Failed to execute remote request", e);
+        try {
+            return execute().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ManagementException) {
+                throw ManagementException.class.cast(e.getCause());
             }
+            throw new ManagementException("Failed to execute remote request", e.getCause());
+        } catch (Exception e) {
+            throw new ManagementException("Failed to execute remote request", e);
         }
+    }
 
     /**
-     * Execute the request body.  This is run after the connection is established and the headers are exchanged.
+     * Execute several requests to the same remote address together.  All the requests are written to the channel before
+     * it is flushed and none waits for the response of another, so the batch takes about one round trip.
      *
-     * @param protocolVersion The active protocol version for the request
+     * @param requests The requests
+     * @return The futures of the requests, in the same order
+     * @throws IllegalArgumentException If the requests are not all to the same remote address
+     */
+    public static List<Future<?>> executeBatch(final List<? extends ManagementRequest<?>> requests) {
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final ManagementRequest<?> first = requests.get(0);
+        for (ManagementRequest<?> request : requests) {
+            if (!first.address.equals(request.address) || first.port != request.port) {
+                throw new IllegalArgumentException("All the requests of a batch must be to the same remote address");
+            }
+        }
+        final List<Future<?>> futures = new ArrayList<Future<?>>(requests.size());
+        final List<ChannelListener> exchanges = new ArrayList<ChannelListener>(requests.size());
+        for (ManagementRequest<?> request : requests) {
+            exchanges.add(request.createBatchedExchange(futures));
+        }
+        first.getChannel(new ChannelListener() {
+            public void channelReady(final ManagementChannel channel) {
+                if (channel != null) {
+                    channel.startBatch();
+                }
+                try {
+                    for (ChannelListener exchange : exchanges) {
+                        exchange.channelReady(channel);
+                    }
+                } finally {
+                    if (channel != null) {
+                        channel.endBatch();
+                    }
+                }
+            }
+
+            public void channelFailed(final Throwable cause) {
+                // Each request will connect and retry on its own
+                log.debugf(cause, "Failed to connect for management request batch");
+                for (ChannelListener exchange : exchanges) {
+                    exchange.channelFailed(cause);
+                }
+            }
+        });
+        return futures;
+    }
+
+    private Exchange createExchange(final ResultFuture<T> future) {
+        final Exchange exchange = new Exchange(future);
+        future.setCancelTask(new Runnable() {
+            public void run() {
+                exchange.cancel();
+            }
+        });
+        return exchange;
+    }
+
+    /**
+     * Create the exchange of a request of a batch, which makes its first attempt once the channel of the batch is ready.
+     */
+    private ChannelListener createBatchedExchange(final List<Future<?>> futures) {
+        final ResultFuture<T> future = new ResultFuture<T>();
+        final Exchange exchange = createExchange(future);
+        exchange.attempt = exchange.attempts++;
+        futures.add(future);
+        return exchange;
+    }
+
+    /**
+     * Write the request body.  On a channel this is run once the request header has been written, for the protocol
+     * version agreed when the channel was connected.  On a connection of its own it is run once the response header
+     * has given the protocol version of the remote side.
+     *
+     * @param protocolVersion The protocol version of the request header
      * @param output The output to write to
+     * @throws ManagementException If any errors occur
+     */
+    protected abstract void writeRequest(final int protocolVersion, final ByteDataOutput output) throws ManagementException;
+
+    /**
+     * Read the response body.  This is run once the response header has been read.
+     *
+     * @param protocolVersion The active protocol version for the request
      * @param input The input to read from
      * @return The result of the request
      * @throws ManagementException If any errors occur
      */
-    protected abstract T execute(final int protocolVersion, final ByteDataOutput output, final ByteDataInput input) throws ManagementException;
+    protected abstract T readResponse(final int protocolVersion, final ByteDataInput input) throws ManagementException;
 
-    private class InitiateRequestTask<T> implements Runnable {
-        private final ManagementRequest<T> request;
-        private final InitiatingFuture<T> initiatingFuture;
-        private int requestId;
+    /**
+     * Close the channels opened by requests of this process.  Requests still waiting for a response fail, and the next
+     * request to a remote address connects again.
+     */
+    public static void closeChannels() {
+        synchronized (channels) {
+            for (ManagementChannel channel : channels.values()) {
+                channel.close();
+            }
+            channels.clear();
+            unsupportedChannelAddresses.clear();
+        }
+    }
 
-        private InitiateRequestTask(final ManagementRequest<T> request, final InitiatingFuture<T> initiatingFuture) {
-            this.request = request;
-            this.initiatingFuture = initiatingFuture;
+    /**
+     * Pass the channel to the remote address to a listener.  If there is no open channel, the listener is queued behind
+     * the connection to the remote address, which is started by a thread of the executor if it is not being connected
+     * to already.  The listener is then notified by that thread once the handshake completes.
+     *
+     * @param listener The listener
+     */
+    private void getChannel(final ChannelListener listener) {
+        final InetSocketAddress remoteAddress = new InetSocketAddress(address, port);
+        final ManagementChannel channel = channels.get(remoteAddress);
+        if (channel != null && channel.isOpen()) {
+            listener.channelReady(channel);
+            return;
+        }
+        if (unsupportedChannelAddresses.contains(remoteAddress)) {
+            listener.channelReady(null);
+            return;
+        }
+        PendingChannel pending = pendingChannels.get(remoteAddress);
+        if (pending == null) {
+            final PendingChannel created = new PendingChannel(remoteAddress, (int) TimeUnit.SECONDS.toMillis(connectTimeout));
+            pending = pendingChannels.putIfAbsent(remoteAddress, created);
+            if (pending == null) {
+                pending = created;
+                try {
+                    executorService.execute(created);
+                } catch (RejectedExecutionException e) {
+                    created.complete(null, e);
+                }
+            }
         }
+        pending.addListener(listener);
+    }
 
-        public final void run() {
-            final int requestId = this.requestId++;
-            Socket socket = null;
-            try {
-                socket = new Socket();
-                final int timeout = (int) TimeUnit.SECONDS.toMillis(connectTimeout);
-                socket.connect(new InetSocketAddress(address, port), timeout);
-                socket.setSoTimeout(timeout);
+    /**
+     * Listener notified once the channel to a remote address is ready.
+     */
+    private interface ChannelListener {
+        /**
+         * The channel is ready.
+         *
+         * @param channel The channel, or {@code null} if the remote side does not support channels
+         */
+        void channelReady(ManagementChannel channel);
 
-                final ByteDataInput input = new SimpleByteDataInput(socket.getInputStream());
-                final ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+        /**
+         * The channel could not be connected.
+         *
+         * @param cause The cause of the failure
+         */
+        void channelFailed(Throwable cause);
+    }
 
-                // Start by writing the header
-                final ManagementRequestHeader managementRequestHeader = new ManagementRequestHeader(ManagementProtocol.VERSION, requestId, getHandlerId());
-                managementRequestHeader.write(output);
-                output.flush();
+    /**
+     * A channel being connected to a remote address, and the listeners waiting for it.
+     */
+    private static final class PendingChannel implements Runnable {
+        private final InetSocketAddress remoteAddress;
+        private final int timeout;
+        // Guarded by this
+        private final List<ChannelListener> listeners = new ArrayList<ChannelListener>();
+        private boolean done;
+        private ManagementChannel channel;
+        private Throwable failure;
 
-                // Now read the response header
-                final ManagementResponseHeader responseHeader = new ManagementResponseHeader(input);
+        private PendingChannel(final InetSocketAddress remoteAddress, final int timeout) {
+            this.remoteAddress = remoteAddress;
+            this.timeout = timeout;
+        }
 
-                if (requestId != responseHeader.getResponseId()) {
-                    // TODO: Exception???
-                    safeClose(socket);
-                    return;
+        public void run() {
+            try {
+                final ManagementChannel channel = ManagementChannel.connect(remoteAddress, timeout, timeout);
+                if (channel == null) {
+                    log.debugf("%s does not support management channels, sending requests on separate connections", remoteAddress);
+                    unsupportedChannelAddresses.add(remoteAddress);
+                } else {
+                    channels.put(remoteAddress, channel);
                 }
-                // Schedule execution the operation
-                Future<T> resultFuture = executorService.submit(new ExecuteTask<T>(request, responseHeader.getVersion(), socket, input, output));
-                initiatingFuture.set(resultFuture);
+                complete(channel, null);
             } catch (Throwable e) {
-                safeClose(socket);
-                if(requestId < connectionRetryLimit) {
-                    executorService.schedule(this, connectionRetryInterval, TimeUnit.SECONDS);
-                } else {
-                    initiatingFuture.setException(new ManagementException("Failed to initiate request to remote domain controller", e));
+                complete(null, e);
+            }
+        }
+
+        private void complete(final ManagementChannel channel, final Throwable failure) {
+            final List<ChannelListener> listeners;
+            synchronized (this) {
+                this.channel = channel;
+                this.failure = failure;
+                done = true;
+                listeners = new ArrayList<ChannelListener>(this.listeners);
+                this.listeners.clear();
+            }
+            // Requests from now on find the channel, or connect again
+            pendingChannels.remove(remoteAddress, this);
+            for (ChannelListener listener : listeners) {
+                notify(listener, channel, failure);
+            }
+        }
+
+        private void addListener(final ChannelListener listener) {
+            final ManagementChannel channel;
+            final Throwable failure;
+            synchronized (this) {
+                if (!done) {
+                    listeners.add(listener);
+                    return;
                 }
+                channel = this.channel;
+                failure = this.failure;
+            }
+            notify(listener, channel, failure);
+        }
+
+        private static void notify(final ChannelListener listener, final ManagementChannel channel, final Throwable failure) {
+            if (failure != null) {
+                listener.channelFailed(failure);
+            } else {
+                listener.channelReady(channel);
             }
         }
     }
 
-    private final class InitiatingFuture<T> {
-        private volatile Future<T> requestFuture;
-        private volatile Exception exception;
+    /**
+     * Handler notified once a request is complete.
+     *
+     * @param <T> The result type
+     */
+    public interface ResultHandler<T> {
+        /**
+         * Handle the result of a successful request.
+         *
+         * @param result The result
+         */
+        void handleResult(T result);
+
+        /**
+         * Handle the failure of a request.
+         *
+         * @param cause The cause of the failure
+         */
+        void handleFailure(ManagementException cause);
+    }
+
+    /**
+     * A single execution of the request.  Sending the request is retried if the channel can not be opened, but never
+     * once the request may have been sent.
+     */
+    private final class Exchange implements Runnable, ChannelListener {
+        private static final int WAITING = 0;
+        private static final int READING = 1;
+        private static final int DONE = 2;
+
+        private final ResultHandler<T> handler;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private int attempts;
+        /* The current attempt, read by the thread which notifies the exchange of the channel */
+        private volatile int attempt;
+        /* The stream or connection of the current attempt, closed if the request is cancelled */
+        private volatile Closeable current;
+
+        private Exchange(final ResultHandler<T> handler) {
+            this.handler = handler;
+        }
+
+        public void run() {
+            if (state.get() == DONE) {
+                return; // Cancelled
+            }
+            attempt = attempts++;
+            getChannel(this);
+        }
+
+        public void channelFailed(final Throwable cause) {
+            retryOrFail(attempt, cause);
+        }
 
-        Future<T> get() throws ManagementException {
-            boolean intr = false;
+        public void channelReady(final ManagementChannel channel) {
+            if (state.get() == DONE) {
+                return; // Cancelled
+            }
+            final int attempt = this.attempt;
+            final ManagementChannel.Stream stream;
             try {
-                synchronized (this) {
-                    while (this.requestFuture == null && exception == null) {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                            intr = true;
+                if (channel == null) {
+                    executorService.execute(new Runnable() {
+                        public void run() {
+                            exchangeOnConnection(attempt);
                         }
+                    });
+                    return;
+                }
+                stream = channel.openStream();
+                setCurrent(stream);
+                final int version = channel.getVersion();
+                final ByteDataOutput output = stream.getOutput();
+                try {
+                    new ManagementRequestHeader(version, stream.getRequestId(), getHandlerId()).write(output);
+                    writeRequest(version, output);
+                    output.flush();
+                } catch (Throwable e) {
+                    stream.close();
+                    fail(e instanceof ManagementException ? (ManagementException) e : new ManagementException("Failed to send remote request", e));
+                    return;
+                }
+            } catch (Throwable e) {
+                retryOrFail(attempt, e);
+                return;
+            }
+            final ScheduledFuture<?> timeout = responseTimeout <= 0 ? null : executorService.schedule(new Runnable() {
+                public void run() {
+                    if (state.compareAndSet(WAITING, DONE)) {
+                        stream.close();
+                        handler.handleFailure(new ManagementException("Timed out waiting for response to request " + stream.getRequestId()));
                     }
                 }
-                if (exception != null) {
-                    if(exception instanceof ManagementException) {
-                        throw ManagementException.class.cast(exception);
+            }, responseTimeout, TimeUnit.SECONDS);
+            stream.setReadyListener(new Runnable() {
+                public void run() {
+                    if (state.compareAndSet(WAITING, READING)) {
+                        if (timeout != null) {
+                            timeout.cancel(false);
+                        }
+                        executorService.execute(new Runnable() {
+                            public void run() {
+                                receive(stream);
+                            }
+                        });
                     }
-                    throw new ManagementException(exception);
                 }
-                return requestFuture;
+            });
+        }
+
+        private void receive(final ManagementChannel.Stream stream) {
+            final T result;
+            try {
+                final ByteDataInput input = stream.getInput();
+                final ManagementResponseHeader responseHeader = new ManagementResponseHeader(input);
+                if (stream.getRequestId() != responseHeader.getResponseId()) {
+                    throw new ManagementException("Invalid response id.  Expecting '" + stream.getRequestId() + "' received '" + responseHeader.getResponseId() + "'");
+                }
+                result = readResponse(responseHeader.getVersion(), input);
+            } catch (Throwable e) {
+                fail(e instanceof ManagementException ? (ManagementException) e : new ManagementException("Failed to read response of remote request", e));
+                return;
             } finally {
-                if (intr) Thread.currentThread().interrupt();
+                stream.close();
             }
+            state.set(DONE);
+            handler.handleResult(result);
         }
 
-        void set(final Future<T> operationFuture) {
-            synchronized (this) {
-                this.requestFuture = operationFuture;
+        /**
+         * Send the request on a connection of its own, for a remote side which does not support channels.  The request
+         * body is written once the response header has given the protocol version of the remote side.
+         */
+        private void exchangeOnConnection(final int attempt) {
+            final Socket socket = new Socket();
+            final T result;
+            try {
+                try {
+                    final int timeout = (int) TimeUnit.SECONDS.toMillis(connectTimeout);
+                    setCurrent(socket);
+                    socket.connect(new InetSocketAddress(address, port), timeout);
+                    socket.setSoTimeout(timeout);
+                } catch (IOException e) {
+                    retryOrFail(attempt, e);
+                    return;
+                }
+                final ByteDataInput input = new SimpleByteDataInput(socket.getInputStream());
+                final ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+                new ManagementRequestHeader(ManagementProtocol.VERSION, attempt, getHandlerId()).write(output);
+                output.flush();
+                final ManagementResponseHeader responseHeader = new ManagementResponseHeader(input);
+                if (attempt != responseHeader.getResponseId()) {
+                    throw new ManagementException("Invalid response id.  Expecting '" + attempt + "' received '" + responseHeader.getResponseId() + "'");
+                }
+                writeRequest(responseHeader.getVersion(), output);
+                output.flush();
+                socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(responseTimeout));
+                result = readResponse(responseHeader.getVersion(), input);
+            } catch (Throwable e) {
+                fail(e instanceof ManagementException ? (ManagementException) e : new ManagementException("Failed to execute remote request", e));
+                return;
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            state.set(DONE);
+            handler.handleResult(result);
+        }
+
+        private void setCurrent(final ManagementChannel.Stream stream) throws IOException {
+            setCurrent(new Closeable() {
+                public void close() {
+                    stream.close();
+                }
+            });
+        }
+
+        private void setCurrent(final Socket socket) throws IOException {
+            setCurrent(new Closeable() {
+                public void close() throws IOException {
+                    socket.close();
+                }
+            });
+        }
+
+        private void setCurrent(final Closeable current) throws IOException {
+            this.current = current;
+            if (state.get() == DONE) {
+                // Cancelled while connecting
+                current.close();
+                throw new IOException("Request was cancelled");
+            }
+        }
+
+        /**
+         * Stop the request, closing its stream or connection.
+         */
+        void cancel() {
+            state.set(DONE);
+            final Closeable current = this.current;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void retryOrFail(final int attempt, final Throwable cause) {
+            if (state.get() == DONE) {
+                return;
+            }
+            if (attempt < connectionRetryLimit) {
+                executorService.schedule(this, connectionRetryInterval, TimeUnit.SECONDS);
+            } else {
+                fail(new ManagementException("Failed to initiate request to remote domain controller", cause));
+            }
+        }
+
+        private void fail(final ManagementException cause) {
+            state.set(DONE);
+            handler.handleFailure(cause);
+        }
+    }
+
+    /**
+     * Future completed by the result handler of a request.
+     */
+    private static final class ResultFuture<T> implements Future<T>, ResultHandler<T> {
+        private T result;
+        private ManagementException failure;
+        private boolean done;
+        private boolean cancelled;
+        private Runnable cancelTask;
+
+        synchronized void setCancelTask(final Runnable cancelTask) {
+            this.cancelTask = cancelTask;
+        }
+
+        public synchronized void handleResult(final T result) {
+            if (!done) {
+                this.result = result;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        public synchronized void handleFailure(final ManagementException cause) {
+            if (!done) {
+                this.failure = cause;
+                done = true;
                 notifyAll();
             }
         }
 
-        void setException(final Exception exception) {
+        /**
+         * Stop waiting for the request and close its stream or connection.  A request which has already been sent may
+         * still be executed by the remote side.
+         */
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final Runnable cancelTask;
             synchronized (this) {
-                this.exception = exception;
+                if (done) {
+                    return false;
+                }
+                cancelled = done = true;
                 notifyAll();
+                cancelTask = this.cancelTask;
+            }
+            if (cancelTask != null) {
+                cancelTask.run();
             }
+            return true;
         }
-    }
 
-    private class ExecuteTask<T> implements Callable<T> {
-        private final ManagementRequest<T> request;
-        private final int protocolVersion;
-        private final Socket socket;
-        private final ByteDataInput input;
-        private final ByteDataOutput output;
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
 
-        private ExecuteTask(final ManagementRequest<T> request, final int protocolVersion, final Socket socket, final ByteDataInput input, final ByteDataOutput output) {
-            this.request = request;
-            this.protocolVersion = protocolVersion;
-            this.socket = socket;
-            this.input = input;
-            this.output = output;
+        public synchronized boolean isDone() {
+            return done;
         }
 
-        public T call() throws Exception {
-            try {
-                return request.execute(protocolVersion, output, input);
-            } finally {
-                safeClose(socket);
+        public synchronized T get() throws InterruptedException, ExecutionException {
+            while (!done) {
+                wait();
             }
+            return getResult();
         }
-    }
 
-    private void safeClose(final Socket socket) {
-        if (socket == null)
-            return;
-        try {
-            socket.shutdownOutput();
-        } catch (IOException ignored) {
-        }
-        try {
-            socket.shutdownInput();
-        } catch (IOException ignored) {
+        public synchronized T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long remaining = unit.toNanos(timeout);
+            final long end = System.nanoTime() + remaining;
+            while (!done) {
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = end - System.nanoTime();
+            }
+            return getResult();
         }
-        try {
-            socket.close();
-        } catch (IOException ignored) {
+
+        private T getResult() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
         }
     }
 }
@@ -25,15 +25,18 @@ package org.jboss.as.server.manager.management;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import static org.jboss.as.server.manager.management.ManagementUtils.expectHeader;
 
 /**
  * Protocol header used for management operation responses. Provides the default header fields from
- * {@link ManagementProtocolHeader}.
+ * {@link ManagementProtocolHeader}.  From protocol version 2 the header also carries the capabilities of the responding
+ * side, such as the {@link ManagementCompression} codecs it accepts.
  *
  * @author John Bailey
  */
 public class ManagementResponseHeader extends ManagementProtocolHeader {
     private int responseId;
+    private int capabilities;
 
     /**
      * Construct a new instance and read the header information from the input provided.
@@ -53,18 +56,38 @@ public class ManagementResponseHeader extends ManagementProtocolHeader {
      * @param responseId The response id
      */
     public ManagementResponseHeader(final int version, final int responseId) {
+        this(version, responseId, 0);
+    }
+
+    /**
+     * Construct an instance with the protocol version and the capabilities of the responding side.
+     *
+     * @param version The protocol version
+     * @param responseId The response id
+     * @param capabilities The capability flags, only sent if the version is at least 2
+     */
+    public ManagementResponseHeader(final int version, final int responseId, final int capabilities) {
         super(version);
         this.responseId = responseId;
+        this.capabilities = capabilities;
     }
 
     public void read(final DataInput input) throws IOException, ManagementException {
         super.read(input);
         this.responseId = input.readInt();
+        if (version >= 2) {
+            expectHeader(input, ManagementProtocol.CAPABILITIES_FIELD);
+            this.capabilities = input.readInt();
+        }
     }
 
     public void write(DataOutput output) throws IOException, ManagementException {
         super.write(output);
         output.writeInt(responseId);
+        if (version >= 2) {
+            output.writeByte(ManagementProtocol.CAPABILITIES_FIELD);
+            output.writeInt(capabilities);
+        }
     }
 
     /**
@@ -75,4 +98,13 @@ public class ManagementResponseHeader extends ManagementProtocolHeader {
     public int getResponseId() {
         return responseId;
     }
+
+    /**
+     * The capabilities of the responding side.
+     *
+     * @return The capability flags, which are 0 for protocol versions before 2
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
 }
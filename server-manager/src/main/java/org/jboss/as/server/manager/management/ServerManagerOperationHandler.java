@@ -118,6 +118,7 @@ public class ServerManagerOperationHandler implements ManagementOperationHandler
                 expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL);
                 final DomainModel domainModel = unmarshal(input, DomainModel.class);
                 serverManager.setDomain(domainModel);
+                serverManager.setDomainModelVersion(null, 0L);
                 log.info("Received domain update.");
             } catch (Exception e) {
                 throw new ManagementException("Unable to read domain from request", e);
@@ -127,6 +128,8 @@ public class ServerManagerOperationHandler implements ManagementOperationHandler
 
     private class UpdateDomainModelOperation extends ManagementResponse {
         private List<AbstractDomainModelUpdate<?>> updates;
+        private String changeLogId;
+        private long version;
 
         public final byte getRequestCode() {
             return ManagementProtocol.UPDATE_DOMAIN_MODEL_REQUEST;
@@ -138,6 +141,9 @@ public class ServerManagerOperationHandler implements ManagementOperationHandler
 
         protected final void readRequest(final ByteDataInput input) throws ManagementException {
             try {
+                expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_VERSION);
+                changeLogId = input.readUTF();
+                version = input.readLong();
                 expectHeader(input, ManagementProtocol.PARAM_DOMAIN_MODEL_UPDATE_COUNT);
                 int count = input.readInt();
                 updates = new ArrayList<AbstractDomainModelUpdate<?>>(count);
@@ -146,17 +152,14 @@ public class ServerManagerOperationHandler implements ManagementOperationHandler
                     final AbstractDomainModelUpdate<?> update = unmarshal(input, AbstractDomainModelUpdate.class);
                     updates.add(update);
                 }
-                log.infof("Received domain model updates %s", updates);
+                log.infof("Received domain model updates %s (version %d)", updates, version);
             } catch (Exception e) {
                 throw new ManagementException("Unable to read domain model updates from request", e);
             }
         }
 
         protected void sendResponse(final ByteDataOutput output) throws ManagementException {
-            List<ModelUpdateResponse<?>> responses = new ArrayList<ModelUpdateResponse<?>>(updates.size());
-            for(AbstractDomainModelUpdate<?> update : updates) {
-                responses.add(processUpdate(update));
-            }
+            final List<ModelUpdateResponse<?>> responses = serverManager.applyDomainModelUpdates(updates, changeLogId, version);
             try {
                 output.writeByte(ManagementProtocol.PARAM_MODEL_UPDATE_RESPONSE_COUNT);
                 output.writeInt(responses.size());
@@ -168,15 +171,6 @@ public class ServerManagerOperationHandler implements ManagementOperationHandler
                 throw new ManagementException("Unable to send domain model update response.", e);
             }
         }
-
-        private <R> ModelUpdateResponse<R> processUpdate(final AbstractDomainModelUpdate<R> update) {
-            //try {
-                final R result = null; // TODO: Process update
-                return new ModelUpdateResponse<R>(result);
-//            } catch (UpdateFailedException e) {
-//                return new ModelUpdateResponse<R>(e);
-//            }
-        }
     }
 
     private class UpdateHostModelOperation extends ManagementResponse {
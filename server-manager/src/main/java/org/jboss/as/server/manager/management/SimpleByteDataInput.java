@@ -22,105 +22,258 @@
 
 package org.jboss.as.server.manager.management;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import org.jboss.marshalling.Marshalling;
-import org.jboss.marshalling.SimpleDataInput;
 
 /**
- * Simple implementation of the {@link org.jboss.as.server.manager.management.ByteDataInput} that delegates to a
- * {@link org.jboss.marshalling.SimpleDataInput}.
+ * Buffered implementation of the {@link org.jboss.as.server.manager.management.ByteDataInput} reading from an
+ * {@link java.io.InputStream}.  The buffer is taken from the {@link ManagementBufferPool} on the first read and
+ * returned to it when the input is closed, and primitive values are decoded straight from the buffer.  Like any
+ * buffered input it may read ahead of the values consumed.
  *
  * @author John Bailey
  */
 public class SimpleByteDataInput implements ByteDataInput {
-    private final SimpleDataInput input;
+    private final InputStream inputStream;
+    private final ManagementBufferPool pool;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean closed;
 
     public SimpleByteDataInput(final InputStream inputStream) {
-        this.input = new SimpleDataInput(Marshalling.createByteInput(inputStream));
+        this(inputStream, ManagementBufferPool.getInstance());
+    }
+
+    SimpleByteDataInput(final InputStream inputStream, final ManagementBufferPool pool) {
+        this.inputStream = inputStream;
+        this.pool = pool;
     }
 
     public int read() throws IOException {
-        return input.read();
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
     }
 
     public int read(byte[] b) throws IOException {
-        return input.read(b);
+        return read(b, 0, b.length);
     }
 
     public int read(byte[] b, int off, int len) throws IOException {
-        return input.read(b, off, len);
+        if (len == 0) {
+            return 0;
+        }
+        final int buffered = limit - position;
+        if (buffered > 0) {
+            final int count = Math.min(len, buffered);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+        ensureOpen();
+        if (len >= pool.getBufferSize()) {
+            // Nothing buffered, read large requests straight into the caller's array
+            return inputStream.read(b, off, len);
+        }
+        if (!fill()) {
+            return -1;
+        }
+        return read(b, off, len);
     }
 
     public long skip(long n) throws IOException {
-        return input.skip(n);
+        if (n <= 0) {
+            return 0;
+        }
+        final int buffered = limit - position;
+        if (buffered > 0) {
+            final int count = (int) Math.min(n, buffered);
+            position += count;
+            return count;
+        }
+        ensureOpen();
+        return inputStream.skip(n);
     }
 
     public int available() throws IOException {
-        return input.available();
+        ensureOpen();
+        return limit - position + inputStream.available();
     }
 
     public void readFully(byte[] b) throws IOException {
-        input.readFully(b);
+        readFully(b, 0, b.length);
     }
 
     public void readFully(byte[] b, int off, int len) throws IOException {
-        input.readFully(b, off, len);
+        while (len > 0) {
+            final int count = read(b, off, len);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            off += count;
+            len -= count;
+        }
     }
 
     public int skipBytes(int n) throws IOException {
-        return input.skipBytes(n);
+        int skipped = 0;
+        while (skipped < n) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            final int count = Math.min(n - skipped, limit - position);
+            position += count;
+            skipped += count;
+        }
+        return skipped;
     }
 
     public boolean readBoolean() throws IOException {
-        return input.readBoolean();
+        return readUnsignedByte() != 0;
     }
 
     public byte readByte() throws IOException {
-        return input.readByte();
+        return (byte) readUnsignedByte();
     }
 
     public int readUnsignedByte() throws IOException {
-        return input.readUnsignedByte();
+        final int b = read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
     }
 
     public short readShort() throws IOException {
-        return input.readShort();
+        return (short) readUnsignedShort();
     }
 
     public int readUnsignedShort() throws IOException {
-        return input.readUnsignedShort();
+        require(2);
+        final byte[] buffer = this.buffer;
+        final int position = this.position;
+        this.position = position + 2;
+        return (buffer[position] & 0xff) << 8 | buffer[position + 1] & 0xff;
     }
 
     public char readChar() throws IOException {
-        return input.readChar();
+        return (char) readUnsignedShort();
     }
 
     public int readInt() throws IOException {
-        return input.readInt();
+        require(4);
+        final byte[] buffer = this.buffer;
+        final int position = this.position;
+        this.position = position + 4;
+        return buffer[position] << 24 | (buffer[position + 1] & 0xff) << 16 | (buffer[position + 2] & 0xff) << 8 | buffer[position + 3] & 0xff;
     }
 
     public long readLong() throws IOException {
-        return input.readLong();
+        require(8);
+        final byte[] buffer = this.buffer;
+        final int position = this.position;
+        this.position = position + 8;
+        final long high = buffer[position] << 24 | (buffer[position + 1] & 0xff) << 16 | (buffer[position + 2] & 0xff) << 8 | buffer[position + 3] & 0xff;
+        final long low = buffer[position + 4] << 24 | (buffer[position + 5] & 0xff) << 16 | (buffer[position + 6] & 0xff) << 8 | buffer[position + 7] & 0xff;
+        return high << 32 | low & 0xffffffffL;
     }
 
     public float readFloat() throws IOException {
-        return input.readFloat();
+        return Float.intBitsToFloat(readInt());
     }
 
     public double readDouble() throws IOException {
-        return input.readDouble();
+        return Double.longBitsToDouble(readLong());
     }
 
     public String readLine() throws IOException {
-        return input.readLine();
+        final StringBuilder builder = new StringBuilder();
+        int b = read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            if (b == '\r') {
+                if (position == limit && !fill()) {
+                    break;
+                }
+                if (buffer[position] == '\n') {
+                    position++;
+                }
+                break;
+            }
+            builder.append((char) b);
+            b = read();
+        }
+        return builder.toString();
     }
 
     public String readUTF() throws IOException {
-        return input.readUTF();
+        return DataInputStream.readUTF(this);
     }
 
     public void close() throws IOException {
-        input.close();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final byte[] buffer = this.buffer;
+        this.buffer = null;
+        position = limit = 0;
+        pool.release(buffer);
+        inputStream.close();
+    }
+
+    /**
+     * Read more bytes into the buffer, which must have been fully consumed.
+     *
+     * @return {@code true} if bytes were read, {@code false} at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        ensureOpen();
+        if (buffer == null) {
+            buffer = pool.allocate();
+        }
+        final int count = inputStream.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = count > 0 ? count : 0;
+        return count > 0;
+    }
+
+    /**
+     * Make sure a number of bytes are buffered, reading more if needed.
+     *
+     * @param count The number of bytes
+     */
+    private void require(final int count) throws IOException {
+        if (limit - position >= count) {
+            return;
+        }
+        ensureOpen();
+        if (buffer == null) {
+            buffer = pool.allocate();
+        }
+        // Move the remaining bytes to the start of the buffer then read until enough are available
+        final int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+        while (limit < count) {
+            final int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            limit += read;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Input is closed");
+        }
     }
 }
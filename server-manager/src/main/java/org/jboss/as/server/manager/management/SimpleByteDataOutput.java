@@ -24,83 +24,197 @@ package org.jboss.as.server.manager.management;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import org.jboss.marshalling.Marshalling;
-import org.jboss.marshalling.SimpleDataOutput;
+import java.io.UTFDataFormatException;
 
 /**
- * Simple implementation of the {@link org.jboss.as.server.manager.management.ByteDataOutput} that delegates to a
- * {@link org.jboss.marshalling.SimpleDataOutput}.
+ * Buffered implementation of the {@link org.jboss.as.server.manager.management.ByteDataOutput} writing to an
+ * {@link java.io.OutputStream}.  The buffer is taken from the {@link ManagementBufferPool} on the first write and
+ * returned to it when the output is closed, and primitive values are encoded straight into the buffer.
  *
  * @author John Bailey
  */
 public class SimpleByteDataOutput implements ByteDataOutput {
-    private final SimpleDataOutput output;
+    private final OutputStream outputStream;
+    private final ManagementBufferPool pool;
+    private byte[] buffer;
+    private int position;
+    private boolean closed;
 
     public SimpleByteDataOutput(final OutputStream outputStream) {
-        this.output = new SimpleDataOutput(Marshalling.createByteOutput(outputStream));
+        this(outputStream, ManagementBufferPool.getInstance());
+    }
+
+    SimpleByteDataOutput(final OutputStream outputStream, final ManagementBufferPool pool) {
+        this.outputStream = outputStream;
+        this.pool = pool;
     }
 
     public void write(int b) throws IOException {
-        output.write(b);
+        require(1);
+        buffer[position++] = (byte) b;
     }
 
     public void write(byte[] b) throws IOException {
-        output.write(b);
+        write(b, 0, b.length);
     }
 
     public void write(byte[] b, int off, int len) throws IOException {
-        output.write(b, off, len);
+        ensureOpen();
+        final int bufferSize = pool.getBufferSize();
+        if (len >= bufferSize) {
+            // Write large arrays straight from the caller's array
+            flushBuffer();
+            outputStream.write(b, off, len);
+            return;
+        }
+        if (buffer == null) {
+            buffer = pool.allocate();
+        }
+        if (len > bufferSize - position) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, position, len);
+        position += len;
     }
 
     public void writeBoolean(boolean v) throws IOException {
-        output.writeBoolean(v);
+        write(v ? 1 : 0);
     }
 
     public void writeByte(int v) throws IOException {
-        output.writeByte(v);
+        write(v);
     }
 
     public void writeShort(int v) throws IOException {
-        output.writeShort(v);
+        require(2);
+        final byte[] buffer = this.buffer;
+        final int position = this.position;
+        buffer[position] = (byte) (v >> 8);
+        buffer[position + 1] = (byte) v;
+        this.position = position + 2;
     }
 
     public void writeChar(int v) throws IOException {
-        output.writeChar(v);
+        writeShort(v);
     }
 
     public void writeInt(int v) throws IOException {
-        output.writeInt(v);
+        require(4);
+        final byte[] buffer = this.buffer;
+        final int position = this.position;
+        buffer[position] = (byte) (v >> 24);
+        buffer[position + 1] = (byte) (v >> 16);
+        buffer[position + 2] = (byte) (v >> 8);
+        buffer[position + 3] = (byte) v;
+        this.position = position + 4;
     }
 
     public void writeLong(long v) throws IOException {
-        output.writeLong(v);
+        require(8);
+        final byte[] buffer = this.buffer;
+        final int position = this.position;
+        for (int i = 7; i >= 0; i--) {
+            buffer[position + i] = (byte) v;
+            v >>= 8;
+        }
+        this.position = position + 8;
     }
 
     public void writeFloat(float v) throws IOException {
-        output.writeFloat(v);
+        writeInt(Float.floatToIntBits(v));
     }
 
     public void writeDouble(double v) throws IOException {
-        output.writeDouble(v);
+        writeLong(Double.doubleToLongBits(v));
     }
 
     public void writeBytes(String s) throws IOException {
-        output.writeBytes(s);
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            write(s.charAt(i));
+        }
     }
 
     public void writeChars(String s) throws IOException {
-        output.writeChars(s);
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            writeShort(s.charAt(i));
+        }
     }
 
     public void writeUTF(String s) throws IOException {
-        output.writeUTF(s);
+        final int length = s.length();
+        int utfLength = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            utfLength += c > 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        if (utfLength > 0xffff) {
+            throw new UTFDataFormatException("String is too long to write (" + utfLength + " bytes)");
+        }
+        writeShort(utfLength);
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c > 0 && c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                require(2);
+                buffer[position++] = (byte) (0xc0 | c >> 6 & 0x1f);
+                buffer[position++] = (byte) (0x80 | c & 0x3f);
+            } else {
+                require(3);
+                buffer[position++] = (byte) (0xe0 | c >> 12 & 0x0f);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
     }
 
     public void close() throws IOException {
-        output.close();
+        if (closed) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } finally {
+            closed = true;
+            final byte[] buffer = this.buffer;
+            this.buffer = null;
+            pool.release(buffer);
+            outputStream.close();
+        }
     }
 
     public void flush() throws IOException {
-        output.flush();
+        ensureOpen();
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    /**
+     * Make sure there is space in the buffer for a number of bytes, flushing it if needed.
+     *
+     * @param count The number of bytes
+     */
+    private void require(final int count) throws IOException {
+        ensureOpen();
+        if (buffer == null) {
+            buffer = pool.allocate();
+        } else if (buffer.length - position < count) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            outputStream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Output is closed");
+        }
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the launch options chosen by {@link ClassDataSharingArchives}.  The archives are dumped by a shell script
+ * standing in for the java command, which creates the archive file it is given, or fails.
+ */
+public class ClassDataSharingArchivesTestCase {
+
+    private static final String SH = "/bin/sh";
+    private static final String RECORD = "-XX:DumpLoadedClassList=";
+    private static final String USE = "-XX:SharedArchiveFile=";
+
+    private File dir;
+    private File archiveDir;
+    private File homeDir;
+    private File modulesDir;
+    private File dumpScript;
+    private File failingDumpScript;
+    private ClassDataSharingArchives archives;
+
+    @Before
+    public void createDirs() throws IOException {
+        dir = File.createTempFile("cds", "test");
+        dir.delete();
+        archiveDir = new File(dir, "cds");
+        homeDir = new File(dir, "home");
+        modulesDir = new File(homeDir, "modules");
+        Assert.assertTrue(modulesDir.mkdirs());
+        write(new File(modulesDir, "module.xml"), "<module/>\n");
+        dumpScript = new File(dir, "dump.sh");
+        write(dumpScript, "for arg; do case \"$arg\" in " + USE + "*) echo archive > \"${arg#" + USE + "}\";; esac; done\n");
+        failingDumpScript = new File(dir, "fail.sh");
+        write(failingDumpScript, "exit 1\n");
+        archives = createArchives();
+    }
+
+    @After
+    public void deleteDirs() {
+        archives.shutdown();
+        delete(dir);
+    }
+
+    @Test
+    public void testRecordThenUseArchive() throws Exception {
+        if (!new File(SH).isFile()) {
+            return;
+        }
+        final List<String> jvmCommand = Arrays.asList(SH, dumpScript.getAbsolutePath(), "-Xmx64m");
+
+        record(archives, jvmCommand, "Server:one");
+        // Only one server records the class list, and only servers which report when they have started may record
+        Assert.assertEquals(Collections.<String>emptyList(), archives.getLaunchOptions(jvmCommand, "Server:two", true));
+        Assert.assertEquals(Collections.<String>emptyList(), archives.getLaunchOptions(jvmCommand, "Server:three", false));
+
+        archives.serverStarted("Server:one");
+        final List<String> options = awaitOptions(archives, jvmCommand, "Server:two");
+        Assert.assertEquals(2, options.size());
+        Assert.assertTrue(options.get(0), options.get(0).startsWith(USE));
+        Assert.assertTrue(new File(options.get(0).substring(USE.length())).isFile());
+        Assert.assertEquals("-Xshare:auto", options.get(1));
+
+        // A restarted server manager uses the archive it dumped before
+        archives.shutdown();
+        archives = createArchives();
+        Assert.assertEquals(options, archives.getLaunchOptions(jvmCommand, "Server:three", true));
+    }
+
+    @Test
+    public void testChangedJvmOptionsRecordAgain() throws Exception {
+        if (!new File(SH).isFile()) {
+            return;
+        }
+        final List<String> jvmCommand = Arrays.asList(SH, dumpScript.getAbsolutePath(), "-Xmx64m");
+        record(archives, jvmCommand, "Server:one");
+        archives.serverStarted("Server:one");
+        Assert.assertTrue(awaitOptions(archives, jvmCommand, "Server:two").get(0).startsWith(USE));
+
+        record(archives, Arrays.asList(SH, dumpScript.getAbsolutePath(), "-Xmx128m"), "Server:three");
+    }
+
+    @Test
+    public void testChangedModulesRecordAgain() throws Exception {
+        if (!new File(SH).isFile()) {
+            return;
+        }
+        final List<String> jvmCommand = Arrays.asList(SH, dumpScript.getAbsolutePath(), "-Xmx64m");
+        record(archives, jvmCommand, "Server:one");
+        archives.serverStarted("Server:one");
+        Assert.assertTrue(awaitOptions(archives, jvmCommand, "Server:two").get(0).startsWith(USE));
+
+        write(new File(modulesDir, "other-module.xml"), "<module/>\n");
+        archives.shutdown();
+        archives = createArchives();
+        record(archives, jvmCommand, "Server:three");
+    }
+
+    @Test
+    public void testFailedDumpRecordsAgain() throws Exception {
+        if (!new File(SH).isFile()) {
+            return;
+        }
+        final List<String> jvmCommand = Arrays.asList(SH, failingDumpScript.getAbsolutePath());
+        for (int i = 0; i < ClassDataSharingArchives.MAX_DUMP_ATTEMPTS - 1; i++) {
+            record(archives, jvmCommand, "Server:" + i);
+            archives.serverStarted("Server:" + i);
+            final List<String> options = awaitOptions(archives, jvmCommand, "Server:next");
+            Assert.assertTrue(options.get(0), options.get(0).startsWith(RECORD));
+            archives.serverFailed("Server:next");
+        }
+
+        // Servers are launched without an archive once the last attempt failed
+        final File classList = record(archives, jvmCommand, "Server:last");
+        archives.serverStarted("Server:last");
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (classList.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse("Timed out waiting for the archive dump", classList.exists());
+        Assert.assertEquals(Collections.<String>emptyList(), archives.getLaunchOptions(jvmCommand, "Server:next", true));
+    }
+
+    @Test
+    public void testFailedServerRecordsAgain() throws Exception {
+        final List<String> jvmCommand = Arrays.asList(SH, dumpScript.getAbsolutePath());
+        final List<String> options = archives.getLaunchOptions(jvmCommand, "Server:one", true);
+        Assert.assertEquals(1, options.size());
+        Assert.assertTrue(options.get(0), options.get(0).startsWith(RECORD));
+        archives.serverFailed("Server:one");
+        Assert.assertEquals(options, archives.getLaunchOptions(jvmCommand, "Server:two", true));
+    }
+
+    private ClassDataSharingArchives createArchives() {
+        return new ClassDataSharingArchives(archiveDir, homeDir, modulesDir);
+    }
+
+    /**
+     * Launch a server which records the class list, and write the class list it would record.
+     */
+    private static File record(final ClassDataSharingArchives archives, final List<String> jvmCommand, final String processName) throws IOException {
+        final List<String> options = archives.getLaunchOptions(jvmCommand, processName, true);
+        Assert.assertEquals(1, options.size());
+        Assert.assertTrue(options.get(0), options.get(0).startsWith(RECORD));
+        final File classList = new File(options.get(0).substring(RECORD.length()));
+        write(classList, "java/lang/Object\n");
+        return classList;
+    }
+
+    /**
+     * Wait for the background dump to finish, after which a server is launched with some options.
+     */
+    private static List<String> awaitOptions(final ClassDataSharingArchives archives, final List<String> jvmCommand, final String processName) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        List<String> options = archives.getLaunchOptions(jvmCommand, processName, true);
+        while (options.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            options = archives.getLaunchOptions(jvmCommand, processName, true);
+        }
+        Assert.assertFalse("Timed out waiting for the archive dump", options.isEmpty());
+        return options;
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeploymentContentFetcherTestCase {
+
+    private File local;
+    private File remote;
+
+    @Before
+    public void setup() throws Exception {
+        local = createDirectory("local");
+        remote = createDirectory("remote");
+    }
+
+    @After
+    public void cleanup() {
+        delete(local);
+        delete(remote);
+    }
+
+    @Test
+    public void testSharedContentFetchedOnce() throws Exception {
+        final TestRepository repository = new TestRepository(50);
+        final List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            paths.add("aa/deployment" + i);
+            repository.add("aa/deployment" + i);
+        }
+        final DeploymentContentFetcher fetcher = new DeploymentContentFetcher(repository.getLocal(), repository, 4);
+        final CountDownLatch latch = new CountDownLatch(12);
+        final AtomicInteger failures = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 12; i++) {
+            // Every server shares half of the deployments with the other servers
+            final List<String> serverPaths = new ArrayList<String>(paths.subList(0, 10));
+            serverPaths.add(paths.get(10 + i % 10));
+            fetcher.fetch(serverPaths, new TestCallback(latch, failures));
+        }
+        fetcher.shutdown();
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        final long elapsed = System.currentTimeMillis() - start;
+        Assert.assertEquals(0, failures.get());
+        for (String path : paths) {
+            Assert.assertEquals(path, 1, repository.getFetchCount(path));
+        }
+        // 20 fetches of 50ms each on 4 threads
+        Assert.assertTrue("Took " + elapsed + " ms", elapsed < 20 * 50);
+    }
+
+    @Test
+    public void testLocalContent() throws Exception {
+        final TestRepository repository = new TestRepository(0);
+        new File(local, "local").createNewFile();
+        final DeploymentContentFetcher fetcher = new DeploymentContentFetcher(repository.getLocal(), repository, 1);
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicInteger failures = new AtomicInteger();
+        fetcher.fetch(Arrays.asList("local"), new TestCallback(latch, failures));
+        fetcher.fetch(Collections.<String>emptyList(), new TestCallback(latch, failures));
+        fetcher.shutdown();
+        // Both callbacks are invoked by the calling thread
+        Assert.assertEquals(0, latch.getCount());
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(0, repository.getFetchCount("local"));
+    }
+
+    @Test
+    public void testMissingContent() throws Exception {
+        final TestRepository repository = new TestRepository(0);
+        repository.add("present");
+        final DeploymentContentFetcher fetcher = new DeploymentContentFetcher(repository.getLocal(), repository, 2);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> unavailable = Collections.synchronizedList(new ArrayList<String>());
+        fetcher.fetch(Arrays.asList("present", "missing"), new DeploymentContentFetcher.Callback() {
+            public void contentAvailable() {
+                latch.countDown();
+            }
+
+            public void contentUnavailable(final Collection<String> deploymentPaths) {
+                unavailable.addAll(deploymentPaths);
+                latch.countDown();
+            }
+        });
+        fetcher.shutdown();
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("missing"), unavailable);
+    }
+
+    private static File createDirectory(final String name) throws Exception {
+        final File directory = File.createTempFile(name, "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class TestCallback implements DeploymentContentFetcher.Callback {
+        private final CountDownLatch latch;
+        private final AtomicInteger failures;
+
+        private TestCallback(final CountDownLatch latch, final AtomicInteger failures) {
+            this.latch = latch;
+            this.failures = failures;
+        }
+
+        public void contentAvailable() {
+            latch.countDown();
+        }
+
+        public void contentUnavailable(final Collection<String> deploymentPaths) {
+            failures.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    /**
+     * A remote repository which copies content into the local directory after a delay.
+     */
+    private class TestRepository implements FileRepository {
+        private final long latency;
+        private final ConcurrentMap<String, AtomicInteger> fetchCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private TestRepository(final long latency) {
+            this.latency = latency;
+        }
+
+        void add(final String path) {
+            fetchCounts.put(path, new AtomicInteger());
+        }
+
+        int getFetchCount(final String path) {
+            final AtomicInteger count = fetchCounts.get(path);
+            return count != null ? count.get() : 0;
+        }
+
+        FileRepository getLocal() {
+            return new FileRepository() {
+                public File getFile(final String relativePath) {
+                    return new File(local, relativePath);
+                }
+
+                public File getConfigurationFile(final String relativePath) {
+                    return new File(local, relativePath);
+                }
+
+                public File getDeploymentFile(final String relativePath) {
+                    return new File(local, relativePath);
+                }
+            };
+        }
+
+        public File getFile(final String relativePath) {
+            throw new UnsupportedOperationException();
+        }
+
+        public File getConfigurationFile(final String relativePath) {
+            throw new UnsupportedOperationException();
+        }
+
+        public File getDeploymentFile(final String relativePath) {
+            final File file = new File(local, relativePath);
+            final AtomicInteger count = fetchCounts.get(relativePath);
+            if (count != null) {
+                count.incrementAndGet();
+                try {
+                    Thread.sleep(latency);
+                    file.getParentFile().mkdirs();
+                    file.createNewFile();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return file;
+        }
+    }
+}
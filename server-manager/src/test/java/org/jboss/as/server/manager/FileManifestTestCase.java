@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.jboss.as.server.manager.management.ByteDataOutput;
+import org.jboss.as.server.manager.management.FileManifest;
+import org.jboss.as.server.manager.management.FileTransferUtils;
+import org.jboss.as.server.manager.management.SimpleByteDataInput;
+import org.jboss.as.server.manager.management.SimpleByteDataOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileManifestTestCase {
+
+    private static final int SIZE = 1024 * 1024;
+
+    private File directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = File.createTempFile("manifest", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void cleanup() {
+        delete(directory);
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        final File root = new File(directory, "root");
+        write(new File(root, "small"), new byte[] {1, 2, 3});
+        write(new File(root, "sub/large"), random(SIZE, 1));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteDataOutput output = new SimpleByteDataOutput(bytes);
+        FileManifest.create(root).write(output);
+        output.flush();
+        final FileManifest manifest = FileManifest.read(new SimpleByteDataInput(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Assert.assertEquals(2, manifest.getEntries().size());
+        final FileManifest.Entry small = manifest.getEntry("/small");
+        Assert.assertTrue(small.matches(3, FileManifest.hash(new File(root, "small"))));
+        Assert.assertEquals(0, small.getBlockSize());
+        final FileManifest.Entry large = manifest.getEntry("/sub/large");
+        Assert.assertTrue(large.matches(SIZE, FileManifest.hash(new File(root, "sub/large"))));
+        Assert.assertTrue(large.getBlockSize() > 0);
+
+        Assert.assertTrue(FileManifest.create(new File(directory, "missing")).getEntries().isEmpty());
+        Assert.assertNotNull(FileManifest.create(new File(root, "small")).getEntry(""));
+    }
+
+    @Test
+    public void testUnchangedDelta() throws Exception {
+        final byte[] content = random(SIZE, 2);
+        final int sent = delta(content, content);
+        Assert.assertTrue("Sent " + sent + " bytes", sent < 100);
+    }
+
+    @Test
+    public void testInsertedAndRemovedBytes() throws Exception {
+        final byte[] base = random(SIZE, 3);
+        final byte[] content = new byte[SIZE + 1000 - 500];
+        // Insert 1000 bytes after 100000 and remove 500 bytes at 600000
+        System.arraycopy(base, 0, content, 0, 100000);
+        System.arraycopy(random(1000, 4), 0, content, 100000, 1000);
+        System.arraycopy(base, 100000, content, 101000, 500000);
+        System.arraycopy(base, 600500, content, 601000, SIZE - 600500);
+        final int sent = delta(base, content);
+        Assert.assertTrue("Sent " + sent + " bytes", sent < 40000);
+    }
+
+    @Test
+    public void testShortLastBlock() throws Exception {
+        final byte[] base = random(SIZE + 1234, 5);
+        final byte[] content = base.clone();
+        content[10] = (byte) (content[10] + 1);
+        final int sent = delta(base, content);
+        Assert.assertTrue("Sent " + sent + " bytes", sent < 20000);
+    }
+
+    @Test
+    public void testUnrelatedContent() throws Exception {
+        final byte[] content = random(SIZE / 2 + 17, 7);
+        final int sent = delta(random(SIZE, 6), content);
+        Assert.assertTrue("Sent " + sent + " bytes", sent < content.length + 100);
+    }
+
+    @Test
+    public void testCorruptDeltaKeepsTarget() throws Exception {
+        final byte[] base = random(SIZE, 8);
+        final File target = new File(directory, "target");
+        write(target, base);
+        final FileManifest.Entry entry = FileManifest.create(target).getEntry("");
+        final File source = new File(directory, "source");
+        write(source, random(SIZE, 9));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteDataOutput output = new SimpleByteDataOutput(bytes);
+        FileTransferUtils.sendDelta(source, SIZE, entry, output);
+        output.flush();
+        final byte[] delta = bytes.toByteArray();
+        // Corrupt the trailing hash
+        delta[delta.length - 1]++;
+        try {
+            FileTransferUtils.receiveDelta(new SimpleByteDataInput(new ByteArrayInputStream(delta)), target, entry.getBlockSize(), target);
+            Assert.fail("Should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+        Assert.assertArrayEquals(base, read(target));
+        Assert.assertEquals(2, directory.listFiles().length);
+    }
+
+    /**
+     * Apply the delta of new content against base content and return the size of the delta.
+     */
+    private int delta(final byte[] base, final byte[] content) throws Exception {
+        final File target = new File(directory, "target");
+        write(target, base);
+        final FileManifest.Entry entry = FileManifest.create(target).getEntry("");
+        final File source = new File(directory, "source");
+        write(source, content);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteDataOutput output = new SimpleByteDataOutput(bytes);
+        FileTransferUtils.sendDelta(source, content.length, entry, output);
+        output.flush();
+
+        FileTransferUtils.receiveDelta(new SimpleByteDataInput(new ByteArrayInputStream(bytes.toByteArray())), target, entry.getBlockSize(), target);
+        Assert.assertArrayEquals(content, read(target));
+        return bytes.size();
+    }
+
+    private static byte[] random(final int length, final long seed) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void write(final File file, final byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
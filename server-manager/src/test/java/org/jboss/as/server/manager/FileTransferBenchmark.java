@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jboss.as.server.manager.management.ByteDataInput;
+import org.jboss.as.server.manager.management.ByteDataOutput;
+import org.jboss.as.server.manager.management.FileTransferUtils;
+import org.jboss.as.server.manager.management.ManagementChannel;
+import org.jboss.as.server.manager.management.ManagementProtocol;
+import org.jboss.as.server.manager.management.ManagementRequestHeader;
+import org.jboss.as.server.manager.management.ManagementResponseHeader;
+import org.jboss.as.server.manager.management.SimpleByteDataInput;
+import org.jboss.as.server.manager.management.SimpleByteDataOutput;
+
+/**
+ * Simple benchmark comparing the previous 8 KB buffer copy used to sync files from the domain controller with
+ * {@link FileTransferUtils}, over loopback.  Each transfer is run both over a plain socket and over a stream of a
+ * {@link ManagementChannel}, which is how file sync requests are now sent.  This is not run as part of the test
+ * suite.  Run it from the command line with the test classpath:
+ * <pre>
+ *   java org.jboss.as.server.manager.FileTransferBenchmark [size-in-mb] [iterations]
+ * </pre>
+ * By default a 200 MB file is transferred 5 times with each combination.
+ */
+public class FileTransferBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final File source = File.createTempFile("transfer", ".src");
+        final File target = new File(source.getParentFile(), source.getName() + ".dst");
+        source.deleteOnExit();
+        target.deleteOnExit();
+        writeSource(source, sizeMb * 1024L * 1024L);
+
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (boolean channel : new boolean[] {false, true}) {
+                // Warm up both implementations before measuring
+                run(executor, source, target, false, channel, 1);
+                run(executor, source, target, true, channel, 1);
+
+                report("copy", channel, sizeMb, run(executor, source, target, false, channel, iterations) / iterations);
+                report("file-channel", channel, sizeMb, run(executor, source, target, true, channel, iterations) / iterations);
+            }
+        } finally {
+            executor.shutdownNow();
+            source.delete();
+            target.delete();
+        }
+    }
+
+    private static void report(final String transfer, final boolean channel, final int sizeMb, final long nanos) {
+        final double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("%-13s over %-7s size=%-5d MB  time=%6d ms  throughput=%8.1f MB/s%n", transfer,
+                channel ? "channel" : "socket", sizeMb, TimeUnit.NANOSECONDS.toMillis(nanos), sizeMb / seconds);
+    }
+
+    private static void writeSource(final File source, final long size) throws IOException {
+        final byte[] chunk = new byte[1024 * 1024];
+        new Random(17).nextBytes(chunk);
+        final OutputStream out = new FileOutputStream(source);
+        try {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Transfer the source file to the target file the given number of times.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long run(final ExecutorService executor, final File source, final File target, final boolean fileChannel, final boolean channel, final int iterations) throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 10, InetAddress.getLocalHost());
+        try {
+            final Future<Void> sender = executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    final Socket socket = serverSocket.accept();
+                    try {
+                        ByteDataInput input = new SimpleByteDataInput(socket.getInputStream());
+                        ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+                        ManagementChannel.Stream stream = null;
+                        if (channel) {
+                            stream = acceptStream(executor, socket, input, output);
+                            input = stream.getInput();
+                            output = stream.getOutput();
+                        }
+                        for (int i = 0; i < iterations; i++) {
+                            input.readInt();
+                            final long length = source.length();
+                            output.writeLong(length);
+                            if (fileChannel) {
+                                FileTransferUtils.sendFile(source, length, output);
+                            } else {
+                                copySend(source, output);
+                            }
+                            output.flush();
+                        }
+                        if (stream != null) {
+                            // Wait for the receiver to end its side before closing the connection
+                            stream.getInput().read();
+                            stream.close();
+                        }
+                    } finally {
+                        socket.close();
+                    }
+                    return null;
+                }
+            });
+
+            final InetSocketAddress address = new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+            Socket socket = null;
+            ManagementChannel managementChannel = null;
+            ManagementChannel.Stream stream = null;
+            try {
+                final ByteDataInput input;
+                final ByteDataOutput output;
+                if (channel) {
+                    managementChannel = ManagementChannel.connect(address, 5000, 0L);
+                    stream = managementChannel.openStream();
+                    input = stream.getInput();
+                    output = stream.getOutput();
+                } else {
+                    socket = new Socket(address.getAddress(), address.getPort());
+                    input = new SimpleByteDataInput(socket.getInputStream());
+                    output = new SimpleByteDataOutput(socket.getOutputStream());
+                }
+                final long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    output.writeInt(i);
+                    output.flush();
+                    final long length = input.readLong();
+                    if (fileChannel) {
+                        FileTransferUtils.receiveFile(input, length, target);
+                    } else {
+                        copyReceive(input, length, target);
+                    }
+                }
+                final long elapsed = System.nanoTime() - start;
+                if (target.length() != source.length()) {
+                    throw new IllegalStateException("Transferred " + target.length() + " of " + source.length() + " bytes");
+                }
+                if (stream != null) {
+                    stream.close();
+                }
+                sender.get();
+                return elapsed;
+            } finally {
+                if (managementChannel != null) {
+                    managementChannel.close();
+                }
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Answer the channel request on an accepted socket and wait for the receiver to open its stream.
+     */
+    private static ManagementChannel.Stream acceptStream(final ExecutorService executor, final Socket socket, final ByteDataInput input, final ByteDataOutput output) throws Exception {
+        final ManagementRequestHeader requestHeader = new ManagementRequestHeader(input);
+        new ManagementResponseHeader(ManagementProtocol.VERSION, requestHeader.getRequestId()).write(output);
+        output.flush();
+        final BlockingQueue<ManagementChannel.Stream> streams = new LinkedBlockingQueue<ManagementChannel.Stream>();
+        final ManagementChannel channel = ManagementChannel.accepted(new Closeable() {
+            public void close() throws IOException {
+                socket.close();
+            }
+        }, input, output, new ManagementChannel.StreamHandler() {
+            public void handleStream(final ManagementChannel.Stream stream) {
+                streams.add(stream);
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+                channel.run();
+            }
+        });
+        return streams.take();
+    }
+
+    /* The sending side of the file sync before FileTransferUtils */
+    private static void copySend(final File file, final ByteDataOutput output) throws IOException {
+        final InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                output.write(buffer, 0, len);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /* The receiving side of the file sync before FileTransferUtils */
+    private static void copyReceive(final ByteDataInput input, final long length, final File file) throws IOException {
+        long totalRead = 0;
+        final OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while (totalRead < length && (read = input.read(buffer, 0, Math.min((int) (length - totalRead), buffer.length))) != -1) {
+                if (read > 0) {
+                    fileOut.write(buffer, 0, read);
+                    totalRead += read;
+                }
+            }
+        } finally {
+            fileOut.close();
+        }
+        if (totalRead != length) {
+            throw new IOException("Did not read the entire file. Missing: " + (length - totalRead));
+        }
+    }
+}
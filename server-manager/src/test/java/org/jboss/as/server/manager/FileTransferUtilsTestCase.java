@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.jboss.as.server.manager.management.ByteDataOutput;
+import org.jboss.as.server.manager.management.FileTransferUtils;
+import org.jboss.as.server.manager.management.SimpleByteDataInput;
+import org.jboss.as.server.manager.management.SimpleByteDataOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileTransferUtilsTestCase {
+
+    private File directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = File.createTempFile("transfer", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void cleanup() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        final byte[] content = new byte[200000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        final File source = new File(directory, "source");
+        write(source, content);
+        final File target = new File(directory, "target");
+        write(target, new byte[] {1, 2, 3});
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteDataOutput output = new SimpleByteDataOutput(bytes);
+        FileTransferUtils.sendFile(source, content.length, output);
+        output.flush();
+        Assert.assertEquals(content.length, bytes.size());
+
+        FileTransferUtils.receiveFile(new SimpleByteDataInput(new ByteArrayInputStream(bytes.toByteArray())), content.length, target);
+        Assert.assertArrayEquals(content, read(target));
+        Assert.assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void testShortFileName() throws Exception {
+        final byte[] content = new byte[] {1, 2, 3, 4};
+        final File target = new File(directory, "a");
+        write(target, new byte[] {5});
+
+        FileTransferUtils.receiveFile(new SimpleByteDataInput(new ByteArrayInputStream(content)), content.length, target);
+        Assert.assertArrayEquals(content, read(target));
+        Assert.assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testShortSourceFile() throws Exception {
+        final File source = new File(directory, "source");
+        write(source, new byte[10]);
+        try {
+            FileTransferUtils.sendFile(source, 11, new SimpleByteDataOutput(new ByteArrayOutputStream()));
+            Assert.fail("Should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testIncompleteTransferKeepsTarget() throws Exception {
+        final File target = new File(directory, "target");
+        write(target, new byte[] {1, 2, 3});
+        try {
+            FileTransferUtils.receiveFile(new SimpleByteDataInput(new ByteArrayInputStream(new byte[100])), 200, target);
+            Assert.fail("Should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, read(target));
+        // The partially received file is removed
+        Assert.assertEquals(1, directory.listFiles().length);
+    }
+
+    private static void write(final File file, final byte[] content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HandedOffServersTestCase {
+
+    private static final String SERVER = "Server:server-one";
+    private static final String STANDBY_1 = "Standby:1";
+    private static final String STANDBY_2 = "Standby:2";
+
+    @Test
+    public void testNotHandedOff() {
+        final HandedOffServers servers = new HandedOffServers();
+        Assert.assertEquals(SERVER, servers.getServerProcessName(SERVER));
+        Assert.assertNull(servers.reclaim(SERVER));
+    }
+
+    @Test
+    public void testHandOff() {
+        final HandedOffServers servers = new HandedOffServers();
+        servers.handedOff(SERVER, STANDBY_1);
+        Assert.assertEquals(SERVER, servers.getServerProcessName(STANDBY_1));
+        Assert.assertEquals(SERVER, servers.getServerProcessName(SERVER));
+        Assert.assertEquals(STANDBY_2, servers.getServerProcessName(STANDBY_2));
+    }
+
+    @Test
+    public void testHandOffAgain() {
+        final HandedOffServers servers = new HandedOffServers();
+        servers.handedOff(SERVER, STANDBY_1);
+        // The standby server crashed and the server was handed off to the next one
+        servers.handedOff(SERVER, STANDBY_2);
+        Assert.assertEquals(STANDBY_1, servers.getServerProcessName(STANDBY_1));
+        Assert.assertEquals(SERVER, servers.getServerProcessName(STANDBY_2));
+    }
+
+    @Test
+    public void testRespawnAfterHandOff() {
+        final HandedOffServers servers = new HandedOffServers();
+        servers.handedOff(SERVER, STANDBY_1);
+        // The standby server crashed and no standby server was left, so the server is respawned under its own name
+        Assert.assertEquals(STANDBY_1, servers.reclaim(SERVER));
+        Assert.assertEquals(STANDBY_1, servers.getServerProcessName(STANDBY_1));
+        Assert.assertEquals(SERVER, servers.getServerProcessName(SERVER));
+        Assert.assertNull(servers.reclaim(SERVER));
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.as.server.manager.management.ByteDataInput;
+import org.jboss.as.server.manager.management.ByteDataOutput;
+import org.jboss.as.server.manager.management.ManagementChannel;
+import org.jboss.as.server.manager.management.ManagementCompression;
+import org.jboss.as.server.manager.management.ManagementProtocol;
+import org.jboss.as.server.manager.management.ManagementRequestHeader;
+import org.jboss.as.server.manager.management.ManagementResponseHeader;
+import org.jboss.as.server.manager.management.SimpleByteDataInput;
+import org.jboss.as.server.manager.management.SimpleByteDataOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ManagementChannelTestCase {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private ServerSocket serverSocket;
+    private volatile Socket accepted;
+    private volatile int responseVersion = ManagementProtocol.VERSION;
+    private volatile int capabilities;
+    private final AtomicLong received = new AtomicLong();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private static final int SLOW = -2;
+    private static final int SLOW_STREAM_FRAMES = 200;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0, 10, InetAddress.getLocalHost());
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    accepted = socket;
+                    final ByteDataInput input = new SimpleByteDataInput(new FilterInputStream(socket.getInputStream()) {
+                        public int read() throws IOException {
+                            final int b = super.read();
+                            if (b != -1) {
+                                received.incrementAndGet();
+                            }
+                            return b;
+                        }
+
+                        public int read(final byte[] b, final int off, final int len) throws IOException {
+                            final int read = super.read(b, off, len);
+                            if (read > 0) {
+                                received.addAndGet(read);
+                            }
+                            return read;
+                        }
+                    });
+                    final ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+                    final ManagementRequestHeader requestHeader = new ManagementRequestHeader(input);
+                    Assert.assertEquals(ManagementProtocol.MULTIPLEXED_CHANNEL_REQUEST, requestHeader.getOperationHandlerId());
+                    new ManagementResponseHeader(responseVersion, requestHeader.getRequestId(), capabilities).write(output);
+                    output.flush();
+                    ManagementChannel.accepted(new Closeable() {
+                        public void close() throws IOException {
+                            socket.close();
+                        }
+                    }, input, output, new EchoHandler()).run();
+                } catch (Exception ignored) {
+                }
+            }
+        });
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentStreams() throws Exception {
+        final ManagementChannel channel = connect();
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 32; i++) {
+                final int size = i * 1000;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        final ManagementChannel.Stream stream = channel.openStream();
+                        try {
+                            final byte[] content = new byte[size];
+                            for (int j = 0; j < size; j++) {
+                                content[j] = (byte) (j + size);
+                            }
+                            stream.getOutput().writeInt(size);
+                            stream.getOutput().write(content);
+                            stream.getOutput().flush();
+                            Assert.assertEquals(size, stream.getInput().readInt());
+                            final byte[] echoed = new byte[size];
+                            stream.getInput().readFully(echoed);
+                            Assert.assertArrayEquals(content, echoed);
+                            Assert.assertEquals(-1, stream.getInput().read());
+                        } finally {
+                            stream.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            Assert.assertTrue(channel.isOpen());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testRemoteClose() throws Exception {
+        final ManagementChannel channel = connect();
+        final ManagementChannel.Stream stream = channel.openStream();
+        stream.getOutput().writeInt(-1);
+        stream.getOutput().flush();
+        // The echo handler closes the connection when asked to echo a negative size
+        try {
+            stream.getInput().readInt();
+            Assert.fail("Should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+        for (int i = 0; i < 100 && channel.isOpen(); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(channel.isOpen());
+        try {
+            channel.openStream();
+            Assert.fail("Should have thrown an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        capabilities = ManagementCompression.getAdvertisedCapabilities();
+        final byte[] content = createContent();
+        echo(connect(ManagementCompression.FAST), content);
+        Assert.assertTrue("Received " + received.get() + " bytes", received.get() < content.length / 2);
+    }
+
+    @Test
+    public void testCompressionNotAdvertised() throws Exception {
+        final byte[] content = createContent();
+        echo(connect(ManagementCompression.FAST), content);
+        Assert.assertTrue("Received " + received.get() + " bytes", received.get() > content.length);
+    }
+
+    @Test
+    public void testVersion1Peer() throws Exception {
+        responseVersion = 1;
+        capabilities = ManagementCompression.getAdvertisedCapabilities();
+        // Version 1 peers do not know the channel request
+        Assert.assertNull(connect(ManagementCompression.FAST));
+    }
+
+    @Test
+    public void testSlowStreamWithFlowControl() throws Exception {
+        capabilities = ManagementProtocol.CAPABILITY_FLOW_CONTROL;
+        final ManagementChannel channel = connect();
+        try {
+            final ManagementChannel.Stream slowStream = channel.openStream();
+            final Future<Void> slowWriter = writeSlowStream(slowStream);
+            // The slow stream has used up its window, which must not hold up other streams
+            for (int i = 0; i < 100 && received.get() < 64 * 65536; i++) {
+                Thread.sleep(10);
+            }
+            echo(channel, createContent(), false);
+            Assert.assertFalse(slowWriter.isDone());
+
+            release.countDown();
+            slowWriter.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(SLOW_STREAM_FRAMES * 65536L, slowStream.getInput().readLong());
+            slowStream.close();
+            Assert.assertTrue(channel.isOpen());
+        } finally {
+            release.countDown();
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testSlowStreamWithoutFlowControl() throws Exception {
+        final ManagementChannel channel = connect();
+        try {
+            final ManagementChannel.Stream slowStream = channel.openStream();
+            // Without flow control all frames are sent straight away, and the slow stream fails on its own
+            writeSlowStream(slowStream).get(10, TimeUnit.SECONDS);
+            echo(channel, createContent(), false);
+
+            release.countDown();
+            try {
+                slowStream.getInput().readLong();
+                Assert.fail("Should have thrown an IOException");
+            } catch (IOException expected) {
+            }
+            slowStream.close();
+            Assert.assertTrue(channel.isOpen());
+        } finally {
+            release.countDown();
+            channel.close();
+        }
+    }
+
+    private Future<Void> writeSlowStream(final ManagementChannel.Stream stream) {
+        return executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                final byte[] frame = new byte[65536];
+                stream.getOutput().writeInt(SLOW);
+                for (int i = 0; i < SLOW_STREAM_FRAMES; i++) {
+                    stream.getOutput().write(frame);
+                }
+                stream.getOutput().close();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Content which compresses well, apart from a block of random bytes which must be sent uncompressed.
+     */
+    private static byte[] createContent() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 500000; i++) {
+            builder.append("<deployment name=\"deployment").append(i).append(".war\" sha1=\"").append(Integer.toHexString(i * 31)).append("\"/>\n");
+        }
+        final byte[] text = builder.toString().getBytes();
+        final byte[] content = new byte[text.length + 100000];
+        System.arraycopy(text, 0, content, 0, text.length);
+        final byte[] random = new byte[100000];
+        new Random(1).nextBytes(random);
+        System.arraycopy(random, 0, content, text.length, random.length);
+        return content;
+    }
+
+    private static void echo(final ManagementChannel channel, final byte[] content) throws Exception {
+        echo(channel, content, true);
+    }
+
+    private static void echo(final ManagementChannel channel, final byte[] content, final boolean closeChannel) throws Exception {
+        try {
+            final ManagementChannel.Stream stream = channel.openStream();
+            try {
+                stream.getOutput().writeInt(content.length);
+                // Write in small pieces as well as one large array
+                stream.getOutput().write(content, 0, 100);
+                stream.getOutput().write(content, 100, content.length - 100);
+                stream.getOutput().flush();
+                Assert.assertEquals(content.length, stream.getInput().readInt());
+                final byte[] echoed = new byte[content.length];
+                stream.getInput().readFully(echoed);
+                Assert.assertArrayEquals(content, echoed);
+            } finally {
+                stream.close();
+            }
+        } finally {
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+
+    private ManagementChannel connect() throws Exception {
+        return connect(ManagementCompression.NONE);
+    }
+
+    private ManagementChannel connect(final ManagementCompression compression) throws Exception {
+        return ManagementChannel.connect(new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort()), 5000, 5000, compression);
+    }
+
+    private class EchoHandler implements ManagementChannel.StreamHandler {
+        public void handleStream(final ManagementChannel.Stream stream) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        final int size = stream.getInput().readInt();
+                        if (size == SLOW) {
+                            release.await();
+                            long count = 0;
+                            while (stream.getInput().read() != -1) {
+                                count++;
+                            }
+                            stream.getOutput().writeLong(count);
+                            return;
+                        }
+                        if (size < 0) {
+                            accepted.close();
+                            return;
+                        }
+                        final byte[] content = new byte[size];
+                        stream.getInput().readFully(content);
+                        stream.getOutput().writeInt(size);
+                        stream.getOutput().write(content);
+                    } catch (IOException ignored) {
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        stream.close();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jboss.as.server.manager.management.AbstractManagementRequest;
+import org.jboss.as.server.manager.management.ByteDataInput;
+import org.jboss.as.server.manager.management.ByteDataOutput;
+import org.jboss.as.server.manager.management.ManagementChannel;
+import org.jboss.as.server.manager.management.ManagementException;
+import org.jboss.as.server.manager.management.ManagementProtocol;
+import org.jboss.as.server.manager.management.ManagementRequest;
+import org.jboss.as.server.manager.management.ManagementRequestHeader;
+import org.jboss.as.server.manager.management.ManagementResponseHeader;
+import org.jboss.as.server.manager.management.SimpleByteDataInput;
+import org.jboss.as.server.manager.management.SimpleByteDataOutput;
+import static org.jboss.as.server.manager.management.ManagementUtils.expectHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ManagementRequestTestCase {
+    private static final byte REQUEST_CODE = 0x01;
+    private static final byte RESPONSE_CODE = 0x02;
+    private static final int NO_RESPONSE = -1;
+
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    private final AtomicInteger handled = new AtomicInteger();
+    private final CountDownLatch abandoned = new CountDownLatch(1);
+    private ServerSocket serverSocket;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0, 10, InetAddress.getLocalHost());
+        serverExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    final ByteDataInput input = new SimpleByteDataInput(socket.getInputStream());
+                    final ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+                    final ManagementRequestHeader requestHeader = new ManagementRequestHeader(input);
+                    new ManagementResponseHeader(ManagementProtocol.VERSION, requestHeader.getRequestId(), 0).write(output);
+                    output.flush();
+                    ManagementChannel.accepted(new Closeable() {
+                        public void close() throws IOException {
+                            socket.close();
+                        }
+                    }, input, output, new DoublingHandler()).run();
+                } catch (Exception ignored) {
+                }
+            }
+        });
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serverSocket.close();
+        serverExecutor.shutdownNow();
+        executor.shutdownNow();
+        ManagementRequest.closeChannels();
+    }
+
+    @Test
+    public void testManyOutstandingRequests() throws Exception {
+        // Far more requests than executor threads are outstanding at once
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(new DoublingRequest(i).execute());
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertEquals(Integer.valueOf(i * 2), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(200, handled.get());
+    }
+
+    @Test
+    public void testResultHandler() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Integer> result = new AtomicReference<Integer>();
+        new DoublingRequest(21).execute(new ManagementRequest.ResultHandler<Integer>() {
+            public void handleResult(final Integer value) {
+                result.set(value);
+                latch.countDown();
+            }
+
+            public void handleFailure(final ManagementException cause) {
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Integer.valueOf(42), result.get());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        final List<DoublingRequest> requests = new ArrayList<DoublingRequest>();
+        for (int i = 0; i < 50; i++) {
+            requests.add(new DoublingRequest(i));
+        }
+        final List<Future<?>> futures = ManagementRequest.executeBatch(requests);
+        Assert.assertEquals(requests.size(), futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertEquals(Integer.valueOf(i * 2), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final Future<Integer> future = new DoublingRequest(NO_RESPONSE, serverSocket.getLocalPort(), 1L).execute();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected the request to time out");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof ManagementException);
+        }
+        // The stream is closed
+        Assert.assertTrue(abandoned.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        // Without a response timeout the request waits until it is cancelled
+        final Future<Integer> future = new DoublingRequest(NO_RESPONSE).execute();
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            Assert.fail("Expected the request to still be waiting");
+        } catch (TimeoutException expected) {
+        }
+        Assert.assertTrue(future.cancel(true));
+        Assert.assertTrue(future.isCancelled());
+        try {
+            future.get();
+            Assert.fail("Expected the request to be cancelled");
+        } catch (CancellationException expected) {
+        }
+        // Cancelling closes the stream, which the remote side sees
+        Assert.assertTrue(abandoned.await(10, TimeUnit.SECONDS));
+        // The channel is still usable
+        Assert.assertEquals(Integer.valueOf(2), new DoublingRequest(1).executeForResult());
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        serverSocket.close();
+        try {
+            new DoublingRequest(1).executeForResult();
+            Assert.fail("Expected the request to fail");
+        } catch (ManagementException expected) {
+        }
+    }
+
+    @Test
+    public void testSlowHost() throws Exception {
+        // Accepts connections but never completes the handshake
+        final ServerSocket silentSocket = new ServerSocket(0, 10, InetAddress.getLocalHost());
+        try {
+            final long start = System.nanoTime();
+            final Future<Integer> slow = new DoublingRequest(1, silentSocket.getLocalPort(), 10L, 0L).execute();
+            final Future<Integer> queued = new DoublingRequest(2, silentSocket.getLocalPort(), 10L, 0L).execute();
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+            // Requests to other remote addresses do not wait for the slow one
+            Assert.assertEquals(Integer.valueOf(6), new DoublingRequest(3).execute().get(5, TimeUnit.SECONDS));
+            Assert.assertFalse(slow.isDone());
+            Assert.assertFalse(queued.isDone());
+            Assert.assertTrue(slow.cancel(true));
+            Assert.assertTrue(queued.cancel(true));
+        } finally {
+            silentSocket.close();
+        }
+    }
+
+    @Test
+    public void testPeerWithoutChannels() throws Exception {
+        final ServerSocket legacySocket = new ServerSocket(0, 10, InetAddress.getLocalHost());
+        serverExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = legacySocket.accept();
+                        try {
+                            handleVersion1Request(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        try {
+            Assert.assertEquals(Integer.valueOf(2), new DoublingRequest(1, legacySocket.getLocalPort()).executeForResult());
+            Assert.assertEquals(Integer.valueOf(4), new DoublingRequest(2, legacySocket.getLocalPort()).executeForResult());
+            Assert.assertEquals(2, handled.get());
+        } finally {
+            legacySocket.close();
+        }
+    }
+
+    /**
+     * Handle a request the way a protocol version 1 management port does, failing channel requests.
+     */
+    private void handleVersion1Request(final Socket socket) throws Exception {
+        final ByteDataInput input = new SimpleByteDataInput(socket.getInputStream());
+        final ByteDataOutput output = new SimpleByteDataOutput(socket.getOutputStream());
+        final ManagementRequestHeader requestHeader = new ManagementRequestHeader(input);
+        new ManagementResponseHeader(1, requestHeader.getRequestId()).write(output);
+        output.flush();
+        if (requestHeader.getOperationHandlerId() != ManagementProtocol.SERVER_MANAGER_REQUEST) {
+            return;
+        }
+        expectHeader(input, ManagementProtocol.REQUEST_OPERATION);
+        expectHeader(input, REQUEST_CODE);
+        expectHeader(input, ManagementProtocol.REQUEST_START);
+        final int value = input.readInt();
+        expectHeader(input, ManagementProtocol.REQUEST_END);
+        handled.incrementAndGet();
+        output.writeByte(ManagementProtocol.RESPONSE_START);
+        output.writeByte(RESPONSE_CODE);
+        output.writeInt(value * 2);
+        output.writeByte(ManagementProtocol.RESPONSE_END);
+        output.flush();
+    }
+
+    private class DoublingRequest extends AbstractManagementRequest<Integer> {
+        private final int value;
+
+        private DoublingRequest(final int value) {
+            this(value, serverSocket.getLocalPort());
+        }
+
+        private DoublingRequest(final int value, final int port) {
+            super(serverSocket.getInetAddress(), port, 0, 1L, 1L, executor);
+            this.value = value;
+        }
+
+        private DoublingRequest(final int value, final int port, final long responseTimeout) {
+            this(value, port, 1L, responseTimeout);
+        }
+
+        private DoublingRequest(final int value, final int port, final long connectTimeout, final long responseTimeout) {
+            super(serverSocket.getInetAddress(), port, 0, 1L, connectTimeout, responseTimeout, executor);
+            this.value = value;
+        }
+
+        protected byte getHandlerId() {
+            return ManagementProtocol.SERVER_MANAGER_REQUEST;
+        }
+
+        protected byte getRequestCode() {
+            return REQUEST_CODE;
+        }
+
+        protected byte getResponseCode() {
+            return RESPONSE_CODE;
+        }
+
+        protected void sendRequest(final int protocolVersion, final ByteDataOutput output) throws ManagementException {
+            try {
+                output.writeInt(value);
+            } catch (IOException e) {
+                throw new ManagementException(e);
+            }
+        }
+
+        protected Integer receiveResponse(final int protocolVersion, final ByteDataInput input) throws ManagementException {
+            try {
+                return Integer.valueOf(input.readInt());
+            } catch (IOException e) {
+                throw new ManagementException(e);
+            }
+        }
+    }
+
+    private class DoublingHandler implements ManagementChannel.StreamHandler {
+        public void handleStream(final ManagementChannel.Stream stream) {
+            serverExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        final ByteDataInput input = stream.getInput();
+                        final ByteDataOutput output = stream.getOutput();
+                        final ManagementRequestHeader requestHeader = new ManagementRequestHeader(input);
+                        expectHeader(input, ManagementProtocol.REQUEST_OPERATION);
+                        expectHeader(input, REQUEST_CODE);
+                        expectHeader(input, ManagementProtocol.REQUEST_START);
+                        final int value = input.readInt();
+                        expectHeader(input, ManagementProtocol.REQUEST_END);
+                        handled.incrementAndGet();
+                        if (value == NO_RESPONSE) {
+                            if (input.read() == -1) {
+                                abandoned.countDown();
+                            }
+                            return;
+                        }
+                        new ManagementResponseHeader(requestHeader.getVersion(), requestHeader.getRequestId()).write(output);
+                        output.writeByte(ManagementProtocol.RESPONSE_START);
+                        output.writeByte(RESPONSE_CODE);
+                        output.writeInt(value * 2);
+                        output.writeByte(ManagementProtocol.RESPONSE_END);
+                        stream.close();
+                    } catch (Exception ignored) {
+                    }
+                }
+            });
+        }
+    }
+}
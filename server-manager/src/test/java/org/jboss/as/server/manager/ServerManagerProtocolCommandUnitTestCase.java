@@ -22,9 +22,17 @@
 package org.jboss.as.server.manager;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.fail;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
 import org.jboss.as.server.manager.ServerManagerProtocol.Command;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerManagerToServerProtocolCommand;
 import org.junit.Test;
@@ -56,6 +64,91 @@ public class ServerManagerProtocolCommandUnitTestCase {
             assertEquals(data[i], start.getData()[i]);
     }
 
+    @Test
+    public void testSmAssign() throws Exception {
+        byte[] data = new byte[] {20, 21, 22};
+        byte[] bytes = ServerManagerToServerProtocolCommand.ASSIGN_SERVER.createCommandBytes(data);
+        Command<ServerManagerToServerProtocolCommand> assign = ServerManagerToServerProtocolCommand.readCommand(bytes);
+        assertSame(ServerManagerToServerProtocolCommand.ASSIGN_SERVER, assign.getCommand());
+
+        assertEquals(data.length, assign.getData().length);
+        for (int i = 0 ; i < data.length ; i++)
+            assertEquals(data[i], assign.getData()[i]);
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        byte[] bytes = ServerManagerToServerProtocolCommand.STOP_SERVER.createCommandBytes(new byte[0]);
+        Command<ServerManagerToServerProtocolCommand> stop = ServerManagerToServerProtocolCommand.readCommand(bytes);
+        assertEquals(0, stop.getDataLength());
+        assertEquals(0, stop.getData().length);
+        assertEquals(-1, stop.getDataStream().read());
+    }
+
+    @Test
+    public void testDataFollowsCommandId() throws Exception {
+        byte[] data = new byte[] {30, 31, 32, 33};
+        byte[] bytes = ServerManagerToServerProtocolCommand.START_SERVER.createCommandBytes(data);
+        Command<ServerManagerToServerProtocolCommand> start = ServerManagerToServerProtocolCommand.readCommand(bytes);
+        assertEquals(data.length, start.getDataLength());
+
+        byte[] copy = start.getData();
+        assertEquals(data.length, copy.length);
+        for (int i = 0 ; i < data.length ; i++)
+            assertEquals(data[i], copy[i]);
+        // The data is a copy, so changing it leaves the command alone
+        copy[0] = 0;
+        assertEquals(data[0], start.getData()[0]);
+
+        InputStream in = start.getDataStream();
+        for (int i = 0 ; i < data.length ; i++)
+            assertEquals(data[i], (byte)in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        byte[] data = createSnapshotData();
+        File file = createSnapshotFile(data);
+        Command<ServerManagerToServerProtocolCommand> cmd = createSnapshotCommand(file, hash(data));
+        assertSame(ServerManagerToServerProtocolCommand.START_SERVER_SNAPSHOT, cmd.getCommand());
+
+        ByteBuffer buffer = ServerManagerProtocolUtils.readSnapshotCommandBuffer(cmd);
+        assertEquals(data.length, buffer.remaining());
+        for (int i = 0 ; i < data.length ; i++)
+            assertEquals(data[i], buffer.get());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testTamperedSnapshot() throws Exception {
+        byte[] data = createSnapshotData();
+        byte[] hash = hash(data);
+        data[data.length / 2]++;
+        File file = createSnapshotFile(data);
+        try {
+            ServerManagerProtocolUtils.readSnapshotCommandBuffer(createSnapshotCommand(file, hash));
+            fail("Should have picked up the tampered snapshot");
+        } catch (IOException expected) {
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSnapshotWithTrailingBytes() throws Exception {
+        byte[] data = createSnapshotData();
+        byte[] hash = hash(data);
+        byte[] longer = new byte[data.length + 1];
+        System.arraycopy(data, 0, longer, 0, data.length);
+        File file = createSnapshotFile(longer);
+        try {
+            ServerManagerProtocolUtils.readSnapshotCommandBuffer(createSnapshotCommand(file, hash));
+            fail("Should have picked up the trailing bytes");
+        } catch (IOException expected) {
+        }
+        assertFalse(file.exists());
+    }
+
     @Test
     public void testFailNoArgsCommandWithData() throws Exception {
         try {
@@ -84,4 +177,32 @@ public class ServerManagerProtocolCommandUnitTestCase {
             assertEquals(cmd, ServerManagerToServerProtocolCommand.parse(b));
         }
     }
+
+    private static byte[] createSnapshotData() {
+        byte[] data = new byte[10000];
+        for (int i = 0 ; i < data.length ; i++)
+            data[i] = (byte)i;
+        return data;
+    }
+
+    private static File createSnapshotFile(byte[] data) throws IOException {
+        File file = File.createTempFile("server-model", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] hash(byte[] data) throws Exception {
+        return MessageDigest.getInstance(ServerManagerProtocolUtils.SNAPSHOT_DIGEST_ALGORITHM).digest(data);
+    }
+
+    private static Command<ServerManagerToServerProtocolCommand> createSnapshotCommand(File file, byte[] hash) throws IOException {
+        byte[] bytes = ServerManagerProtocolUtils.createSnapshotCommandBytes(ServerManagerToServerProtocolCommand.START_SERVER_SNAPSHOT, file, hash);
+        return ServerManagerToServerProtocolCommand.readCommand(bytes);
+    }
 }
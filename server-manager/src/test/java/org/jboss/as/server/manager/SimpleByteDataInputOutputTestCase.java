@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.server.manager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import org.jboss.as.server.manager.management.ManagementBufferPool;
+import org.jboss.as.server.manager.management.SimpleByteDataInput;
+import org.jboss.as.server.manager.management.SimpleByteDataOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimpleByteDataInputOutputTestCase {
+
+    @Test
+    public void testCompatibleWithDataStreams() throws Exception {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        write(new DataOutputStream(expected));
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final SimpleByteDataOutput output = new SimpleByteDataOutput(actual);
+        write(output);
+        output.close();
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        read(new DataInputStream(new ByteArrayInputStream(actual.toByteArray())));
+        final SimpleByteDataInput input = new SimpleByteDataInput(new ByteArrayInputStream(expected.toByteArray()));
+        read(input);
+        Assert.assertEquals(-1, input.read());
+        input.close();
+    }
+
+    @Test
+    public void testPrimitivesSplitAcrossReads() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        for (int i = 0; i < 1000; i++) {
+            output.writeByte(i);
+            output.writeInt(i * 31);
+            output.writeLong(i * 1000003L);
+        }
+        output.close();
+
+        // Hand out the bytes one at a time so every primitive needs several reads
+        final byte[] data = bytes.toByteArray();
+        final SimpleByteDataInput input = new SimpleByteDataInput(new InputStream() {
+            private int position;
+
+            public int read() {
+                return position < data.length ? data[position++] & 0xff : -1;
+            }
+
+            public int read(final byte[] b, final int off, final int len) {
+                if (position == data.length) {
+                    return -1;
+                }
+                b[off] = data[position++];
+                return 1;
+            }
+        });
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals((byte) i, input.readByte());
+            Assert.assertEquals(i * 31, input.readInt());
+            Assert.assertEquals(i * 1000003L, input.readLong());
+        }
+        try {
+            input.readInt();
+            Assert.fail("Expected end of stream");
+        } catch (EOFException expected) {
+        }
+        input.close();
+    }
+
+    @Test
+    public void testLargeArrays() throws Exception {
+        final byte[] content = new byte[ManagementBufferPool.getInstance().getBufferSize() * 3 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final SimpleByteDataOutput output = new SimpleByteDataOutput(bytes);
+        output.writeInt(content.length);
+        output.write(content);
+        output.write(content, 5, 100);
+        output.close();
+
+        final SimpleByteDataInput input = new SimpleByteDataInput(new ByteArrayInputStream(bytes.toByteArray()));
+        final byte[] result = new byte[input.readInt()];
+        input.readFully(result);
+        Assert.assertArrayEquals(content, result);
+        final byte[] part = new byte[100];
+        input.readFully(part);
+        for (int i = 0; i < part.length; i++) {
+            Assert.assertEquals(content[i + 5], part[i]);
+        }
+        input.close();
+    }
+
+    @Test
+    public void testBuffersReused() throws Exception {
+        final ManagementBufferPool pool = ManagementBufferPool.getInstance();
+        // Warm up this thread's cached buffer
+        roundTrip();
+        final long created = pool.getCreated();
+        for (int i = 0; i < 100; i++) {
+            roundTrip();
+        }
+        Assert.assertEquals(created, pool.getCreated());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        final SimpleByteDataOutput output = new SimpleByteDataOutput(new ByteArrayOutputStream());
+        output.close();
+        try {
+            output.writeInt(1);
+            Assert.fail("Expected closed output to fail");
+        } catch (IOException expected) {
+        }
+        final SimpleByteDataInput input = new SimpleByteDataInput(new ByteArrayInputStream(new byte[4]));
+        input.close();
+        try {
+            input.readInt();
+            Assert.fail("Expected closed input to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    private void roundTrip() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final SimpleByteDataOutput output = new SimpleByteDataOutput(bytes);
+        output.writeUTF("management request");
+        output.close();
+        final SimpleByteDataInput input = new SimpleByteDataInput(new ByteArrayInputStream(bytes.toByteArray()));
+        Assert.assertEquals("management request", input.readUTF());
+        input.close();
+    }
+
+    private void write(final DataOutput output) throws IOException {
+        output.writeBoolean(true);
+        output.writeByte(-3);
+        output.writeShort(-12345);
+        output.writeChar('\u20ac');
+        output.writeInt(Integer.MIN_VALUE + 7);
+        output.writeLong(Long.MAX_VALUE - 11);
+        output.writeFloat(1.5f);
+        output.writeDouble(-2.25d);
+        output.writeUTF("ascii \u0000 \u00e9 \u20ac");
+        output.writeBytes("line one\r\n");
+        output.writeChars("ab");
+        output.write(new byte[] {1, 2, 3});
+    }
+
+    private void read(final DataInput input) throws IOException {
+        Assert.assertTrue(input.readBoolean());
+        Assert.assertEquals(-3, input.readByte());
+        Assert.assertEquals(-12345, input.readShort());
+        Assert.assertEquals('\u20ac', input.readChar());
+        Assert.assertEquals(Integer.MIN_VALUE + 7, input.readInt());
+        Assert.assertEquals(Long.MAX_VALUE - 11, input.readLong());
+        Assert.assertEquals(1.5f, input.readFloat(), 0f);
+        Assert.assertEquals(-2.25d, input.readDouble(), 0d);
+        Assert.assertEquals("ascii \u0000 \u00e9 \u20ac", input.readUTF());
+        Assert.assertEquals("line one", input.readLine());
+        Assert.assertEquals('a', input.readChar());
+        Assert.assertEquals('b', input.readChar());
+        final byte[] bytes = new byte[3];
+        input.readFully(bytes);
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, bytes);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.server.manager.management;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import javax.management.openmbean.CompositeData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ManagementMetrics} latency histograms and the composite data exposed through the
+ * {@link ManagementMetricsMBean}.
+ */
+public class ManagementMetricsTestCase {
+
+    @Test
+    public void testEmptyHistogram() {
+        final ManagementMetrics.LatencyHistogram histogram = new ManagementMetrics.LatencyHistogram();
+        Assert.assertEquals(0L, histogram.getCount());
+        Assert.assertEquals(0L, histogram.getMeanNanos());
+        Assert.assertEquals(0L, histogram.getPercentileNanos(50.0));
+        Assert.assertEquals(0L, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void testBuckets() {
+        // Each bucket reports its upper bound, capped by the maximum recorded
+        assertSingle(500L, micros(1L));
+        assertSingle(micros(1L), micros(2L));
+        assertSingle(micros(3L), micros(4L));
+        assertSingle(micros(4L), micros(8L));
+        assertSingle(micros(1000L), micros(1024L));
+        assertSingle(micros(1024L), micros(2048L));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final ManagementMetrics.LatencyHistogram histogram = new ManagementMetrics.LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(micros(3L));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1L));
+        }
+        Assert.assertEquals(100L, histogram.getCount());
+        Assert.assertEquals((90L * micros(3L) + 10L * TimeUnit.MILLISECONDS.toNanos(1L)) / 100L, histogram.getMeanNanos());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1L), histogram.getMaxNanos());
+        Assert.assertEquals(micros(4L), histogram.getPercentileNanos(0.0));
+        Assert.assertEquals(micros(4L), histogram.getPercentileNanos(50.0));
+        Assert.assertEquals(micros(4L), histogram.getPercentileNanos(90.0));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1L), histogram.getPercentileNanos(91.0));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1L), histogram.getPercentileNanos(99.0));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1L), histogram.getPercentileNanos(100.0));
+    }
+
+    @Test
+    public void testOverflowBucket() {
+        final ManagementMetrics.LatencyHistogram histogram = new ManagementMetrics.LatencyHistogram();
+        histogram.record(micros(1L));
+        histogram.record(TimeUnit.DAYS.toNanos(30L));
+        Assert.assertEquals(micros(2L), histogram.getPercentileNanos(50.0));
+        // Latencies beyond the last bucket are reported as the maximum
+        Assert.assertEquals(TimeUnit.DAYS.toNanos(30L), histogram.getPercentileNanos(100.0));
+    }
+
+    @Test
+    public void testCompositeData() throws Exception {
+        final ManagementMetrics metrics = new ManagementMetrics();
+        Assert.assertEquals(0, metrics.getOperations().length);
+        complete(metrics, (byte) 0x22, (byte) 0x05, true);
+        complete(metrics, (byte) 0x22, (byte) 0x05, false);
+        complete(metrics, (byte) 0x11, (byte) 0x07, true);
+
+        final CompositeData[] operations = metrics.getOperations();
+        Assert.assertEquals(2, operations.length);
+        Assert.assertEquals(Byte.valueOf((byte) 0x11), operations[0].get("handlerId"));
+        Assert.assertEquals(Byte.valueOf((byte) 0x07), operations[0].get("operationCode"));
+        Assert.assertEquals(Long.valueOf(1L), operations[0].get("requestCount"));
+        Assert.assertEquals(Byte.valueOf((byte) 0x22), operations[1].get("handlerId"));
+        Assert.assertEquals(Byte.valueOf((byte) 0x05), operations[1].get("operationCode"));
+        Assert.assertEquals(Long.valueOf(2L), operations[1].get("requestCount"));
+        Assert.assertEquals(Long.valueOf(1L), operations[1].get("failureCount"));
+        Assert.assertEquals(Long.valueOf(4L), operations[1].get("bytesRead"));
+        Assert.assertEquals(Long.valueOf(0L), operations[1].get("bytesWritten"));
+
+        final CompositeData execution = (CompositeData) operations[1].get("executionLatency");
+        Assert.assertEquals(Long.valueOf(2L), execution.get("count"));
+        final long max = ((Long) execution.get("maxNanos")).longValue();
+        Assert.assertTrue(((Long) execution.get("p50Nanos")).longValue() <= max);
+        Assert.assertTrue(((Long) execution.get("p99Nanos")).longValue() <= max);
+        Assert.assertTrue(operations[1].containsKey("headerLatency"));
+        Assert.assertTrue(operations[1].containsKey("transferLatency"));
+    }
+
+    private static void complete(final ManagementMetrics metrics, final byte handlerId, final byte operationCode, final boolean success) throws Exception {
+        final ManagementMetrics.Request request = metrics.startRequest(handlerId, System.nanoTime());
+        final ByteDataInput input = request.meter(new SimpleByteDataInput(new ByteArrayInputStream(new byte[] {
+                ManagementProtocol.REQUEST_OPERATION, operationCode })));
+        input.readByte();
+        input.readByte();
+        request.complete(success);
+    }
+
+    private static void assertSingle(final long nanos, final long expected) {
+        final ManagementMetrics.LatencyHistogram histogram = new ManagementMetrics.LatencyHistogram();
+        histogram.record(nanos);
+        // A single recording can never be reported above itself
+        Assert.assertEquals(nanos, histogram.getPercentileNanos(50.0));
+        histogram.record(TimeUnit.SECONDS.toNanos(1L));
+        Assert.assertEquals(expected, histogram.getPercentileNanos(50.0));
+    }
+
+    private static long micros(final long micros) {
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+}
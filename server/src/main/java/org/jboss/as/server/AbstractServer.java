@@ -44,7 +44,7 @@ public abstract class AbstractServer {
 
     private ServerModel config;
     private ServiceContainer serviceContainer;
-    private final ServerEnvironment environment;
+    private volatile ServerEnvironment environment;
 
     protected AbstractServer(final ServerEnvironment environment) {
         if (environment == null) {
@@ -62,6 +62,18 @@ public abstract class AbstractServer {
         return environment;
     }
 
+    /**
+     * Replace the server environment, once a standby server has been assigned to a server.
+     *
+     * @param environment the server environment
+     */
+    void setEnvironment(final ServerEnvironment environment) {
+        if (environment == null) {
+            throw new IllegalArgumentException("environment is null");
+        }
+        this.environment = environment;
+    }
+
     /**
      * Get the standalone configuration.
      *
@@ -130,6 +130,7 @@ public final class Main {
         Integer smPort = null;
         InetAddress smAddress = null;
         boolean standalone = false;
+        boolean standby = false;
         final int argsLength = args.length;
         for (int i = 0; i < argsLength; i++) {
             final String arg = args[i];
@@ -181,6 +182,9 @@ public final class Main {
                 }else if (arg.equals(CommandLineConstants.STANDALONE)) {
                     // Start in standalone mode
                     standalone = true;
+                } else if (arg.equals(CommandLineConstants.STANDBY)) {
+                    // Wait for the server manager to assign this process to a server
+                    standby = true;
                 } else if (arg.startsWith("-D")) {
 
                     // set a system property
@@ -204,7 +208,7 @@ public final class Main {
             }
         }
 
-        return new ServerEnvironment(systemProperties, stdin, stdout, stderr, procName, pmAddress, pmPort, smAddress, smPort, standalone);
+        return new ServerEnvironment(systemProperties, stdin, stdout, stderr, procName, pmAddress, pmPort, smAddress, smPort, standalone, standby);
     }
 
     private static URL makeURL(String urlspec) throws MalformedURLException {
@@ -25,19 +25,30 @@
  */
 package org.jboss.as.server;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Handler;
 
 import org.jboss.as.model.ServerModel;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommand;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommandHandler;
+import org.jboss.as.process.ProcessResourceSample;
+import org.jboss.as.server.mgmt.ServerConfigurationPersisterImpl;
+import org.jboss.as.server.mgmt.ShutdownHandlerImpl;
+import org.jboss.as.server.mgmt.deployment.ServerDeploymentManagerImpl;
+import org.jboss.as.server.mgmt.deployment.ServerDeploymentRepositoryImpl;
 import org.jboss.as.server.manager.ServerManagerProtocolUtils;
 import org.jboss.as.server.manager.ServerState;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerManagerToServerCommandHandler;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerToServerManagerProtocolCommand;
+import org.jboss.logmanager.handlers.FileHandler;
+import org.jboss.msc.service.ServiceActivatorContextImpl;
+import org.jboss.msc.service.ServiceContainer;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.StartException;
 
@@ -50,6 +61,14 @@ import org.jboss.msc.service.StartException;
  */
 public class Server extends AbstractServer {
 
+    /** The system property naming the boot log file, see the logging configuration */
+    private static final String BOOT_LOG_FILE = "org.jboss.boot.log.file";
+
+    private static final Class<?>[] CORE_CLASSES = {ServiceContainer.class, ServiceActivatorContextImpl.class,
+            ServerStartBatchBuilder.class, ServerStartupListener.class, ServerEnvironmentService.class,
+            ServerModelService.class, ServerDeploymentRepositoryImpl.class, ShutdownHandlerImpl.class,
+            ServerConfigurationPersisterImpl.class, ServerDeploymentManagerImpl.class};
+
     private DirectServerSideCommunicationHandler serverCommunicationHandler;
     private ServerCommunicationHandler processManagerCommunicationHandler;
     private final AtomicBoolean stopping = new AtomicBoolean();
@@ -66,6 +85,9 @@ public class Server extends AbstractServer {
 
     @Override
     public void start() {
+        if (getEnvironment().isStandby()) {
+            preloadCoreClasses();
+        }
         launchCommunicationHandlers();
         sendMessageToSm(ServerToServerManagerProtocolCommand.SERVER_AVAILABLE);
         state = ServerState.AVAILABLE;
@@ -84,6 +106,38 @@ public class Server extends AbstractServer {
         }
     }
 
+    /**
+     * Assign a standby server to the server it will be started as.
+     *
+     * @param properties the system properties of the server
+     */
+    void assign(Map<String, String> properties) {
+        if (state != ServerState.AVAILABLE) {
+            log.warnf("Standby server is not in the expected %s state: %s", ServerState.AVAILABLE, state);
+        }
+        final String bootLogFile = properties.get(BOOT_LOG_FILE);
+        if (bootLogFile != null) {
+            switchBootLog(bootLogFile);
+        }
+        setEnvironment(getEnvironment().assign(properties));
+        log.infof("Standby server assigned to %s", getEnvironment().getServerBaseDir());
+    }
+
+    /**
+     * Move the boot log, which the standby server opened under its own directory, to the assigned server's file
+     */
+    private void switchBootLog(final String bootLogFile) {
+        for (Handler handler : java.util.logging.Logger.getLogger("").getHandlers()) {
+            if (handler instanceof FileHandler) {
+                try {
+                    ((FileHandler) handler).setFileName(bootLogFile);
+                } catch (FileNotFoundException e) {
+                    log.warnf("Could not move the boot log to %s: %s", bootLogFile, e.getMessage());
+                }
+            }
+        }
+    }
+
     @Override
     public void stop() {
         if (stopping.getAndSet(true))
@@ -139,6 +193,18 @@ public class Server extends AbstractServer {
     }
 
 
+    private void preloadCoreClasses() {
+        // Initialize the classes every server start needs while waiting, rather than once the configuration arrives
+        final ClassLoader classLoader = Server.class.getClassLoader();
+        for (Class<?> clazz : CORE_CLASSES) {
+            try {
+                Class.forName(clazz.getName(), true, classLoader);
+            } catch (Throwable t) {
+                log.debugf(t, "Could not preload %s", clazz.getName());
+            }
+        }
+    }
+
     private void launchCommunicationHandlers() {
         ServerEnvironment env = getEnvironment();
         this.processManagerCommunicationHandler = ProcessManagerServerCommunicationHandler.create(env.getProcessName(), env.getProcessManagerAddress(), env.getProcessManagerPort(), pmCommandHandler);
@@ -186,6 +252,15 @@ public class Server extends AbstractServer {
         public void handleStopServer() {
             Server.this.stop();
         }
+
+        @Override
+        public void handleAssignServer(Map<String, String> properties) {
+            try {
+                Server.this.assign(properties);
+            } catch (IllegalStateException e) {
+                log.error("Error assigning server", e);
+            }
+        }
     }
 
     private class OutgoingPmCommmandHandler implements OutgoingPmCommandHandler {
@@ -200,6 +275,11 @@ public class Server extends AbstractServer {
             Server.this.reconnectToServerManager(address, port);
         }
 
+        @Override
+        public void handleResourceUsage(List<ProcessResourceSample> samples) {
+            log.warn("Wrong command received " + OutgoingPmCommand.RESOURCE_USAGE + " for server");
+        }
+
         @Override
         public void handleShutdown() {
             Server.this.stop();
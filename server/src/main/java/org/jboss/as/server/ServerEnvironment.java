@@ -29,6 +29,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.InetAddress;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -123,6 +124,7 @@ public class ServerEnvironment {
     private final File serverLogDir;
     private final File serverTempDir;
     private final boolean standalone;
+    private final boolean standby;
 
     private final InputStream stdin;
     private final PrintStream stdout;
@@ -130,7 +132,16 @@ public class ServerEnvironment {
 
     public ServerEnvironment(Properties props, InputStream stdin, PrintStream stdout, PrintStream stderr,
             String processName, InetAddress processManagerAddress, Integer processManagerPort, InetAddress serverManagerAddress, Integer serverManagerPort, boolean standalone) {
+        this(props, stdin, stdout, stderr, processName, processManagerAddress, processManagerPort, serverManagerAddress, serverManagerPort, standalone, false);
+    }
+
+    public ServerEnvironment(Properties props, InputStream stdin, PrintStream stdout, PrintStream stderr,
+            String processName, InetAddress processManagerAddress, Integer processManagerPort, InetAddress serverManagerAddress, Integer serverManagerPort, boolean standalone, boolean standby) {
         this.standalone = standalone;
+        if (standalone && standby) {
+            throw new IllegalArgumentException("A standalone server can not be a standby server");
+        }
+        this.standby = standby;
         if (props == null) {
             throw new IllegalArgumentException("props is null");
         }
@@ -185,6 +196,18 @@ public class ServerEnvironment {
         this.modulesDir = tmp;
         System.setProperty(MODULES_DIR, this.modulesDir.getAbsolutePath());
 
+        if (standby) {
+            // The server directories are only known, and only published as system properties, once the standby
+            // server is assigned to a server, so nothing can read the directories of the wrong server before that
+            this.serverBaseDir = null;
+            this.serverConfigurationDir = null;
+            this.serverDataDir = null;
+            this.serverDeployDir = null;
+            this.serverLogDir = null;
+            this.serverTempDir = null;
+            return;
+        }
+
         tmp = getFileFromProperty(SERVER_BASE_DIR);
         if (tmp == null) {
             tmp = new File(this.homeDir, "standalone");
@@ -349,6 +372,34 @@ public class ServerEnvironment {
         return standalone;
     }
 
+    /**
+     * Whether this is a standby server, which was started before the server manager knew which server it would be
+     * assigned to. The server directories of a standby server are {@code null}, see {@link #assign(Map)}.
+     *
+     * @return <code>true</code> if this is a standby server
+     */
+    public boolean isStandby() {
+        return standby;
+    }
+
+    /**
+     * Create the environment of the server a standby server has been assigned to. The server's system properties are
+     * set, and the server directories derived from them, for the first time.
+     *
+     * @param properties the system properties of the server
+     * @return the environment of the assigned server
+     */
+    ServerEnvironment assign(Map<String, String> properties) {
+        if (!standby) {
+            throw new IllegalStateException("Only a standby server can be assigned");
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            System.setProperty(property.getKey(), property.getValue());
+        }
+        return new ServerEnvironment(new Properties(System.getProperties()), stdin, stdout, stderr, processName,
+                processManagerAddress, processManagerPort, serverManagerAddress, serverManagerPort, false, false);
+    }
+
     /**
      * Get a File from configuration.
      * @return the CanonicalFile form for the given name.
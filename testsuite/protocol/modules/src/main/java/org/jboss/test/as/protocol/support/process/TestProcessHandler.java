@@ -106,6 +106,10 @@ public class TestProcessHandler implements ProcessHandler {
         return processErrorStream.getInput();
     }
 
+    public int getPid() {
+        return -1;
+    }
+
     public MockServerProcess getMockServerProcess() {
         return mockServerProcess;
     }
@@ -34,7 +34,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
-import org.jboss.as.communication.SocketConnection;
+import org.jboss.as.communication.SelectorSocketListener.Connection;
 import org.jboss.as.process.CommandLineConstants;
 import org.jboss.as.process.ProcessManagerMaster;
 import org.jboss.as.process.RespawnPolicy;
@@ -163,7 +163,7 @@ public class TestProcessManager extends ProcessManagerMaster {
     }
 
     @Override
-    protected void acceptedConnection(String processName, SocketConnection connection) {
+    protected void acceptedConnection(String processName, Connection connection) {
         if (newConnectionListener != null)
             newConnectionListener.acceptedConnection(processName, connection);
     }
@@ -225,7 +225,7 @@ public class TestProcessManager extends ProcessManagerMaster {
     }
 
     public interface NewConnectionListener{
-        void acceptedConnection(String processName, SocketConnection conn);
+        void acceptedConnection(String processName, Connection conn);
     }
 
 }
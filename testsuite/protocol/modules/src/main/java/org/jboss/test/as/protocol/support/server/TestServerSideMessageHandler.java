@@ -21,12 +21,15 @@
  */
 package org.jboss.test.as.protocol.support.server;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.jboss.as.model.ServerModel;
+import org.jboss.as.process.ProcessResourceSample;
 import org.jboss.as.process.ProcessManagerProtocol.OutgoingPmCommandHandler;
 import org.jboss.as.server.manager.ServerManagerProtocol.ServerManagerToServerCommandHandler;
 
@@ -80,6 +83,10 @@ public class TestServerSideMessageHandler extends ServerManagerToServerCommandHa
         reconnectServer.add(addr + ":" + port);
     }
 
+    @Override
+    public void handleResourceUsage(List<ProcessResourceSample> samples) {
+    }
+
     public String waitForReconnectServer() throws InterruptedException {
         return waitForReconnectServer(10000);
     }
@@ -99,6 +106,10 @@ public class TestServerSideMessageHandler extends ServerManagerToServerCommandHa
     public void handleStopServer() {
     }
 
+    @Override
+    public void handleAssignServer(Map<String, String> properties) {
+    }
+
     @Override
     public void handleDown(String serverName) {
     }
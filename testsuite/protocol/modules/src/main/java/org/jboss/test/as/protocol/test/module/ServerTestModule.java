@@ -29,7 +29,7 @@ import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
-import org.jboss.as.communication.SocketConnection;
+import org.jboss.as.communication.SelectorSocketListener.Connection;
 import org.jboss.as.model.DomainModel;
 import org.jboss.as.model.HostModel;
 import org.jboss.as.model.ServerElement;
@@ -174,13 +174,13 @@ public class ServerTestModule extends AbstractProtocolTestModule implements Serv
         final BlockingQueue<ConnectionData> queue = new LinkedBlockingQueue<ConnectionData>();
 
         @Override
-        public void acceptedConnection(String processName, SocketConnection conn) {
+        public void acceptedConnection(String processName, Connection conn) {
             synchronized (this) {
                 queue.add(new ConnectionData(processName, conn));
             }
         }
 
-        public SocketConnection assertWaitForConnection(String expectedName) throws InterruptedException {
+        public Connection assertWaitForConnection(String expectedName) throws InterruptedException {
             ConnectionData data = queue.poll(10, TimeUnit.SECONDS);
             Assert.assertNotNull(data);
             Assert.assertEquals(expectedName, data.getProcessName());
@@ -190,9 +190,9 @@ public class ServerTestModule extends AbstractProtocolTestModule implements Serv
 
     private static class ConnectionData{
         String processName;
-        SocketConnection conn;
+        Connection conn;
 
-        public ConnectionData(String processName, SocketConnection conn) {
+        public ConnectionData(String processName, Connection conn) {
             this.processName = processName;
             this.conn = conn;
         }
@@ -201,7 +201,7 @@ public class ServerTestModule extends AbstractProtocolTestModule implements Serv
             return processName;
         }
 
-        public SocketConnection getConn() {
+        public Connection getConn() {
             return conn;
         }
     }